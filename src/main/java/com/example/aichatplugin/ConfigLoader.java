@@ -9,9 +9,14 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import org.bukkit.Material;
 
 /**
@@ -65,13 +70,30 @@ public class ConfigLoader {
     private static final int DEFAULT_TIMEOUT = 10;
     private static final double DEFAULT_TEMPERATURE = 0.7;
     private static final int DEFAULT_MAX_TOKENS = 150;
+    private static final boolean DEFAULT_STREAM_ENABLED = false;
+    private static final int DEFAULT_STREAM_FRAGMENT_MAX_CHARS = 60;
     private static final String DEFAULT_CHAT_PREFIX = "!";
     private static final int DEFAULT_DETECTION_RANGE = 10;
     private static final double DEFAULT_DAMAGE_THRESHOLD = 0.3;
     private static final long DEFAULT_DAMAGE_COOLDOWN = 1000;
+    private static final long DEFAULT_QUIT_FAREWELL_TIMEOUT = 5000;
     private static final int DEFAULT_MAX_HISTORY = 5;
     private static final int DEFAULT_MAX_CONTEXT = 1000;
+    private static final int DEFAULT_HISTORY_TOKEN_BUDGET = 2000;
+    private static final int DEFAULT_HISTORY_INFLUENCE_TOKEN_BUDGET = 200;
+    private static final boolean DEFAULT_HISTORY_SUMMARY_ENABLED = true;
+    private static final int DEFAULT_HISTORY_SUMMARY_TRIGGER = 3000;
+    private static final int DEFAULT_HISTORY_SUMMARY_KEEP_RECENT = 1000;
+    private static final int DEFAULT_HISTORY_SUMMARY_MAX_INPUT = 4000;
+    private static final int DEFAULT_HISTORY_SUMMARY_MAX_TOKENS = 300;
     private static final int DEFAULT_SAVE_INTERVAL = 300;
+    private static final int DEFAULT_HISTORY_LOG_COMPACT_RECORDS = 200;
+    private static final String DEFAULT_HISTORY_STORE_TYPE = "file";
+    private static final int DEFAULT_HISTORY_STORE_SEGMENTS = 16;
+    private static final double DEFAULT_HISTORY_STORE_COMPACT_RATIO = 0.5;
+    private static final String DEFAULT_HISTORY_COMPRESSION_CODEC = "deflate";
+    private static final int DEFAULT_HISTORY_IDLE_EVICT_SECONDS = 300;
+    private static final int DEFAULT_HISTORY_MAX_RESIDENT_MB = 64;
     
     // 性能优化默认值
     private static final boolean DEFAULT_AUTO_OPTIMIZE = false;
@@ -81,6 +103,17 @@ public class ConfigLoader {
     private static final double DEFAULT_TPS_THRESHOLD = 18.0;
     private static final int DEFAULT_ENTITY_THRESHOLD = 100;
     private static final int DEFAULT_CHUNK_THRESHOLD = 100;
+    private static final String DEFAULT_EXECUTION_BACKEND = "auto";
+    private static final int DEFAULT_STAGE_CONCURRENCY = 64;
+    private static final int DEFAULT_AI_CONCURRENCY_INITIAL = 8;
+    private static final int DEFAULT_AI_CONCURRENCY_MIN = 2;
+    private static final int DEFAULT_AI_CONCURRENCY_MAX = 64;
+    private static final int DEFAULT_AI_QUEUE_SIZE = 100;
+    private static final int DEFAULT_AI_QUEUE_TIMEOUT = 10000;
+    private static final int DEFAULT_MAILBOX_CAPACITY = 8;
+    private static final long DEFAULT_MAILBOX_TASK_TIMEOUT = 60000;
+    private static final List<String> DEFAULT_MAILBOX_LOW_PRIORITY_EVENTS =
+        Arrays.asList("damage", "potion_add", "potion_remove");
     
     // 调试默认值
     private static final boolean DEFAULT_DEBUG_ENABLED = false;
@@ -116,6 +149,34 @@ public class ConfigLoader {
     private static final boolean DEFAULT_VALIDATE_CONFIG = true;
     private static final boolean DEFAULT_CACHE_API_RESPONSES = false;
     private static final int DEFAULT_API_CACHE_TTL = 300;
+    private static final boolean DEFAULT_COALESCE_SYSTEM_EVENTS = false;
+    private static final boolean DEFAULT_EVENT_BATCHING_ENABLED = false;
+    private static final long DEFAULT_EVENT_BATCHING_WINDOW = 100;
+    private static final int DEFAULT_EVENT_BATCHING_MAX_SIZE = 8;
+    private static final int DEFAULT_EVENT_BATCHING_MAX_TOKENS_PER_ITEM = 60;
+    private static final List<String> DEFAULT_EVENT_BATCHING_EVENTS =
+        Arrays.asList("damage", "potion_add", "potion_remove", "level_up");
+    private static final long DEFAULT_ENVIRONMENT_SNAPSHOT_TICK_BUDGET = 1000;
+    private static final int DEFAULT_ENVIRONMENT_SNAPSHOT_MAX_ENTITIES = 32;
+    private static final boolean DEFAULT_EVENT_AGGREGATION_ENABLED = true;
+    private static final long DEFAULT_EVENT_AGGREGATION_WINDOW = 1500;
+    private static final int DEFAULT_EVENT_AGGREGATION_MAX_EVENTS = 10;
+    private static final double DEFAULT_EVENT_AGGREGATION_DAMAGE_THRESHOLD = 10.0;
+    private static final boolean DEFAULT_SEMANTIC_CACHE_ENABLED = false;
+    private static final String DEFAULT_SEMANTIC_CACHE_SIMILARITY = "exact";
+    private static final double DEFAULT_SEMANTIC_CACHE_THRESHOLD = 0.8;
+    private static final int DEFAULT_SEMANTIC_CACHE_MAX_ENTRIES = 500;
+    private static final int DEFAULT_SEMANTIC_CACHE_MAX_MESSAGE_LENGTH = 30;
+    private static final String DEFAULT_KEY_POOL_STRATEGY = "least-loaded";
+    private static final int DEFAULT_KEY_POOL_REQUESTS_PER_MINUTE = 60;
+    private static final int DEFAULT_KEY_POOL_FAILURE_THRESHOLD = 3;
+    private static final int DEFAULT_KEY_POOL_EJECT_SECONDS = 60;
+    private static final String DEFAULT_PROVIDER_ROUTING = "latency";
+    private static final boolean DEFAULT_PROVIDER_FAILOVER = true;
+    private static final boolean DEFAULT_PROVIDER_HEDGE = false;
+    private static final int DEFAULT_PROVIDER_HEDGE_MIN_DELAY = 800;
+    private static final double DEFAULT_PROVIDER_HEDGE_PERCENTILE = 0.9;
+    private static final double DEFAULT_PROVIDER_HEDGE_BUDGET_PERCENT = 10.0;
     private static final boolean DEFAULT_DETAILED_ERROR_STACK = true;
     private static final boolean DEFAULT_PERFORMANCE_MONITORING = true;
     private static final int DEFAULT_MONITORING_INTERVAL = 500;
@@ -820,6 +881,46 @@ public class ConfigLoader {
         }
     }
     
+    /**
+     * 随请求发送的历史消息token预算，小于等于0表示不限制
+     */
+    public int getHistoryTokenBudget() {
+        synchronized(configLock) {
+            return config.getInt("history.token-budget", DEFAULT_HISTORY_TOKEN_BUDGET);
+        }
+    }
+    
+    // 🔧 滚动摘要配置
+    public boolean isHistorySummaryEnabled() {
+        synchronized(configLock) {
+            return config.getBoolean("history.summarize.enabled", DEFAULT_HISTORY_SUMMARY_ENABLED);
+        }
+    }
+    
+    public int getHistorySummaryTriggerTokens() {
+        synchronized(configLock) {
+            return config.getInt("history.summarize.trigger-tokens", DEFAULT_HISTORY_SUMMARY_TRIGGER);
+        }
+    }
+    
+    public int getHistorySummaryKeepRecentTokens() {
+        synchronized(configLock) {
+            return config.getInt("history.summarize.keep-recent-tokens", DEFAULT_HISTORY_SUMMARY_KEEP_RECENT);
+        }
+    }
+    
+    public int getHistorySummaryMaxInputTokens() {
+        synchronized(configLock) {
+            return config.getInt("history.summarize.max-input-tokens", DEFAULT_HISTORY_SUMMARY_MAX_INPUT);
+        }
+    }
+    
+    public int getHistorySummaryMaxTokens() {
+        synchronized(configLock) {
+            return config.getInt("history.summarize.max-tokens", DEFAULT_HISTORY_SUMMARY_MAX_TOKENS);
+        }
+    }
+    
     public boolean isConversationPersistenceEnabled() {
         synchronized(configLock) {
             return config.getBoolean("history.save-enabled", false);
@@ -838,6 +939,63 @@ public class ConfigLoader {
         }
     }
     
+    // 🔧 历史追加日志配置
+    public int getHistoryLogCompactRecords() {
+        synchronized(configLock) {
+            return Math.max(1, config.getInt("history.log.compact-records", DEFAULT_HISTORY_LOG_COMPACT_RECORDS));
+        }
+    }
+    
+    public boolean isHistoryLogSync() {
+        synchronized(configLock) {
+            return config.getBoolean("history.log.sync", false);
+        }
+    }
+    
+    // 🔧 历史存储配置（修改后需重启）
+    public String getHistoryStoreType() {
+        synchronized(configLock) {
+            return config.getString("history.store.type", DEFAULT_HISTORY_STORE_TYPE);
+        }
+    }
+    
+    public int getHistoryStoreSegments() {
+        synchronized(configLock) {
+            return Math.max(1, Math.min(256, config.getInt("history.store.segments", DEFAULT_HISTORY_STORE_SEGMENTS)));
+        }
+    }
+    
+    public double getHistoryStoreCompactRatio() {
+        synchronized(configLock) {
+            return Math.max(0.1, Math.min(0.9, config.getDouble("history.store.compact-ratio", DEFAULT_HISTORY_STORE_COMPACT_RATIO)));
+        }
+    }
+    
+    /**
+     * 🔧 新快照使用的压缩编码（deflate / fast / stored），已有快照按各自记录的编码读取
+     */
+    public String getHistoryCompressionCodec() {
+        synchronized(configLock) {
+            return config.getString("history.compression.codec", DEFAULT_HISTORY_COMPRESSION_CODEC);
+        }
+    }
+    
+    // 🔧 常驻内存的历史配置
+    public int getHistoryIdleEvictSeconds() {
+        synchronized(configLock) {
+            return Math.max(0, config.getInt("history.memory.idle-evict-seconds", DEFAULT_HISTORY_IDLE_EVICT_SECONDS));
+        }
+    }
+    
+    /**
+     * 离线玩家历史的内存预算（字节），0表示不限制
+     */
+    public long getHistoryMemoryBudgetBytes() {
+        synchronized(configLock) {
+            return Math.max(0, config.getInt("history.memory.max-resident-mb", DEFAULT_HISTORY_MAX_RESIDENT_MB)) * 1024L * 1024L;
+        }
+    }
+    
     // 🔧 角色一致性保护配置
     public boolean isRoleProtectionEnabled() {
         synchronized(configLock) {
@@ -851,12 +1009,31 @@ public class ConfigLoader {
         }
     }
     
+    public int getHistoryInfluenceTokenBudget() {
+        synchronized(configLock) {
+            return config.getInt("advanced.history-influence-token-budget", DEFAULT_HISTORY_INFLUENCE_TOKEN_BUDGET);
+        }
+    }
+    
     public int getAiResponseSummaryLength() {
         synchronized(configLock) {
             return config.getInt("advanced.ai-response-summary-length", 30);
         }
     }
     
+    // 🔧 流式响应配置
+    public boolean isStreamEnabled() {
+        synchronized(configLock) {
+            return config.getBoolean("ai.stream", DEFAULT_STREAM_ENABLED);
+        }
+    }
+    
+    public int getStreamFragmentMaxChars() {
+        synchronized(configLock) {
+            return Math.max(10, config.getInt("ai.stream-fragment-max-chars", DEFAULT_STREAM_FRAGMENT_MAX_CHARS));
+        }
+    }
+    
     // 玩家档案设置
     public boolean isPlayerProfilePersistenceEnabled() {
         synchronized(configLock) {
@@ -1039,6 +1216,25 @@ public class ConfigLoader {
         }
     }
     
+    /**
+     * 获取环境快照每tick可占用的主线程时间
+     * @return 时间预算(微秒)
+     */
+    public long getEnvironmentSnapshotTickBudget() {
+        synchronized(configLock) {
+            return config.getLong("environment.snapshot.tick-budget-us", DEFAULT_ENVIRONMENT_SNAPSHOT_TICK_BUDGET);
+        }
+    }
+    
+    /**
+     * 获取单个环境快照最多记录的实体数
+     */
+    public int getEnvironmentSnapshotMaxEntities() {
+        synchronized(configLock) {
+            return config.getInt("environment.snapshot.max-entities", DEFAULT_ENVIRONMENT_SNAPSHOT_MAX_ENTITIES);
+        }
+    }
+    
     // 性能优化配置（统一版本）
     public boolean isAutoOptimizeEnabled() {
         synchronized(configLock) {
@@ -1071,6 +1267,85 @@ public class ConfigLoader {
         }
     }
     
+    // 🔧 处理阶段执行后端
+    public String getExecutionBackend() {
+        synchronized(configLock) {
+            return config.getString("performance.execution-backend", DEFAULT_EXECUTION_BACKEND);
+        }
+    }
+    
+    public int getStageConcurrency() {
+        synchronized(configLock) {
+            return Math.max(1, config.getInt("performance.stage-concurrency", DEFAULT_STAGE_CONCURRENCY));
+        }
+    }
+    
+    // 🔧 AI请求自适应并发限制
+    public int getAiConcurrencyInitial() {
+        synchronized(configLock) {
+            return config.getInt("performance.ai-concurrency.initial", DEFAULT_AI_CONCURRENCY_INITIAL);
+        }
+    }
+    
+    public int getAiConcurrencyMin() {
+        synchronized(configLock) {
+            return config.getInt("performance.ai-concurrency.min", DEFAULT_AI_CONCURRENCY_MIN);
+        }
+    }
+    
+    public int getAiConcurrencyMax() {
+        synchronized(configLock) {
+            return config.getInt("performance.ai-concurrency.max", DEFAULT_AI_CONCURRENCY_MAX);
+        }
+    }
+    
+    public int getAiQueueSize() {
+        synchronized(configLock) {
+            return config.getInt("performance.ai-concurrency.queue-size", DEFAULT_AI_QUEUE_SIZE);
+        }
+    }
+    
+    public int getAiQueueTimeout() {
+        synchronized(configLock) {
+            return config.getInt("performance.ai-concurrency.queue-timeout-ms", DEFAULT_AI_QUEUE_TIMEOUT);
+        }
+    }
+    
+    // 🔧 玩家邮箱（按玩家串行处理事件）
+    public int getMailboxCapacity() {
+        synchronized(configLock) {
+            return Math.max(1, config.getInt("performance.mailbox.capacity", DEFAULT_MAILBOX_CAPACITY));
+        }
+    }
+    
+    public long getMailboxTaskTimeout() {
+        synchronized(configLock) {
+            return config.getLong("performance.mailbox.task-timeout-ms", DEFAULT_MAILBOX_TASK_TIMEOUT);
+        }
+    }
+    
+    public List<String> getMailboxLowPriorityEvents() {
+        synchronized(configLock) {
+            if (!config.isList("performance.mailbox.low-priority-events")) {
+                return DEFAULT_MAILBOX_LOW_PRIORITY_EVENTS;
+            }
+            return config.getStringList("performance.mailbox.low-priority-events");
+        }
+    }
+    
+    // 🔧 按类别的事件队列上限
+    public int getEventQueueSize(String eventClass, int defaultSize) {
+        synchronized(configLock) {
+            return Math.max(1, config.getInt("performance.event-queues." + eventClass + ".queue-size", defaultSize));
+        }
+    }
+    
+    public long getEventQueueMaxAge(String eventClass, long defaultMaxAge) {
+        synchronized(configLock) {
+            return config.getLong("performance.event-queues." + eventClass + ".max-age-ms", defaultMaxAge);
+        }
+    }
+    
     // 硬件监控阈值
     public int getMinCpuCores() {
         synchronized(configLock) {
@@ -1493,6 +1768,198 @@ public class ConfigLoader {
         }
     }
     
+    public boolean isSystemEventCoalescingEnabled() {
+        synchronized(configLock) {
+            return config.getBoolean("advanced.coalesce-system-events", DEFAULT_COALESCE_SYSTEM_EVENTS);
+        }
+    }
+    
+    // 🔧 系统事件微批处理
+    public boolean isEventBatchingEnabled() {
+        synchronized(configLock) {
+            return config.getBoolean("advanced.event-batching.enabled", DEFAULT_EVENT_BATCHING_ENABLED);
+        }
+    }
+    
+    public long getEventBatchingWindow() {
+        synchronized(configLock) {
+            return config.getLong("advanced.event-batching.window-ms", DEFAULT_EVENT_BATCHING_WINDOW);
+        }
+    }
+    
+    public int getEventBatchingMaxSize() {
+        synchronized(configLock) {
+            return config.getInt("advanced.event-batching.max-batch-size", DEFAULT_EVENT_BATCHING_MAX_SIZE);
+        }
+    }
+    
+    public int getEventBatchingMaxTokensPerItem() {
+        synchronized(configLock) {
+            return config.getInt("advanced.event-batching.max-tokens-per-item", DEFAULT_EVENT_BATCHING_MAX_TOKENS_PER_ITEM);
+        }
+    }
+    
+    public List<String> getEventBatchingEvents() {
+        synchronized(configLock) {
+            if (!config.isList("advanced.event-batching.events")) {
+                return DEFAULT_EVENT_BATCHING_EVENTS;
+            }
+            return config.getStringList("advanced.event-batching.events");
+        }
+    }
+    
+    // 🔧 语义缓存配置
+    public boolean isSemanticCacheEnabled() {
+        synchronized(configLock) {
+            return config.getBoolean("advanced.semantic-cache.enabled", DEFAULT_SEMANTIC_CACHE_ENABLED);
+        }
+    }
+    
+    public String getSemanticCacheSimilarity() {
+        synchronized(configLock) {
+            return config.getString("advanced.semantic-cache.similarity", DEFAULT_SEMANTIC_CACHE_SIMILARITY);
+        }
+    }
+    
+    public double getSemanticCacheThreshold() {
+        synchronized(configLock) {
+            return config.getDouble("advanced.semantic-cache.similarity-threshold", DEFAULT_SEMANTIC_CACHE_THRESHOLD);
+        }
+    }
+    
+    public int getSemanticCacheMaxEntries() {
+        synchronized(configLock) {
+            return config.getInt("advanced.semantic-cache.max-entries", DEFAULT_SEMANTIC_CACHE_MAX_ENTRIES);
+        }
+    }
+    
+    public int getSemanticCacheMaxMessageLength() {
+        synchronized(configLock) {
+            return config.getInt("advanced.semantic-cache.max-message-length", DEFAULT_SEMANTIC_CACHE_MAX_MESSAGE_LENGTH);
+        }
+    }
+    
+    /**
+     * 各问题类别的缓存存活时间（毫秒），0表示该类别不缓存
+     */
+    public Map<String, Long> getSemanticCacheTtls() {
+        synchronized(configLock) {
+            Map<String, Long> ttls = new HashMap<>();
+            ttls.put("time", config.getLong("advanced.semantic-cache.ttl.time", 30) * 1000L);
+            ttls.put("safety", config.getLong("advanced.semantic-cache.ttl.safety", 20) * 1000L);
+            ttls.put("location", config.getLong("advanced.semantic-cache.ttl.location", 120) * 1000L);
+            ttls.put("general", config.getLong("advanced.semantic-cache.ttl.general", 300) * 1000L);
+            return ttls;
+        }
+    }
+    
+    /**
+     * 🔧 API密钥池：settings.api-key 加上 settings.api-keys 中的额外密钥
+     * api-keys 的条目可以是字符串（权重1），也可以是 {key, weight}
+     * @return 按配置顺序排列的 密钥 -> 权重
+     */
+    public Map<String, Integer> getApiKeyWeights() {
+        Map<String, Integer> keys = new LinkedHashMap<>();
+        String primary = getApiKey();
+        if (primary != null && !primary.isEmpty()) {
+            keys.put(primary, 1);
+        }
+        synchronized(configLock) {
+            List<?> entries = config.getList("settings.api-keys");
+            if (entries == null) {
+                return keys;
+            }
+            for (Object entry : entries) {
+                if (entry instanceof String) {
+                    String key = ((String) entry).trim();
+                    if (!key.isEmpty()) {
+                        keys.put(key, 1);
+                    }
+                } else if (entry instanceof Map) {
+                    Map<?, ?> map = (Map<?, ?>) entry;
+                    Object key = map.get("key");
+                    Object weight = map.get("weight");
+                    if (key != null && !key.toString().trim().isEmpty()) {
+                        int w = weight instanceof Number ? ((Number) weight).intValue() : 1;
+                        keys.put(key.toString().trim(), Math.max(1, w));
+                    }
+                }
+            }
+        }
+        return keys;
+    }
+    
+    public String getKeyPoolStrategy() {
+        synchronized(configLock) {
+            return config.getString("advanced.key-pool.strategy", DEFAULT_KEY_POOL_STRATEGY);
+        }
+    }
+    
+    public int getKeyPoolRequestsPerMinute() {
+        synchronized(configLock) {
+            return config.getInt("advanced.key-pool.requests-per-minute", DEFAULT_KEY_POOL_REQUESTS_PER_MINUTE);
+        }
+    }
+    
+    public int getKeyPoolFailureThreshold() {
+        synchronized(configLock) {
+            return config.getInt("advanced.key-pool.failure-threshold", DEFAULT_KEY_POOL_FAILURE_THRESHOLD);
+        }
+    }
+    
+    public int getKeyPoolEjectSeconds() {
+        synchronized(configLock) {
+            return config.getInt("advanced.key-pool.eject-seconds", DEFAULT_KEY_POOL_EJECT_SECONDS);
+        }
+    }
+    
+    // 🔧 多提供者路由配置
+    public String getProviderRouting() {
+        synchronized(configLock) {
+            return config.getString("providers.routing", DEFAULT_PROVIDER_ROUTING);
+        }
+    }
+    
+    public boolean isProviderFailoverEnabled() {
+        synchronized(configLock) {
+            return config.getBoolean("providers.failover", DEFAULT_PROVIDER_FAILOVER);
+        }
+    }
+    
+    public boolean isProviderHedgeEnabled() {
+        synchronized(configLock) {
+            return config.getBoolean("providers.hedge-enabled", DEFAULT_PROVIDER_HEDGE);
+        }
+    }
+    
+    public int getProviderHedgeMinDelay() {
+        synchronized(configLock) {
+            return config.getInt("providers.hedge-min-delay-ms", DEFAULT_PROVIDER_HEDGE_MIN_DELAY);
+        }
+    }
+    
+    public double getProviderHedgePercentile() {
+        synchronized(configLock) {
+            return config.getDouble("providers.hedge-percentile", DEFAULT_PROVIDER_HEDGE_PERCENTILE);
+        }
+    }
+    
+    public double getProviderHedgeBudgetPercent() {
+        synchronized(configLock) {
+            return config.getDouble("providers.hedge-budget-percent", DEFAULT_PROVIDER_HEDGE_BUDGET_PERCENT);
+        }
+    }
+    
+    /**
+     * 额外的OpenAI兼容端点，每项为 {name, url, model, api-key | api-keys}
+     */
+    public List<Map<?, ?>> getProviderEndpoints() {
+        synchronized(configLock) {
+            List<Map<?, ?>> endpoints = config.getMapList("providers.endpoints");
+            return endpoints != null ? endpoints : new ArrayList<>();
+        }
+    }
+    
     public int getApiCacheTtl() {
         synchronized(configLock) {
             return config.getInt("advanced.api-cache-ttl", DEFAULT_API_CACHE_TTL);
@@ -1544,6 +2011,15 @@ public class ConfigLoader {
         }
     }
 
+    /**
+     * 获取告别消息的截止时间（毫秒），超过后放弃生成
+     */
+    public long getQuitFarewellTimeout() {
+        synchronized(configLock) {
+            return config.getLong("events.quit.farewell-timeout", DEFAULT_QUIT_FAREWELL_TIMEOUT);
+        }
+    }
+
     /**
      * 获取玩家退出事件冷却时间
      */
@@ -1607,6 +2083,43 @@ public class ConfigLoader {
         }
     }
 
+    /**
+     * 是否把短时间内的同类事件聚合为一条摘要
+     */
+    public boolean isEventAggregationEnabled() {
+        synchronized(configLock) {
+            return config.getBoolean("events.aggregation.enabled", DEFAULT_EVENT_AGGREGATION_ENABLED);
+        }
+    }
+    
+    /**
+     * 获取事件聚合窗口时长
+     * @return 窗口时长(毫秒)
+     */
+    public long getEventAggregationWindow() {
+        synchronized(configLock) {
+            return config.getLong("events.aggregation.window-ms", DEFAULT_EVENT_AGGREGATION_WINDOW);
+        }
+    }
+    
+    /**
+     * 获取聚合窗口内触发立即输出的事件数
+     */
+    public int getEventAggregationMaxEvents() {
+        synchronized(configLock) {
+            return config.getInt("events.aggregation.max-events", DEFAULT_EVENT_AGGREGATION_MAX_EVENTS);
+        }
+    }
+    
+    /**
+     * 获取聚合窗口内触发立即输出的累计伤害
+     */
+    public double getEventAggregationDamageThreshold() {
+        synchronized(configLock) {
+            return config.getDouble("events.aggregation.damage-threshold", DEFAULT_EVENT_AGGREGATION_DAMAGE_THRESHOLD);
+        }
+    }
+
     /**
      * 获取全局事件冷却时间
      */
@@ -11,10 +11,17 @@ import org.bukkit.configuration.file.YamlConfiguration;
 import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.atomic.AtomicInteger;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import com.example.aichatplugin.util.HistoryBuffer;
+import com.example.aichatplugin.util.HistoryCodec;
+import com.example.aichatplugin.util.HistoryCodecs;
 import com.example.aichatplugin.util.HistoryCompressor;
+import com.example.aichatplugin.util.HistoryLog;
+import com.example.aichatplugin.util.HistoryStore;
+import com.example.aichatplugin.util.SegmentHistoryStore;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.CompletableFuture;
@@ -22,6 +29,13 @@ import java.util.stream.Collectors;
 import java.nio.file.Path;
 import org.bukkit.Location;
 import com.example.aichatplugin.util.PromptBuilder;
+import com.example.aichatplugin.util.StageExecutor;
+import com.example.aichatplugin.util.PlayerMailboxes;
+import com.example.aichatplugin.util.PriorityEventScheduler;
+import com.example.aichatplugin.util.SemanticResponseCache;
+import com.example.aichatplugin.util.TokenCounter;
+import com.example.aichatplugin.ai.AdaptiveConcurrencyLimiter;
+import com.example.aichatplugin.ai.MessagePrefix;
 
 /**
  * 对话管理器
@@ -60,15 +74,40 @@ public class ConversationManager {
     // 使用复合版本标识
     private final Map<UUID, String> historyVersions = new ConcurrentHashMap<>();
     
-    // 消息缓存
-    private ConcurrentHashMap<UUID, JsonArray> messageCache = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<UUID, Boolean> historyChanged = new ConcurrentHashMap<>();
+    // 🔧 每个玩家已编码的请求前缀（系统消息+历史），随历史追加增量更新
+    private final Map<UUID, MessagePrefix> requestPrefixes = new ConcurrentHashMap<>();
+    private final ConfigChangeListener prefixInvalidator = this::invalidateRequestPrefixes;
+    
+    // 🔧 滚动摘要：较早的对话压缩后随系统提示词发送
+    private final Map<UUID, String> historySummaries = new ConcurrentHashMap<>();
+    private final HistorySummarizer summarizer;
     
     // 环境缓存
     private final Map<UUID, CachedEnvironment> envCache = new ConcurrentHashMap<>();
     
     // 对话历史记录
-    private final Map<UUID, List<com.example.aichatplugin.Message>> conversationHistory = new ConcurrentHashMap<>();
+    // 🔧 列式存储，读取（构建提示词、保存）取无锁快照；写入和与之相关的脏标记、前缀更新仍在历史对象的锁内
+    private final Map<UUID, HistoryBuffer> conversationHistory = new ConcurrentHashMap<>();
+    
+    // 🔧 历史持久化：快照 + 追加日志，保存时只写入新消息；玩家首次访问（或加入）时才从存储加载
+    private final HistoryStore historyStore;
+    // 非追加修改（截断、清空）的次数，与已持久化时的值不同则需要重写快照
+    private final Map<UUID, Integer> historyGenerations = new ConcurrentHashMap<>();
+    private final Map<UUID, PersistedHistory> persistedHistory = new ConcurrentHashMap<>();
+    // 按UUID分条的保存锁，加载、保存和移出内存互斥（不随历史玩家数增长）
+    private final Object[] saveLocks = new Object[64];
+    
+    // 🔧 常驻内存的历史：在线玩家常驻，离线玩家空闲超时或超出内存预算（按最近访问）时写回并移出
+    private final Set<UUID> onlinePlayers = ConcurrentHashMap.newKeySet();
+    private final Map<UUID, Long> lastHistoryAccess = new ConcurrentHashMap<>();
+    private final Map<UUID, Long> residentBytes = new ConcurrentHashMap<>();
+    private final AtomicLong totalResidentBytes = new AtomicLong(0);
+    private final AtomicBoolean evictionScheduled = new AtomicBoolean(false);
+    private final AtomicLong historyLoads = new AtomicLong(0);
+    private final AtomicLong historyLoadNanos = new AtomicLong(0);
+    private final AtomicLong prefetchedJoins = new AtomicLong(0);
+    private final AtomicLong evictedIdle = new AtomicLong(0);
+    private final AtomicLong evictedBudget = new AtomicLong(0);
     
     // 配置常量（只保留一组）
     private static final int BATCH_SAVE_SIZE = 50;
@@ -90,18 +129,28 @@ public class ConversationManager {
     private static final int MAX_TASKS_PER_CORE = 2; // 每核心最大任务数
     
     private final AtomicInteger pendingTasks = new AtomicInteger(0);
-    private final ConcurrentMap<UUID, BlockingQueue<Runnable>> playerQueues = new ConcurrentHashMap<>();
+    
+    // 🔧 玩家邮箱：同一玩家的事件串行且有序，不同玩家在接收阶段上并行
+    private final PlayerMailboxes mailboxes;
+    // 🔧 邮箱按事件类别分级进入接收阶段，低优先级事件积压时丢弃
+    private final PriorityEventScheduler eventScheduler;
+    private final ConfigChangeListener mailboxReconfigurer = this::reconfigureMailboxes;
+    private final ConfigChangeListener semanticCacheReconfigurer = this::reconfigureSemanticCache;
     
     private final Map<UUID, Long> lastResponseTime = new ConcurrentHashMap<>();
     private final Map<UUID, String> lastResponse = new ConcurrentHashMap<>();
     private final Queue<ResponseTask> responseQueue = new ConcurrentLinkedQueue<>();
     private final ScheduledExecutorService responseScheduler = Executors.newSingleThreadScheduledExecutor();
     
-    @SuppressWarnings("unused")
-    private static final int MAX_PENDING_TASKS = 10;
-    
     // 消息处理管道
-    private final ExecutorService[] processingStages;
+    private final StageExecutor[] processingStages;
+    
+    // 🔧 系统事件微批处理（跨玩家合并为一次请求）
+    private final EventBatcher eventBatcher;
+    
+    // 🔧 语义缓存（按规范化消息 + 环境指纹）
+    private final SemanticResponseCache semanticCache;
+    private static final String[] STAGE_NAMES = {"receive", "process", "output"};
     private static final int STAGE_RECEIVE = 0;
     private static final int STAGE_PROCESS = 1;
     private static final int STAGE_OUTPUT = 2;
@@ -125,6 +174,21 @@ public class ConversationManager {
         }
     }
     
+    /**
+     * 已持久化的历史：消息数、对应的修改代数和摘要
+     */
+    private static final class PersistedHistory {
+        final int count;
+        final int generation;
+        final String summary;
+        
+        PersistedHistory(int count, int generation, String summary) {
+            this.count = count;
+            this.generation = generation;
+            this.summary = summary;
+        }
+    }
+    
     public ConversationManager(AIChatPlugin plugin) {
         this.plugin = plugin;
         this.config = plugin.getConfigLoader();
@@ -132,27 +196,64 @@ public class ConversationManager {
         this.environmentCollector = plugin.getEnvironmentCollector();
         this.profileManager = plugin.getProfileManager();
         
-        // 初始化处理阶段
-        this.processingStages = new ExecutorService[3];
+        // 系统提示词可能随配置重载变化，已编码的前缀全部失效
+        config.addConfigChangeListener(prefixInvalidator);
+        this.summarizer = new HistorySummarizer(plugin, this);
+        
+        // 初始化处理阶段（🔧 支持虚拟线程后端，每阶段用信号量限制并发）
+        String backendMode = config.getExecutionBackend();
+        int stageConcurrency = config.getStageConcurrency();
+        this.processingStages = new StageExecutor[3];
         for (int i = 0; i < 3; i++) {
-            final int stageIndex = i;
-            this.processingStages[i] = Executors.newFixedThreadPool(
-                getDynamicMaxTasks(),
-                r -> {
-                    Thread t = new Thread(r);
-                    t.setName("ConversationManager-Stage" + stageIndex);
-                    return t;
-                }
-            );
+            this.processingStages[i] = StageExecutor.create(
+                "ConversationManager-Stage" + i, backendMode, stageConcurrency, getDynamicMaxTasks());
         }
         
+        this.eventScheduler = new PriorityEventScheduler(
+            processingStages[STAGE_RECEIVE], processingStages[STAGE_RECEIVE].getMaxConcurrency());
+        configureEventQueues();
+        this.mailboxes = new PlayerMailboxes(
+            eventScheduler, plugin.getLogger(),
+            config.getMailboxCapacity(), config.getMailboxTaskTimeout(),
+            new HashSet<>(config.getMailboxLowPriorityEvents())
+        );
+        config.addConfigChangeListener(mailboxReconfigurer);
+        
+        this.eventBatcher = new EventBatcher(aiService::generateBackgroundResponseAsync, () ->
+            new EventBatcher.Settings(
+                config.getEventBatchingWindow(),
+                config.getEventBatchingMaxSize(),
+                config.getEventBatchingMaxTokensPerItem(),
+                config.getRoleSystem(),
+                config.getConversationPrompt("batch-events")
+            ));
+        
+        this.semanticCache = new SemanticResponseCache(
+            config.getSemanticCacheMaxEntries(),
+            config.getSemanticCacheSimilarity(),
+            config.getSemanticCacheThreshold(),
+            config.getSemanticCacheTtls(),
+            config.getSemanticCacheMaxMessageLength()
+        );
+        config.addConfigChangeListener(semanticCacheReconfigurer);
+        
         // 初始化executor
-        this.executor = Executors.newFixedThreadPool(
+        this.executor = StageExecutor.create(
+            "ConversationManager-IO", backendMode, Runtime.getRuntime().availableProcessors(),
             Runtime.getRuntime().availableProcessors()
         );
+        plugin.debug("处理阶段执行后端: " + (processingStages[0].isVirtual() ? "虚拟线程" : "线程池") + 
+            ", 每阶段并发上限: " + processingStages[0].getMaxConcurrency());
         
-        // 加载历史记录
-        loadHistory();
+        // 打开历史存储，在线玩家（插件重载时）的历史在后台预加载，其余玩家登录时再加载
+        for (int i = 0; i < saveLocks.length; i++) {
+            saveLocks[i] = new Object();
+        }
+        applyHistoryCodec();
+        this.historyStore = createHistoryStore();
+        for (Player online : Bukkit.getOnlinePlayers()) {
+            handlePlayerJoin(online.getUniqueId());
+        }
         
         // 启动保存任务
         startSaveTask();
@@ -173,6 +274,8 @@ public class ConversationManager {
             cleanup();
             cleanupOldConversations();
             cleanupEnvCache();
+            scheduleHistorySummaries();
+            scheduleHistoryEviction();
         }, 20L * 60, 20L * 60); // 每分钟执行一次
     }
     
@@ -189,39 +292,263 @@ public class ConversationManager {
     }
     
     /**
-     * 加载历史记录
+     * 🔧 按配置创建历史存储，分段存储打开失败时退回每人一个文件
      */
-    private void loadHistory() {
-        File dataFolder = new File(plugin.getDataFolder(), "history");
-        if (!dataFolder.exists()) {
+    private HistoryStore createHistoryStore() {
+        File directory = getHistoryDirectory();
+        HistoryLog fileStore = new HistoryLog(directory, plugin.getLogger(), config.isHistoryLogSync());
+        if ("segment".equalsIgnoreCase(config.getHistoryStoreType())) {
+            SegmentHistoryStore segmentStore = new SegmentHistoryStore(
+                new File(directory, "segments"),
+                plugin.getLogger(),
+                config.getHistoryStoreSegments(),
+                config.getHistoryStoreCompactRatio(),
+                fileStore,
+                config.isHistoryLogSync()
+            );
+            try {
+                segmentStore.open();
+                return segmentStore;
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "打开历史分段存储失败，改用每个玩家一个文件", e);
+                try {
+                    segmentStore.close();
+                } catch (IOException ignored) {
+                    // 已在关闭失败的存储
+                }
+            }
+        }
+        return fileStore;
+    }
+    
+    /**
+     * 🔧 按配置设置新快照的压缩编码
+     */
+    private void applyHistoryCodec() {
+        String name = config.getHistoryCompressionCodec();
+        HistoryCodec codec = HistoryCompressor.getCodec(name);
+        if (codec == null) {
+            plugin.getLogger().warning("未知的历史压缩编码: " + name + "，使用 " + HistoryCodecs.DEFLATE.getName());
+            codec = HistoryCodecs.DEFLATE;
+        }
+        HistoryCompressor.setDefaultCodec(codec);
+    }
+    
+    private Object saveLock(UUID playerId) {
+        return saveLocks[Math.floorMod(playerId.hashCode(), saveLocks.length)];
+    }
+    
+    /**
+     * 🔧 登录前预取玩家历史（在AsyncPlayerPreLoginEvent的异步线程调用，可以阻塞）
+     */
+    public void prefetchHistory(UUID playerId) {
+        ensureHistoryLoaded(playerId);
+    }
+    
+    /**
+     * 🔧 玩家加入：历史常驻内存；登录前没有预取到时在IO线程加载
+     */
+    public void handlePlayerJoin(UUID playerId) {
+        onlinePlayers.add(playerId);
+        lastHistoryAccess.put(playerId, System.currentTimeMillis());
+        if (conversationHistory.containsKey(playerId)) {
+            prefetchedJoins.incrementAndGet();
             return;
         }
+        try {
+            executor.submit(() -> ensureHistoryLoaded(playerId));
+        } catch (RejectedExecutionException e) {
+            // 正在关闭，首次访问时再加载
+        }
+    }
+    
+    /**
+     * 🔧 返回玩家的历史列表，尚未加载时从存储读取
+     * 与保存共用玩家的保存锁，加载和保存不会交错
+     */
+    private HistoryBuffer ensureHistoryLoaded(UUID playerId) {
+        lastHistoryAccess.put(playerId, System.currentTimeMillis());
+        HistoryBuffer history = conversationHistory.get(playerId);
+        if (history != null) {
+            return history;
+        }
+        synchronized (saveLock(playerId)) {
+            history = conversationHistory.get(playerId);
+            if (history != null) {
+                return history;
+            }
+            String summary = null;
+            long start = System.nanoTime();
+            history = new HistoryBuffer();
+            try {
+                // 读取快照并重放追加记录
+                List<com.example.aichatplugin.Message> loaded = historyStore.load(playerId);
+                summary = historyStore.loadSummary(playerId);
+                history.appendAll(loaded);
+                persistedHistory.put(playerId, new PersistedHistory(loaded.size(), historyGeneration(playerId), summary));
+                if (!loaded.isEmpty()) {
+                    plugin.debug("已加载玩家 " + playerId + " 的历史记录，消息数: " + loaded.size());
+                }
+            } catch (Exception e) {
+                // 读取失败时从空历史开始，下次保存重写快照
+                plugin.getLogger().warning("加载历史记录失败: " + playerId + " - " + e.getMessage());
+                history.clear();
+                summary = null;
+                persistedHistory.remove(playerId);
+            }
+            if (summary != null) {
+                historySummaries.put(playerId, summary);
+            }
+            historyVersions.put(playerId, generateVersionId(playerId));
+            requestPrefixes.remove(playerId);
+            setResidentBytes(playerId, history.estimateBytes());
+            conversationHistory.put(playerId, history);
+            historyLoads.incrementAndGet();
+            historyLoadNanos.addAndGet(System.nanoTime() - start);
+        }
         
-        File[] historyFiles = dataFolder.listFiles((dir, name) -> name.endsWith(".json"));
-        if (historyFiles == null) {
+        long budget = config.getHistoryMemoryBudgetBytes();
+        if (budget > 0 && totalResidentBytes.get() > budget) {
+            scheduleHistoryEviction();
+        }
+        return history;
+    }
+    
+    private void setResidentBytes(UUID playerId, long bytes) {
+        Long previous = residentBytes.put(playerId, bytes);
+        totalResidentBytes.addAndGet(bytes - (previous != null ? previous : 0L));
+    }
+    
+    /**
+     * 在IO线程执行一轮移出（已有一轮在排队时跳过）
+     */
+    private void scheduleHistoryEviction() {
+        if (!evictionScheduled.compareAndSet(false, true)) {
             return;
         }
+        try {
+            executor.submit(() -> {
+                try {
+                    evictOfflineHistories();
+                } finally {
+                    evictionScheduled.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            evictionScheduled.set(false);
+        }
+    }
+    
+    /**
+     * 🔧 把离线玩家的历史写回存储后移出内存：
+     * 离线且空闲超过 history.memory.idle-evict-seconds 的全部移出，
+     * 之后仍超出 history.memory.max-resident-mb 时按最近访问时间从旧到新继续移出
+     */
+    private void evictOfflineHistories() {
+        long now = System.currentTimeMillis();
+        long idleMillis = config.getHistoryIdleEvictSeconds() * 1000L;
+        long budget = config.getHistoryMemoryBudgetBytes();
+        
+        // 重新计算占用，校正增量估算（截断、摘要压缩后只会偏大）
+        List<UUID> offline = new ArrayList<>();
+        long total = 0;
+        for (Map.Entry<UUID, HistoryBuffer> entry : conversationHistory.entrySet()) {
+            long bytes = entry.getValue().estimateBytes();
+            residentBytes.put(entry.getKey(), bytes);
+            total += bytes;
+            if (!onlinePlayers.contains(entry.getKey())) {
+                offline.add(entry.getKey());
+            }
+        }
+        residentBytes.keySet().retainAll(conversationHistory.keySet());
+        totalResidentBytes.set(total);
+        offline.sort(Comparator.comparingLong(id -> lastHistoryAccess.getOrDefault(id, 0L)));
         
-        for (File file : historyFiles) {
-            try {
-                String fileName = file.getName();
-                UUID playerId = UUID.fromString(fileName.substring(0, fileName.length() - 5));
-                
-                // 读取压缩的历史记录
-                byte[] compressed = Files.readAllBytes(file.toPath());
-                List<com.example.aichatplugin.Message> history = HistoryCompressor.decompress(compressed);
-                
-                // 初始化历史记录
-                conversationHistory.put(playerId, history);
-                historyVersions.put(playerId, generateVersionId(playerId));
-                
-                plugin.getLogger().info("已加载玩家 " + playerId + " 的历史记录，消息数: " + history.size());
-            } catch (Exception e) {
-                plugin.getLogger().warning("加载历史记录失败: " + file.getName());
+        for (UUID playerId : offline) {
+            boolean idle = now - lastHistoryAccess.getOrDefault(playerId, 0L) >= idleMillis;
+            boolean overBudget = budget > 0 && totalResidentBytes.get() > budget;
+            if (!idle && !overBudget) {
+                break; // 按访问时间排序，后面的玩家更近期
+            }
+            if (evictHistory(playerId)) {
+                (idle ? evictedIdle : evictedBudget).incrementAndGet();
             }
         }
     }
     
+    /**
+     * 写回并移出一个离线玩家的历史
+     * @return false 表示玩家已重新上线、保存失败或保存期间又有新消息
+     */
+    private boolean evictHistory(UUID playerId) {
+        synchronized (saveLock(playerId)) {
+            if (onlinePlayers.contains(playerId)) {
+                return false;
+            }
+            if (dirtyPlayers.contains(playerId)) {
+                try {
+                    savePlayerHistory(playerId);
+                } catch (Exception e) {
+                    plugin.getLogger().warning("移出前保存历史失败，保留在内存中: " + playerId + " - " + e.getMessage());
+                    return false;
+                }
+            }
+            HistoryBuffer history = conversationHistory.get(playerId);
+            if (history == null) {
+                return false;
+            }
+            synchronized (history) {
+                if (dirtyPlayers.contains(playerId)) {
+                    return false;
+                }
+                conversationHistory.remove(playerId);
+            }
+            historyStore.release(playerId);
+            persistedHistory.remove(playerId);
+            historyGenerations.remove(playerId);
+            historySummaries.remove(playerId);
+            historyVersions.remove(playerId);
+            requestPrefixes.remove(playerId);
+            lastHistoryAccess.remove(playerId);
+            Long bytes = residentBytes.remove(playerId);
+            if (bytes != null) {
+                totalResidentBytes.addAndGet(-bytes);
+            }
+            plugin.debug("已将离线玩家的历史移出内存: " + playerId);
+            return true;
+        }
+    }
+    
+    /**
+     * 🔧 获取常驻历史统计
+     */
+    public Map<String, Object> getHistoryMemoryStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        int resident = conversationHistory.size();
+        int residentOnline = 0;
+        int senders = 0;
+        for (Map.Entry<UUID, HistoryBuffer> entry : conversationHistory.entrySet()) {
+            if (onlinePlayers.contains(entry.getKey())) {
+                residentOnline++;
+            }
+            senders += entry.getValue().getSenderCount();
+        }
+        long loads = historyLoads.get();
+        stats.put("residentPlayers", resident);
+        stats.put("residentOnline", residentOnline);
+        stats.put("residentOffline", resident - residentOnline);
+        stats.put("residentBytes", totalResidentBytes.get());
+        stats.put("internedSenders", senders);
+        stats.put("budgetBytes", config.getHistoryMemoryBudgetBytes());
+        stats.put("idleEvictSeconds", config.getHistoryIdleEvictSeconds());
+        stats.put("loads", loads);
+        stats.put("avgLoadMs", loads > 0 ? historyLoadNanos.get() / 1_000_000.0 / loads : 0.0);
+        stats.put("prefetchedJoins", prefetchedJoins.get());
+        stats.put("evictedIdle", evictedIdle.get());
+        stats.put("evictedBudget", evictedBudget.get());
+        return stats;
+    }
+    
     /**
      * 启动定期保存任务
      */
@@ -301,212 +628,97 @@ public class ConversationManager {
     
     /**
      * 保存玩家历史记录
+     * 🔧 只追加上次保存之后的新消息；历史被截断或清空过时重写快照，日志过长时合并进快照
      */
     private void savePlayerHistory(UUID playerId) throws Exception {
-        // 获取历史记录，如果不存在则跳过
-        List<com.example.aichatplugin.Message> historyList = conversationHistory.get(playerId);
-        if (historyList == null || historyList.isEmpty()) {
-            // 没有历史记录需要保存
-            dirtyPlayers.remove(playerId);
-            return;
-        }
-        
-        // 获取当前历史快照
-        List<com.example.aichatplugin.Message> snapshot;
-        synchronized (historyList) {
-            snapshot = new ArrayList<>(historyList);
-        }
-        
-        // 获取当前文件
-        File playerFile = getPlayerHistoryFile(playerId);
-        File tempFile = new File(playerFile.getParent(), playerFile.getName() + ".tmp");
-        
-        try {
-            byte[] compressed;
-            if (playerFile.exists()) {
-                // 读取现有压缩数据
-                byte[] existingData = Files.readAllBytes(playerFile.toPath());
-                // 使用增量压缩
-                compressed = HistoryCompressor.compressDelta(snapshot, existingData);
-            } else {
-                // 首次压缩
-                compressed = HistoryCompressor.compress(snapshot);
+        synchronized (saveLock(playerId)) {
+            // 获取历史记录，如果不存在（已从内存移除）则跳过
+            HistoryBuffer history = conversationHistory.get(playerId);
+            if (history == null) {
+                dirtyPlayers.remove(playerId);
+                return;
             }
             
-            // 写入临时文件
-            Files.write(tempFile.toPath(), compressed);
-            
-            // 使用更健壮的原子重命名操作
-            safeReplaceFile(tempFile, playerFile);
-            
-            // 更新版本号
-            updateHistoryVersion(playerId);
-            
-            // 保存成功后移除脏标记
-            dirtyPlayers.remove(playerId);
-            
-            // 清理过期备份
-            cleanupOldBackups(playerId);
+            // 获取当前历史快照（在锁内取走脏标记，之后的新消息会重新标记）
+            HistoryBuffer.Snapshot snapshot;
+            int generation;
+            synchronized (history) {
+                snapshot = history.snapshot();
+                generation = historyGeneration(playerId);
+                dirtyPlayers.remove(playerId);
+            }
+            String summary = historySummaries.get(playerId);
             
-        } catch (Exception e) {
-            // 清理临时文件
-            if (tempFile.exists()) {
-                try {
-                    tempFile.delete();
-                } catch (Exception deleteEx) {
-                    plugin.getLogger().warning("清理临时文件失败: " + deleteEx.getMessage());
+            try {
+                PersistedHistory persisted = persistedHistory.get(playerId);
+                if (snapshot.isEmpty() && summary == null) {
+                    // 历史已被清空或全部过期
+                    historyStore.delete(playerId);
+                    persistedHistory.put(playerId, new PersistedHistory(0, generation, null));
+                    return;
+                }
+                
+                boolean rewrite = persisted == null || persisted.generation != generation
+                    || persisted.count > snapshot.size() || !historyStore.exists(playerId);
+                if (rewrite) {
+                    historyStore.writeSnapshot(playerId, snapshot.toMessages());
+                } else if (snapshot.size() > persisted.count) {
+                    historyStore.append(playerId, snapshot.toMessages(persisted.count, snapshot.size()));
+                }
+                
+                // 追加记录过多时合并进快照（在IO线程）
+                if (!rewrite && historyStore.needsCompaction(playerId, config.getHistoryLogCompactRecords())) {
+                    historyStore.writeSnapshot(playerId, snapshot.toMessages());
+                    plugin.debug("历史日志已合并进快照 - 玩家: " + playerId + ", 消息数: " + snapshot.size());
+                }
+                
+                // 摘要只在变化时写入
+                if (rewrite || !Objects.equals(summary, persisted.summary)) {
+                    historyStore.saveSummary(playerId, summary);
                 }
+                persistedHistory.put(playerId, new PersistedHistory(snapshot.size(), generation, summary));
+                
+                // 更新版本号
+                updateHistoryVersion(playerId);
+            } catch (Exception e) {
+                // 保存失败，保留脏标记等待重试（下次重写快照）
+                persistedHistory.remove(playerId);
+                dirtyPlayers.add(playerId);
+                throw e;
             }
-            throw e;
         }
     }
     
     /**
-     * 安全地替换文件，支持Windows和跨平台操作
-     * 
-     * @param tempFile 临时文件
-     * @param targetFile 目标文件
-     * @throws IOException 如果替换失败
+     * 玩家历史的非追加修改代数
      */
-    private void safeReplaceFile(File tempFile, File targetFile) throws IOException {
-        Path tempPath = tempFile.toPath();
-        Path targetPath = targetFile.toPath();
-        
-        try {
-            // 方案1：使用Files.move()进行原子替换
-            if (targetFile.exists()) {
-                // 在Windows下，需要先备份原文件
-                File backupFile = new File(targetFile.getParent(), targetFile.getName() + ".backup");
-                try {
-                    Files.move(targetPath, backupFile.toPath(), 
-                        java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-                    Files.move(tempPath, targetPath, 
-                        java.nio.file.StandardCopyOption.ATOMIC_MOVE);
-                    // 删除备份文件
-                    backupFile.delete();
-                } catch (Exception e) {
-                    // 如果失败，尝试恢复备份
-                    if (backupFile.exists() && !targetFile.exists()) {
-                        try {
-                            Files.move(backupFile.toPath(), targetPath);
-                        } catch (Exception restoreEx) {
-                            plugin.getLogger().severe("文件恢复失败: " + restoreEx.getMessage());
-                        }
-                    }
-                    throw e;
-                }
-            } else {
-                // 目标文件不存在，直接移动
-                Files.move(tempPath, targetPath, 
-                    java.nio.file.StandardCopyOption.ATOMIC_MOVE);
-            }
-        } catch (java.nio.file.AtomicMoveNotSupportedException e) {
-            // 方案2：如果不支持原子移动，使用复制+删除
-            plugin.getLogger().warning("文件系统不支持原子移动，使用备用方案");
-            safeCopyAndReplace(tempFile, targetFile);
-        } catch (Exception e) {
-            // 方案3：最后的备用方案，使用传统的重命名
-            plugin.getLogger().warning("Files.move()失败，尝试传统重命名: " + e.getMessage());
-            safeTraditionalReplace(tempFile, targetFile);
-        }
+    private int historyGeneration(UUID playerId) {
+        return historyGenerations.getOrDefault(playerId, 0);
     }
     
     /**
-     * 安全的复制替换方案（备用方案2）
+     * 历史被截断或清空后调用，下次保存时重写快照（调用方需持有历史列表锁）
      */
-    private void safeCopyAndReplace(File tempFile, File targetFile) throws IOException {
-        File backupFile = null;
-        try {
-            // 如果目标文件存在，先备份
-            if (targetFile.exists()) {
-                backupFile = new File(targetFile.getParent(), targetFile.getName() + ".backup");
-                Files.copy(targetFile.toPath(), backupFile.toPath(), 
-                    java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-            }
-            
-            // 复制临时文件到目标位置
-            Files.copy(tempFile.toPath(), targetFile.toPath(), 
-                java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-            
-            // 删除临时文件
-            tempFile.delete();
-            
-            // 删除备份文件
-            if (backupFile != null) {
-                backupFile.delete();
-            }
-        } catch (Exception e) {
-            // 如果失败，尝试恢复备份
-            if (backupFile != null && backupFile.exists()) {
-                try {
-                    Files.copy(backupFile.toPath(), targetFile.toPath(), 
-                        java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-                    backupFile.delete();
-                } catch (Exception restoreEx) {
-                    plugin.getLogger().severe("文件恢复失败: " + restoreEx.getMessage());
-                }
-            }
-            throw new IOException("复制替换文件失败: " + e.getMessage(), e);
-        }
+    private void markHistoryRewritten(UUID playerId) {
+        historyGenerations.merge(playerId, 1, Integer::sum);
+        dirtyPlayers.add(playerId);
     }
     
     /**
-     * 传统的安全替换方案（最后备用方案）
+     * 🔧 获取历史追加日志统计
      */
-    private void safeTraditionalReplace(File tempFile, File targetFile) throws IOException {
-        File backupFile = null;
-        boolean success = false;
-        
-        try {
-            // 如果目标文件存在，先重命名为备份
-            if (targetFile.exists()) {
-                backupFile = new File(targetFile.getParent(), targetFile.getName() + ".backup");
-                // 确保备份文件不存在
-                if (backupFile.exists()) {
-                    backupFile.delete();
-                }
-                
-                // 重命名目标文件为备份
-                if (!targetFile.renameTo(backupFile)) {
-                    throw new IOException("无法创建备份文件");
-                }
-            }
-            
-            // 重命名临时文件为目标文件
-            success = tempFile.renameTo(targetFile);
-            if (!success) {
-                throw new IOException("无法重命名临时文件到目标位置");
-            }
-            
-            // 删除备份文件
-            if (backupFile != null) {
-                backupFile.delete();
-            }
-            
-        } catch (Exception e) {
-            // 如果失败，尝试恢复备份
-            if (backupFile != null && backupFile.exists()) {
-                try {
-                    if (!success && !targetFile.exists()) {
-                        backupFile.renameTo(targetFile);
-                    }
-                } catch (Exception restoreEx) {
-                    plugin.getLogger().severe("文件恢复失败: " + restoreEx.getMessage());
-                }
-            }
-            throw new IOException("传统文件替换失败: " + e.getMessage(), e);
-        }
+    public Map<String, Object> getHistoryLogStats() {
+        Map<String, Object> stats = new LinkedHashMap<>(historyStore.getStats());
+        stats.put("compactRecords", config.getHistoryLogCompactRecords());
+        return stats;
     }
     
-    /**
-     * 获取玩家历史记录文件
-     */
-    private File getPlayerHistoryFile(UUID playerId) {
+    private File getHistoryDirectory() {
         File dataFolder = new File(plugin.getDataFolder(), "history");
         if (!dataFolder.exists()) {
             dataFolder.mkdirs();
         }
-        return new File(dataFolder, playerId.toString() + ".json");
+        return dataFolder;
     }
     
     /**
@@ -516,13 +728,17 @@ public class ConversationManager {
         long currentTime = System.currentTimeMillis();
         boolean hasChanges = false;
         
-        for (Map.Entry<UUID, List<com.example.aichatplugin.Message>> entry : conversationHistory.entrySet()) {
-            List<com.example.aichatplugin.Message> history = entry.getValue();
+        for (Map.Entry<UUID, HistoryBuffer> entry : conversationHistory.entrySet()) {
+            HistoryBuffer history = entry.getValue();
+            // 历史按时间顺序追加，过期消息只会在开头
+            if (history.isEmpty() || currentTime - history.snapshot().getTimestamp(0) <= MESSAGE_TIMEOUT) {
+                continue;
+            }
             synchronized (history) {
-                int originalSize = history.size();
-                history.removeIf(msg -> currentTime - msg.getTimestamp() > MESSAGE_TIMEOUT);
-                if (history.size() != originalSize) {
+                if (history.removeOlderThan(currentTime - MESSAGE_TIMEOUT) > 0) {
                     hasChanges = true;
+                    requestPrefixes.remove(entry.getKey());
+                    markHistoryRewritten(entry.getKey());
                 }
             }
         }
@@ -550,9 +766,9 @@ public class ConversationManager {
         
         try {
             // 写入新数据
-            for (Map.Entry<UUID, List<com.example.aichatplugin.Message>> entry : conversationHistory.entrySet()) {
+            for (Map.Entry<UUID, HistoryBuffer> entry : conversationHistory.entrySet()) {
                 String key = entry.getKey().toString();
-                List<com.example.aichatplugin.Message> history = entry.getValue();
+                List<com.example.aichatplugin.Message> history = entry.getValue().snapshot().toMessages();
                 
                 if (!history.isEmpty()) {
                     String section = key + ".";
@@ -610,40 +826,75 @@ public class ConversationManager {
             return;
         }
         
-        // 提交到接收阶段
-        processingStages[STAGE_RECEIVE].submit(() -> 
-            stage1Preprocess(player, message, type, args)
+        // 🔧 语义缓存所需的环境指纹需要在主线程采集
+        String envFingerprint = null;
+        if ("chat".equals(type) && semanticCache != null && config.isSemanticCacheEnabled()) {
+            try {
+                envFingerprint = environmentCollector.getEnvironmentFingerprint(player);
+            } catch (Exception e) {
+                plugin.debug("采集环境指纹失败，跳过语义缓存: " + e.getMessage());
+            }
+        }
+        final String fingerprint = envFingerprint;
+        
+        // 投递到玩家邮箱，上一个事件完成后才在接收阶段开始处理
+        boolean queued = mailboxes.submit(player.getUniqueId(), type, () -> 
+            stage1Preprocess(player, message, type, fingerprint, args)
         );
+        if (!queued) {
+            plugin.debug("玩家邮箱已满，丢弃事件 - 玩家: " + player.getName() + ", 类型: " + type);
+            recordError("mailbox_dropped");
+        }
     }
     
     /**
      * 第一阶段：预处理
+     * @return 该事件处理完成（回复已写入历史）时完成
      */
-    private void stage1Preprocess(Player player, String message, String type, String... args) {
+    private CompletableFuture<Void> stage1Preprocess(Player player, String message, String type, String fingerprint, String... args) {
         try {
             UUID playerId = player.getUniqueId();
             PlayerProfileManager.PlayerProfile profile = profileManager.getProfile(playerId);
-            List<com.example.aichatplugin.Message> history = getConversationHistory(playerId);
+            // 🔧 按token预算截取的历史副本，后续阶段不再读取可变的原列表
+            List<com.example.aichatplugin.Message> history = getHistoryWindow(playerId, config.getHistoryTokenBudget());
             String currentMessage = buildCurrentMessage(message, type, args);
             String sender = "chat".equals(type) ? player.getName() : "SYSTEM";
+            boolean batchable = !"chat".equals(type) && config.isEventBatchingEnabled()
+                && config.getEventBatchingEvents().contains(type);
             
             plugin.debug("预处理完成 - 玩家: " + player.getName() + ", 消息: " + currentMessage);
             
+            // 🔧 语义缓存命中时跳过环境收集和API请求
+            if (fingerprint != null) {
+                String cachedResponse = semanticCache.get(currentMessage, fingerprint);
+                if (cachedResponse != null) {
+                    plugin.debug("语义缓存命中 - 玩家: " + player.getName() + ", 环境指纹: " + fingerprint);
+                    return CompletableFuture.runAsync(() -> {
+                        addMessage(playerId, sender, currentMessage, false);
+                        addMessage(playerId, "AI", cachedResponse, true);
+                        responseQueue.offer(new ResponseTask(cachedResponse));
+                    }, processingStages[STAGE_OUTPUT]);
+                }
+            }
+            
             // 提交到处理阶段
-            processingStages[STAGE_PROCESS].submit(() -> 
-                stage2Process(player, playerId, profile, history, currentMessage, sender)
-            );
+            return CompletableFuture.supplyAsync(() -> 
+                stage2Process(player, playerId, profile, history, currentMessage, sender, fingerprint, batchable),
+                processingStages[STAGE_PROCESS]
+            ).thenCompose(done -> done);
         } catch (Exception e) {
             plugin.getLogger().log(Level.WARNING, "预处理消息时发生错误", e);
+            return CompletableFuture.completedFuture(null);
         }
     }
     
     /**
      * 第二阶段：处理
      */
-    private void stage2Process(Player player, UUID playerId, 
+    private CompletableFuture<Void> stage2Process(Player player, UUID playerId, 
                              PlayerProfileManager.PlayerProfile profile,
-                             List<com.example.aichatplugin.Message> history, String currentMessage, String sender) {
+                             List<com.example.aichatplugin.Message> history, String currentMessage, String sender,
+                             String fingerprint, boolean batchable) {
         try {
             // 🔧 智能环境收集策略：根据消息内容和频率决定是否收集环境信息
             boolean needsEnv = shouldCollectEnvironment(player, currentMessage, history);
@@ -656,19 +907,17 @@ public class ConversationManager {
                 lastKnownLocation.put(playerId, player.getLocation().clone());
                 
                 // 使用角色保护的prompt构建机制
-                getEnvironmentInfo(player).thenAccept(envInfo -> {
-                    String roleProtectedPrompt = buildRoleProtectedPrompt(history, currentMessage, sender, envInfo);
-                    stage3GenerateResponse(roleProtectedPrompt, playerId, sender, currentMessage, player);
-                }).exceptionally(envError -> {
+                return getEnvironmentInfo(player).exceptionally(envError -> {
                     // 🔧 改进：具体的环境信息收集异常处理
                     plugin.getLogger().log(Level.WARNING, "收集环境信息失败，使用无环境信息模式: " + envError.getMessage());
-                    String roleProtectedPrompt = buildRoleProtectedPrompt(history, currentMessage, sender, null);
-                    stage3GenerateResponse(roleProtectedPrompt, playerId, sender, currentMessage, player);
                     return null;
+                }).thenCompose(envInfo -> {
+                    String roleProtectedPrompt = buildRoleProtectedPrompt(history, currentMessage, sender, envInfo);
+                    return stage3GenerateResponse(roleProtectedPrompt, playerId, sender, currentMessage, player, fingerprint, batchable);
                 });
             } else {
                 String roleProtectedPrompt = buildRoleProtectedPrompt(history, currentMessage, sender, null);
-                stage3GenerateResponse(roleProtectedPrompt, playerId, sender, currentMessage, player);
+                return stage3GenerateResponse(roleProtectedPrompt, playerId, sender, currentMessage, player, fingerprint, batchable);
             }
         } catch (IllegalArgumentException e) {
             // 🔧 改进：参数验证异常
@@ -686,6 +935,7 @@ public class ConversationManager {
                 ", 消息: " + currentMessage + ", 类型: " + e.getClass().getSimpleName(), e);
             recordError("message_processing_error");
         }
+        return CompletableFuture.completedFuture(null);
     }
     
     /**
@@ -706,59 +956,79 @@ public class ConversationManager {
     
     /**
      * 第三阶段：生成响应
+     * 🔧 基于异步AI请求链式提交到输出阶段，等待网络期间不占用处理线程
+     * @param batchable 是否交给微批处理与其他玩家的系统事件合并请求
      */
-    private void stage3GenerateResponse(String prompt, UUID playerId, String sender, 
-                                      String currentMessage, Player player) {
-        try {
-            String response = generateResponseWithRetry(prompt, player);
+    private CompletableFuture<Void> stage3GenerateResponse(String prompt, UUID playerId, String sender, 
+                                      String currentMessage, Player player, String fingerprint, boolean batchable) {
+        // 🔧 流式模式：首个片段前失败时在回调中降级到普通请求
+        if (!batchable && config.isStreamEnabled()) {
+            return stage3StreamResponse(prompt, playerId, sender, currentMessage, player, fingerprint);
+        }
+        return stage3RequestResponse(prompt, playerId, sender, currentMessage, player, fingerprint, batchable);
+    }
+    
+    /**
+     * 第三阶段（普通请求）：完整响应返回后提交到输出阶段
+     */
+    private CompletableFuture<Void> stage3RequestResponse(String prompt, UUID playerId, String sender, 
+                                      String currentMessage, Player player, String fingerprint, boolean batchable) {
+        // 🔧 系统事件可选跨玩家合并相同请求
+        boolean shareAcrossPlayers = "SYSTEM".equals(sender) && config.isSystemEventCoalescingEnabled();
+        CompletableFuture<String> reply = batchable
+            ? eventBatcher.submit(player.getName(), currentMessage,
+                () -> generateResponseWithRetryAsync(prompt, player, shareAcrossPlayers))
+            : generateResponseWithRetryAsync(prompt, player, shareAcrossPlayers);
+        return reply.thenAcceptAsync(response -> {
             plugin.debug("生成响应 - 玩家: " + player.getName() + ", 响应: " + response);
             
-            if (response != null && !response.isEmpty()) {
-                // 🔧 简化：保持AI回复的自然性，仅做基本清理
-                final String finalResponse = cleanResponse(response);
-                
-                // 提交到输出阶段
-                processingStages[STAGE_OUTPUT].submit(() -> {
-                    try {
-                        addMessage(playerId, sender, currentMessage, false);
-                        addMessage(playerId, "AI", finalResponse, true);
-                        responseQueue.offer(new ResponseTask(finalResponse));
-                        plugin.debug("响应已加入队列 - 玩家: " + player.getName());
-                    } catch (IllegalStateException e) {
-                        // 🔧 改进：队列状态异常
-                        plugin.getLogger().warning("响应队列状态异常 - 玩家: " + player.getName() + ", 错误: " + e.getMessage());
-                    } catch (OutOfMemoryError e) {
-                        // 🔧 改进：内存不足异常
-                        plugin.getLogger().severe("内存不足，无法添加响应到队列 - 玩家: " + player.getName());
-                        recordError("response_queue_oom");
-                    } catch (Exception e) {
-                        // 🔧 改进：输出阶段异常的详细记录
-                        plugin.getLogger().log(Level.WARNING, "输出阶段处理失败 - 玩家: " + player.getName() + 
-                            ", 响应长度: " + finalResponse.length(), e);
-                        recordError("output_stage_error");
-                    }
-                });
-            } else {
+            if (response == null || response.isEmpty()) {
                 plugin.getLogger().warning("AI响应生成失败或为空 - 玩家: " + player.getName());
                 recordError("empty_ai_response");
+                return;
             }
-        } catch (IllegalArgumentException e) {
-            // 🔧 改进：提示词参数异常
-            plugin.getLogger().warning("AI响应生成参数错误 - 玩家: " + player.getName() + ", 错误: " + e.getMessage());
-            recordError("invalid_prompt_params");
-        } catch (SecurityException e) {
-            // 🔧 改进：安全相关异常
-            plugin.getLogger().warning("AI响应生成安全异常 - 玩家: " + player.getName() + ", 错误: " + e.getMessage());
-            recordError("ai_security_error");
-        } catch (OutOfMemoryError e) {
-            // 🔧 改进：内存不足异常
-            plugin.getLogger().severe("内存不足，无法生成AI响应 - 玩家: " + player.getName());
-            recordError("ai_response_oom");
-        } catch (Exception e) {
-            // 🔧 改进：AI响应生成的详细异常记录
-            plugin.getLogger().log(Level.SEVERE, "AI响应生成发生未预期错误 - 玩家: " + player.getName() + 
-                ", 提示词长度: " + prompt.length() + ", 类型: " + e.getClass().getSimpleName(), e);
-            recordError("ai_response_generation_error");
+            
+            // 🔧 简化：保持AI回复的自然性，仅做基本清理
+            final String finalResponse = cleanResponse(response);
+            try {
+                addMessage(playerId, sender, currentMessage, false);
+                addMessage(playerId, "AI", finalResponse, true);
+                responseQueue.offer(new ResponseTask(finalResponse));
+                if (fingerprint != null) {
+                    semanticCache.put(currentMessage, fingerprint, finalResponse);
+                }
+                plugin.debug("响应已加入队列 - 玩家: " + player.getName());
+            } catch (IllegalStateException e) {
+                // 🔧 改进：队列状态异常
+                plugin.getLogger().warning("响应队列状态异常 - 玩家: " + player.getName() + ", 错误: " + e.getMessage());
+            } catch (OutOfMemoryError e) {
+                // 🔧 改进：内存不足异常
+                plugin.getLogger().severe("内存不足，无法添加响应到队列 - 玩家: " + player.getName());
+                recordError("response_queue_oom");
+            }
+        }, processingStages[STAGE_OUTPUT]).exceptionally(e -> {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof AdaptiveConcurrencyLimiter.ShedException) {
+                offerFallbackResponse(player, cause);
+                return null;
+            }
+            // 🔧 改进：输出阶段异常的详细记录
+            plugin.getLogger().log(Level.WARNING, "输出阶段处理失败 - 玩家: " + player.getName() + 
+                ", 提示词长度: " + prompt.length(), e);
+            recordError("output_stage_error");
+            return null;
+        });
+    }
+    
+    /**
+     * 🔧 AI请求排队超时被丢弃时发送备用响应（不写入历史和语义缓存）
+     */
+    private void offerFallbackResponse(Player player, Throwable cause) {
+        plugin.debug("AI请求被并发限制丢弃 - 玩家: " + player.getName() + ", 原因: " + cause.getMessage());
+        recordError("ai_request_shed");
+        String response = fallbackResponse;
+        if (response != null && !response.isEmpty()) {
+            responseQueue.offer(new ResponseTask(response));
         }
     }
     
@@ -808,64 +1078,6 @@ public class ConversationManager {
         }
     }
     
-    /**
-     * 估算文本的token数量
-     * 使用基于字符遍历的快速算法，避免正则表达式开销
-     */
-    private int estimateTokenCount(String text) {
-        if (text == null || text.isEmpty()) {
-            return 0;
-        }
-        
-        int tokens = 0;
-        int length = text.length();
-        
-        for (int i = 0; i < length; i++) {
-            char c = text.charAt(i);
-            
-            // 中文字符：2 tokens
-            if (c >= '\u4e00' && c <= '\u9fa5') {
-                tokens += 2;
-                continue;
-            }
-            
-            // 英文字母：0.8 tokens
-            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
-                tokens += 0.8;
-                continue;
-            }
-            
-            // 数字：0.5 tokens
-            if (c >= '0' && c <= '9') {
-                tokens += 0.5;
-                continue;
-            }
-            
-            // 标点符号：0.3 tokens
-            if (isPunctuation(c)) {
-                tokens += 0.3;
-                continue;
-            }
-            
-            // 其他字符：1 token
-            tokens += 1;
-        }
-        
-        return (int) Math.ceil(tokens);
-    }
-    
-    /**
-     * 判断字符是否为标点符号
-     */
-    private boolean isPunctuation(char c) {
-        return c == '.' || c == ',' || c == '!' || c == '?' || c == ';' || c == ':' ||
-               c == '"' || c == '\'' || c == '(' || c == ')' || c == '[' || c == ']' ||
-               c == '{' || c == '}' || c == '<' || c == '>' || c == '/' || c == '\\' ||
-               c == '|' || c == '`' || c == '~' || c == '@' || c == '#' || c == '$' ||
-               c == '%' || c == '^' || c == '&' || c == '*' || c == '-' || c == '_' ||
-               c == '+' || c == '=' || c == ' ' || c == '\t' || c == '\n' || c == '\r';
-    }
-    
     /**
      * 🔧 构建简化的决策提示（让AI自主判断）
      */
@@ -879,30 +1091,30 @@ public class ConversationManager {
         prompt.append("你是Minecraft助手。判断回答这个问题是否需要了解玩家周围的环境信息（如位置、方块、实体等）。\n\n");
         
         // 1. 添加历史消息（控制token数量）
-        int startIndex = Math.max(0, history.size() - 2); // 减少到2条历史消息，节省token
         if (history.isEmpty()) {
             prompt.append("== 对话历史 ==\n新对话开始\n\n");
         } else {
             prompt.append("== 对话历史 ==\n");
-            while (startIndex < history.size()) {
-                StringBuilder tempPrompt = new StringBuilder(prompt);
-                for (int i = startIndex; i < history.size(); i++) {
-                    com.example.aichatplugin.Message msg = history.get(i);
-                    if (msg.isAI()) {
-                        tempPrompt.append("AI: ").append(msg.getContent().substring(0, Math.min(msg.getContent().length(), 50))).append("...\n");
-                    } else if (msg.getSender().equals("SYSTEM")) {
-                        tempPrompt.append("系统: ").append(msg.getContent()).append("\n");
-                    } else {
-                        tempPrompt.append("玩家: ").append(msg.getContent()).append("\n");
-                    }
-                }
-                
-                // 检查token数量
-                if (estimateTokenCount(tempPrompt.toString()) <= MAX_DECISION_TOKENS) {
-                    prompt = tempPrompt;
+            // 从最近的消息向前累加缓存的token数，一次确定起点（最多2条，节省token）
+            long budget = MAX_DECISION_TOKENS - TokenCounter.count(prompt.toString()) - TokenCounter.count(currentMessage);
+            int startIndex = history.size();
+            while (startIndex > Math.max(0, history.size() - 2)) {
+                int tokens = history.get(startIndex - 1).getTokenCount() + TokenCounter.MESSAGE_OVERHEAD;
+                if (tokens > budget) {
                     break;
                 }
-                startIndex++;
+                budget -= tokens;
+                startIndex--;
+            }
+            for (int i = startIndex; i < history.size(); i++) {
+                com.example.aichatplugin.Message msg = history.get(i);
+                if (msg.isAI()) {
+                    prompt.append("AI: ").append(msg.getContent().substring(0, Math.min(msg.getContent().length(), 50))).append("...\n");
+                } else if (msg.getSender().equals("SYSTEM")) {
+                    prompt.append("系统: ").append(msg.getContent()).append("\n");
+                } else {
+                    prompt.append("玩家: ").append(msg.getContent()).append("\n");
+                }
             }
             prompt.append("\n");
         }
@@ -920,6 +1132,69 @@ public class ConversationManager {
         return template.replace("{message}", currentMessage);
     }
     
+    /**
+     * 🔧 第三阶段（流式）：按句子分段推送，流结束后再写入完整历史
+     * 请求全程异步，不占用调用线程（通常是环境收集的完成线程）；推送任何片段前失败时降级到普通请求
+     */
+    private CompletableFuture<Void> stage3StreamResponse(String prompt, UUID playerId, String sender, 
+                                       String currentMessage, Player player, String fingerprint) {
+        // 输出阶段是多线程池，用链式future保证同一条回复的片段按顺序入队
+        AtomicReference<CompletableFuture<Void>> outputTail = 
+            new AtomicReference<>(CompletableFuture.completedFuture(null));
+        AtomicBoolean delivered = new AtomicBoolean(false);
+        
+        return aiService.generateStreamingResponseAsync(prompt, player, fragment -> {
+            delivered.set(true);
+            String cleanedFragment = cleanResponse(fragment);
+            outputTail.set(outputTail.get().thenRunAsync(
+                () -> responseQueue.offer(new ResponseTask(cleanedFragment)),
+                processingStages[STAGE_OUTPUT]));
+        }).handle((streamed, error) -> {
+            String response = streamed;
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                if (cause instanceof DeepSeekAIService.StreamInterruptedException) {
+                    plugin.getLogger().warning("流式响应中断，使用已接收内容 - 玩家: " + player.getName() + ", 错误: " + cause.getMessage());
+                    recordError("stream_interrupted");
+                    response = ((DeepSeekAIService.StreamInterruptedException) cause).getPartialContent();
+                } else if (cause instanceof AdaptiveConcurrencyLimiter.ShedException) {
+                    // 排队已超时，再降级到普通请求只会继续排队
+                    offerFallbackResponse(player, cause);
+                    return CompletableFuture.<Void>completedFuture(null);
+                } else if (!delivered.get()) {
+                    plugin.debug("流式请求失败，降级到普通请求 - 玩家: " + player.getName() + ", 错误: " + cause.getMessage());
+                    recordError("stream_fallback");
+                    return stage3RequestResponse(prompt, playerId, sender, currentMessage, player, fingerprint, false);
+                } else {
+                    plugin.getLogger().log(Level.WARNING, "流式响应处理失败 - 玩家: " + player.getName(), cause);
+                    recordError("stream_error");
+                    return outputTail.get();
+                }
+            }
+            
+            if (response == null || response.isEmpty()) {
+                return delivered.get()
+                    ? outputTail.get()
+                    : stage3RequestResponse(prompt, playerId, sender, currentMessage, player, fingerprint, false);
+            }
+            
+            // 流结束后才落盘完整的对话记录
+            final String finalResponse = cleanResponse(response);
+            return outputTail.get().thenRunAsync(() -> {
+                addMessage(playerId, sender, currentMessage, false);
+                addMessage(playerId, "AI", finalResponse, true);
+                if (fingerprint != null) {
+                    semanticCache.put(currentMessage, fingerprint, finalResponse);
+                }
+                plugin.debug("流式响应完成 - 玩家: " + player.getName() + ", 长度: " + finalResponse.length());
+            }, processingStages[STAGE_OUTPUT]).exceptionally(e -> {
+                plugin.getLogger().log(Level.WARNING, "输出阶段处理失败 - 玩家: " + player.getName(), e);
+                recordError("output_stage_error");
+                return null;
+            });
+        }).thenCompose(next -> next);
+    }
+    
     /**
      * 🔧 温和回复清理（保持AI自然表达）
      */
@@ -1000,55 +1275,62 @@ public class ConversationManager {
     }
     
     /**
-     * 带重试的响应生成
+     * 🔧 异步带重试的响应生成
+     * 重试间隔通过responseScheduler调度，不再Thread.sleep阻塞线程；最终失败时以null完成
      */
-    private String generateResponseWithRetry(String prompt, Player player) {
-        int retries = 0;
-        Exception lastException = null;
-        
-        while (retries < MAX_RETRIES) {
-            try {
-                String response = aiService.generateResponse(prompt, player);
-                if (response != null && !response.trim().isEmpty()) {
-                    plugin.debug("AI响应生成成功 - 玩家: " + player.getName() + ", 重试次数: " + retries);
-                    return response;
-                } else {
-                    plugin.getLogger().warning("AI服务返回空响应 - 玩家: " + player.getName() + ", 重试: " + retries);
-                    lastException = new RuntimeException("AI服务返回空响应");
-                }
-            } catch (Exception e) {
-                lastException = e;
+    private CompletableFuture<String> generateResponseWithRetryAsync(String prompt, Player player, boolean shareAcrossPlayers) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        attemptGenerateResponse(prompt, player, shareAcrossPlayers, 0, result);
+        return result;
+    }
+    
+    private void attemptGenerateResponse(String prompt, Player player, boolean shareAcrossPlayers, 
+                                         int retries, CompletableFuture<String> result) {
+        if (result.isDone()) {
+            return; // 已超过调用方的截止时间
+        }
+        aiService.generateResponseAsync(prompt, player, shareAcrossPlayers).whenComplete((response, error) -> {
+            if (error == null && response != null && !response.trim().isEmpty()) {
+                plugin.debug("AI响应生成成功 - 玩家: " + player.getName() + ", 重试次数: " + retries);
+                result.complete(response);
+                return;
+            }
+            
+            Throwable lastException = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause() : error;
+            // 🔧 并发限制排队超时：不重试，由调用方返回备用响应
+            if (lastException instanceof AdaptiveConcurrencyLimiter.ShedException) {
+                result.completeExceptionally(lastException);
+                return;
+            }
+            
+            if (lastException == null) {
+                plugin.getLogger().warning("AI服务返回空响应 - 玩家: " + player.getName() + ", 重试: " + retries);
+                lastException = new RuntimeException("AI服务返回空响应");
+            } else {
                 plugin.getLogger().warning("AI响应生成异常 - 玩家: " + player.getName() + 
                     ", 重试: " + retries + "/" + MAX_RETRIES + 
-                    ", 异常类型: " + e.getClass().getSimpleName() + 
-                    ", 错误信息: " + e.getMessage());
-                
-                // 如果是配置问题或API密钥问题，不需要重试
-                if (e.getMessage() != null && 
-                    (e.getMessage().contains("API密钥") || 
-                     e.getMessage().contains("401") || 
-                     e.getMessage().contains("Unauthorized"))) {
-                    plugin.getLogger().severe("API认证失败，停止重试 - 玩家: " + player.getName());
-                    break;
-                }
+                    ", 异常类型: " + lastException.getClass().getSimpleName() + 
+                    ", 错误信息: " + lastException.getMessage());
             }
             
-            retries++;
-            if (retries < MAX_RETRIES) {
+            // 如果是配置问题或API密钥问题，不需要重试
+            if (isAuthFailure(lastException)) {
+                plugin.getLogger().severe("API认证失败，停止重试 - 玩家: " + player.getName());
+            } else if (retries + 1 < MAX_RETRIES && !responseScheduler.isShutdown()) {
                 try {
-                    Thread.sleep(RETRY_DELAY);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    plugin.getLogger().warning("重试等待被中断 - 玩家: " + player.getName());
-                    break;
+                    responseScheduler.schedule(
+                        () -> attemptGenerateResponse(prompt, player, shareAcrossPlayers, retries + 1, result),
+                        RETRY_DELAY, TimeUnit.MILLISECONDS);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    plugin.debug("重试调度器已关闭，放弃重试 - 玩家: " + player.getName());
                 }
             }
-        }
-        
-        // 记录最终失败的详细信息
-        if (lastException != null) {
+            
+            // 记录最终失败的详细信息
             plugin.getLogger().severe("AI响应生成最终失败 - 玩家: " + player.getName() + 
-                ", 总重试次数: " + retries + 
+                ", 总重试次数: " + (retries + 1) + 
                 ", 最后异常: " + lastException.getClass().getSimpleName() + 
                 " - " + lastException.getMessage());
             
@@ -1056,23 +1338,49 @@ public class ConversationManager {
             if (config.isDebugEnabled()) {
                 plugin.getLogger().log(Level.SEVERE, "AI响应生成详细错误堆栈:", lastException);
             }
-        } else {
-            plugin.getLogger().severe("AI响应生成失败，原因未知 - 玩家: " + player.getName());
+            result.complete(null);
+        });
+    }
+    
+    /**
+     * 沿异常链检查是否为认证失败
+     */
+    private boolean isAuthFailure(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            String message = t.getMessage();
+            if (message != null && 
+                (message.contains("API密钥") || 
+                 message.contains("401") || 
+                 message.contains("Unauthorized"))) {
+                return true;
+            }
         }
-        
-        return null;
+        return false;
     }
     
     /**
      * 添加消息到历史记录
      */
     public void addMessage(UUID playerId, String sender, String content, boolean isAI) {
-        List<com.example.aichatplugin.Message> history = conversationHistory.computeIfAbsent(playerId, k -> new ArrayList<>());
-        synchronized (history) {
-            history.add(new com.example.aichatplugin.Message(sender, content, isAI));
-            dirtyPlayers.add(playerId);
-            updateHistoryVersion(playerId);
-            historyChanged.put(playerId, true);
+        long bytes = HistoryBuffer.estimateEntryBytes(content);
+        while (true) {
+            HistoryBuffer history = ensureHistoryLoaded(playerId);
+            synchronized (history) {
+                if (conversationHistory.get(playerId) != history) {
+                    continue; // 取得历史后被移出内存，重新加载
+                }
+                int tokens = history.append(sender, content, isAI, System.currentTimeMillis());
+                residentBytes.merge(playerId, bytes, Long::sum);
+                totalResidentBytes.addAndGet(bytes);
+                dirtyPlayers.add(playerId);
+                updateHistoryVersion(playerId);
+                MessagePrefix prefix = requestPrefixes.get(playerId);
+                if (prefix != null) {
+                    prefix.append(isAI ? "assistant" : "user", content, tokens);
+                    summarizer.maybeSchedule(playerId, prefix.snapshot().getHistoryTokenCount());
+                }
+                break;
+            }
         }
         
         plugin.debug("添加消息到历史记录 - 玩家: " + playerId + ", 发送者: " + sender + ", 内容: " + content);
@@ -1194,20 +1502,38 @@ public class ConversationManager {
         
         // 🔧 改进：清理所有数据结构
         try {
-            playerQueues.clear();
+            mailboxes.clearAll();
+            eventScheduler.shutdown();
+            config.removeConfigChangeListener(mailboxReconfigurer);
+            config.removeConfigChangeListener(semanticCacheReconfigurer);
             responseQueue.clear();
             envCache.clear();
-            messageCache.clear();
-            historyChanged.clear();
             lastEnvironmentCollection.clear();
             lastKnownLocation.clear();
             lastResponseTime.clear();
             lastResponse.clear();
             historyVersions.clear();
+            requestPrefixes.clear();
+            config.removeConfigChangeListener(prefixInvalidator);
+            summarizer.shutdown();
+            eventBatcher.shutdown();
+            historySummaries.clear();
             
             // 清理对话历史（注意并发安全）
             conversationHistory.clear();
             dirtyPlayers.clear();
+            persistedHistory.clear();
+            onlinePlayers.clear();
+            lastHistoryAccess.clear();
+            residentBytes.clear();
+            totalResidentBytes.set(0);
+            
+            // 保存已结束（或超时），关闭历史存储
+            try {
+                historyStore.close();
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "关闭历史存储时发生错误", e);
+            }
             
             plugin.getLogger().info("数据结构清理完成");
         } catch (Exception e) {
@@ -1239,32 +1565,39 @@ public class ConversationManager {
     }
     
     /**
-     * 获取玩家的对话历史
+     * 获取玩家的对话历史（副本）
      */
     public List<com.example.aichatplugin.Message> getConversationHistory(UUID playerId) {
-        return conversationHistory.getOrDefault(playerId, new ArrayList<>());
+        return ensureHistoryLoaded(playerId).snapshot().toMessages();
+    }
+    
+    /**
+     * 🔧 获取玩家历史的快照（不加锁、不复制）
+     */
+    public HistoryBuffer.Snapshot getHistorySnapshot(UUID playerId) {
+        return ensureHistoryLoaded(playerId).snapshot();
     }
     
     /**
      * 清空玩家的历史记录
      */
     public void clearPlayerHistory(UUID playerId) {
-        List<com.example.aichatplugin.Message> history = conversationHistory.get(playerId);
+        HistoryBuffer history = conversationHistory.get(playerId);
         if (history != null) {
             synchronized (history) {
                 history.clear();
-                dirtyPlayers.add(playerId);
+                markHistoryRewritten(playerId);
                 updateHistoryVersion(playerId);
-                historyChanged.put(playerId, true);
-                messageCache.remove(playerId);
+                requestPrefixes.remove(playerId);
             }
         }
+        historySummaries.remove(playerId);
         
-        // 删除历史记录文件
-        File historyFile = getPlayerHistoryFile(playerId);
-        if (historyFile.exists()) {
+        // 删除已保存的历史和摘要
+        synchronized (saveLock(playerId)) {
             try {
-                historyFile.delete();
+                historyStore.delete(playerId);
+                persistedHistory.remove(playerId);
                 plugin.getLogger().info("已删除玩家 " + playerId + " 的历史记录文件");
             } catch (Exception e) {
                 plugin.getLogger().warning("删除历史记录文件失败: " + e.getMessage());
@@ -1278,50 +1611,126 @@ public class ConversationManager {
      * 获取玩家的最后一条消息
      */
     public String getLastMessage(UUID playerId) {
-        List<com.example.aichatplugin.Message> history = getConversationHistory(playerId);
-        if (history.isEmpty()) {
-            return null;
-        }
+        HistoryBuffer.Snapshot history = getHistorySnapshot(playerId);
         
         // 从后往前找玩家的最后一条消息
         for (int i = history.size() - 1; i >= 0; i--) {
-            com.example.aichatplugin.Message msg = history.get(i);
-            if (!msg.isAI()) {
-                return msg.getContent();
+            if (!history.isAI(i)) {
+                return history.getContent(i);
             }
         }
         return null;
     }
     
     /**
-     * 获取缓存的消息JSON
+     * 🔧 获取已编码的请求前缀（系统消息+历史）
+     * 首次请求时完整编码一次，之后addMessage只追加新消息；
+     * 清空历史、过期清理和配置重载时失效，下次请求重新编码。
+     * 历史按history.token-budget截取最近的窗口（前缀和上二分查找）
      */
-    public JsonArray getCachedMessages(UUID playerId) {
-        String version = historyVersions.get(playerId);
-        if (version == null || historyChanged.getOrDefault(playerId, true)) {
-            List<com.example.aichatplugin.Message> history = getConversationHistory(playerId);
-            JsonArray messages = buildMessageJson(history);
-            messageCache.put(playerId, messages);
-            historyChanged.put(playerId, false);
-            return messages;
+    public MessagePrefix.Snapshot getRequestPrefix(UUID playerId) {
+        int budget = config.getHistoryTokenBudget();
+        HistoryBuffer history = ensureHistoryLoaded(playerId);
+        // 前缀已存在时直接取快照，只有重建时需要与追加互斥
+        MessagePrefix prefix = requestPrefixes.get(playerId);
+        if (prefix == null) {
+            synchronized (history) {
+                prefix = prefixOf(playerId, history);
+            }
         }
-        return messageCache.get(playerId);
+        return prefix.snapshot().window(budget);
     }
-
+    
+    /**
+     * 🔧 获取token数不超过预算的最近一段历史（副本）
+     * 起点在历史缓冲区的token前缀和上二分查找，不逐条累加
+     * @param tokenBudget token预算，小于等于0表示不限制
+     */
+    public List<com.example.aichatplugin.Message> getHistoryWindow(UUID playerId, int tokenBudget) {
+        HistoryBuffer.Snapshot history = getHistorySnapshot(playerId);
+        return history.toMessages(history.windowStart(tokenBudget), history.size());
+    }
+    
     /**
-     * 构建消息JSON
+     * 获取或重建玩家的请求前缀，调用方需持有history的锁
      */
-    private JsonArray buildMessageJson(List<com.example.aichatplugin.Message> history) {
-        JsonArray messages = new JsonArray();
-        for (com.example.aichatplugin.Message msg : history) {
-            JsonObject message = new JsonObject();
-            message.addProperty("sender", msg.getSender());
-            message.addProperty("content", msg.getContent());
-            message.addProperty("isAI", msg.isAI());
-            message.addProperty("timestamp", msg.getTimestamp());
-            messages.add(message);
+    private MessagePrefix prefixOf(UUID playerId, HistoryBuffer history) {
+        MessagePrefix prefix = requestPrefixes.get(playerId);
+        if (prefix == null) {
+            prefix = new MessagePrefix(buildSystemPrompt(playerId));
+            HistoryBuffer.Snapshot snapshot = history.snapshot();
+            for (int i = 0; i < snapshot.size(); i++) {
+                prefix.append(snapshot.isAI(i) ? "assistant" : "user", snapshot.getContent(i), snapshot.getTokenCount(i));
+            }
+            requestPrefixes.put(playerId, prefix);
+        }
+        return prefix;
+    }
+    
+    /**
+     * 系统提示词，有历史摘要时附加在后面
+     */
+    private String buildSystemPrompt(UUID playerId) {
+        String systemPrompt = config.getRoleSystem();
+        String summary = historySummaries.get(playerId);
+        if (summary == null || summary.isEmpty()) {
+            return systemPrompt;
+        }
+        String template = config.getConversationPrompt("with-summary");
+        String section = template != null && !template.isEmpty()
+            ? template.replace("{summary}", summary)
+            : "早先对话摘要：\n" + summary;
+        return systemPrompt != null ? systemPrompt + "\n\n" + section : section;
+    }
+    
+    /**
+     * 获取玩家的历史摘要，没有时返回null
+     */
+    public String getHistorySummary(UUID playerId) {
+        return historySummaries.get(playerId);
+    }
+    
+    /**
+     * 🔧 用摘要替换历史开头的count条消息
+     * 摘要生成期间历史可能已被清空、裁剪或重新加载，开头不再是生成时的那条消息时放弃
+     * @param basis 生成摘要时的历史快照
+     * @return 是否已应用
+     */
+    boolean applyHistorySummary(UUID playerId, HistoryBuffer.Snapshot basis, int count, String summary) {
+        HistoryBuffer history = conversationHistory.get(playerId);
+        if (history == null) {
+            return false;
+        }
+        synchronized (history) {
+            if (!history.removeFirst(basis, count)) {
+                return false;
+            }
+            historySummaries.put(playerId, summary);
+            requestPrefixes.remove(playerId);
+            markHistoryRewritten(playerId);
+            updateHistoryVersion(playerId);
+        }
+        return true;
+    }
+    
+    /**
+     * 定时检查已有请求前缀的玩家，历史超过阈值的安排摘要（积压较多时分多轮完成）
+     */
+    private void scheduleHistorySummaries() {
+        for (Map.Entry<UUID, MessagePrefix> entry : requestPrefixes.entrySet()) {
+            summarizer.maybeSchedule(entry.getKey(), entry.getValue().snapshot().getHistoryTokenCount());
         }
-        return messages;
+    }
+    
+    public Map<String, Object> getHistorySummaryStats() {
+        return summarizer.getStats();
+    }
+    
+    /**
+     * 配置重载后使全部请求前缀失效
+     */
+    private void invalidateRequestPrefixes() {
+        requestPrefixes.clear();
     }
 
     /**
@@ -1329,10 +1738,11 @@ public class ConversationManager {
      */
     private void cleanupOldConversations() {
         try {
+            // 未保存的空历史留给下次保存（删除已保存的数据）后再移除
             conversationHistory.entrySet().removeIf(entry -> {
-                if (entry.getValue().isEmpty()) {
-                    messageCache.remove(entry.getKey());
-                    historyChanged.remove(entry.getKey());
+                if (entry.getValue().isEmpty() && !dirtyPlayers.contains(entry.getKey())) {
+                    requestPrefixes.remove(entry.getKey());
+                    residentBytes.remove(entry.getKey());
                     return true;
                 }
                 return false;
@@ -1376,14 +1786,43 @@ public class ConversationManager {
         }
     }
 
-    public void handlePlayerQuit(Player player) {
-        if (!plugin.isEnabled()) return;
-        
+    /**
+     * 🔧 处理玩家退出
+     * 立即清理玩家状态；告别消息排在玩家邮箱中正在处理的事件之后异步生成，不阻塞调用线程（通常是主线程）
+     * @param farewell 是否生成告别消息（退出事件启用且不在冷却中）
+     */
+    public void handlePlayerQuit(Player player, boolean farewell) {
         UUID playerId = player.getUniqueId();
-        List<com.example.aichatplugin.Message> history = getConversationHistory(playerId);
+        
+        // 🔧 玩家状态立即清理，不等待网络；尚未开始的事件不再处理
+        mailboxes.clear(playerId);
+        // 历史保留到离线空闲超时（或超出内存预算）后再写回并移出
+        onlinePlayers.remove(playerId);
+        lastHistoryAccess.put(playerId, System.currentTimeMillis());
+        lastEnvironmentCollection.remove(playerId);
+        lastKnownLocation.remove(playerId);
+        envCache.remove(playerId);
+        
+        if (!farewell || !plugin.isEnabled()) {
+            return;
+        }
+        
+        // 玩家名在事件线程读取，之后的阶段不再访问已离线玩家的状态
+        String playerName = player.getName();
+        long deadline = config.getQuitFarewellTimeout();
+        if (!mailboxes.submit(playerId, "quit", () -> stage1Farewell(player, playerId, playerName, deadline))) {
+            plugin.debug("玩家邮箱已满，跳过告别消息 - 玩家: " + playerName);
+        }
+    }
+    
+    /**
+     * 🔧 告别消息：构建提示词后异步请求，超过截止时间仍未返回则放弃（不再重试）
+     */
+    private CompletableFuture<Void> stage1Farewell(Player player, UUID playerId, String playerName, long deadlineMillis) {
         StringBuilder fullPrompt = new StringBuilder();
         
         // 添加历史消息（最近3条）
+        List<com.example.aichatplugin.Message> history = getHistoryWindow(playerId, config.getHistoryTokenBudget());
         int startIndex = Math.max(0, history.size() - 3);
         if (history.isEmpty()) {
             fullPrompt.append("新对话开始\n");
@@ -1402,23 +1841,31 @@ public class ConversationManager {
         }
         
         // 添加退出消息（包含玩家名）
-        String quitMessage = player.getName() + " 离开了游戏";
+        String quitMessage = playerName + " " + buildCurrentMessage("", "quit");
         fullPrompt.append("系统事件: ").append(quitMessage).append("\n");
         
-        // 生成响应
-        String response = generateResponseWithRetry(fullPrompt.toString(), player);
-        if (response != null && !response.isEmpty()) {
-            addMessage(playerId, "SYSTEM", quitMessage, false);
-            addMessage(playerId, "AI", response, true);
-            responseQueue.offer(new ResponseTask(response));
+        CompletableFuture<String> farewell = generateResponseWithRetryAsync(fullPrompt.toString(), player, false);
+        if (deadlineMillis > 0) {
+            farewell.orTimeout(deadlineMillis, TimeUnit.MILLISECONDS);
         }
-        
-        // 清理玩家队列
-        playerQueues.remove(playerId);
-        
-        // 清理玩家相关的环境收集缓存
-        lastEnvironmentCollection.remove(playerId);
-        lastKnownLocation.remove(playerId);
+        return farewell.thenAcceptAsync(response -> {
+            if (response == null || response.isEmpty()) {
+                return;
+            }
+            String finalResponse = cleanResponse(response);
+            addMessage(playerId, "SYSTEM", quitMessage, false);
+            addMessage(playerId, "AI", finalResponse, true);
+            responseQueue.offer(new ResponseTask(finalResponse));
+        }, processingStages[STAGE_OUTPUT]).exceptionally(e -> {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof TimeoutException) {
+                plugin.debug("告别消息超过截止时间，已丢弃 - 玩家: " + playerName);
+                recordError("quit_farewell_timeout");
+            } else {
+                plugin.debug("生成告别消息失败 - 玩家: " + playerName + ", 错误: " + cause.getMessage());
+            }
+            return null;
+        });
     }
 
     /**
@@ -1437,8 +1884,11 @@ public class ConversationManager {
         this.config.set("history.max-history", maxHistory);
         this.config.set("history.max-context-length", maxContextLength);
         
-        // 清理历史记录
-        conversationHistory.clear();
+        // 历史内容与这些配置无关，常驻历史（含尚未保存的消息）保持不变，只让请求前缀按新配置重建
+        requestPrefixes.clear();
+        historyStore.setSync(this.config.isHistoryLogSync());
+        applyHistoryCodec();
+        reconfigureSemanticCache();
         
         plugin.debug("对话管理器配置已更新");
     }
@@ -1464,6 +1914,96 @@ public class ConversationManager {
         return fallbackResponse;
     }
 
+    /**
+     * 🔧 获取语义缓存统计
+     */
+    public Map<String, Object> getSemanticCacheStats() {
+        Map<String, Object> stats = semanticCache.getStats();
+        stats.put("enabled", config.isSemanticCacheEnabled());
+        return stats;
+    }
+    
+    /**
+     * 🔧 获取各处理阶段的并发与排队状态
+     */
+    public Map<String, Object> getStageStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (int i = 0; i < processingStages.length; i++) {
+            StageExecutor stage = processingStages[i];
+            Map<String, Object> stageStats = new LinkedHashMap<>();
+            stageStats.put("backend", stage.isVirtual() ? "virtual" : "platform");
+            stageStats.put("maxConcurrency", stage.getMaxConcurrency());
+            stageStats.put("active", stage.getActiveCount());
+            stageStats.put("queued", stage.getQueuedCount());
+            stats.put(STAGE_NAMES[i], stageStats);
+        }
+        return stats;
+    }
+    
+    /**
+     * 🔧 获取系统事件微批处理统计
+     */
+    public Map<String, Object> getEventBatchingStats() {
+        Map<String, Object> stats = eventBatcher.getStats();
+        stats.put("enabled", config.isEventBatchingEnabled());
+        return stats;
+    }
+    
+    /**
+     * 🔧 获取玩家邮箱统计（活跃邮箱、排队、合并与丢弃计数）
+     */
+    public Map<String, Object> getMailboxStats() {
+        return mailboxes.getStats();
+    }
+    
+    /**
+     * 配置重载后更新语义缓存的容量、相似度和存活时间
+     */
+    private void reconfigureSemanticCache() {
+        semanticCache.configure(
+            config.getSemanticCacheMaxEntries(),
+            config.getSemanticCacheSimilarity(),
+            config.getSemanticCacheThreshold(),
+            config.getSemanticCacheTtls(),
+            config.getSemanticCacheMaxMessageLength()
+        );
+    }
+    
+    /**
+     * 配置重载后更新邮箱限制
+     */
+    private void reconfigureMailboxes() {
+        mailboxes.configure(config.getMailboxCapacity(), config.getMailboxTaskTimeout(),
+            new HashSet<>(config.getMailboxLowPriorityEvents()));
+        configureEventQueues();
+    }
+    
+    /**
+     * 从配置读取各事件类别的队列上限和最大等待时间
+     */
+    private void configureEventQueues() {
+        for (PriorityEventScheduler.EventClass eventClass : PriorityEventScheduler.EventClass.values()) {
+            eventScheduler.configure(eventClass,
+                config.getEventQueueSize(eventClass.getKey(), eventClass.getDefaultQueueSize()),
+                config.getEventQueueMaxAge(eventClass.getKey(), eventClass.getDefaultMaxAgeMillis()));
+        }
+    }
+    
+    /**
+     * 🔧 运行模式变化时按类别收紧事件队列
+     * @param divisors 各类别的收紧除数，0表示丢弃该类别的全部事件
+     */
+    public void applyEventQueueLimits(Map<PriorityEventScheduler.EventClass, Integer> divisors) {
+        eventScheduler.tighten(divisors);
+    }
+    
+    /**
+     * 🔧 获取各事件类别的排队深度和丢弃计数
+     */
+    public Map<String, Object> getEventQueueStats() {
+        return eventScheduler.getStats();
+    }
+    
     /**
      * 获取动态最大任务数
      */
@@ -1541,29 +2081,6 @@ public class ConversationManager {
         historyVersions.put(playerId, generateVersionId(playerId));
     }
 
-    /**
-     * 清理过期备份
-     */
-    private void cleanupOldBackups(UUID playerId) {
-        File playerFile = getPlayerHistoryFile(playerId);
-        File backupDir = new File(playerFile.getParent(), "backups");
-        
-        if (backupDir.exists()) {
-            File[] backups = backupDir.listFiles((dir, name) -> 
-                name.startsWith(playerId.toString() + "_") && name.endsWith(".json")
-            );
-            
-            if (backups != null) {
-                long cutoff = System.currentTimeMillis() - 86400000; // 24小时
-                for (File backup : backups) {
-                    if (backup.lastModified() < cutoff) {
-                        backup.delete();
-                    }
-                }
-            }
-        }
-    }
-
     /**
      * 手动强制保存所有历史记录
      * 用于立即保存而不等待定时器
@@ -25,14 +25,26 @@ package com.example.aichatplugin;
 import org.bukkit.entity.Player;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonArray;
+import com.example.aichatplugin.ai.AIProvider;
+import com.example.aichatplugin.ai.AdaptiveConcurrencyLimiter;
+import com.example.aichatplugin.ai.ApiKeyPool;
+import com.example.aichatplugin.ai.ChatJson;
+import com.example.aichatplugin.ai.ChatRequest;
+import com.example.aichatplugin.ai.HedgePolicy;
+import com.example.aichatplugin.ai.OpenAICompatibleProvider;
+import com.example.aichatplugin.ai.ProviderRouter;
+import com.example.aichatplugin.performance.PerformanceMonitor;
+import com.example.aichatplugin.util.TinyLfuCache;
 import okhttp3.*;
+import okio.BufferedSource;
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
+import java.net.SocketTimeoutException;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.HashMap;
 import java.util.Random;
@@ -44,83 +56,23 @@ public class DeepSeekAIService {
     private final AIChatPlugin plugin;
     private final ConfigLoader configLoader;
     private final OkHttpClient client;
-    private final Gson gson;
     private final Random random;
-    private final Cache<String, String> responseCache;
-    private final List<String> apiKeys;
-    private final Map<UUID, String> playerKeyMap;
+    private final TinyLfuCache<String, String> responseCache;
+    private final ApiKeyPool keyPool;
+    private final Map<String, ApiKeyPool> endpointKeyPools = new ConcurrentHashMap<>();
+    private final ProviderRouter router;
+    private final HedgePolicy hedgePolicy = HedgePolicy.disabled();
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final ConfigChangeListener providerReloader = this::reloadProviders;
+    private final ScheduledExecutorService retryScheduler;
+    private final Map<String, CompletableFuture<String>> inFlightRequests = new ConcurrentHashMap<>();
+    private final AtomicLong upstreamCalls = new AtomicLong(0);
+    private final AtomicLong coalescedCalls = new AtomicLong(0);
+    private static final String SHARED_KEY_SCOPE = "*";
+    private static final String PRIMARY_PROVIDER = "deepseek";
     private static final int MAX_RETRIES = 3;
     private static final long INITIAL_RETRY_DELAY = 1000; // 1 second
-
-    /**
-     * 🔧 修复：线程安全的LRU缓存实现
-     */
-    private static class Cache<K, V> {
-        private final ConcurrentHashMap<K, CacheEntry<V>> cache;
-        private final int maxSize;
-        private final long ttl;
-        private final Object cleanupLock = new Object();
-
-        public Cache(int maxSize, long ttl) {
-            this.cache = new ConcurrentHashMap<>();
-            this.maxSize = maxSize;
-            this.ttl = ttl;
-        }
-
-        public V get(K key) {
-            CacheEntry<V> entry = cache.get(key);
-            if (entry == null || entry.isExpired(ttl)) {
-                if (entry != null) {
-                    cache.remove(key);
-                }
-                return null;
-            }
-            return entry.value;
-        }
-
-        public void put(K key, V value) {
-            cache.put(key, new CacheEntry<>(value));
-            
-            // 🔧 线程安全的大小控制
-            if (cache.size() > maxSize) {
-                synchronized (cleanupLock) {
-                    if (cache.size() > maxSize) {
-                        cleanupOldEntries();
-                    }
-                }
-            }
-        }
-        
-        // 🔧 新增：清理过期和多余的条目
-        private void cleanupOldEntries() {
-            long now = System.currentTimeMillis();
-            // 首先移除过期的条目
-            cache.entrySet().removeIf(entry -> entry.getValue().isExpired(ttl));
-            
-            // 如果仍然超过大小限制，移除最老的条目
-            if (cache.size() > maxSize) {
-                cache.entrySet().stream()
-                    .sorted((e1, e2) -> Long.compare(e1.getValue().timestamp, e2.getValue().timestamp))
-                    .limit(cache.size() - maxSize)
-                    .map(Map.Entry::getKey)
-                    .forEach(cache::remove);
-            }
-        }
-
-        private static class CacheEntry<V> {
-            private final V value;
-            private final long timestamp;
-
-            public CacheEntry(V value) {
-                this.value = value;
-                this.timestamp = System.currentTimeMillis();
-            }
-
-            public boolean isExpired(long ttl) {
-                return System.currentTimeMillis() - timestamp > ttl;
-            }
-        }
-    }
+    private static final int MAX_ASYNC_REQUESTS = 256;
 
     // 自定义异常类
     public static class RateLimitExceededException extends RuntimeException {
@@ -141,19 +93,34 @@ public class DeepSeekAIService {
         }
     }
 
+    /**
+     * 流式响应在推送部分内容后中断，携带已收到的内容
+     */
+    public static class StreamInterruptedException extends RuntimeException {
+        private final String partialContent;
+
+        public StreamInterruptedException(String partialContent, Throwable cause) {
+            super("流式响应中断", cause);
+            this.partialContent = partialContent;
+        }
+
+        public String getPartialContent() {
+            return partialContent;
+        }
+    }
+
     public DeepSeekAIService(AIChatPlugin plugin) {
         this.plugin = plugin;
         this.configLoader = plugin.getConfigLoader();
-        this.gson = new Gson();
         this.random = new Random();
         
-        // 初始化API密钥轮换
-        this.apiKeys = new ArrayList<>();
-        this.apiKeys.add(configLoader.getApiKey());
-        // 可以在这里添加更多API密钥
-        
-        // 初始化玩家-密钥映射
-        this.playerKeyMap = new ConcurrentHashMap<>();
+        // 🔧 初始化API密钥池，配置重载时同步更新密钥列表
+        this.keyPool = new ApiKeyPool(
+            configLoader.getApiKeyWeights(),
+            configLoader.getKeyPoolStrategy(),
+            configLoader.getKeyPoolRequestsPerMinute(),
+            configLoader.getKeyPoolFailureThreshold(),
+            configLoader.getKeyPoolEjectSeconds() * 1000L);
         
         // 配置OkHttpClient
         OkHttpClient.Builder builder = new OkHttpClient.Builder()
@@ -176,9 +143,40 @@ public class DeepSeekAIService {
         
         this.client = builder.build();
         
+        // 🔧 异步请求全部发往同一主机，放宽OkHttp默认的每主机5个并发限制
+        this.client.dispatcher().setMaxRequests(MAX_ASYNC_REQUESTS);
+        this.client.dispatcher().setMaxRequestsPerHost(MAX_ASYNC_REQUESTS);
+        
+        // 重试退避使用定时调度，不占用请求线程
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "DeepSeekAIService-Retry");
+            t.setDaemon(true);
+            return t;
+        });
+        
+        // 🔧 多提供者路由：settings中的DeepSeek端点为第一个提供者，其余来自providers.endpoints
+        this.router = new ProviderRouter(retryScheduler);
+        this.router.setLatencyFallback(quantile -> {
+            PerformanceMonitor monitor = plugin.getPerformanceMonitor();
+            return monitor != null ? monitor.getResponseTimePercentile("ai_request", quantile) : 0L;
+        });
+        configureProviders();
+        configLoader.addConfigChangeListener(providerReloader);
+        
+        // 🔧 自适应并发限制：超出上限的请求排队，排队超时后由调用方返回降级回复
+        this.concurrencyLimiter = new AdaptiveConcurrencyLimiter(
+            retryScheduler,
+            configLoader.getAiConcurrencyInitial(),
+            configLoader.getAiConcurrencyMin(),
+            configLoader.getAiConcurrencyMax(),
+            configLoader.getAiQueueSize());
+        // 对冲副本各自占用一个许可，与原请求一起计入并发
+        this.router.setHedgeLimiter(concurrencyLimiter, DeepSeekAIService::limiterOutcome);
+        
         // 初始化响应缓存
         if (configLoader.isApiResponseCachingEnabled()) {
-            this.responseCache = new Cache<>(1000, 300000); // 1000条缓存，5分钟TTL
+            // 🔧 W-TinyLFU缓存：1000条，TTL取自advanced.api-cache-ttl（默认5分钟）
+            this.responseCache = new TinyLfuCache<>(1000, configLoader.getApiCacheTtl() * 1000L);
         } else {
             this.responseCache = null;
         }
@@ -187,192 +185,463 @@ public class DeepSeekAIService {
     }
     
     /**
-     * 获取玩家的API密钥
+     * 配置重载后更新密钥池和提供者列表（保留仍在使用的密钥和提供者的统计）
+     */
+    private void reloadProviders() {
+        keyPool.configure(
+            configLoader.getApiKeyWeights(),
+            configLoader.getKeyPoolStrategy(),
+            configLoader.getKeyPoolRequestsPerMinute(),
+            configLoader.getKeyPoolFailureThreshold(),
+            configLoader.getKeyPoolEjectSeconds() * 1000L);
+        configureProviders();
+        plugin.debug("AI提供者已更新，提供者数量: " + router.getProviders().size());
+    }
+
+    /**
+     * 根据配置构建提供者列表
+     * providers.endpoints 的每一项: {name, url, model, api-key | api-keys}
+     */
+    private void configureProviders() {
+        List<AIProvider> providers = new ArrayList<>();
+        providers.add(new OpenAICompatibleProvider(
+            PRIMARY_PROVIDER, configLoader.getApiUrl(), configLoader.getModel(), keyPool, client));
+
+        Set<String> names = new HashSet<>();
+        names.add(PRIMARY_PROVIDER);
+        for (Map<?, ?> endpoint : configLoader.getProviderEndpoints()) {
+            Object name = endpoint.get("name");
+            Object url = endpoint.get("url");
+            if (name == null || url == null || !names.add(name.toString())) {
+                plugin.getLogger().warning("忽略无效或重名的AI提供者配置: " + endpoint);
+                continue;
+            }
+            Object model = endpoint.get("model");
+
+            Map<String, Integer> keys = new LinkedHashMap<>();
+            Object singleKey = endpoint.get("api-key");
+            if (singleKey != null && !singleKey.toString().isEmpty()) {
+                keys.put(singleKey.toString(), 1);
+            }
+            Object keyList = endpoint.get("api-keys");
+            if (keyList instanceof List) {
+                for (Object key : (List<?>) keyList) {
+                    if (key != null && !key.toString().isEmpty()) {
+                        keys.put(key.toString(), 1);
+                    }
+                }
+            }
+
+            ApiKeyPool pool = endpointKeyPools.computeIfAbsent(name.toString(), k -> new ApiKeyPool(
+                Collections.emptyMap(), configLoader.getKeyPoolStrategy(), configLoader.getKeyPoolRequestsPerMinute(),
+                configLoader.getKeyPoolFailureThreshold(), configLoader.getKeyPoolEjectSeconds() * 1000L));
+            pool.configure(keys, configLoader.getKeyPoolStrategy(), configLoader.getKeyPoolRequestsPerMinute(),
+                configLoader.getKeyPoolFailureThreshold(), configLoader.getKeyPoolEjectSeconds() * 1000L);
+
+            providers.add(new OpenAICompatibleProvider(name.toString(), url.toString(),
+                model != null ? model.toString() : configLoader.getModel(), pool, client));
+        }
+        endpointKeyPools.keySet().retainAll(names);
+
+        // 对冲策略原地更新，重载不重置已积累的预算
+        hedgePolicy.configure(
+            configLoader.isProviderHedgeEnabled(),
+            configLoader.getProviderHedgePercentile(),
+            configLoader.getProviderHedgeMinDelay(),
+            configLoader.getProviderHedgeBudgetPercent());
+        router.configure(providers,
+            configLoader.getProviderRouting(),
+            configLoader.isProviderFailoverEnabled(),
+            hedgePolicy);
+    }
+
+    /**
+     * 是否还有未被移出且有预算的密钥（决定限流后立即重试还是退避）
      */
-    private String getPlayerApiKey(UUID playerId) {
-        // 直接返回最新的API密钥，不使用缓存
-        return configLoader.getApiKey();
+    private boolean hasAvailableKey() {
+        if (keyPool.hasAvailableKey()) {
+            return true;
+        }
+        for (ApiKeyPool pool : endpointKeyPools.values()) {
+            if (pool.hasAvailableKey()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
      * 生成安全的缓存键
+     * @param playerId 玩家ID，为null时生成跨玩家共享的键（用于系统事件）
      */
     private String generateCacheKey(UUID playerId, String prompt) {
+        String scope = playerId != null ? playerId.toString() : SHARED_KEY_SCOPE;
         try {
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
             byte[] hash = digest.digest(prompt.getBytes(StandardCharsets.UTF_8));
-            return playerId + "|" + Base64.getEncoder().encodeToString(hash);
+            return scope + "|" + Base64.getEncoder().encodeToString(hash);
         } catch (NoSuchAlgorithmException e) {
             // 降级到普通哈希
-            return playerId + "|" + prompt.hashCode();
+            return scope + "|" + prompt.hashCode();
         }
     }
 
     /**
-     * 生成AI响应
+     * 生成AI响应（同步等待异步结果）
      */
     public String generateResponse(String prompt, Player player) {
-        return internalGenerate(prompt, player, true);
+        try {
+            return generateResponseAsync(prompt, player).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public CompletableFuture<String> generateResponseAsync(String prompt, Player player) {
+        return generateResponseAsync(prompt, player, false);
     }
 
     /**
-     * 内部生成方法，统一处理缓存和请求逻辑
+     * 🔧 异步生成AI响应
+     * 基于OkHttp enqueue，不阻塞调用线程；限流时通过定时调度退避重试。
+     * 相同缓存键的并发请求合并为一次上游调用（single-flight）
+     * @param shareAcrossPlayers 为true时缓存键不含玩家ID，不同玩家的相同提示词共享结果
      */
-    private String internalGenerate(String prompt, Player player, boolean useCache) {
+    public CompletableFuture<String> generateResponseAsync(String prompt, Player player, boolean shareAcrossPlayers) {
         // 错误注入测试
         if (configLoader.isErrorInjectionEnabled() && 
             random.nextInt(100) < configLoader.getErrorInjectionRate()) {
-            throw new RuntimeException("模拟错误注入");
+            return CompletableFuture.failedFuture(new RuntimeException("模拟错误注入"));
         }
 
-        // 构建缓存键：玩家ID + 消息SHA-256哈希
-        String cacheKey = generateCacheKey(player.getUniqueId(), prompt);
-        
-        // 检查缓存
-        if (useCache && responseCache != null) {
+        String cacheKey = generateCacheKey(shareAcrossPlayers ? null : player.getUniqueId(), prompt);
+        if (responseCache != null) {
             String cachedResponse = responseCache.get(cacheKey);
             if (cachedResponse != null) {
-                return cachedResponse;
+                return CompletableFuture.completedFuture(cachedResponse);
             }
         }
 
-        // 指数退避重试
-        int retry = 0;
-        long delay = INITIAL_RETRY_DELAY;
-        Exception lastException = null;
+        // 已有相同请求在途时直接共享其结果
+        CompletableFuture<String> result = new CompletableFuture<>();
+        CompletableFuture<String> inFlight = inFlightRequests.putIfAbsent(cacheKey, result);
+        if (inFlight != null) {
+            coalescedCalls.incrementAndGet();
+            return inFlight.copy();
+        }
 
-        while (retry < MAX_RETRIES) {
-            try {
-                String response = executeRequest(prompt, player);
-                
-                // 缓存响应
-                if (useCache && responseCache != null) {
-                    responseCache.put(cacheKey, response);
+        upstreamCalls.incrementAndGet();
+        result.whenComplete((response, error) -> inFlightRequests.remove(cacheKey, result));
+        try {
+            ChatRequest request = buildChatRequest(prompt, player, false);
+            enqueueWithRetry(request, cacheKey, 0, result);
+        } catch (Exception e) {
+            result.completeExceptionally(new RuntimeException("AI服务调用失败", e));
+        }
+        // 返回副本，避免某个调用方取消时影响其他共享者
+        return result.copy();
+    }
+
+    /**
+     * 🔧 不带玩家历史的后台请求（如历史摘要），不读写响应缓存、不参与请求合并
+     * @param systemPrompt 系统提示词
+     * @param prompt 用户消息
+     * @param maxTokens 最大生成token数
+     */
+    public CompletableFuture<String> generateBackgroundResponseAsync(String systemPrompt, String prompt, int maxTokens) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        try {
+            ChatRequest request = new ChatRequest(systemPrompt, Collections.emptyList(), prompt,
+                configLoader.getTemperature(), maxTokens, false);
+            upstreamCalls.incrementAndGet();
+            enqueueWithRetry(request, null, 0, result);
+        } catch (Exception e) {
+            result.completeExceptionally(new RuntimeException("AI服务调用失败", e));
+        }
+        return result;
+    }
+
+    /**
+     * 通过提供者路由发起一次异步请求（路由内部负责故障转移和对冲）
+     * 所有提供者都限流时，如果还有可用密钥则立即重试，否则按指数退避调度下一次尝试
+     */
+    private void enqueueWithRetry(ChatRequest request, String cacheKey, int retry, CompletableFuture<String> result) {
+        if (result.isDone()) {
+            return; // 调用方已取消
+        }
+        long startTime = System.currentTimeMillis();
+        
+        concurrencyLimiter.execute(() -> router.execute(request), DeepSeekAIService::limiterOutcome,
+                configLoader.getAiQueueTimeout()).whenComplete((content, error) -> {
+            if (error == null) {
+                if (responseCache != null && cacheKey != null) {
+                    responseCache.put(cacheKey, content);
                 }
-                
-                return response;
-            } catch (RateLimitExceededException e) {
-                lastException = e;
-                try {
-                    Thread.sleep(delay * (1 << retry)); // 指数退避
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    throw new RuntimeException("重试被中断", ie);
+                recordLatency(startTime, -1);
+                result.complete(content);
+                return;
+            }
+            
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof AdaptiveConcurrencyLimiter.ShedException) {
+                // 排队超时不重试，直接交给调用方降级
+                result.completeExceptionally(cause);
+                return;
+            }
+            if (cause instanceof RateLimitExceededException) {
+                // 每个额外的密钥多给一次换密钥的机会
+                int maxAttempts = MAX_RETRIES + Math.max(0, keyPool.size() - 1);
+                if (retry + 1 < maxAttempts && !retryScheduler.isShutdown()) {
+                    long delay = hasAvailableKey()
+                        ? 0 : INITIAL_RETRY_DELAY * (1L << Math.min(retry, MAX_RETRIES));
+                    retryScheduler.schedule(
+                        () -> enqueueWithRetry(request, cacheKey, retry + 1, result),
+                        delay, TimeUnit.MILLISECONDS);
+                    return;
                 }
-                retry++;
-            } catch (Exception e) {
-                lastException = e;
-                break;
             }
+            result.completeExceptionally(new RuntimeException("AI服务调用失败", cause));
+        });
+    }
+
+    /**
+     * 根据上游错误判断并发限制器的调整方向：限流和超时说明上游已过载
+     */
+    private static AdaptiveConcurrencyLimiter.Outcome limiterOutcome(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof RateLimitExceededException || cause instanceof SocketTimeoutException) {
+            return AdaptiveConcurrencyLimiter.Outcome.DROPPED;
+        }
+        return AdaptiveConcurrencyLimiter.Outcome.IGNORED;
+    }
+
+    /**
+     * 🔧 流式生成AI响应（SSE），不阻塞调用线程
+     * 许可异步获取，连接通过OkHttp回调建立，事件流在OkHttp的调度线程池上读取；
+     * 按句子分段回调fragmentConsumer（在读取线程上），完成时返回完整响应供写入历史
+     */
+    public CompletableFuture<String> generateStreamingResponseAsync(String prompt, Player player,
+                                                                   Consumer<String> fragmentConsumer) {
+        // 错误注入测试
+        if (configLoader.isErrorInjectionEnabled() && 
+            random.nextInt(100) < configLoader.getErrorInjectionRate()) {
+            return CompletableFuture.failedFuture(new RuntimeException("模拟错误注入"));
+        }
+
+        String cacheKey = generateCacheKey(player.getUniqueId(), prompt);
+        if (responseCache != null) {
+            String cachedResponse = responseCache.get(cacheKey);
+            if (cachedResponse != null) {
+                fragmentConsumer.accept(cachedResponse);
+                return CompletableFuture.completedFuture(cachedResponse);
+            }
+        }
+
+        ChatRequest request;
+        try {
+            request = buildChatRequest(prompt, player, true);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(new RuntimeException("AI服务调用失败", e));
         }
 
-        throw new RuntimeException("AI服务调用失败", lastException);
+        // 流式请求在整个推送期间占用一个并发许可
+        return concurrencyLimiter.acquire(configLoader.getAiQueueTimeout()).thenCompose(permit -> {
+            long startTime = System.currentTimeMillis();
+            CompletableFuture<String> stream;
+            try {
+                // 路由只在连接建立前故障转移，返回的响应状态码已检查
+                stream = router.openStream(request).thenApplyAsync(response -> {
+                    try (response) {
+                        return readStream(response, startTime, fragmentConsumer);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, client.dispatcher().executorService());
+            } catch (RuntimeException e) {
+                stream = CompletableFuture.failedFuture(e);
+            }
+            return stream.whenComplete((content, error) -> permit.release(
+                error == null ? AdaptiveConcurrencyLimiter.Outcome.SUCCESS : limiterOutcome(error)));
+        }).handle((content, error) -> {
+            if (error == null) {
+                if (responseCache != null) {
+                    responseCache.put(cacheKey, content);
+                }
+                return content;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof StreamInterruptedException || cause instanceof AdaptiveConcurrencyLimiter.ShedException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("AI服务调用失败", cause);
+        });
     }
 
     /**
-     * 执行API请求
+     * 读取流式响应，逐行解析 "data: {...}" 事件
      */
-    private String executeRequest(String prompt, Player player) throws IOException {
-        JsonObject requestBody = new JsonObject();
-        requestBody.addProperty("model", configLoader.getModel());
-        requestBody.addProperty("temperature", configLoader.getTemperature());
-        requestBody.addProperty("max_tokens", configLoader.getMaxTokens());
-        
-        JsonArray messages = new JsonArray();
-        
-        // 添加系统角色消息
-        JsonObject systemMessage = new JsonObject();
-        systemMessage.addProperty("role", "system");
-        systemMessage.addProperty("content", configLoader.getRoleSystem());
-        messages.add(systemMessage);
+    private String readStream(Response response, long startTime, Consumer<String> fragmentConsumer) throws IOException {
+        long firstTokenTime = -1;
+        int maxFragmentChars = configLoader.getStreamFragmentMaxChars();
+        StringBuilder fullContent = new StringBuilder();
+        StringBuilder pending = new StringBuilder();
+        BufferedSource source = response.body().source();
         
-        // 使用ConversationManager的缓存消息
-        JsonArray historyMessages = plugin.getConversationManager().getCachedMessages(player.getUniqueId());
-        if (historyMessages != null) {
-            // 转换缓存的消息格式为API所需格式
-            for (int i = 0; i < historyMessages.size(); i++) {
-                JsonObject cachedMsg = historyMessages.get(i).getAsJsonObject();
-                JsonObject apiMsg = new JsonObject();
+        try {
+            while (!source.exhausted()) {
+                String line = source.readUtf8Line();
+                if (line == null || !line.startsWith("data:")) {
+                    continue; // 跳过空行、注释和keep-alive
+                }
+                
+                String data = line.substring(5).trim();
+                if ("[DONE]".equals(data)) {
+                    break;
+                }
+                
+                String delta = parseStreamDelta(data);
+                if (delta == null || delta.isEmpty()) {
+                    continue;
+                }
                 
-                // 根据 isAI 字段确定角色
-                boolean isAI = cachedMsg.get("isAI").getAsBoolean();
-                apiMsg.addProperty("role", isAI ? "assistant" : "user");
-                apiMsg.addProperty("content", cachedMsg.get("content").getAsString());
+                if (firstTokenTime < 0) {
+                    firstTokenTime = System.currentTimeMillis();
+                }
+                fullContent.append(delta);
                 
-                messages.add(apiMsg);
+                for (int i = 0; i < delta.length(); i++) {
+                    char c = delta.charAt(i);
+                    pending.append(c);
+                    if (isSentenceEnd(c) || pending.length() >= maxFragmentChars) {
+                        emitFragment(pending, fragmentConsumer);
+                    }
+                }
             }
-        } else {
-            // 降级到实时构建
-            List<com.example.aichatplugin.Message> history = plugin.getConversationManager().getConversationHistory(player.getUniqueId());
-            for (com.example.aichatplugin.Message msg : history) {
-                JsonObject historyMessage = new JsonObject();
-                historyMessage.addProperty("role", msg.isAI() ? "assistant" : "user");
-                historyMessage.addProperty("content", msg.getContent());
-                messages.add(historyMessage);
+        } catch (IOException e) {
+            // 已经推送过片段时不能整体重试，交由调用方用已收到的内容收尾
+            if (fullContent.length() > 0) {
+                emitFragment(pending, fragmentConsumer);
+                throw new StreamInterruptedException(fullContent.toString().trim(), e);
             }
+            throw e;
         }
         
-        // 添加当前消息
-        JsonObject userMessage = new JsonObject();
-        userMessage.addProperty("role", "user");
-        userMessage.addProperty("content", prompt);
-        messages.add(userMessage);
-        
-        requestBody.add("messages", messages);
+        emitFragment(pending, fragmentConsumer);
         
-        MediaType JSON = MediaType.parse("application/json; charset=utf-8");
-        Request request = new Request.Builder()
-            .url(configLoader.getApiUrl())
-            .addHeader("Authorization", "Bearer " + getPlayerApiKey(player.getUniqueId()))
-            .addHeader("Content-Type", "application/json")
-            .post(RequestBody.create(gson.toJson(requestBody), JSON))
-            .build();
-
-        try (Response response = client.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                int code = response.code();
-                String errorBody = response.body() != null ? response.body().string() : "未知错误";
-                
-                if (code == 429) {
-                    throw new RateLimitExceededException("API调用超限");
-                } else if (code >= 500) {
-                    throw new ServerException("API服务异常: " + errorBody);
-                } else {
-                    throw new ClientException("请求错误: " + code + " - " + errorBody);
-                }
-            }
-            
-            return parseResponse(response.body().string());
+        String content = fullContent.toString().trim();
+        if (content.isEmpty()) {
+            throw new RuntimeException("API响应格式错误: 内容为空");
         }
+        
+        recordLatency(startTime, firstTokenTime);
+        return content;
     }
 
     /**
-     * 解析API响应
+     * 解析单个SSE事件中的增量内容 choices[0].delta.content
      */
-    private String parseResponse(String responseBody) {
+    private String parseStreamDelta(String data) {
         try {
-            JsonObject response = gson.fromJson(responseBody, JsonObject.class);
-            JsonArray choices = response.getAsJsonArray("choices");
-            if (choices == null || choices.size() == 0) {
-                throw new RuntimeException("API响应格式错误: 没有choices字段");
-            }
-            
-            JsonObject choice = choices.get(0).getAsJsonObject();
-            JsonObject message = choice.getAsJsonObject("message");
-            if (message == null) {
-                throw new RuntimeException("API响应格式错误: 没有message字段");
+            return ChatJson.readChoiceContent(new StringReader(data), "delta");
+        } catch (Exception e) {
+            plugin.debug("忽略无法解析的流式片段: " + data);
+            return null;
+        }
     }
 
-            String content = message.get("content").getAsString();
-            if (content == null || content.trim().isEmpty()) {
-                throw new RuntimeException("API响应格式错误: 内容为空");
-            }
-            
-            return content.trim();
-        } catch (Exception e) {
-            plugin.getLogger().log(Level.WARNING, "解析API响应时发生错误", e);
-            throw new RuntimeException("解析API响应失败", e);
+    private static boolean isSentenceEnd(char c) {
+        return c == '。' || c == '！' || c == '？' || c == '；' || c == '…'
+            || c == '!' || c == '?' || c == ';' || c == '\n';
+    }
+
+    private static void emitFragment(StringBuilder pending, Consumer<String> fragmentConsumer) {
+        String fragment = pending.toString().trim();
+        pending.setLength(0);
+        if (!fragment.isEmpty()) {
+            fragmentConsumer.accept(fragment);
+        }
+    }
+
+    /**
+     * 构建聊天请求（普通/流式共用），由提供者在发送时序列化并填入模型名
+     * 系统消息和历史使用ConversationManager维护的已编码前缀，只需编码当前消息
+     */
+    private ChatRequest buildChatRequest(String prompt, Player player, boolean stream) {
+        return new ChatRequest(
+            plugin.getConversationManager().getRequestPrefix(player.getUniqueId()),
+            prompt,
+            configLoader.getTemperature(),
+            configLoader.getMaxTokens(),
+            stream);
+    }
+
+    /**
+     * 记录总响应时间和首字延迟（非流式请求首字即全文）
+     */
+    private void recordLatency(long startTime, long firstTokenTime) {
+        PerformanceMonitor monitor = plugin.getPerformanceMonitor();
+        if (monitor == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        monitor.recordResponseTime("ai_request", now - startTime);
+        monitor.recordFirstTokenTime("ai_request", (firstTokenTime > 0 ? firstTokenTime : now) - startTime);
+    }
+
+    /**
+     * 🔧 获取响应缓存统计（命中/未命中/淘汰）
+     */
+    public Map<String, Object> getResponseCacheStats() {
+        if (responseCache == null) {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("enabled", false);
+            return stats;
+        }
+        Map<String, Object> stats = responseCache.getStats();
+        stats.put("enabled", true);
+        return stats;
+    }
+
+    /**
+     * 🔧 获取请求合并统计
+     */
+    public Map<String, Object> getCoalescingStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long upstream = upstreamCalls.get();
+        long coalesced = coalescedCalls.get();
+        stats.put("upstreamCalls", upstream);
+        stats.put("coalescedCalls", coalesced);
+        stats.put("inFlight", inFlightRequests.size());
+        stats.put("savedRate", upstream + coalesced > 0 ? (double) coalesced / (upstream + coalesced) : 0.0);
+        return stats;
+    }
+
+    /**
+     * 🔧 获取API密钥池统计（按提供者分组，每个密钥的吞吐量、错误数、限流状态）
+     */
+    public Map<String, Object> getKeyPoolStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (AIProvider provider : router.getProviders()) {
+            stats.put(provider.getName(), provider.getKeyPoolStats());
         }
+        return stats;
+    }
+
+    /**
+     * 🔧 获取提供者路由统计（EWMA延迟、错误率、故障转移和对冲次数）
+     */
+    public Map<String, Object> getProviderStats() {
+        return router.getStats();
+    }
+
+    /**
+     * 🔧 获取自适应并发限制统计（当前上限、在途数、排队深度、丢弃数）
+     */
+    public Map<String, Object> getConcurrencyLimiterStats() {
+        return concurrencyLimiter.getStats();
     }
 
     /**
@@ -380,6 +649,11 @@ public class DeepSeekAIService {
      */
     public void shutdown() {
         try {
+            configLoader.removeConfigChangeListener(providerReloader);
+            
+            // 停止待执行的重试
+            retryScheduler.shutdownNow();
+            
             // 关闭所有活动的连接
             client.dispatcher().cancelAll();
             
@@ -431,44 +705,12 @@ public class DeepSeekAIService {
         }
 
         // 构建请求
-        JsonObject requestBody = new JsonObject();
-        requestBody.addProperty("model", configLoader.getModel());
-        
-        JsonArray messages = new JsonArray();
-        JsonObject systemMessage = new JsonObject();
-        systemMessage.addProperty("role", "system");
-        systemMessage.addProperty("content", configLoader.getRoleSystem());
-        messages.add(systemMessage);
-        
-        JsonObject userMessage = new JsonObject();
-        userMessage.addProperty("role", "user");
-        userMessage.addProperty("content", prompt);
-        messages.add(userMessage);
-        
-        requestBody.add("messages", messages);
-        requestBody.addProperty("temperature", configLoader.getTemperature());
-        requestBody.addProperty("max_tokens", configLoader.getMaxTokens());
-
-        Request request = new Request.Builder()
-            .url(configLoader.getApiUrl())
-            .addHeader("Authorization", "Bearer " + configLoader.getApiKey())
-            .post(RequestBody.create(
-                MediaType.parse("application/json"),
-                gson.toJson(requestBody)
-            ))
-            .build();
-
-        try (Response response = client.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                throw new IOException("API请求失败: " + response.code());
-            }
+        ChatRequest request = new ChatRequest(configLoader.getRoleSystem(), null, prompt,
+            configLoader.getTemperature(), configLoader.getMaxTokens(), false);
 
-            String responseBody = response.body().string();
-            JsonObject jsonResponse = gson.fromJson(responseBody, JsonObject.class);
-            String content = jsonResponse.getAsJsonArray("choices")
-                .get(0).getAsJsonObject()
-                .getAsJsonObject("message")
-                .get("content").getAsString();
+        try {
+            String content = concurrencyLimiter.execute(() -> router.execute(request),
+                DeepSeekAIService::limiterOutcome, configLoader.getAiQueueTimeout()).get();
 
             // 缓存响应
             if (responseCache != null) {
@@ -476,13 +718,20 @@ public class DeepSeekAIService {
             }
 
             return content;
-        } catch (Exception e) {
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("API请求被中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
             if (configLoader.isDetailedErrorStackEnabled()) {
-                plugin.getLogger().log(Level.SEVERE, "API请求异常", e);
+                plugin.getLogger().log(Level.SEVERE, "API请求异常", cause);
             } else {
-                plugin.getLogger().severe("API请求异常: " + e.getMessage());
+                plugin.getLogger().severe("API请求异常: " + cause.getMessage());
             }
-            throw e;
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("API请求失败: " + cause.getMessage(), cause);
         }
     }
 
@@ -6,6 +6,9 @@
  * 2. 分析环境状态
  * 3. 提供环境描述
  * 4. 监测周围实体和方块
+ * 
+ * 🔧 两阶段收集：主线程每tick在时间预算内为排队的请求采集只读快照
+ * （群系、天气、脚下方块、附近实体的类型和状态），筛选、本地化和描述生成在后台线程完成
  */
 
 package com.example.aichatplugin;
@@ -30,6 +33,7 @@ import java.io.IOException;
 import org.bukkit.configuration.file.YamlConfiguration;
 import java.util.concurrent.*;
 import java.util.function.Consumer;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class EnvironmentCollector {
@@ -58,6 +62,16 @@ public class EnvironmentCollector {
     private final Map<UUID, CompletableFuture<String>> pendingScans;
     private final int maxEntities;
     
+    // 🔧 环境快照：等待主线程采集的请求和每tick主线程耗时统计
+    private static final double MAX_SNAPSHOT_RANGE = 8.0;
+    private final Queue<SnapshotRequest> pendingSnapshots = new ConcurrentLinkedQueue<>();
+    private final AtomicLong snapshotsCaptured = new AtomicLong(0);
+    private final AtomicLong snapshotTicks = new AtomicLong(0);
+    private final AtomicLong snapshotTickNanos = new AtomicLong(0);
+    private final AtomicLong deferredTicks = new AtomicLong(0);
+    private volatile long lastTickNanos = 0;
+    private volatile long maxTickNanos = 0;
+    
     public EnvironmentCollector(AIChatPlugin plugin) {
         this.plugin = plugin;
         this.config = plugin.getConfigLoader();
@@ -74,6 +88,9 @@ public class EnvironmentCollector {
         plugin.getServer().getScheduler().runTaskTimer(plugin, () -> {
             updateScanRange();
         }, 200, 200); // 每10秒更新一次
+        
+        // 🔧 每tick在主线程采集排队的环境快照
+        plugin.getServer().getScheduler().runTaskTimer(plugin, this::captureSnapshots, 1, 1);
     }
     
     /**
@@ -125,6 +142,80 @@ public class EnvironmentCollector {
         }
     }
     
+    /**
+     * 等待主线程采集快照的请求
+     */
+    private static class SnapshotRequest {
+        final Player player;
+        final CompletableFuture<String> future;
+        final long startTime;
+        
+        SnapshotRequest(Player player, CompletableFuture<String> future, long startTime) {
+            this.player = player;
+            this.future = future;
+            this.startTime = startTime;
+        }
+    }
+    
+    /**
+     * 主线程采集的环境快照，只包含基本类型和枚举，可在任意线程读取
+     */
+    static final class EnvironmentSnapshot {
+        final String playerName;
+        final double y;
+        final String biome;
+        final long time;
+        final boolean thundering;
+        final boolean storm;
+        final Material footBlock; // 未采集时为null
+        final List<EntitySample> entities;
+        
+        EnvironmentSnapshot(String playerName, double y, String biome, long time, boolean thundering,
+                            boolean storm, Material footBlock, List<EntitySample> entities) {
+            this.playerName = playerName;
+            this.y = y;
+            this.biome = biome;
+            this.time = time;
+            this.thundering = thundering;
+            this.storm = storm;
+            this.footBlock = footBlock;
+            this.entities = Collections.unmodifiableList(entities);
+        }
+    }
+    
+    /**
+     * 快照中的实体：类型和分类标签所需的状态
+     */
+    static final class EntitySample {
+        final EntityType type;
+        final boolean hostile;
+        final boolean friendly;
+        final boolean npc;
+        final boolean invisible;
+        final boolean glowing;
+        final boolean leashed;
+        
+        /**
+         * 读取实体状态，需要在主线程调用
+         */
+        EntitySample(Entity e) {
+            this.type = e.getType();
+            this.hostile = e instanceof Monster;
+            this.friendly = e instanceof Animals;
+            this.npc = e instanceof NPC;
+            if (e instanceof LivingEntity) {
+                LivingEntity living = (LivingEntity) e;
+                this.invisible = living.isInvisible();
+                this.glowing = living.isGlowing();
+                this.leashed = living.isLeashed();
+            } else {
+                this.invisible = false;
+                this.glowing = false;
+                this.leashed = false;
+            }
+        }
+    }
+    
     /**
      * 更新扫描范围
      * 根据服务器性能动态调整
@@ -154,25 +245,22 @@ public class EnvironmentCollector {
     /**
      * 获取实体分类标签
      */
-    private List<String> getEntityTags(Entity e) {
+    private List<String> getEntityTags(EntitySample e) {
         List<String> tags = new ArrayList<>();
         
         // 基础分类
-        if (e instanceof Monster) {
+        if (e.hostile) {
             tags.add("敌对");
-        } else if (e instanceof Animals) {
+        } else if (e.friendly) {
             tags.add("友好");
-        } else if (e instanceof NPC) {
+        } else if (e.npc) {
             tags.add("NPC");
         }
         
         // 特殊状态
-        if (e instanceof LivingEntity) {
-            LivingEntity living = (LivingEntity) e;
-            if (living.isInvisible()) tags.add("隐身");
-            if (living.isGlowing()) tags.add("发光");
-            if (living.isLeashed()) tags.add("拴绳");
-        }
+        if (e.invisible) tags.add("隐身");
+        if (e.glowing) tags.add("发光");
+        if (e.leashed) tags.add("拴绳");
         
         return tags;
     }
@@ -180,148 +268,210 @@ public class EnvironmentCollector {
     /**
      * 获取本地化实体名称（带分类标签）
      */
-    private String getLocalizedEntityName(Entity e) {
-        String baseName = entityNameMap.getOrDefault(e.getType(), e.getType().name());
+    private String getLocalizedSampleName(EntitySample e) {
+        String baseName = entityNameMap.getOrDefault(e.type, e.type.name());
         List<String> tags = getEntityTags(e);
         return tags.isEmpty() ? baseName : baseName + "(" + String.join(",", tags) + ")";
     }
     
+    private String getLocalizedEntityName(Entity e) {
+        return getLocalizedSampleName(new EntitySample(e));
+    }
+    
     /**
      * 收集环境信息
+     * 玩家位置只能在主线程读取，缓存查找也在主线程的采集阶段进行
      * 
      * @param player 目标玩家
      * @return 环境信息字符串的CompletableFuture
      */
     public CompletableFuture<String> collectEnvironmentInfo(Player player) {
         CompletableFuture<String> future = new CompletableFuture<>();
-        Location loc = player.getLocation();
-        PlayerLocationKey key = new PlayerLocationKey(player.getUniqueId(), loc);
-
-        // 使用缓存数据
-        if (cache.containsKey(key)) {
-            CachedEnvironment cached = cache.get(key);
-            if (System.currentTimeMillis() - cached.timestamp < config.getEnvironmentCacheTTL()) {
-                plugin.debug("使用缓存的环境信息: " + player.getName());
-                future.complete(cached.data);
-                return future;
-            }
+        SnapshotRequest request = new SnapshotRequest(player, future, System.currentTimeMillis());
+        if (Bukkit.isPrimaryThread()) {
+            // 已在主线程时直接采集，不等下一tick
+            long start = System.nanoTime();
+            captureAndDescribe(request);
+            recordTick(System.nanoTime() - start);
+        } else {
+            // 🔧 World API只能在主线程调用，交给下一tick采集快照
+            pendingSnapshots.offer(request);
+        }
+        return future;
+    }
+    
+    /**
+     * 🔧 主线程：在时间预算内采集排队的快照，剩余请求顺延到下一tick
+     */
+    private void captureSnapshots() {
+        if (pendingSnapshots.isEmpty()) {
+            return;
         }
         
-        long startTime = System.currentTimeMillis();
-        
-        // 🔧 关键修复：完全异步化，避免主线程阻塞
-        CompletableFuture<String> asyncTask = CompletableFuture.supplyAsync(() -> {
-            try {
-                return collectEnvironmentDataAsync(player, loc, startTime);
-            } catch (Exception e) {
-                plugin.getLogger().log(Level.WARNING, "收集环境信息时发生错误", e);
-                return "环境信息收集失败";
-            }
-        }, executor);
-        
-        asyncTask.thenAccept(result -> {
-            // 异步更新缓存
-            cache.put(key, new CachedEnvironment(result));
-            future.complete(result);
-        });
+        long budgetNanos = TimeUnit.MICROSECONDS.toNanos(config.getEnvironmentSnapshotTickBudget());
+        long start = System.nanoTime();
+        int captured = 0;
+        SnapshotRequest request;
+        // 每tick至少处理一个请求，预算很小时也能继续前进
+        while ((captured == 0 || System.nanoTime() - start < budgetNanos)
+                && (request = pendingSnapshots.poll()) != null) {
+            captureAndDescribe(request);
+            captured++;
+        }
         
-        return future;
+        recordTick(System.nanoTime() - start);
+        if (!pendingSnapshots.isEmpty()) {
+            deferredTicks.incrementAndGet();
+        }
     }
     
     /**
-     * 🔧 异步收集环境数据（不阻塞主线程）
+     * 记录一次主线程采集的耗时（tick内批量采集和主线程上的直接采集）
      */
-    private String collectEnvironmentDataAsync(Player player, Location loc, long startTime) {
-        World world = player.getWorld();
-        StringBuilder info = new StringBuilder();
+    private void recordTick(long elapsed) {
+        snapshotTicks.incrementAndGet();
+        snapshotTickNanos.addAndGet(elapsed);
+        lastTickNanos = elapsed;
+        if (elapsed > maxTickNanos) {
+            maxTickNanos = elapsed;
+        }
+    }
+    
+    /**
+     * 主线程读取位置并查找缓存，未命中时采集快照，然后在后台线程生成描述并写入缓存
+     */
+    private void captureAndDescribe(SnapshotRequest request) {
+        if (!request.player.isOnline()) {
+            request.future.complete("你在游戏世界中");
+            return;
+        }
+        Location loc = request.player.getLocation();
+        PlayerLocationKey key = new PlayerLocationKey(request.player.getUniqueId(), loc);
+        CachedEnvironment cached = cache.get(key);
+        if (cached != null && System.currentTimeMillis() - cached.timestamp < config.getEnvironmentCacheTTL()) {
+            plugin.debug("使用缓存的环境信息: " + request.player.getName());
+            request.future.complete(cached.data);
+            return;
+        }
         
+        EnvironmentSnapshot snapshot;
         try {
-            // 🔧 提供有意义的环境上下文，而不是机械状态
-            String biome = world.getBiome(loc).name().toLowerCase();
-            String heightDesc = getHeightDescription(loc.getY());
-            info.append(String.format("你在%s的%s", 
-                getBiomeDescription(biome), heightDesc));
-            plugin.debug("基础位置信息已收集: " + info.toString());
-            
-            // 天气信息（作为背景上下文）
-            try {
-                if (config.isShowWeather()) {
-                    String weather = getWeatherInfo(world, loc);
-                    plugin.debug("天气信息: " + weather);
-                    if (!weather.equals("晴朗")) {
-                        info.append("，现在").append(weather);
+            snapshot = captureSnapshot(request.player, loc);
+        } catch (Exception e) {
+            plugin.debug("采集环境快照时出错: " + e.getMessage());
+            request.future.complete("环境信息收集失败");
+            return;
+        }
+        if (snapshot == null) {
+            request.future.complete("你在游戏世界中");
+            return;
+        }
+        snapshotsCaptured.incrementAndGet();
+        
+        try {
+            CompletableFuture.supplyAsync(() -> describeSnapshot(snapshot, request.startTime), executor)
+                .whenComplete((result, error) -> {
+                    if (error != null) {
+                        plugin.getLogger().log(Level.WARNING, "生成环境描述时发生错误", error);
+                        request.future.complete("环境信息收集失败");
+                        return;
                     }
-                } else {
-                    plugin.debug("天气信息显示被禁用");
+                    cache.put(key, new CachedEnvironment(result));
+                    request.future.complete(result);
+                });
+        } catch (RejectedExecutionException e) {
+            request.future.complete("环境信息收集失败");
+        }
+    }
+    
+    /**
+     * 采集环境快照（主线程），玩家不在任何世界中时返回null
+     * 只读取后续描述需要的数据，实体数量受 environment.snapshot.max-entities 限制
+     * @param loc 本次采集时读取的玩家位置
+     */
+    private EnvironmentSnapshot captureSnapshot(Player player, Location loc) {
+        World world = loc.getWorld();
+        if (world == null) {
+            return null;
+        }
+        
+        Material footBlock = null;
+        if (config.isShowBlocks()) {
+            footBlock = world.getBlockAt(loc.getBlockX(), loc.getBlockY() - 1, loc.getBlockZ()).getType();
+        }
+        
+        List<EntitySample> entities = new ArrayList<>();
+        if (config.isShowEntities()) {
+            double range = Math.min(currentScanRange, MAX_SNAPSHOT_RANGE);
+            int limit = config.getEnvironmentSnapshotMaxEntities();
+            for (Entity e : world.getNearbyEntities(loc, range, range, range)) {
+                if (entities.size() >= limit) break;
+                if (e.equals(player) || !e.isValid() || e instanceof ArmorStand || e instanceof Projectile
+                        || e instanceof Item || e instanceof ExperienceOrb) {
+                    continue;
                 }
-            } catch (Exception e) {
-                plugin.debug("收集天气信息时出错: " + e.getMessage());
+                entities.add(new EntitySample(e));
             }
-            
-            // 时间信息
-            try {
-                if (config.isShowTime()) {
-                    long ticks = world.getTime();
-                    boolean isNight = ticks >= 13000 && ticks <= 23000;
-                    plugin.debug("游戏时间: " + ticks + " ticks, 是否夜晚: " + isNight);
-                    if (isNight) {
-                        info.append("，夜晚");
-                    }
-                } else {
-                    plugin.debug("时间信息显示被禁用");
-                }
-            } catch (Exception e) {
-                plugin.debug("收集时间信息时出错: " + e.getMessage());
+        }
+        
+        return new EnvironmentSnapshot(player.getName(), loc.getY(), world.getBiome(loc).name(), world.getTime(),
+            world.isThundering(), world.hasStorm(), footBlock, entities);
+    }
+    
+    /**
+     * 🔧 后台线程：根据快照生成环境描述
+     */
+    private String describeSnapshot(EnvironmentSnapshot snapshot, long startTime) {
+        StringBuilder info = new StringBuilder();
+        
+        // 🔧 提供有意义的环境上下文，而不是机械状态
+        info.append(String.format("你在%s的%s", 
+            getBiomeDescription(snapshot.biome.toLowerCase()), getHeightDescription(snapshot.y)));
+        plugin.debug("基础位置信息已收集: " + info.toString());
+        
+        // 天气信息（作为背景上下文）
+        if (config.isShowWeather()) {
+            String weather = getWeatherInfo(snapshot);
+            plugin.debug("天气信息: " + weather);
+            if (!weather.equals("晴朗")) {
+                info.append("，现在").append(weather);
             }
-            
-            // 实体信息
-            try {
-                if (config.isShowEntities()) {
-                    plugin.debug("开始扫描实体...");
-                    List<String> entities = scanNearbyEntitiesOptimized(world, loc, player);
-                    plugin.debug("找到实体: " + entities.size() + " 个");
-                    
-                    List<String> importantEntities = entities.stream()
-                        .filter(this::isImportantEntity)
-                        .limit(3)
-                        .collect(Collectors.toList());
-                    
-                    plugin.debug("重要实体: " + importantEntities);
-                    if (!importantEntities.isEmpty()) {
-                        info.append("。附近有").append(String.join("、", importantEntities));
-                    }
-                } else {
-                    plugin.debug("实体信息显示被禁用");
-                }
-            } catch (Exception e) {
-                plugin.debug("收集实体信息时出错: " + e.getMessage());
+        }
+        
+        // 时间信息
+        if (config.isShowTime()) {
+            boolean isNight = snapshot.time >= 13000 && snapshot.time <= 23000;
+            plugin.debug("游戏时间: " + snapshot.time + " ticks, 是否夜晚: " + isNight);
+            if (isNight) {
+                info.append("，夜晚");
             }
+        }
+        
+        // 实体信息
+        if (config.isShowEntities()) {
+            List<String> importantEntities = snapshot.entities.stream()
+                .limit(config.getMaxEntities())
+                .map(this::getLocalizedSampleName)
+                .filter(this::isImportantEntity)
+                .limit(3)
+                .collect(Collectors.toList());
             
-            // 方块信息
-            try {
-                if (config.isShowBlocks()) {
-                    plugin.debug("开始扫描方块...");
-                    Block footBlock = world.getBlockAt(loc.getBlockX(), loc.getBlockY() - 1, loc.getBlockZ());
-                    if (footBlock.getType() != Material.AIR) {
-                        String blockName = getLocalizedBlockName(footBlock);
-                        info.append("\n脚下: ").append(blockName);
-                        plugin.debug("脚下方块: " + blockName);
-                    }
-                } else {
-                    plugin.debug("方块信息显示被禁用");
-                }
-            } catch (Exception e) {
-                plugin.debug("收集方块信息时出错: " + e.getMessage());
+            plugin.debug("快照实体: " + snapshot.entities.size() + " 个, 重要实体: " + importantEntities);
+            if (!importantEntities.isEmpty()) {
+                info.append("。附近有").append(String.join("、", importantEntities));
             }
-            
-        } catch (Exception e) {
-            plugin.getLogger().log(Level.WARNING, "收集环境信息时发生严重错误", e);
-            return "环境信息收集遇到错误，但位置大致在游戏世界中";
+        }
+        
+        // 方块信息
+        if (config.isShowBlocks() && snapshot.footBlock != null && snapshot.footBlock != Material.AIR) {
+            String blockName = blockNameMap.getOrDefault(snapshot.footBlock, snapshot.footBlock.name());
+            info.append("\n脚下: ").append(blockName);
+            plugin.debug("脚下方块: " + blockName);
         }
         
         // 性能监控
         long duration = System.currentTimeMillis() - startTime;
-        plugin.debug("环境收集完成: " + player.getName() + " | 耗时: " + duration + "ms");
+        plugin.debug("环境收集完成: " + snapshot.playerName + " | 耗时: " + duration + "ms");
         plugin.debug("最终环境信息: " + info.toString());
         
         String result = info.toString();
@@ -334,46 +484,20 @@ public class EnvironmentCollector {
     }
     
     /**
-     * 🔧 优化的实体扫描（减少主线程阻塞）
+     * 环境快照统计：排队数、每tick主线程耗时
      */
-    private List<String> scanNearbyEntitiesOptimized(World world, Location loc, Player player) {
-        List<String> entityNames = new ArrayList<>();
-        
-        // 🔧 使用较小的扫描范围，避免大量实体遍历
-        double limitedRange = Math.min(currentScanRange, 8.0); // 最大8格范围
-        
-        try {
-            // 使用getNearbyEntities而不是getEntities()，更高效
-            Collection<Entity> nearbyEntities = world.getNearbyEntities(loc, limitedRange, limitedRange, limitedRange);
-            
-            int maxEntities = config.getMaxEntities();
-            int count = 0;
-            for (Entity e : nearbyEntities) {
-                if (count >= maxEntities) break; // 使用配置文件的最大实体数
-                
-                if (isValidEntityQuick(e, player)) {
-                    entityNames.add(getLocalizedEntityName(e));
-                    count++;
-                }
-            }
-        } catch (Exception e) {
-            plugin.debug("实体扫描出错，跳过: " + e.getMessage());
-        }
-        
-        return entityNames;
-    }
-    
-    /**
-     * 🔧 快速实体验证（减少计算）
-     */
-    private boolean isValidEntityQuick(Entity e, Player player) {
-        if (e == null || e.equals(player) || !e.isValid()) {
-            return false;
-        }
-        
-        // 快速类型检查
-        return !(e instanceof ArmorStand || e instanceof Projectile || 
-                e instanceof Item || e instanceof ExperienceOrb);
+    public Map<String, Object> getSnapshotStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long ticks = snapshotTicks.get();
+        stats.put("pending", pendingSnapshots.size());
+        stats.put("captured", snapshotsCaptured.get());
+        stats.put("ticks", ticks);
+        stats.put("deferredTicks", deferredTicks.get());
+        stats.put("tickBudgetMicros", config.getEnvironmentSnapshotTickBudget());
+        stats.put("avgTickMicros", ticks > 0 ? snapshotTickNanos.get() / ticks / 1000.0 : 0.0);
+        stats.put("lastTickMicros", lastTickNanos / 1000.0);
+        stats.put("maxTickMicros", maxTickNanos / 1000.0);
+        return stats;
     }
     
     /**
@@ -515,21 +639,18 @@ public class EnvironmentCollector {
      * 获取天气信息
      * 修复天气判断优先级和逻辑
      */
-    private String getWeatherInfo(World world, Location loc) {
-        String biomeName = world.getBiome(loc).name();
-        Matcher matcher = BIOME_PATTERN.matcher(biomeName);
+    private String getWeatherInfo(EnvironmentSnapshot snapshot) {
+        Matcher matcher = BIOME_PATTERN.matcher(snapshot.biome);
         boolean isDesert = matcher.find();
         
         // 🔧 添加详细调试信息
-        boolean isThundering = world.isThundering();
-        boolean hasStorm = world.hasStorm();
-        plugin.debug("天气检测详情 - 雷暴: " + isThundering + ", 下雨: " + hasStorm + ", 生物群系: " + biomeName);
+        plugin.debug("天气检测详情 - 雷暴: " + snapshot.thundering + ", 下雨: " + snapshot.storm + ", 生物群系: " + snapshot.biome);
         
         // 🔧 修复：使用更准确的天气判断逻辑
-        if (isThundering) {
+        if (snapshot.thundering) {
             plugin.debug("检测到雷暴天气");
             return isDesert ? "沙暴雷电" : "雷暴雨";
-        } else if (hasStorm) {
+        } else if (snapshot.storm) {
             plugin.debug("检测到下雨天气");
             return isDesert ? "沙尘暴" : "下雨"; 
         } else {
@@ -817,6 +938,35 @@ public class EnvironmentCollector {
         return desc.toString();
     }
     
+    /**
+     * 🔧 粗粒度环境指纹（维度:群系:昼夜:危险等级），用于语义缓存分桶
+     * 只读取少量状态，需要在主线程调用；非主线程调用时危险等级记为unknown
+     */
+    public String getEnvironmentFingerprint(Player player) {
+        Location loc = player.getLocation();
+        World world = loc.getWorld();
+        if (world == null) {
+            return "unknown";
+        }
+        
+        long ticks = world.getTime();
+        boolean night = ticks >= 13000 && ticks < 23000;
+        
+        String danger = "unknown";
+        if (Bukkit.isPrimaryThread()) {
+            int hostiles = 0;
+            for (Entity entity : world.getNearbyEntities(loc, MAX_SCAN_RANGE, 8, MAX_SCAN_RANGE)) {
+                if (entity instanceof Monster) {
+                    hostiles++;
+                }
+            }
+            danger = hostiles == 0 ? "safe" : hostiles < 3 ? "low" : "high";
+        }
+        
+        return world.getEnvironment().name() + ":" + world.getBiome(loc).name() + ":" 
+            + (night ? "night" : "day") + ":" + danger;
+    }
+    
     /**
      * 关闭收集器
      */
@@ -845,9 +995,13 @@ public class EnvironmentCollector {
             Thread.currentThread().interrupt();
         }
         
-        // 清理缓存
+        // 清理缓存，未采集的快照请求直接结束
         cache.clear();
         pendingScans.clear();
+        SnapshotRequest request;
+        while ((request = pendingSnapshots.poll()) != null) {
+            request.future.complete("环境信息收集失败");
+        }
         
         plugin.debug("EnvironmentCollector已安全关闭");
     }
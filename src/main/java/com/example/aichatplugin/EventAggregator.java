@@ -0,0 +1,327 @@
+package com.example.aichatplugin;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 玩家事件聚合窗口
+ *
+ * 混战中玩家每秒可能受到十几次伤害，药水、经验也常常成批到达。
+ * 这里为每个玩家、每种事件类型开一个短窗口，窗口内的事件折叠成一条摘要
+ * （如"僵尸x5、骷髅x2连续攻击，共损失14.0点生命"），只产生一次AI请求。
+ *
+ * 1. 第一个事件打开窗口，窗口到期或事件数/伤害量达到阈值时输出
+ * 2. 窗口内只有一个事件时按原格式输出，与未聚合时一致
+ * 3. 由主线程调用（事件监听和定时任务），不做额外同步
+ */
+public class EventAggregator {
+
+    /**
+     * 窗口参数
+     */
+    public static class Settings {
+        final long windowMillis;
+        final int maxEvents;
+        final double damageThreshold;
+
+        /**
+         * @param windowMillis 窗口时长
+         * @param maxEvents 窗口内事件数达到该值时立即输出
+         * @param damageThreshold 窗口内累计伤害达到该值时立即输出，小于等于0表示不限制
+         */
+        public Settings(long windowMillis, int maxEvents, double damageThreshold) {
+            this.windowMillis = Math.max(0, windowMillis);
+            this.maxEvents = Math.max(1, maxEvents);
+            this.damageThreshold = damageThreshold;
+        }
+    }
+
+    /**
+     * 窗口输出的事件
+     */
+    public static final class Flush {
+        private final UUID playerId;
+        private final String type;
+        private final String message;
+        private final int events;
+
+        Flush(UUID playerId, String type, String message, int events) {
+            this.playerId = playerId;
+            this.type = type;
+            this.message = message;
+            this.events = events;
+        }
+
+        public UUID getPlayerId() {
+            return playerId;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public int getEvents() {
+            return events;
+        }
+    }
+
+    private final Supplier<Settings> settings;
+    private final ConcurrentMap<UUID, Map<String, Window>> windows = new ConcurrentHashMap<>();
+
+    private final AtomicLong windowsOpened = new AtomicLong(0);
+    private final AtomicLong eventsFolded = new AtomicLong(0);
+    private final AtomicLong flushedByTimer = new AtomicLong(0);
+    private final AtomicLong flushedByThreshold = new AtomicLong(0);
+    private final AtomicLong discarded = new AtomicLong(0);
+
+    /**
+     * @param settings 打开新窗口时读取，配置重载后下一个窗口生效
+     */
+    public EventAggregator(Supplier<Settings> settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * 玩家该类型的窗口是否已打开；已打开时新事件应直接并入，不再经过冷却判断
+     */
+    public boolean isOpen(UUID playerId, String type) {
+        Map<String, Window> playerWindows = windows.get(playerId);
+        return playerWindows != null && playerWindows.containsKey(type);
+    }
+
+    /**
+     * 加入一次伤害
+     * @param source 伤害来源（实体名或伤害类型）
+     * @param healthAfter 受伤后的生命值
+     * @param single 窗口内只有这一次伤害时输出的原始消息
+     * @return 达到阈值时立即输出的事件，否则为null
+     */
+    public Flush addDamage(UUID playerId, String source, double damage, double healthAfter, double maxHealth,
+                           String single) {
+        DamageWindow window = (DamageWindow) open(playerId, "damage", DamageWindow::new);
+        window.add(source, damage, healthAfter, maxHealth, single);
+        boolean reached = window.events >= window.settings.maxEvents
+            || (window.settings.damageThreshold > 0 && window.totalDamage >= window.settings.damageThreshold);
+        return reached ? flushNow(playerId, "damage") : null;
+    }
+
+    /**
+     * 加入一次药水效果变化（potion_add / potion_remove）
+     * @param label 合并时显示的效果描述
+     * @param single 窗口内只有这一条时输出的原始消息
+     */
+    public Flush addPotion(UUID playerId, String type, String label, String single) {
+        PotionWindow window = (PotionWindow) open(playerId, type, () -> new PotionWindow(type));
+        window.add(label, single);
+        return window.events >= window.settings.maxEvents ? flushNow(playerId, type) : null;
+    }
+
+    /**
+     * 加入一次升级，窗口输出时合并为"最初等级,最终等级,附加信息"
+     * @param details 最后一次升级时的附加信息（生命值、攻击力）
+     */
+    public Flush addLevel(UUID playerId, int oldLevel, int newLevel, String details) {
+        LevelWindow window = (LevelWindow) open(playerId, "level_up", LevelWindow::new);
+        window.add(oldLevel, newLevel, details);
+        return window.events >= window.settings.maxEvents ? flushNow(playerId, "level_up") : null;
+    }
+
+    /**
+     * 取出所有到期的窗口
+     */
+    public List<Flush> drainExpired(long now) {
+        List<Flush> ready = new ArrayList<>();
+        for (Map.Entry<UUID, Map<String, Window>> entry : windows.entrySet()) {
+            Iterator<Window> it = entry.getValue().values().iterator();
+            while (it.hasNext()) {
+                Window window = it.next();
+                if (now - window.openedAt >= window.settings.windowMillis) {
+                    it.remove();
+                    flushedByTimer.incrementAndGet();
+                    ready.add(window.toFlush(entry.getKey()));
+                }
+            }
+            if (entry.getValue().isEmpty()) {
+                windows.remove(entry.getKey(), entry.getValue());
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * 丢弃玩家的全部窗口（玩家离线时）
+     */
+    public void discard(UUID playerId) {
+        Map<String, Window> removed = windows.remove(playerId);
+        if (removed != null) {
+            discarded.addAndGet(removed.size());
+        }
+    }
+
+    public void clear() {
+        windows.clear();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        int open = 0;
+        for (Map<String, Window> playerWindows : windows.values()) {
+            open += playerWindows.size();
+        }
+        stats.put("openWindows", open);
+        stats.put("windowsOpened", windowsOpened.get());
+        stats.put("eventsFolded", eventsFolded.get());
+        stats.put("flushedByTimer", flushedByTimer.get());
+        stats.put("flushedByThreshold", flushedByThreshold.get());
+        stats.put("discarded", discarded.get());
+        return stats;
+    }
+
+    private Window open(UUID playerId, String type, Supplier<Window> factory) {
+        Map<String, Window> playerWindows = windows.computeIfAbsent(playerId, k -> new ConcurrentHashMap<>());
+        Window window = playerWindows.get(type);
+        if (window == null) {
+            window = factory.get();
+            window.settings = settings.get();
+            window.openedAt = System.currentTimeMillis();
+            playerWindows.put(type, window);
+            windowsOpened.incrementAndGet();
+        } else {
+            eventsFolded.incrementAndGet();
+        }
+        return window;
+    }
+
+    private Flush flushNow(UUID playerId, String type) {
+        Map<String, Window> playerWindows = windows.get(playerId);
+        Window window = playerWindows != null ? playerWindows.remove(type) : null;
+        if (window == null) {
+            return null;
+        }
+        if (playerWindows.isEmpty()) {
+            windows.remove(playerId, playerWindows);
+        }
+        flushedByThreshold.incrementAndGet();
+        return window.toFlush(playerId);
+    }
+
+    private abstract static class Window {
+        Settings settings;
+        long openedAt;
+        int events;
+        String single;
+
+        Flush toFlush(UUID playerId) {
+            return new Flush(playerId, type(), events == 1 ? single : summarize(), events);
+        }
+
+        abstract String type();
+
+        abstract String summarize();
+    }
+
+    private static final class DamageWindow extends Window {
+        final Map<String, Integer> sources = new LinkedHashMap<>();
+        double totalDamage;
+        double healthAfter;
+        double maxHealth;
+
+        void add(String source, double damage, double healthAfter, double maxHealth, String single) {
+            if (events == 0) {
+                this.single = single;
+            }
+            events++;
+            sources.merge(source, 1, Integer::sum);
+            totalDamage += damage;
+            this.healthAfter = healthAfter;
+            this.maxHealth = maxHealth;
+        }
+
+        @Override
+        String type() {
+            return "damage";
+        }
+
+        @Override
+        String summarize() {
+            List<Map.Entry<String, Integer>> ordered = new ArrayList<>(sources.entrySet());
+            ordered.sort((a, b) -> b.getValue() - a.getValue());
+            StringBuilder builder = new StringBuilder();
+            for (Map.Entry<String, Integer> source : ordered) {
+                if (builder.length() > 0) {
+                    builder.append('、');
+                }
+                builder.append(source.getKey()).append('x').append(source.getValue());
+            }
+            return builder.append(String.format("连续攻击%d次，共损失%.1f点生命，剩余%.1f/%.1f",
+                events, totalDamage, Math.max(0, healthAfter), maxHealth)).toString();
+        }
+    }
+
+    private static final class PotionWindow extends Window {
+        final Set<String> effects = new LinkedHashSet<>();
+        final String type;
+
+        PotionWindow(String type) {
+            this.type = type;
+        }
+
+        void add(String label, String single) {
+            if (events == 0) {
+                this.single = single;
+            }
+            events++;
+            effects.add(label);
+        }
+
+        @Override
+        String type() {
+            return type;
+        }
+
+        @Override
+        String summarize() {
+            return String.join("、", effects);
+        }
+    }
+
+    private static final class LevelWindow extends Window {
+        int fromLevel;
+        int toLevel;
+        String details;
+
+        void add(int oldLevel, int newLevel, String details) {
+            if (events == 0) {
+                fromLevel = oldLevel;
+            }
+            events++;
+            toLevel = newLevel;
+            this.details = details;
+            this.single = summarize();
+        }
+
+        @Override
+        String type() {
+            return "level_up";
+        }
+
+        @Override
+        String summarize() {
+            return fromLevel + "," + toLevel + (details != null && !details.isEmpty() ? "," + details : "");
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.example.aichatplugin;
+
+import com.example.aichatplugin.ai.AdaptiveConcurrencyLimiter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 系统事件微批处理
+ *
+ * 高峰期伤害、药水、升级等系统事件往往在几毫秒内接连产生，逐个请求会占用大量并发和token。
+ * 这里把一个短窗口内（跨玩家）的事件合并为一次请求，要求AI按编号逐条回复，再把回复拆回各个事件。
+ *
+ * 1. 第一个事件到达时开始计时，窗口结束或攒满max-batch-size时发送
+ * 2. 窗口内只有一个事件时按普通请求发送
+ * 3. 回复中缺少某个编号，或批量请求失败时，对应事件回退为单独请求
+ *    （并发限制排队超时除外，此时直接把失败交给调用方降级）
+ */
+public class EventBatcher {
+
+    private static final String DEFAULT_SYSTEM_PROMPT = "你是Minecraft服务器里的AI助手，会对玩家的游戏事件做出简短自然的回应。";
+    private static final String DEFAULT_BATCH_TEMPLATE =
+        "下面是几名玩家刚刚发生的游戏事件，请分别为每一条写一句简短的回应（不超过30字）。\n" +
+        "严格按照\"[编号] 回应\"的格式逐行输出，每条一行，不要遗漏编号，不要输出其他内容。\n{events}";
+    private static final Pattern REPLY_LINE = Pattern.compile("^\\s*[\\[【](\\d+)[\\]】]\\s*[:：]?\\s*(.+?)\\s*$");
+
+    /**
+     * 批量请求的发送方式
+     */
+    public interface Transport {
+        CompletableFuture<String> send(String systemPrompt, String prompt, int maxTokens);
+    }
+
+    /**
+     * 批处理参数
+     */
+    public static class Settings {
+        final long windowMillis;
+        final int maxBatchSize;
+        final int maxTokensPerItem;
+        final String systemPrompt;
+        final String template;
+
+        public Settings(long windowMillis, int maxBatchSize, int maxTokensPerItem, String systemPrompt, String template) {
+            this.windowMillis = Math.max(1, windowMillis);
+            this.maxBatchSize = Math.max(1, maxBatchSize);
+            this.maxTokensPerItem = Math.max(1, maxTokensPerItem);
+            this.systemPrompt = systemPrompt != null && !systemPrompt.isEmpty() ? systemPrompt : DEFAULT_SYSTEM_PROMPT;
+            this.template = template != null && !template.isEmpty() ? template : DEFAULT_BATCH_TEMPLATE;
+        }
+    }
+
+    private final Transport transport;
+    private final Supplier<Settings> settings;
+    private final ScheduledExecutorService scheduler;
+    private final Object lock = new Object();
+    private List<Item> pending = new ArrayList<>();
+    private ScheduledFuture<?> flushTask;
+
+    private final AtomicLong batches = new AtomicLong(0);
+    private final AtomicLong batchedItems = new AtomicLong(0);
+    private final AtomicLong singleItems = new AtomicLong(0);
+    private final AtomicLong missingReplies = new AtomicLong(0);
+    private final AtomicLong failedBatches = new AtomicLong(0);
+
+    /**
+     * @param transport 发送批量请求（不带玩家历史）
+     * @param settings 每次开始新批次时读取，配置重载后下一批生效
+     */
+    public EventBatcher(Transport transport, Supplier<Settings> settings) {
+        this.transport = transport;
+        this.settings = settings;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "AIChat-EventBatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 加入当前批次
+     * @param label 事件主体（玩家名），写入批量提示词
+     * @param event 事件描述
+     * @param individual 回退为单独请求时的调用
+     * @return 该事件的回复
+     */
+    public CompletableFuture<String> submit(String label, String event, Supplier<CompletableFuture<String>> individual) {
+        Item item = new Item(label, event, individual);
+        List<Item> ready = null;
+        synchronized (lock) {
+            Settings current = settings.get();
+            pending.add(item);
+            if (pending.size() >= current.maxBatchSize) {
+                ready = takePending();
+            } else if (flushTask == null) {
+                try {
+                    flushTask = scheduler.schedule(this::flushPending, current.windowMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    ready = takePending();
+                }
+            }
+        }
+        if (ready != null) {
+            send(ready);
+        }
+        return item.result;
+    }
+
+    private List<Item> takePending() {
+        List<Item> taken = pending;
+        pending = new ArrayList<>();
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        return taken;
+    }
+
+    private void flushPending() {
+        List<Item> ready;
+        synchronized (lock) {
+            flushTask = null;
+            if (pending.isEmpty()) {
+                return;
+            }
+            ready = takePending();
+        }
+        send(ready);
+    }
+
+    private void send(List<Item> items) {
+        if (items.size() == 1) {
+            singleItems.incrementAndGet();
+            sendIndividually(items.get(0));
+            return;
+        }
+
+        Settings current = settings.get();
+        batches.incrementAndGet();
+        batchedItems.addAndGet(items.size());
+        String prompt = buildPrompt(current.template, items);
+        CompletableFuture<String> response;
+        try {
+            response = transport.send(current.systemPrompt, prompt, current.maxTokensPerItem * items.size());
+        } catch (RuntimeException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+        response.whenComplete((content, error) -> {
+            if (error != null) {
+                failedBatches.incrementAndGet();
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                for (Item item : items) {
+                    if (cause instanceof AdaptiveConcurrencyLimiter.ShedException) {
+                        item.result.completeExceptionally(cause);
+                    } else {
+                        sendIndividually(item);
+                    }
+                }
+                return;
+            }
+            Map<Integer, String> replies = parseReplies(content);
+            for (int i = 0; i < items.size(); i++) {
+                String reply = replies.get(i + 1);
+                if (reply != null) {
+                    items.get(i).result.complete(reply);
+                } else {
+                    missingReplies.incrementAndGet();
+                    sendIndividually(items.get(i));
+                }
+            }
+        });
+    }
+
+    private void sendIndividually(Item item) {
+        CompletableFuture<String> individual;
+        try {
+            individual = item.individual.get();
+        } catch (RuntimeException e) {
+            item.result.completeExceptionally(e);
+            return;
+        }
+        individual.whenComplete((content, error) -> {
+            if (error != null) {
+                item.result.completeExceptionally(error);
+            } else {
+                item.result.complete(content);
+            }
+        });
+    }
+
+    static String buildPrompt(String template, List<Item> items) {
+        StringBuilder events = new StringBuilder();
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            events.append('[').append(i + 1).append("] 玩家").append(item.label).append(": ")
+                .append(item.event.replace('\n', ' ')).append('\n');
+        }
+        return template.replace("{events}", events.toString());
+    }
+
+    /**
+     * 按"[编号] 回应"解析批量回复，同一编号出现多次时取第一条
+     */
+    static Map<Integer, String> parseReplies(String content) {
+        Map<Integer, String> replies = new HashMap<>();
+        if (content == null) {
+            return replies;
+        }
+        for (String line : content.split("\\r?\\n")) {
+            Matcher matcher = REPLY_LINE.matcher(line);
+            if (matcher.matches()) {
+                try {
+                    replies.putIfAbsent(Integer.parseInt(matcher.group(1)), matcher.group(2));
+                } catch (NumberFormatException e) {
+                    // 编号过长，忽略该行
+                }
+            }
+        }
+        return replies;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long batchCount = batches.get();
+        stats.put("batches", batchCount);
+        stats.put("batchedItems", batchedItems.get());
+        stats.put("averageBatchSize", batchCount > 0 ? (double) batchedItems.get() / batchCount : 0.0);
+        stats.put("singleItems", singleItems.get());
+        stats.put("missingReplies", missingReplies.get());
+        stats.put("failedBatches", failedBatches.get());
+        synchronized (lock) {
+            stats.put("pending", pending.size());
+        }
+        return stats;
+    }
+
+    /**
+     * 立即发送已收集的事件并停止计时线程
+     */
+    public void shutdown() {
+        List<Item> ready;
+        synchronized (lock) {
+            ready = takePending();
+        }
+        if (!ready.isEmpty()) {
+            send(ready);
+        }
+        scheduler.shutdownNow();
+    }
+
+    static final class Item {
+        final String label;
+        final String event;
+        final Supplier<CompletableFuture<String>> individual;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+
+        Item(String label, String event, Supplier<CompletableFuture<String>> individual) {
+            this.label = label;
+            this.event = event;
+            this.individual = individual;
+        }
+    }
+}
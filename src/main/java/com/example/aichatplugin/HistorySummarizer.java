@@ -0,0 +1,184 @@
+package com.example.aichatplugin;
+
+import com.example.aichatplugin.performance.OperationMode;
+import com.example.aichatplugin.performance.PerformanceMonitor;
+import com.example.aichatplugin.util.HistoryBuffer;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * 历史滚动摘要
+ *
+ * 玩家历史的token数超过阈值时，在后台把较早的对话和已有摘要合并为一段新摘要，
+ * 再从历史中移除这些消息；摘要随系统提示词发送，长期在线玩家的请求大小因此保持有界。
+ *
+ * 1. 在单个低优先级守护线程上准备请求，AI调用走正常的并发限制，不占用消息处理阶段
+ * 2. 只在FULL/LITE模式下运行，服务器繁忙时推迟到下一次触发
+ * 3. 每个玩家同时最多一个摘要任务；单次最多读取max-input-tokens，更早的积压分多轮压缩
+ */
+public class HistorySummarizer {
+
+    private static final String DEFAULT_SYSTEM_PROMPT = "你负责压缩Minecraft玩家与AI助手的对话记录，只输出摘要。";
+    private static final String DEFAULT_SUMMARIZE_TEMPLATE =
+        "把已有摘要和下面的对话合并为一段新的摘要，保留玩家的目标、偏好、进度和未解决的问题，" +
+        "省略寒暄和重复内容，不超过150字，只输出摘要本身。\n已有摘要：{summary}\n对话：\n{history}";
+
+    private final AIChatPlugin plugin;
+    private final ConversationManager conversationManager;
+    private final ConfigLoader config;
+    private final ExecutorService executor;
+    private final Set<UUID> pending = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong summaries = new AtomicLong(0);
+    private final AtomicLong summarizedMessages = new AtomicLong(0);
+    private final AtomicLong failures = new AtomicLong(0);
+    private final AtomicLong deferredByMode = new AtomicLong(0);
+    private final AtomicLong discarded = new AtomicLong(0);
+
+    public HistorySummarizer(AIChatPlugin plugin, ConversationManager conversationManager) {
+        this.plugin = plugin;
+        this.conversationManager = conversationManager;
+        this.config = plugin.getConfigLoader();
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "AIChat-HistorySummarizer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * 历史token数超过阈值时安排一次摘要（由addMessage和定时清理调用，开销为O(1)）
+     * @param historyTokens 玩家当前历史的token数
+     */
+    public void maybeSchedule(UUID playerId, long historyTokens) {
+        if (!config.isHistorySummaryEnabled() || historyTokens <= config.getHistorySummaryTriggerTokens()) {
+            return;
+        }
+        if (!isModeAllowed()) {
+            deferredByMode.incrementAndGet();
+            return;
+        }
+        if (!pending.add(playerId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> summarize(playerId));
+        } catch (RejectedExecutionException e) {
+            pending.remove(playerId);
+        }
+    }
+
+    private void summarize(UUID playerId) {
+        try {
+            if (!isModeAllowed()) {
+                deferredByMode.incrementAndGet();
+                pending.remove(playerId);
+                return;
+            }
+
+            HistoryBuffer.Snapshot history = conversationManager.getHistorySnapshot(playerId);
+            int count = selectOlderMessages(history);
+            if (count == 0) {
+                pending.remove(playerId);
+                return;
+            }
+
+            List<Message> older = history.toMessages(0, count);
+            String previous = conversationManager.getHistorySummary(playerId);
+            String prompt = buildPrompt(previous, older);
+
+            plugin.getAIService().generateBackgroundResponseAsync(DEFAULT_SYSTEM_PROMPT, prompt,
+                    config.getHistorySummaryMaxTokens())
+                .whenComplete((summary, error) -> {
+                    pending.remove(playerId);
+                    if (error != null || summary == null || summary.trim().isEmpty()) {
+                        failures.incrementAndGet();
+                        plugin.debug("生成历史摘要失败 - 玩家: " + playerId +
+                            (error != null ? ", 错误: " + error.getMessage() : ""));
+                        return;
+                    }
+                    if (conversationManager.applyHistorySummary(playerId, history, count, summary.trim())) {
+                        summaries.incrementAndGet();
+                        summarizedMessages.addAndGet(count);
+                        plugin.debug("已压缩历史 - 玩家: " + playerId + ", 合并消息数: " + count);
+                    } else {
+                        // 生成期间历史被清空或裁剪，结果作废
+                        discarded.incrementAndGet();
+                    }
+                });
+        } catch (Exception e) {
+            pending.remove(playerId);
+            failures.incrementAndGet();
+            plugin.getLogger().log(Level.WARNING, "准备历史摘要时发生错误", e);
+        }
+    }
+
+    /**
+     * 确定要压缩的较早消息数：保留最近keep-recent-tokens的原始消息，
+     * 其余从最早的开始取，最多max-input-tokens（至少一条）
+     * 两端都在历史的token前缀和上二分查找
+     */
+    private int selectOlderMessages(HistoryBuffer.Snapshot history) {
+        long keepBudget = config.getHistorySummaryKeepRecentTokens();
+        int keepFrom = keepBudget > 0 ? history.windowStart(keepBudget) : history.size();
+        int count = history.windowEnd(config.getHistorySummaryMaxInputTokens());
+        return Math.min(Math.max(count, 1), keepFrom);
+    }
+
+    private String buildPrompt(String previous, List<Message> older) {
+        StringBuilder historyStr = new StringBuilder();
+        for (Message msg : older) {
+            historyStr.append(msg.isAI() ? "AI" : "玩家").append(": ").append(msg.getContent()).append("\n");
+        }
+        String template = config.getConversationPrompt("summarize");
+        if (template == null || template.isEmpty()) {
+            template = DEFAULT_SUMMARIZE_TEMPLATE;
+        }
+        return template
+            .replace("{summary}", previous != null && !previous.isEmpty() ? previous : "无")
+            .replace("{history}", historyStr.toString());
+    }
+
+    private boolean isModeAllowed() {
+        PerformanceMonitor monitor = plugin.getPerformanceMonitor();
+        if (monitor == null) {
+            return true;
+        }
+        OperationMode mode = monitor.getCurrentMode();
+        return mode == OperationMode.FULL || mode == OperationMode.LITE;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", config.isHistorySummaryEnabled());
+        stats.put("pending", pending.size());
+        stats.put("summaries", summaries.get());
+        stats.put("summarizedMessages", summarizedMessages.get());
+        stats.put("failures", failures.get());
+        stats.put("deferredByMode", deferredByMode.get());
+        stats.put("discarded", discarded.get());
+        return stats;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pending.clear();
+    }
+}
@@ -1,5 +1,7 @@
 package com.example.aichatplugin;
 
+import com.example.aichatplugin.util.TokenCounter;
+
 /**
  * 聊天消息类
  * 
@@ -13,6 +15,8 @@ public class Message {
     private final String content;
     private final boolean isAI;
     private final long timestamp;
+    // 内容不可变，token数首次使用时计算后缓存（并发下重复计算结果相同，无需同步）
+    private int tokenCount = -1;
     
     public Message(String sender, String content, boolean isAI) {
         this.sender = sender;
@@ -21,6 +25,24 @@ public class Message {
         this.timestamp = System.currentTimeMillis();
     }
     
+    /**
+     * 从持久化数据恢复消息，保留原始时间戳
+     */
+    public Message(String sender, String content, boolean isAI, long timestamp) {
+        this.sender = sender;
+        this.content = content;
+        this.isAI = isAI;
+        this.timestamp = timestamp;
+    }
+    
+    /**
+     * 🔧 从列式历史恢复消息，带已计算的token数
+     */
+    public Message(String sender, String content, boolean isAI, long timestamp, int tokenCount) {
+        this(sender, content, isAI, timestamp);
+        this.tokenCount = tokenCount;
+    }
+    
     public String getSender() {
         return sender;
     }
@@ -37,6 +59,18 @@ public class Message {
         return timestamp;
     }
     
+    /**
+     * 获取消息内容的token数
+     */
+    public int getTokenCount() {
+        int count = tokenCount;
+        if (count < 0) {
+            count = TokenCounter.count(content);
+            tokenCount = count;
+        }
+        return count;
+    }
+    
     @Override
     public String toString() {
         return String.format("[%s] %s: %s", 
@@ -27,6 +27,7 @@ import org.bukkit.event.entity.*;
 import org.bukkit.event.player.*;
 import org.bukkit.potion.PotionEffect;
 import org.bukkit.potion.PotionEffectType;
+import org.bukkit.scheduler.BukkitTask;
 import org.bukkit.projectiles.BlockProjectileSource;
 import org.bukkit.projectiles.ProjectileSource;
 import org.bukkit.advancement.Advancement;
@@ -129,6 +130,11 @@ public class PlayerStatusListener implements Listener {
     
     private final ConfigLoader configLoader;
     private final PluginStatusService statusService;
+    
+    // 🔧 事件聚合：连续的伤害/药水/升级折叠成一条摘要
+    private static final long AGGREGATION_CHECK_TICKS = 2L;
+    private final EventAggregator eventAggregator;
+    private final BukkitTask aggregationTask;
 
     public PlayerStatusListener(AIChatPlugin plugin) {
         this.plugin = plugin;
@@ -145,11 +151,22 @@ public class PlayerStatusListener implements Listener {
                 return t;
             }
         );
+        this.eventAggregator = new EventAggregator(() -> new EventAggregator.Settings(
+            configLoader.getEventAggregationWindow(),
+            configLoader.getEventAggregationMaxEvents(),
+            configLoader.getEventAggregationDamageThreshold()
+        ));
+        this.aggregationTask = plugin.getServer().getScheduler().runTaskTimer(plugin,
+            this::flushAggregatedEvents, AGGREGATION_CHECK_TICKS, AGGREGATION_CHECK_TICKS);
     }
     
     public void shutdown() {
         plugin.debug("开始关闭PlayerStatusListener...");
         
+        // 停止聚合窗口检查，未输出的窗口直接丢弃
+        aggregationTask.cancel();
+        eventAggregator.clear();
+        
         // 停止接收新任务
         eventExecutor.shutdown();
         
@@ -223,13 +240,28 @@ public class PlayerStatusListener implements Listener {
         }
     }
     
+    /**
+     * 登录前在异步线程预取对话历史，玩家进入时已在内存中
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            return;
+        }
+        conversationManager.prefetchHistory(event.getUniqueId());
+    }
+    
     @EventHandler(priority = EventPriority.MONITOR)
     public void onPlayerJoin(PlayerJoinEvent event) {
+        Player player = event.getPlayer();
+        
+        // 历史常驻内存（登录前未预取到时在后台加载），加入消息关闭时也不例外
+        conversationManager.handlePlayerJoin(player.getUniqueId());
+        
         if (!configLoader.isJoinEnabled()) {
             return;
         }
         
-        Player player = event.getPlayer();
         if (!shouldProcessEvent(player, PlayerJoinEvent.class)) {
             return;
         }
@@ -240,20 +272,18 @@ public class PlayerStatusListener implements Listener {
     
     @EventHandler(priority = EventPriority.MONITOR)
     public void onPlayerQuit(PlayerQuitEvent event) {
-        if (!configLoader.isQuitEnabled()) {
-            return;
-        }
-        
         Player player = event.getPlayer();
-        if (!shouldProcessEvent(player, PlayerQuitEvent.class)) {
-            return;
-        }
-        
-        statusService.recordEventProcessed("quit");
-        conversationManager.processMessage(player, "", "quit");
         
-        // 清理玩家伤害状态
+        // 清理玩家伤害状态和未输出的聚合窗口
         playerDamageStates.remove(player.getUniqueId());
+        eventAggregator.discard(player.getUniqueId());
+        
+        // 🔧 状态清理总是执行；告别消息异步生成，不阻塞主线程
+        boolean farewell = configLoader.isQuitEnabled() && shouldProcessEvent(player, PlayerQuitEvent.class);
+        if (farewell) {
+            statusService.recordEventProcessed("quit");
+        }
+        conversationManager.handlePlayerQuit(player, farewell);
     }
     
     @EventHandler(priority = EventPriority.MONITOR)
@@ -311,7 +341,9 @@ public class PlayerStatusListener implements Listener {
         }
         
         Player player = event.getPlayer();
-        if (!shouldProcessEvent(player, PlayerLevelChangeEvent.class)) {
+        boolean aggregate = configLoader.isEventAggregationEnabled();
+        if (!(aggregate && eventAggregator.isOpen(player.getUniqueId(), "level_up"))
+                && !shouldProcessEvent(player, PlayerLevelChangeEvent.class)) {
             return;
         }
         
@@ -324,6 +356,13 @@ public class PlayerStatusListener implements Listener {
         double health = healthAttr != null ? healthAttr.getValue() : 20.0;
         double attack = attackAttr != null ? attackAttr.getValue() : 1.0;
         
+        if (aggregate) {
+            // 连续升级合并为"最初等级 -> 最终等级"
+            dispatchAggregated(eventAggregator.addLevel(player.getUniqueId(),
+                event.getOldLevel(), event.getNewLevel(), health + "," + attack));
+            return;
+        }
+        
         StringBuilder builder = damageInfoBuilder.get();
         builder.setLength(0);
         builder.append(event.getOldLevel())
@@ -389,6 +428,19 @@ public class PlayerStatusListener implements Listener {
         }
         
         Player player = (Player) event.getEntity();
+        boolean aggregate = configLoader.isEventAggregationEnabled();
+        
+        // 🔧 聚合窗口已打开时直接并入，冷却只决定能否打开新窗口
+        if (aggregate && eventAggregator.isOpen(player.getUniqueId(), "damage")) {
+            double damage = event.getFinalDamage();
+            if (!Double.isNaN(damage)) {
+                dispatchAggregated(eventAggregator.addDamage(player.getUniqueId(),
+                    describeAggregatedSource(event.getCause(), resolveDamageSource(event)),
+                    damage, player.getHealth() - damage, player.getMaxHealth(), null));
+            }
+            return;
+        }
+        
         if (!shouldProcessEvent(player, EntityDamageEvent.class)) {
             return;
         }
@@ -463,14 +515,64 @@ public class PlayerStatusListener implements Listener {
         
         String damageInfo = builder.toString();
         
-        // 直接调用processMessage，让ConversationManager内部处理异步逻辑
-        conversationManager.processMessage(player, damageInfo, "damage");
+        if (aggregate) {
+            // 打开聚合窗口，窗口内只有这一次伤害时按原格式发送
+            dispatchAggregated(eventAggregator.addDamage(playerId, describeAggregatedSource(cause, damageSource),
+                finalDamage, player.getHealth() - finalDamage, player.getMaxHealth(), damageInfo));
+        } else {
+            // 直接调用processMessage，让ConversationManager内部处理异步逻辑
+            conversationManager.processMessage(player, damageInfo, "damage");
+        }
         
         plugin.debug("处理伤害事件 - 模式: " + 
             (performanceMonitor != null ? performanceMonitor.getCurrentMode() : "未知") +
             ", 冷却: " + dynamicCooldown + "ms");
     }
     
+    /**
+     * 聚合摘要中的来源名：环境伤害按伤害类型区分（摔落、着火等）
+     */
+    private String describeAggregatedSource(EntityDamageEvent.DamageCause cause, String damageSource) {
+        if (ENVIRONMENT_DAMAGE.equals(damageSource)) {
+            return cause.name().toLowerCase().replace("_", " ");
+        }
+        return damageSource;
+    }
+    
+    /**
+     * 定时检查聚合窗口，输出到期的窗口（主线程）
+     */
+    private void flushAggregatedEvents() {
+        List<EventAggregator.Flush> ready = eventAggregator.drainExpired(System.currentTimeMillis());
+        for (EventAggregator.Flush flush : ready) {
+            dispatchAggregated(flush);
+        }
+    }
+    
+    private void dispatchAggregated(EventAggregator.Flush flush) {
+        if (flush == null) {
+            return;
+        }
+        Player player = plugin.getServer().getPlayer(flush.getPlayerId());
+        if (player == null || !player.isOnline()) {
+            return;
+        }
+        if (flush.getEvents() > 1) {
+            plugin.debug("聚合事件 - 玩家: " + player.getName() + ", 类型: " + flush.getType()
+                + ", 合并" + flush.getEvents() + "条: " + flush.getMessage());
+        }
+        conversationManager.processMessage(player, flush.getMessage(), flush.getType());
+    }
+    
+    /**
+     * 事件聚合统计
+     */
+    public Map<String, Object> getAggregationStats() {
+        Map<String, Object> stats = new LinkedHashMap<>(eventAggregator.getStats());
+        stats.put("enabled", configLoader.isEventAggregationEnabled());
+        return stats;
+    }
+    
     /**
      * 获取动态冷却时间（根据性能模式调整）
      */
@@ -497,9 +599,6 @@ public class PlayerStatusListener implements Listener {
         }
         
         Player player = (Player) event.getEntity();
-        if (!shouldProcessEvent(player, EntityPotionEffectEvent.class)) {
-            return;
-        }
         
         // 忽略效果更新事件
         if (event.getAction() == EntityPotionEffectEvent.Action.CHANGED) {
@@ -509,24 +608,41 @@ public class PlayerStatusListener implements Listener {
         PotionEffect newEffect = event.getNewEffect();
         PotionEffect oldEffect = event.getOldEffect();
         
+        String type;
+        String message;
+        String label;
         if (newEffect != null) {
             if (newEffect.getType() == null) {
                 plugin.getLogger().warning("无效药水效果类型");
                 return;
             }
             String effectName = getPotionEffectName(newEffect.getType());
-            conversationManager.processMessage(player, 
-                effectName + "," + newEffect.getAmplifier(), 
-                "potion_add");
+            type = "potion_add";
+            message = effectName + "," + newEffect.getAmplifier();
+            label = effectName + " " + (newEffect.getAmplifier() + 1) + "级";
         } else if (oldEffect != null) {
             if (oldEffect.getType() == null) {
                 plugin.getLogger().warning("无效药水效果类型");
                 return;
             }
-            String effectName = getPotionEffectName(oldEffect.getType());
-            conversationManager.processMessage(player, 
-                effectName, 
-                "potion_remove");
+            type = "potion_remove";
+            message = getPotionEffectName(oldEffect.getType());
+            label = message;
+        } else {
+            return;
+        }
+        
+        boolean aggregate = configLoader.isEventAggregationEnabled();
+        if (!(aggregate && eventAggregator.isOpen(player.getUniqueId(), type))
+                && !shouldProcessEvent(player, EntityPotionEffectEvent.class)) {
+            return;
+        }
+        
+        if (aggregate) {
+            // 同一窗口内的多个效果合并为"速度 2级、力量 1级"
+            dispatchAggregated(eventAggregator.addPotion(player.getUniqueId(), type, label, message));
+        } else {
+            conversationManager.processMessage(player, message, type);
         }
     }
     
@@ -0,0 +1,41 @@
+package com.example.aichatplugin.ai;
+
+import okhttp3.Response;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * AI后端提供者
+ *
+ * 每个提供者对应一个聊天补全端点（URL + 模型 + 密钥池）。
+ * 请求内容由调用方提供（ChatRequest：消息、温度等），提供者负责填入自己的模型名、
+ * 序列化、选择密钥并发送；重试、缓存和路由都在上层处理。
+ */
+public interface AIProvider {
+
+    /**
+     * 提供者名称（用于路由统计和日志）
+     */
+    String getName();
+
+    String getModel();
+
+    /**
+     * 发送一次非流式请求（不重试）
+     * 取消返回的Future会同时取消底层HTTP调用
+     * @return 回复内容；HTTP错误以DeepSeekAIService中定义的异常类型完成
+     */
+    CompletableFuture<String> chat(ChatRequest request);
+
+    /**
+     * 异步打开一次流式请求（不重试）
+     * 响应头到达后以状态码已检查的响应完成，调用方负责读取并关闭；取消返回的Future会同时取消底层HTTP调用
+     */
+    CompletableFuture<Response> openStream(ChatRequest request);
+
+    /**
+     * 密钥池统计
+     */
+    Map<String, Object> getKeyPoolStats();
+}
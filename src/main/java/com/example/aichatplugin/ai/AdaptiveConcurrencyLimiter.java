@@ -0,0 +1,267 @@
+package com.example.aichatplugin.ai;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 自适应并发限制器（梯度算法 + AIMD）
+ *
+ * 在途上游请求数上限随实测延迟调整：
+ * 1. 梯度：gradient = 长期RTT / 短期RTT（限制在0.5-1.0之间），
+ *    新上限 = 当前上限 × gradient + 排队余量(√上限)；延迟平稳时上限持续增长，延迟上升时收缩
+ * 2. AIMD：收到429或请求超时立即把上限减半
+ * 3. 超出上限的请求进入等待队列，超过截止时间仍未获得许可则以ShedException失败，
+ *    由调用方返回降级回复
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    /**
+     * 请求结果，用于调整上限
+     */
+    public enum Outcome {
+        /** 正常完成，RTT参与梯度计算 */
+        SUCCESS,
+        /** 限流或超时，上限减半 */
+        DROPPED,
+        /** 与负载无关的失败（如参数错误），不参与调整 */
+        IGNORED
+    }
+
+    /**
+     * 排队超过截止时间或队列已满时抛出
+     */
+    public static class ShedException extends RuntimeException {
+        public ShedException(String message) {
+            super(message);
+        }
+    }
+
+    private static final double SHORT_RTT_ALPHA = 0.2;
+    private static final double LONG_RTT_ALPHA = 0.01;
+    private static final double LIMIT_SMOOTHING = 0.2;
+    private static final double MIN_GRADIENT = 0.5;
+    private static final double DECREASE_FACTOR = 0.5;
+
+    private final ScheduledExecutorService scheduler;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueueSize;
+    private final Deque<Waiter> queue = new ArrayDeque<>();
+
+    private double limit;
+    private int inFlight;
+    private double shortRtt;
+    private double longRtt;
+
+    private final AtomicLong acquired = new AtomicLong(0);
+    private final AtomicLong queued = new AtomicLong(0);
+    private final AtomicLong shed = new AtomicLong(0);
+    private final AtomicLong drops = new AtomicLong(0);
+
+    /**
+     * @param scheduler 用于排队截止时间的调度器
+     * @param initialLimit 初始并发上限
+     * @param minLimit 最小并发上限
+     * @param maxLimit 最大并发上限
+     * @param maxQueueSize 最大排队数，超过时直接拒绝
+     */
+    public AdaptiveConcurrencyLimiter(ScheduledExecutorService scheduler, int initialLimit,
+                                      int minLimit, int maxLimit, int maxQueueSize) {
+        this.scheduler = scheduler;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.maxQueueSize = Math.max(0, maxQueueSize);
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+    }
+
+    /**
+     * 获取许可后执行异步任务，任务完成时自动释放许可
+     * @param task 上游调用
+     * @param outcomeOf 根据异常判断结果类型（无异常时为SUCCESS）
+     * @param queueTimeoutMillis 最长排队时间
+     */
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> task,
+                                            java.util.function.Function<Throwable, Outcome> outcomeOf,
+                                            long queueTimeoutMillis) {
+        return acquire(queueTimeoutMillis).thenCompose(permit -> {
+            CompletableFuture<T> future;
+            try {
+                future = task.get();
+            } catch (RuntimeException e) {
+                permit.release(Outcome.IGNORED);
+                throw e;
+            }
+            return future.whenComplete((value, error) ->
+                permit.release(error == null ? Outcome.SUCCESS : outcomeOf.apply(error)));
+        });
+    }
+
+    /**
+     * 申请一个许可；有空位时立即完成，否则排队直到有空位或超过截止时间
+     */
+    public CompletableFuture<Permit> acquire(long queueTimeoutMillis) {
+        Waiter waiter;
+        synchronized (this) {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                acquired.incrementAndGet();
+                return CompletableFuture.completedFuture(new Permit());
+            }
+            if (queue.size() >= maxQueueSize) {
+                shed.incrementAndGet();
+                return CompletableFuture.failedFuture(new ShedException("AI请求队列已满"));
+            }
+            waiter = new Waiter();
+            queue.addLast(waiter);
+            queued.incrementAndGet();
+        }
+
+        try {
+            waiter.timeout = scheduler.schedule(() -> expire(waiter), queueTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            expire(waiter);
+        }
+        return waiter.future;
+    }
+
+    /**
+     * 有空位时立即取得许可，否则返回null；不排队，用于可以放弃的附加请求（如对冲副本）
+     */
+    public synchronized Permit tryAcquire() {
+        if (inFlight < (int) limit) {
+            inFlight++;
+            acquired.incrementAndGet();
+            return new Permit();
+        }
+        return null;
+    }
+
+    private void expire(Waiter waiter) {
+        synchronized (this) {
+            if (!queue.remove(waiter)) {
+                return; // 已获得许可
+            }
+        }
+        shed.incrementAndGet();
+        waiter.future.completeExceptionally(new ShedException("AI请求排队超时"));
+    }
+
+    /**
+     * 释放许可并根据结果调整上限，然后唤醒排队的请求
+     */
+    private void release(long rttNanos, Outcome outcome) {
+        Deque<Waiter> ready = new ArrayDeque<>();
+        synchronized (this) {
+            int observedInFlight = inFlight;
+            inFlight--;
+
+            if (outcome == Outcome.DROPPED) {
+                drops.incrementAndGet();
+                limit = Math.max(minLimit, limit * DECREASE_FACTOR);
+            } else if (outcome == Outcome.SUCCESS) {
+                updateLimit(rttNanos / 1_000_000.0, observedInFlight);
+            }
+
+            while (inFlight < (int) limit && !queue.isEmpty()) {
+                inFlight++;
+                acquired.incrementAndGet();
+                ready.add(queue.pollFirst());
+            }
+        }
+
+        // 在锁外完成Future，避免在持锁时执行下游回调
+        for (Waiter waiter : ready) {
+            if (waiter.timeout != null) {
+                waiter.timeout.cancel(false);
+            }
+            if (!waiter.future.complete(new Permit())) {
+                release(0, Outcome.IGNORED); // 调用方已放弃
+            }
+        }
+    }
+
+    private void updateLimit(double rttMillis, int observedInFlight) {
+        if (longRtt == 0) {
+            shortRtt = rttMillis;
+            longRtt = rttMillis;
+        } else {
+            shortRtt += SHORT_RTT_ALPHA * (rttMillis - shortRtt);
+            longRtt += LONG_RTT_ALPHA * (rttMillis - longRtt);
+        }
+
+        // 延迟长期偏高后回落时，让长期基线更快跟随，避免上限被压低太久
+        if (longRtt / shortRtt > 2.0) {
+            longRtt *= 0.95;
+        }
+
+        // 负载很低（未用到一半上限）时延迟不代表容量，不增长上限
+        if (observedInFlight < limit / 2) {
+            return;
+        }
+
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, longRtt / shortRtt));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        newLimit = limit * (1 - LIMIT_SMOOTHING) + newLimit * LIMIT_SMOOTHING;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("limit", (int) limit);
+        stats.put("inFlight", inFlight);
+        stats.put("queueDepth", queue.size());
+        stats.put("minLimit", minLimit);
+        stats.put("maxLimit", maxLimit);
+        stats.put("shortRtt", Math.round(shortRtt));
+        stats.put("longRtt", Math.round(longRtt));
+        stats.put("acquired", acquired.get());
+        stats.put("queued", queued.get());
+        stats.put("shed", shed.get());
+        stats.put("drops", drops.get());
+        return stats;
+    }
+
+    /**
+     * 一次许可，必须调用且只调用一次release
+     */
+    public class Permit {
+        private final long startNanos = System.nanoTime();
+        private boolean released;
+
+        public void release(Outcome outcome) {
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            AdaptiveConcurrencyLimiter.this.release(System.nanoTime() - startNanos, outcome);
+        }
+    }
+
+    private static class Waiter {
+        final CompletableFuture<Permit> future = new CompletableFuture<>();
+        volatile ScheduledFuture<?> timeout;
+    }
+}
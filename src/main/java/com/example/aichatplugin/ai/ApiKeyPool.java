@@ -0,0 +1,352 @@
+package com.example.aichatplugin.ai;
+
+import com.example.aichatplugin.util.CircularBuffer;
+import okhttp3.Headers;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * API密钥池
+ *
+ * 功能：
+ * 1. 每个密钥独立的令牌桶预算，根据429和限流响应头自适应调整速率
+ * 2. 选择策略：最小负载（least-loaded）或平滑加权轮询（weighted-round-robin）
+ * 3. 连续失败达到阈值的密钥暂时移出轮换，冷却后自动恢复
+ * 4. 按密钥统计吞吐量、错误数和延迟
+ */
+public class ApiKeyPool {
+
+    public static final String STRATEGY_LEAST_LOADED = "least-loaded";
+    public static final String STRATEGY_WEIGHTED_ROUND_ROBIN = "weighted-round-robin";
+
+    private static final long THROUGHPUT_WINDOW_MS = 60_000;
+
+    private final List<KeyState> keys = new CopyOnWriteArrayList<>();
+    private volatile String strategy;
+    private volatile int requestsPerMinute;
+    private volatile int ejectionThreshold;
+    private volatile long ejectionMillis;
+
+    public ApiKeyPool(Map<String, Integer> weightedKeys, String strategy, int requestsPerMinute,
+                      int ejectionThreshold, long ejectionMillis) {
+        configure(weightedKeys, strategy, requestsPerMinute, ejectionThreshold, ejectionMillis);
+    }
+
+    /**
+     * 重新配置密钥池，保留仍然存在的密钥的统计数据
+     */
+    public synchronized void configure(Map<String, Integer> weightedKeys, String strategy, int requestsPerMinute,
+                                       int ejectionThreshold, long ejectionMillis) {
+        this.strategy = STRATEGY_WEIGHTED_ROUND_ROBIN.equalsIgnoreCase(strategy)
+            ? STRATEGY_WEIGHTED_ROUND_ROBIN : STRATEGY_LEAST_LOADED;
+        this.requestsPerMinute = Math.max(1, requestsPerMinute);
+        this.ejectionThreshold = Math.max(1, ejectionThreshold);
+        this.ejectionMillis = Math.max(1000, ejectionMillis);
+
+        List<KeyState> updated = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : weightedKeys.entrySet()) {
+            if (entry.getKey() == null || entry.getKey().isEmpty()) {
+                continue;
+            }
+            KeyState state = findKey(entry.getKey());
+            if (state == null) {
+                state = new KeyState(entry.getKey(), this.requestsPerMinute);
+            }
+            state.weight = Math.max(1, entry.getValue());
+            state.configuredRpm = this.requestsPerMinute;
+            state.currentRpm = Math.min(state.currentRpm, this.requestsPerMinute);
+            updated.add(state);
+        }
+        keys.clear();
+        keys.addAll(updated);
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * 选择一个密钥并登记在途请求；池为空时返回null
+     */
+    public synchronized Lease acquire() {
+        if (keys.isEmpty()) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+
+        List<KeyState> candidates = new ArrayList<>();
+        for (KeyState key : keys) {
+            key.refill(now);
+            if (!key.isEjected(now)) {
+                candidates.add(key);
+            }
+        }
+
+        KeyState chosen;
+        if (candidates.isEmpty()) {
+            // 全部被移出轮换时选择最早恢复的密钥，而不是直接失败
+            chosen = keys.get(0);
+            for (KeyState key : keys) {
+                if (key.ejectedUntil < chosen.ejectedUntil) {
+                    chosen = key;
+                }
+            }
+        } else {
+            // 优先在仍有预算的密钥中选择
+            List<KeyState> withBudget = new ArrayList<>();
+            for (KeyState key : candidates) {
+                if (key.tokens >= 1.0) {
+                    withBudget.add(key);
+                }
+            }
+            List<KeyState> pool = withBudget.isEmpty() ? candidates : withBudget;
+            chosen = STRATEGY_WEIGHTED_ROUND_ROBIN.equals(strategy)
+                ? selectWeightedRoundRobin(pool) : selectLeastLoaded(pool);
+        }
+
+        chosen.tokens = Math.max(0.0, chosen.tokens - 1.0);
+        chosen.inFlight++;
+        chosen.requests++;
+        return new Lease(chosen, now);
+    }
+
+    /**
+     * 是否存在未被移出且有预算的密钥（用于决定限流后是否立即换密钥重试）
+     */
+    public synchronized boolean hasAvailableKey() {
+        long now = System.currentTimeMillis();
+        for (KeyState key : keys) {
+            key.refill(now);
+            if (!key.isEjected(now) && key.tokens >= 1.0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private KeyState selectLeastLoaded(List<KeyState> pool) {
+        KeyState best = null;
+        double bestLoad = Double.MAX_VALUE;
+        for (KeyState key : pool) {
+            double load = (double) key.inFlight / key.weight;
+            if (best == null || load < bestLoad || (load == bestLoad && key.tokens > best.tokens)) {
+                best = key;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 平滑加权轮询：每轮给所有密钥加上权重，选出当前值最大的并减去总权重
+     */
+    private KeyState selectWeightedRoundRobin(List<KeyState> pool) {
+        int totalWeight = 0;
+        KeyState best = null;
+        for (KeyState key : pool) {
+            key.currentWeight += key.weight;
+            totalWeight += key.weight;
+            if (best == null || key.currentWeight > best.currentWeight) {
+                best = key;
+            }
+        }
+        best.currentWeight -= totalWeight;
+        return best;
+    }
+
+    private synchronized void complete(KeyState key, long startTime, boolean success, int statusCode, Headers headers) {
+        long now = System.currentTimeMillis();
+        key.inFlight = Math.max(0, key.inFlight - 1);
+        key.totalLatency += now - startTime;
+        key.completed++;
+
+        if (success) {
+            key.successes++;
+            key.consecutiveFailures = 0;
+            key.completionTimes.add(now);
+            // 成功后缓慢恢复被压低的速率（加性增）
+            if (key.currentRpm < key.configuredRpm) {
+                key.currentRpm = Math.min(key.configuredRpm, key.currentRpm + 1);
+            }
+        } else {
+            key.failures++;
+            key.consecutiveFailures++;
+            if (statusCode == 429) {
+                key.rateLimited++;
+                // 触发限流时速率减半并清空令牌（乘性减）
+                key.currentRpm = Math.max(1, key.currentRpm / 2);
+                key.tokens = 0;
+            }
+            if (key.consecutiveFailures >= ejectionThreshold || statusCode == 401 || statusCode == 403) {
+                key.ejectedUntil = now + ejectionMillis;
+                key.ejections++;
+                key.consecutiveFailures = 0;
+            }
+        }
+
+        applyRateLimitHeaders(key, headers, now);
+    }
+
+    /**
+     * 解析OpenAI兼容的限流响应头
+     */
+    private void applyRateLimitHeaders(KeyState key, Headers headers, long now) {
+        if (headers == null) {
+            return;
+        }
+        Long limit = parseLong(headers.get("x-ratelimit-limit-requests"));
+        if (limit != null && limit > 0) {
+            key.configuredRpm = (int) Math.min(Integer.MAX_VALUE, limit);
+            key.currentRpm = Math.min(key.currentRpm, key.configuredRpm);
+        }
+        Long remaining = parseLong(headers.get("x-ratelimit-remaining-requests"));
+        if (remaining != null) {
+            key.tokens = Math.min(key.tokens, remaining);
+        }
+        Long retryAfter = parseLong(headers.get("retry-after"));
+        if (retryAfter != null && retryAfter > 0) {
+            key.ejectedUntil = Math.max(key.ejectedUntil, now + retryAfter * 1000L);
+        }
+    }
+
+    private static Long parseLong(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return (long) Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 按密钥导出统计（密钥已脱敏）
+     */
+    public synchronized List<Map<String, Object>> getKeyStats() {
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (KeyState key : keys) {
+            key.refill(now);
+            Map<String, Object> keyStats = new LinkedHashMap<>();
+            keyStats.put("key", maskKey(key.key));
+            keyStats.put("weight", key.weight);
+            keyStats.put("ejected", key.isEjected(now));
+            keyStats.put("ejectedRemainingMs", Math.max(0, key.ejectedUntil - now));
+            keyStats.put("inFlight", key.inFlight);
+            keyStats.put("requests", key.requests);
+            keyStats.put("successes", key.successes);
+            keyStats.put("failures", key.failures);
+            keyStats.put("rateLimited", key.rateLimited);
+            keyStats.put("ejections", key.ejections);
+            keyStats.put("throughputPerMinute", key.completionTimes.countInWindow(now, THROUGHPUT_WINDOW_MS));
+            keyStats.put("currentRpm", key.currentRpm);
+            keyStats.put("configuredRpm", key.configuredRpm);
+            keyStats.put("tokens", Math.floor(key.tokens));
+            keyStats.put("avgLatency", key.completed > 0 ? key.totalLatency / key.completed : 0);
+            stats.add(keyStats);
+        }
+        return stats;
+    }
+
+    public String getStrategy() {
+        return strategy;
+    }
+
+    private KeyState findKey(String key) {
+        for (KeyState state : keys) {
+            if (state.key.equals(key)) {
+                return state;
+            }
+        }
+        return null;
+    }
+
+    static String maskKey(String key) {
+        if (key.length() <= 8) {
+            return "****";
+        }
+        return key.substring(0, 4) + "****" + key.substring(key.length() - 4);
+    }
+
+    /**
+     * 一次密钥租用，请求结束时必须调用success或failure之一
+     */
+    public class Lease {
+        private final KeyState state;
+        private final long startTime;
+        private boolean released;
+
+        private Lease(KeyState state, long startTime) {
+            this.state = state;
+            this.startTime = startTime;
+        }
+
+        public String getKey() {
+            return state.key;
+        }
+
+        public void success(Headers headers) {
+            release(true, 200, headers);
+        }
+
+        public void failure(int statusCode, Headers headers) {
+            release(false, statusCode, headers);
+        }
+
+        private void release(boolean success, int statusCode, Headers headers) {
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            complete(state, startTime, success, statusCode, headers);
+        }
+    }
+
+    private static class KeyState {
+        final String key;
+        final CircularBuffer completionTimes = new CircularBuffer(1024);
+        int weight = 1;
+        int configuredRpm;
+        int currentRpm;
+        double tokens;
+        long lastRefill;
+        int currentWeight;
+        int inFlight;
+        int consecutiveFailures;
+        long ejectedUntil;
+        long requests;
+        long successes;
+        long failures;
+        long rateLimited;
+        long ejections;
+        long completed;
+        long totalLatency;
+
+        KeyState(String key, int requestsPerMinute) {
+            this.key = key;
+            this.configuredRpm = requestsPerMinute;
+            this.currentRpm = requestsPerMinute;
+            this.tokens = requestsPerMinute;
+            this.lastRefill = System.currentTimeMillis();
+        }
+
+        void refill(long now) {
+            long elapsed = now - lastRefill;
+            if (elapsed > 0) {
+                tokens = Math.min(currentRpm, tokens + elapsed * currentRpm / 60_000.0);
+                lastRefill = now;
+            }
+        }
+
+        boolean isEjected(long now) {
+            return now < ejectedUntil;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.aichatplugin.ai;
+
+import com.example.aichatplugin.Message;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * 聊天补全请求/响应的流式JSON编解码
+ *
+ * 1. 写入：用JsonWriter把ChatRequest直接写进Okio Buffer（分段取自Okio的SegmentPool），
+ *    不构建JsonObject树、不生成中间String；请求结束后调用release()把分段归还对象池
+ * 2. 读取：用JsonReader顺序扫描，只取出 choices[0].message.content（流式为delta.content），
+ *    其余字段直接跳过
+ */
+public final class ChatJson {
+
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private ChatJson() {
+    }
+
+    /**
+     * 序列化为请求体
+     * @param model 提供者的模型名
+     */
+    public static PooledRequestBody toRequestBody(ChatRequest request, String model) {
+        Buffer buffer = new Buffer();
+        write(request, model, buffer);
+        return new PooledRequestBody(buffer);
+    }
+
+    /**
+     * 把请求写入缓冲区
+     * 用一个宽松模式的JsonWriter逐个写出值，结构字符和已编码的消息前缀直接写入缓冲区
+     */
+    public static void write(ChatRequest request, String model, Buffer buffer) {
+        try {
+            JsonWriter writer = newWriter(buffer);
+            buffer.writeUtf8("{\"model\":");
+            writer.value(model);
+            buffer.writeUtf8(",\"temperature\":");
+            writer.value(request.getTemperature());
+            buffer.writeUtf8(",\"max_tokens\":");
+            writer.value(request.getMaxTokens());
+            if (request.isStream()) {
+                buffer.writeUtf8(",\"stream\":true");
+            }
+
+            buffer.writeUtf8(",\"messages\":[");
+            MessagePrefix.Snapshot prefix = request.getPrefix();
+            if (prefix != null) {
+                // 系统消息和历史窗口是同一数组中的两段，窗口之前被裁掉的历史直接跳过
+                int systemEnd = prefix.getSystemEnd();
+                int historyStart = prefix.getHistoryStart();
+                buffer.write(prefix.getData(), 0, systemEnd);
+                if (systemEnd > 0 && historyStart < prefix.getLength()) {
+                    buffer.writeByte(',');
+                }
+                buffer.write(prefix.getData(), historyStart, prefix.getLength() - historyStart);
+                if (prefix.getMessageCount() > 0) {
+                    buffer.writeByte(',');
+                }
+            } else {
+                if (request.getSystemPrompt() != null) {
+                    writeMessage(writer, "system", request.getSystemPrompt());
+                    buffer.writeByte(',');
+                }
+                for (Message message : request.getHistory()) {
+                    writeMessage(writer, message.isAI() ? "assistant" : "user", message.getContent());
+                    buffer.writeByte(',');
+                }
+            }
+            writeMessage(writer, "user", request.getUserPrompt());
+            buffer.writeUtf8("]}");
+        } catch (IOException e) {
+            // 写入内存缓冲区不会产生IO错误
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 编码单条消息 {"role":..,"content":..}（用于MessagePrefix）
+     */
+    public static byte[] encodeMessage(String role, String content) {
+        Buffer buffer = new Buffer();
+        try {
+            writeMessage(newWriter(buffer), role, content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.readByteArray();
+    }
+
+    /**
+     * 宽松模式允许同一个JsonWriter连续写出多个顶层值（不写分隔符，由调用方写入）
+     */
+    private static JsonWriter newWriter(Buffer buffer) {
+        JsonWriter writer = new JsonWriter(new BufferWriter(buffer));
+        writer.setLenient(true);
+        return writer;
+    }
+
+    private static void writeMessage(JsonWriter writer, String role, String content) throws IOException {
+        writer.beginObject();
+        writer.name("role").value(role);
+        writer.name("content").value(content);
+        writer.endObject();
+    }
+
+    /**
+     * 读取 choices[0].{container}.content
+     * @param container 非流式响应为"message"，流式片段为"delta"
+     * @return 字段不存在或为null时返回null
+     */
+    public static String readChoiceContent(Reader in, String container) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            return null;
+        }
+        reader.beginObject();
+        if (!skipToField(reader, "choices") || reader.peek() != JsonToken.BEGIN_ARRAY) {
+            return null;
+        }
+        reader.beginArray();
+        if (!reader.hasNext() || reader.peek() != JsonToken.BEGIN_OBJECT) {
+            return null;
+        }
+        reader.beginObject();
+        if (!skipToField(reader, container) || reader.peek() != JsonToken.BEGIN_OBJECT) {
+            return null;
+        }
+        reader.beginObject();
+        if (!skipToField(reader, "content") || reader.peek() != JsonToken.STRING) {
+            return null;
+        }
+        // 找到后直接返回，不再读取剩余部分
+        return reader.nextString();
+    }
+
+    /**
+     * 在当前对象内跳过其他字段，停在指定字段的值之前
+     */
+    private static boolean skipToField(JsonReader reader, String name) throws IOException {
+        while (reader.hasNext()) {
+            if (name.equals(reader.nextName())) {
+                return true;
+            }
+            reader.skipValue();
+        }
+        return false;
+    }
+
+    /**
+     * 已序列化的请求体
+     * 写出时复制字节而不共享分段（共享的分段无法回收），OkHttp重发时可以多次写出；
+     * 调用结束（收到响应或失败）后由调用方release()，分段回到SegmentPool供下一个请求使用
+     */
+    public static class PooledRequestBody extends RequestBody {
+        private final Buffer buffer;
+
+        PooledRequestBody(Buffer buffer) {
+            this.buffer = buffer;
+        }
+
+        /**
+         * 释放缓冲区，之后不能再写出
+         */
+        public void release() {
+            synchronized (buffer) {
+                buffer.clear();
+            }
+        }
+
+        @Override
+        public MediaType contentType() {
+            return JSON;
+        }
+
+        @Override
+        public long contentLength() {
+            return buffer.size();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            synchronized (buffer) {
+                buffer.copyTo(sink.outputStream(), 0, buffer.size());
+            }
+        }
+    }
+
+    /**
+     * 直接把字符编码为UTF-8写入Buffer的Writer（代替OutputStreamWriter及其8KB编码缓冲）
+     * JsonWriter只在转义字符处切分字符串，代理对不会被拆开
+     */
+    private static class BufferWriter extends Writer {
+        private final Buffer buffer;
+
+        BufferWriter(Buffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int c) {
+            buffer.writeUtf8CodePoint(c);
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            buffer.writeUtf8(str, off, off + len);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            buffer.writeUtf8(new String(cbuf, off, len));
+        }
+
+        @Override
+        public Writer append(CharSequence csq) {
+            String str = csq.toString();
+            buffer.writeUtf8(str);
+            return this;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.aichatplugin.ai;
+
+import com.example.aichatplugin.Message;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 聊天补全请求
+ *
+ * 只保存构建请求体所需的原始数据（系统提示词和历史消息快照，或已编码的消息前缀；
+ * 当前消息和采样参数），不预先构建JSON树；由提供者在发送时直接序列化到请求缓冲区（见ChatJson），
+ * 同时填入各自的模型名。故障转移和对冲会多次序列化同一个请求，所以历史必须是快照。
+ */
+public class ChatRequest {
+
+    private final String systemPrompt;
+    private final List<Message> history;
+    private final MessagePrefix.Snapshot prefix;
+    private final String userPrompt;
+    private final double temperature;
+    private final int maxTokens;
+    private final boolean stream;
+
+    /**
+     * @param systemPrompt 系统角色提示词，为null时不发送
+     * @param history 历史消息快照（调用方不得再修改）
+     * @param userPrompt 当前用户消息
+     */
+    public ChatRequest(String systemPrompt, List<Message> history, String userPrompt,
+                       double temperature, int maxTokens, boolean stream) {
+        this.systemPrompt = systemPrompt;
+        this.history = history != null ? history : Collections.emptyList();
+        this.prefix = null;
+        this.userPrompt = userPrompt;
+        this.temperature = temperature;
+        this.maxTokens = maxTokens;
+        this.stream = stream;
+    }
+
+    /**
+     * @param prefix 已编码的系统消息和历史消息，只需再编码当前用户消息
+     */
+    public ChatRequest(MessagePrefix.Snapshot prefix, String userPrompt,
+                       double temperature, int maxTokens, boolean stream) {
+        this.systemPrompt = null;
+        this.history = Collections.emptyList();
+        this.prefix = prefix;
+        this.userPrompt = userPrompt;
+        this.temperature = temperature;
+        this.maxTokens = maxTokens;
+        this.stream = stream;
+    }
+
+    public String getSystemPrompt() {
+        return systemPrompt;
+    }
+
+    public List<Message> getHistory() {
+        return history;
+    }
+
+    /**
+     * @return 已编码的消息前缀，按原始数据构建的请求返回null
+     */
+    public MessagePrefix.Snapshot getPrefix() {
+        return prefix;
+    }
+
+    public String getUserPrompt() {
+        return userPrompt;
+    }
+
+    public double getTemperature() {
+        return temperature;
+    }
+
+    public int getMaxTokens() {
+        return maxTokens;
+    }
+
+    public boolean isStream() {
+        return stream;
+    }
+}
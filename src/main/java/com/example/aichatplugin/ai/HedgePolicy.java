@@ -0,0 +1,82 @@
+package com.example.aichatplugin.ai;
+
+/**
+ * 对冲请求策略
+ *
+ * 1. 触发阈值：请求超过近期延迟的指定百分位（默认p90）仍未返回时发送副本
+ * 2. 最短等待：阈值不低于minDelayMillis，避免延迟样本很少时过早对冲
+ * 3. 预算：每个请求积累budgetRatio个令牌，每次对冲消耗1个，
+ *    使对冲请求长期不超过总流量的指定比例（允许少量突发）
+ */
+public class HedgePolicy {
+
+    private static final double MAX_BURST_TOKENS = 10.0;
+
+    private volatile boolean enabled;
+    private volatile double percentile;
+    private volatile long minDelayMillis;
+    private volatile double budgetRatio;
+    private double tokens;
+
+    /**
+     * @param percentile 触发百分位（0-1）
+     * @param minDelayMillis 最短等待时间
+     * @param budgetPercent 对冲请求占总请求的上限（百分比）
+     */
+    public HedgePolicy(boolean enabled, double percentile, long minDelayMillis, double budgetPercent) {
+        configure(enabled, percentile, minDelayMillis, budgetPercent);
+        this.tokens = budgetRatio > 0 ? 1.0 : 0.0;
+    }
+
+    /**
+     * 配置重载时原地更新参数（参数同构造方法），已积累的预算保留
+     */
+    public synchronized void configure(boolean enabled, double percentile, long minDelayMillis, double budgetPercent) {
+        this.enabled = enabled;
+        this.percentile = Math.max(0.5, Math.min(0.999, percentile));
+        this.minDelayMillis = Math.max(0, minDelayMillis);
+        this.budgetRatio = Math.max(0.0, Math.min(100.0, budgetPercent)) / 100.0;
+    }
+
+    public static HedgePolicy disabled() {
+        return new HedgePolicy(false, 0.9, 0, 0);
+    }
+
+    public boolean isEnabled() {
+        return enabled && budgetRatio > 0;
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    public double getBudgetPercent() {
+        return budgetRatio * 100.0;
+    }
+
+    /**
+     * 根据观测到的百分位延迟计算对冲等待时间
+     * @param observedMillis 近期延迟的百分位，未知时传0
+     */
+    public long computeDelay(long observedMillis) {
+        return Math.max(minDelayMillis, observedMillis);
+    }
+
+    /**
+     * 每个请求调用一次，积累对冲预算
+     */
+    synchronized void onRequest() {
+        tokens = Math.min(MAX_BURST_TOKENS, tokens + budgetRatio);
+    }
+
+    /**
+     * 尝试消耗一次对冲预算
+     */
+    synchronized boolean tryAcquire() {
+        if (tokens >= 1.0) {
+            tokens -= 1.0;
+            return true;
+        }
+        return false;
+    }
+}
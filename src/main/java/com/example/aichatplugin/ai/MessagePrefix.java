@@ -0,0 +1,168 @@
+package com.example.aichatplugin.ai;
+
+import com.example.aichatplugin.util.TokenCounter;
+
+import java.util.Arrays;
+
+/**
+ * 已编码的消息前缀（系统消息 + 历史消息）
+ *
+ * 保存messages数组中已经序列化好的UTF-8字节（元素之间以逗号分隔，不含方括号），
+ * 历史只会追加，所以每条新消息只编码一次并追加到末尾；构建请求时只需编码当前用户消息。
+ * 只追加不改写：快照引用同一个数组的[0, length)区间，扩容时换新数组，已发出的快照不受影响。
+ *
+ * 同时记录每条消息的起始偏移和token数前缀和，快照可以按token预算二分查找历史窗口的起点，
+ * 只发送系统消息和最近的一段历史，而不需要重新编码
+ */
+public class MessagePrefix {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int INITIAL_MESSAGES = 16;
+
+    private byte[] data = new byte[INITIAL_CAPACITY];
+    private int length;
+    private int messageCount;
+    private final boolean hasSystem;
+    // offsets[i]为第i条消息的起始偏移
+    private int[] offsets = new int[INITIAL_MESSAGES];
+    // tokenSums[k]为前k条消息的token数之和（含每条消息的格式开销）
+    private long[] tokenSums = new long[INITIAL_MESSAGES + 1];
+
+    /**
+     * @param systemPrompt 系统角色提示词，为null时不包含系统消息
+     */
+    public MessagePrefix(String systemPrompt) {
+        this.hasSystem = systemPrompt != null;
+        if (systemPrompt != null) {
+            append("system", systemPrompt, TokenCounter.count(systemPrompt));
+        }
+    }
+
+    /**
+     * 编码并追加一条消息
+     * @param tokens 消息内容的token数（通常取自Message的缓存）
+     */
+    public synchronized void append(String role, String content, int tokens) {
+        byte[] encoded = ChatJson.encodeMessage(role, content);
+        int required = length + encoded.length + 1;
+        if (required > data.length) {
+            data = Arrays.copyOf(data, Math.max(required, data.length * 2));
+        }
+        if (messageCount == offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            tokenSums = Arrays.copyOf(tokenSums, offsets.length + 1);
+        }
+        if (messageCount > 0) {
+            data[length++] = ',';
+        }
+        offsets[messageCount] = length;
+        System.arraycopy(encoded, 0, data, length, encoded.length);
+        length += encoded.length;
+        tokenSums[messageCount + 1] = tokenSums[messageCount] + tokens + TokenCounter.MESSAGE_OVERHEAD;
+        messageCount++;
+    }
+
+    public synchronized Snapshot snapshot() {
+        int systemEnd = hasSystem ? (messageCount > 1 ? offsets[1] - 1 : length) : 0;
+        return new Snapshot(data, length, offsets, tokenSums, hasSystem ? 1 : 0, systemEnd,
+            hasSystem ? 1 : 0, messageCount);
+    }
+
+    public synchronized int size() {
+        return length;
+    }
+
+    /**
+     * 某一时刻的前缀，不再变化
+     * 由系统消息（[0, systemEnd)）和历史窗口（第historyFrom条消息到末尾）两段字节组成
+     */
+    public static class Snapshot {
+        private final byte[] data;
+        private final int end;
+        private final int[] offsets;
+        private final long[] tokenSums;
+        private final int systemCount;
+        private final int systemEnd;
+        private final int historyFrom;
+        private final int messageCount;
+
+        Snapshot(byte[] data, int end, int[] offsets, long[] tokenSums, int systemCount, int systemEnd,
+                 int historyFrom, int messageCount) {
+            this.data = data;
+            this.end = end;
+            this.offsets = offsets;
+            this.tokenSums = tokenSums;
+            this.systemCount = systemCount;
+            this.systemEnd = systemEnd;
+            this.historyFrom = historyFrom;
+            this.messageCount = messageCount;
+        }
+
+        /**
+         * 只保留token数不超过预算的最近一段历史（系统消息总是保留）
+         * 在前缀和上二分查找起点，O(log n)，不复制字节
+         * @param historyTokenBudget 历史消息的token预算，小于等于0表示不限制
+         */
+        public Snapshot window(int historyTokenBudget) {
+            if (historyTokenBudget <= 0) {
+                return this;
+            }
+            int from = TokenCounter.windowStart(tokenSums, historyFrom, messageCount, historyTokenBudget);
+            if (from == historyFrom) {
+                return this;
+            }
+            return new Snapshot(data, end, offsets, tokenSums, systemCount, systemEnd, from, messageCount);
+        }
+
+        byte[] getData() {
+            return data;
+        }
+
+        int getSystemEnd() {
+            return systemEnd;
+        }
+
+        /**
+         * @return 历史窗口的字节起点，窗口为空时等于getLength()
+         */
+        int getHistoryStart() {
+            return historyFrom < messageCount ? offsets[historyFrom] : end;
+        }
+
+        /**
+         * @return 已编码字节的总长度（窗口只改变起点，不改变末尾）
+         */
+        public int getLength() {
+            return end;
+        }
+
+        /**
+         * @return 包含的消息数（系统消息 + 历史窗口）
+         */
+        public int getMessageCount() {
+            return systemCount + (messageCount - historyFrom);
+        }
+
+        /**
+         * @return 历史窗口在全部历史中的起始下标（不计系统消息）
+         */
+        public int getHistoryOffset() {
+            return historyFrom - systemCount;
+        }
+
+        /**
+         * @return 包含的消息的token数（系统消息 + 历史窗口，含格式开销）
+         */
+        public long getTokenCount() {
+            long system = systemCount > 0 ? tokenSums[1] : 0;
+            return system + getHistoryTokenCount();
+        }
+
+        /**
+         * @return 历史窗口的token数（含格式开销，不含系统消息）
+         */
+        public long getHistoryTokenCount() {
+            return tokenSums[messageCount] - tokenSums[historyFrom];
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.aichatplugin.ai;
+
+import com.example.aichatplugin.DeepSeekAIService;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * OpenAI兼容的聊天补全端点
+ *
+ * DeepSeek本身就是OpenAI兼容协议，默认提供者即是本类的一个实例（settings.api-base-url），
+ * providers.endpoints 中配置的其他端点也使用本类。
+ */
+public class OpenAICompatibleProvider implements AIProvider {
+
+    private final String name;
+    private final String url;
+    private final String model;
+    private final ApiKeyPool keyPool;
+    private final OkHttpClient client;
+
+    public OpenAICompatibleProvider(String name, String url, String model, ApiKeyPool keyPool,
+                                    OkHttpClient client) {
+        this.name = name;
+        this.url = url;
+        this.model = model;
+        this.keyPool = keyPool;
+        this.client = client;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getModel() {
+        return model;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    @Override
+    public CompletableFuture<String> chat(ChatRequest request) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        ApiKeyPool.Lease lease = keyPool.acquire();
+        ChatJson.PooledRequestBody body = ChatJson.toRequestBody(request, model);
+        Call call = client.newCall(buildRequest(body, request.isStream(), lease));
+        // 路由层取消（对冲失败方）时一并取消HTTP调用
+        result.whenComplete((content, error) -> {
+            if (result.isCancelled()) {
+                call.cancel();
+            }
+        });
+
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                body.release();
+                if (lease != null) {
+                    lease.failure(0, null);
+                }
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                body.release();
+                try (response) {
+                    releaseLease(lease, response);
+                    checkResponseStatus(response);
+                    result.complete(parseContent(response));
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<Response> openStream(ChatRequest request) {
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        ApiKeyPool.Lease lease = keyPool.acquire();
+        ChatJson.PooledRequestBody body = ChatJson.toRequestBody(request, model);
+        Call call = client.newCall(buildRequest(body, true, lease));
+        result.whenComplete((response, error) -> {
+            if (result.isCancelled()) {
+                call.cancel();
+            }
+        });
+
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                body.release();
+                if (lease != null) {
+                    lease.failure(0, null);
+                }
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                // 收到响应头时请求体已发送完毕
+                body.release();
+                try {
+                    releaseLease(lease, response);
+                    checkResponseStatus(response);
+                } catch (Exception e) {
+                    response.close();
+                    result.completeExceptionally(e);
+                    return;
+                }
+                if (!result.complete(response)) {
+                    response.close(); // 已被取消
+                }
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public Map<String, Object> getKeyPoolStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("strategy", keyPool.getStrategy());
+        stats.put("size", keyPool.size());
+        stats.put("keys", keyPool.getKeyStats());
+        return stats;
+    }
+
+    /**
+     * 附加请求体和租用的密钥（发送时才决定使用哪个密钥）
+     */
+    private Request buildRequest(ChatJson.PooledRequestBody body, boolean stream, ApiKeyPool.Lease lease) {
+        Request.Builder builder = new Request.Builder()
+            .url(url)
+            .addHeader("Content-Type", "application/json")
+            .post(body);
+        if (lease != null) {
+            builder.header("Authorization", "Bearer " + lease.getKey());
+        }
+        if (stream) {
+            builder.addHeader("Accept", "text/event-stream");
+        }
+        return builder.build();
+    }
+
+    /**
+     * 把响应记入密钥统计（限流头、429、认证失败）
+     */
+    private static void releaseLease(ApiKeyPool.Lease lease, Response response) {
+        if (lease == null) {
+            return;
+        }
+        if (response.isSuccessful()) {
+            lease.success(response.headers());
+        } else {
+            lease.failure(response.code(), response.headers());
+        }
+    }
+
+    /**
+     * 检查HTTP状态码并转换为对应异常
+     */
+    static void checkResponseStatus(Response response) throws IOException {
+        if (!response.isSuccessful()) {
+            int code = response.code();
+            String errorBody = response.body() != null ? response.body().string() : "未知错误";
+
+            if (code == 429) {
+                throw new DeepSeekAIService.RateLimitExceededException("API调用超限");
+            } else if (code >= 500) {
+                throw new DeepSeekAIService.ServerException("API服务异常: " + errorBody);
+            } else {
+                throw new DeepSeekAIService.ClientException("请求错误: " + code + " - " + errorBody);
+            }
+        }
+    }
+
+    /**
+     * 流式读取非流式响应中的 choices[0].message.content，不构建整个JSON树
+     */
+    private static String parseContent(Response response) throws IOException {
+        String content = ChatJson.readChoiceContent(response.body().charStream(), "message");
+        if (content == null) {
+            throw new RuntimeException("API响应格式错误: 没有choices[0].message.content字段");
+        }
+        if (content.trim().isEmpty()) {
+            throw new RuntimeException("API响应格式错误: 内容为空");
+        }
+        return content.trim();
+    }
+}
@@ -0,0 +1,456 @@
+package com.example.aichatplugin.ai;
+
+import com.example.aichatplugin.util.LatencyWindow;
+import okhttp3.Response;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleToLongFunction;
+import java.util.function.Function;
+
+/**
+ * 多提供者路由
+ *
+ * 功能：
+ * 1. 按实测延迟（EWMA）和错误率为提供者打分，优先使用得分最低的
+ * 2. 请求失败时自动切换到下一个提供者（故障转移）
+ * 3. 可选对冲（见HedgePolicy）：首选提供者超过近期延迟百分位仍未返回时，
+ *    向下一个提供者（只有一个时向同一提供者）发送副本，先返回者胜出，落败方被取消；
+ *    设置了并发限制器时每个副本单独占用一个许可，没有空位时不对冲
+ * 4. 连续失败的提供者进入冷却期，冷却期内只在没有其他选择时使用
+ */
+public class ProviderRouter {
+
+    public static final String ROUTING_LATENCY = "latency";
+    public static final String ROUTING_ORDERED = "ordered";
+
+    private static final double EWMA_ALPHA = 0.2;
+    private static final double ERROR_PENALTY = 4.0;
+    private static final int LATENCY_SAMPLES = 128;
+    // 提供者自身样本少于此数时，对冲阈值改用全局延迟百分位
+    private static final int MIN_HEDGE_SAMPLES = 20;
+    private static final int COOLDOWN_FAILURES = 3;
+    private static final long COOLDOWN_MILLIS = 30_000;
+    // 少量请求随机交给非最优的提供者，避免一次慢请求让某个端点长期得不到流量、EWMA无法恢复
+    private static final double EXPLORATION_RATE = 0.05;
+
+    private final ScheduledExecutorService scheduler;
+    private final List<AIProvider> providers = new CopyOnWriteArrayList<>();
+    private final Map<String, ProviderHealth> health = new ConcurrentHashMap<>();
+
+    private volatile String routing = ROUTING_LATENCY;
+    private volatile boolean failoverEnabled = true;
+    private volatile HedgePolicy hedgePolicy = HedgePolicy.disabled();
+    private volatile DoubleToLongFunction latencyFallback = quantile -> 0L;
+    private volatile AdaptiveConcurrencyLimiter hedgeLimiter;
+    private volatile Function<Throwable, AdaptiveConcurrencyLimiter.Outcome> hedgeOutcome =
+        error -> AdaptiveConcurrencyLimiter.Outcome.IGNORED;
+
+    private final AtomicLong requests = new AtomicLong(0);
+    private final AtomicLong failovers = new AtomicLong(0);
+    private final AtomicLong hedges = new AtomicLong(0);
+    private final AtomicLong hedgeWins = new AtomicLong(0);
+    private final AtomicLong hedgesOverBudget = new AtomicLong(0);
+    private final AtomicLong hedgesOverLimit = new AtomicLong(0);
+
+    /**
+     * @param scheduler 用于对冲计时的调度器（不执行请求本身）
+     */
+    public ProviderRouter(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * 更新提供者列表和路由参数；同名提供者保留历史统计
+     */
+    public void configure(List<AIProvider> newProviders, String routing, boolean failoverEnabled,
+                          HedgePolicy hedgePolicy) {
+        this.routing = ROUTING_ORDERED.equalsIgnoreCase(routing) ? ROUTING_ORDERED : ROUTING_LATENCY;
+        this.failoverEnabled = failoverEnabled;
+        this.hedgePolicy = hedgePolicy != null ? hedgePolicy : HedgePolicy.disabled();
+
+        List<String> names = new ArrayList<>();
+        for (AIProvider provider : newProviders) {
+            names.add(provider.getName());
+            health.computeIfAbsent(provider.getName(), k -> new ProviderHealth());
+        }
+        health.keySet().retainAll(names);
+
+        providers.clear();
+        providers.addAll(newProviders);
+    }
+
+    /**
+     * 设置提供者样本不足时使用的全局延迟百分位来源（如PerformanceMonitor的响应时间）
+     */
+    public void setLatencyFallback(DoubleToLongFunction latencyFallback) {
+        this.latencyFallback = latencyFallback;
+    }
+
+    /**
+     * 设置对冲副本使用的并发限制器：原请求的许可只覆盖首个请求，每个副本另外申请一个
+     * @param outcomeOf 根据副本的异常判断释放许可时的结果类型
+     */
+    public void setHedgeLimiter(AdaptiveConcurrencyLimiter limiter,
+                                Function<Throwable, AdaptiveConcurrencyLimiter.Outcome> outcomeOf) {
+        this.hedgeOutcome = outcomeOf;
+        this.hedgeLimiter = limiter;
+    }
+
+    public List<AIProvider> getProviders() {
+        return Collections.unmodifiableList(providers);
+    }
+
+    /**
+     * 发送非流式请求，按路由顺序故障转移，必要时对冲
+     */
+    public CompletableFuture<String> execute(ChatRequest request) {
+        List<AIProvider> ranked = rank();
+        if (ranked.isEmpty()) {
+            return CompletableFuture.failedFuture(new IllegalStateException("没有可用的AI提供者"));
+        }
+        requests.incrementAndGet();
+
+        Execution execution = new Execution(ranked, request);
+        launch(execution, execution.nextIndex.getAndIncrement(), false);
+
+        HedgePolicy policy = hedgePolicy;
+        if (policy.isEnabled()) {
+            policy.onRequest();
+            long delay = policy.computeDelay(observedLatency(ranked.get(0), policy.getPercentile()));
+            ScheduledFuture<?> timer = scheduler.schedule(() -> hedge(execution, policy), delay, TimeUnit.MILLISECONDS);
+            execution.result.whenComplete((content, error) -> timer.cancel(false));
+        }
+        return execution.result;
+    }
+
+    /**
+     * 异步打开流式请求：一旦开始推送内容就无法切换，所以只在建立连接前故障转移
+     * 在响应头到达的回调线程上完成，不阻塞调用线程
+     */
+    public CompletableFuture<Response> openStream(ChatRequest request) {
+        List<AIProvider> ranked = rank();
+        if (ranked.isEmpty()) {
+            return CompletableFuture.failedFuture(new IllegalStateException("没有可用的AI提供者"));
+        }
+        requests.incrementAndGet();
+
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        openStream(ranked, 0, failoverEnabled ? ranked.size() : 1, request, result);
+        return result;
+    }
+
+    private void openStream(List<AIProvider> ranked, int index, int attempts, ChatRequest request,
+                            CompletableFuture<Response> result) {
+        AIProvider provider = ranked.get(index);
+        ProviderHealth providerHealth = healthOf(provider);
+        long start = System.nanoTime();
+        CompletableFuture<Response> attempt;
+        try {
+            attempt = provider.openStream(request);
+        } catch (RuntimeException e) {
+            attempt = CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<Response> current = attempt;
+        // 调用方取消时取消正在建立的连接
+        result.whenComplete((response, error) -> {
+            if (result.isCancelled()) {
+                current.cancel(true);
+            }
+        });
+        current.whenComplete((response, error) -> {
+            if (error == null) {
+                // 流式请求以首个响应头到达的时间作为延迟样本
+                providerHealth.recordSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                if (!result.complete(response)) {
+                    response.close();
+                }
+                return;
+            }
+            if (current.isCancelled() || result.isDone()) {
+                return;
+            }
+            providerHealth.recordFailure();
+            if (index + 1 < attempts) {
+                failovers.incrementAndGet();
+                openStream(ranked, index + 1, attempts, request, result);
+            } else {
+                result.completeExceptionally(error);
+            }
+        });
+    }
+
+    private CompletableFuture<String> launch(Execution execution, int index, boolean hedged) {
+        AIProvider provider = execution.ranked.get(index);
+        ProviderHealth providerHealth = healthOf(provider);
+        long start = System.nanoTime();
+        execution.outstanding.incrementAndGet();
+
+        CompletableFuture<String> attempt = provider.chat(execution.request);
+        execution.attempts.add(attempt);
+        attempt.whenComplete((content, error) -> {
+            if (attempt.isCancelled()) {
+                // 对冲中落败而被取消：不计成功或失败，但它至少慢了这么久
+                providerHealth.recordLowerBound(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                return;
+            }
+            if (error == null) {
+                providerHealth.recordSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                if (execution.result.complete(content)) {
+                    if (hedged) {
+                        hedgeWins.incrementAndGet();
+                    }
+                    execution.cancelOthers(attempt);
+                }
+                return;
+            }
+
+            providerHealth.recordFailure();
+            int remaining = execution.outstanding.decrementAndGet();
+            if (execution.result.isDone()) {
+                return;
+            }
+            if (failoverEnabled) {
+                int next = execution.nextIndex.getAndIncrement();
+                if (next < execution.ranked.size()) {
+                    failovers.incrementAndGet();
+                    launch(execution, next, false);
+                    return;
+                }
+            }
+            // 没有其他在途请求时才以最后的错误结束
+            if (remaining == 0) {
+                execution.result.completeExceptionally(error);
+            }
+        });
+        return attempt;
+    }
+
+    /**
+     * 首选提供者的延迟百分位；样本不足时使用全局来源
+     */
+    private long observedLatency(AIProvider provider, double quantile) {
+        ProviderHealth providerHealth = healthOf(provider);
+        if (providerHealth.sampleCount() >= MIN_HEDGE_SAMPLES) {
+            return providerHealth.percentile(quantile);
+        }
+        return latencyFallback.applyAsLong(quantile);
+    }
+
+    private void hedge(Execution execution, HedgePolicy policy) {
+        if (execution.result.isDone()) {
+            return;
+        }
+        // 先占并发许可再消耗预算，并发已满时不浪费预算
+        AdaptiveConcurrencyLimiter limiter = hedgeLimiter;
+        AdaptiveConcurrencyLimiter.Permit permit = null;
+        if (limiter != null) {
+            permit = limiter.tryAcquire();
+            if (permit == null) {
+                hedgesOverLimit.incrementAndGet();
+                return;
+            }
+        }
+        if (!policy.tryAcquire()) {
+            hedgesOverBudget.incrementAndGet();
+            if (permit != null) {
+                permit.release(AdaptiveConcurrencyLimiter.Outcome.IGNORED);
+            }
+            return;
+        }
+        hedges.incrementAndGet();
+        int next = execution.nextIndex.getAndIncrement();
+        // 只有一个提供者（或其余都已用于故障转移）时向首选提供者再发一次，密钥池可能选中另一个密钥
+        CompletableFuture<String> attempt = launch(execution, next < execution.ranked.size() ? next : 0, true);
+        if (permit != null) {
+            AdaptiveConcurrencyLimiter.Permit hedgePermit = permit;
+            Function<Throwable, AdaptiveConcurrencyLimiter.Outcome> outcomeOf = hedgeOutcome;
+            // 落败被取消的副本不代表负载，不参与上限调整
+            attempt.whenComplete((content, error) -> hedgePermit.release(
+                error == null ? AdaptiveConcurrencyLimiter.Outcome.SUCCESS
+                    : attempt.isCancelled() ? AdaptiveConcurrencyLimiter.Outcome.IGNORED : outcomeOf.apply(error)));
+        }
+    }
+
+    /**
+     * 计算本次请求的提供者顺序：健康的在前（按得分或配置顺序），冷却中的排在最后
+     */
+    List<AIProvider> rank() {
+        long now = System.currentTimeMillis();
+        List<AIProvider> healthy = new ArrayList<>();
+        List<AIProvider> coolingDown = new ArrayList<>();
+        for (AIProvider provider : providers) {
+            if (healthOf(provider).isCoolingDown(now)) {
+                coolingDown.add(provider);
+            } else {
+                healthy.add(provider);
+            }
+        }
+
+        if (ROUTING_LATENCY.equals(routing) && healthy.size() > 1) {
+            healthy.sort((a, b) -> Double.compare(healthOf(a).score(), healthOf(b).score()));
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (random.nextDouble() < EXPLORATION_RATE) {
+                healthy.add(0, healthy.remove(1 + random.nextInt(healthy.size() - 1)));
+            }
+        }
+
+        coolingDown.sort((a, b) -> Long.compare(healthOf(a).cooldownUntil, healthOf(b).cooldownUntil));
+        healthy.addAll(coolingDown);
+        return healthy;
+    }
+
+    private ProviderHealth healthOf(AIProvider provider) {
+        return health.computeIfAbsent(provider.getName(), k -> new ProviderHealth());
+    }
+
+    /**
+     * 路由统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("routing", routing);
+        stats.put("failoverEnabled", failoverEnabled);
+        HedgePolicy policy = hedgePolicy;
+        long requestCount = requests.get();
+        long hedgeCount = hedges.get();
+        stats.put("hedgeEnabled", policy.isEnabled());
+        stats.put("hedgePercentile", policy.getPercentile());
+        stats.put("hedgeBudgetPercent", policy.getBudgetPercent());
+        stats.put("requests", requestCount);
+        stats.put("failovers", failovers.get());
+        stats.put("hedges", hedgeCount);
+        stats.put("hedgeWins", hedgeWins.get());
+        stats.put("hedgesOverBudget", hedgesOverBudget.get());
+        stats.put("hedgesOverLimit", hedgesOverLimit.get());
+        stats.put("hedgeRate", requestCount > 0 ? (double) hedgeCount / requestCount : 0.0);
+
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> providerStats = new ArrayList<>();
+        for (AIProvider provider : providers) {
+            ProviderHealth providerHealth = healthOf(provider);
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("name", provider.getName());
+            entry.put("model", provider.getModel());
+            providerHealth.fillStats(entry, now);
+            providerStats.add(entry);
+        }
+        stats.put("providers", providerStats);
+        return stats;
+    }
+
+    /**
+     * 单次路由执行的状态（可能同时有主请求和对冲请求在途）
+     */
+    private static class Execution {
+        final List<AIProvider> ranked;
+        final ChatRequest request;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        final AtomicInteger nextIndex = new AtomicInteger(0);
+        final AtomicInteger outstanding = new AtomicInteger(0);
+        final List<CompletableFuture<String>> attempts = new CopyOnWriteArrayList<>();
+
+        Execution(List<AIProvider> ranked, ChatRequest request) {
+            this.ranked = ranked;
+            this.request = request;
+            // 调用方取消时取消全部在途请求
+            result.whenComplete((content, error) -> {
+                if (result.isCancelled()) {
+                    cancelOthers(null);
+                }
+            });
+        }
+
+        void cancelOthers(CompletableFuture<String> winner) {
+            for (CompletableFuture<String> attempt : attempts) {
+                if (attempt != winner) {
+                    attempt.cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * 单个提供者的健康状态
+     */
+    private static class ProviderHealth {
+        private final LatencyWindow samples = new LatencyWindow(LATENCY_SAMPLES);
+        private double ewmaLatency;
+        private boolean measured;
+        private double errorRate;
+        private int consecutiveFailures;
+        private volatile long cooldownUntil;
+        private long successes;
+        private long failures;
+
+        synchronized void recordSuccess(long latencyMillis) {
+            successes++;
+            consecutiveFailures = 0;
+            ewmaLatency = measured ? ewmaLatency + EWMA_ALPHA * (latencyMillis - ewmaLatency) : latencyMillis;
+            measured = true;
+            errorRate += EWMA_ALPHA * (0.0 - errorRate);
+            samples.record(latencyMillis);
+        }
+
+        /**
+         * 被取消的请求只知道延迟下限：计入百分位窗口（否则对冲阈值会偏低），
+         * 仅在它高于当前估计时更新EWMA
+         */
+        synchronized void recordLowerBound(long elapsedMillis) {
+            samples.record(elapsedMillis);
+            if (!measured || elapsedMillis > ewmaLatency) {
+                ewmaLatency = measured ? ewmaLatency + EWMA_ALPHA * (elapsedMillis - ewmaLatency) : elapsedMillis;
+                measured = true;
+            }
+        }
+
+        synchronized void recordFailure() {
+            failures++;
+            errorRate += EWMA_ALPHA * (1.0 - errorRate);
+            if (++consecutiveFailures >= COOLDOWN_FAILURES) {
+                cooldownUntil = System.currentTimeMillis() + COOLDOWN_MILLIS;
+                consecutiveFailures = 0;
+            }
+        }
+
+        /**
+         * 得分越低越优先；尚无样本的提供者得分为0，保证至少被尝试一次
+         */
+        synchronized double score() {
+            return ewmaLatency * (1.0 + ERROR_PENALTY * errorRate);
+        }
+
+        long percentile(double q) {
+            return samples.percentile(q);
+        }
+
+        int sampleCount() {
+            return samples.size();
+        }
+
+        boolean isCoolingDown(long now) {
+            return now < cooldownUntil;
+        }
+
+        synchronized void fillStats(Map<String, Object> entry, long now) {
+            entry.put("coolingDown", isCoolingDown(now));
+            entry.put("ewmaLatency", Math.round(ewmaLatency));
+            entry.put("errorRate", errorRate);
+            entry.put("p95Latency", percentile(0.95));
+            entry.put("successes", successes);
+            entry.put("failures", failures);
+        }
+    }
+}
@@ -4,21 +4,52 @@ import com.example.aichatplugin.AIChatPlugin;
 import com.example.aichatplugin.ConfigLoader;
 import com.example.aichatplugin.ConversationManager;
 import com.example.aichatplugin.EnvironmentCollector;
+import com.example.aichatplugin.EventBatcher;
+import com.example.aichatplugin.Message;
+import com.example.aichatplugin.ai.AIProvider;
+import com.example.aichatplugin.ai.ApiKeyPool;
+import com.example.aichatplugin.ai.ChatJson;
+import com.example.aichatplugin.ai.ChatRequest;
+import com.example.aichatplugin.ai.HedgePolicy;
+import com.example.aichatplugin.ai.MessagePrefix;
+import com.example.aichatplugin.ai.OpenAICompatibleProvider;
+import com.example.aichatplugin.ai.ProviderRouter;
 import com.example.aichatplugin.util.AdaptiveRateLimiter;
+import com.example.aichatplugin.util.HistoryCodec;
+import com.example.aichatplugin.util.HistoryCodecs;
+import com.example.aichatplugin.util.HistoryCompressor;
+import com.example.aichatplugin.util.StageExecutor;
+import com.example.aichatplugin.util.TinyLfuCache;
+import com.example.aichatplugin.util.TokenCounter;
 import org.bukkit.Bukkit;
 import org.bukkit.World;
 import org.bukkit.entity.Player;
 import org.bukkit.scheduler.BukkitRunnable;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import okio.Buffer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * 性能基准测试系统
@@ -47,6 +78,26 @@ public class PerformanceBenchmark {
     private static final int DEFAULT_TEST_DURATION = 60; // 秒
     private static final int DEFAULT_CONCURRENT_USERS = 5;
     private static final int DEFAULT_MESSAGE_RATE = 10; // 每分钟
+    private static final int[] SIMULATED_CHATTERS = {50, 200, 500};
+    private static final long SIMULATED_API_LATENCY_MS = 100;
+    private static final int[] CACHE_SIZES = {1_000, 10_000, 100_000};
+    private static final int CACHE_BENCHMARK_OPS = 500_000;
+    private static final long CACHE_BENCHMARK_TIME_LIMIT_MS = 5_000;
+    private static final int ROUTING_BENCHMARK_REQUESTS = 200;
+    private static final int ROUTING_BENCHMARK_CONCURRENCY = 8;
+    private static final double[] HEDGE_BUDGET_PERCENTS = {10, 20};
+    private static final int[] SERIALIZATION_HISTORY_SIZES = {5, 20, 50};
+    private static final int SERIALIZATION_WARMUP_OPS = 2_000;
+    private static final int SERIALIZATION_BENCHMARK_OPS = 10_000;
+    private static final int EVENT_BATCHING_EVENTS = 200;
+    private static final int EVENT_BATCHING_PLAYERS = 50;
+    private static final long EVENT_BATCHING_INTERVAL_MS = 10;
+    private static final long[] EVENT_BATCHING_WINDOWS = {50, 100, 200};
+    private static final int EVENT_BATCHING_MAX_SIZE = 8;
+    private static final int[] HISTORY_COMPRESSION_SIZES = {20, 100, 500};
+    private static final int HISTORY_COMPRESSION_WARMUP_OPS = 200;
+    private static final long HISTORY_COMPRESSION_TIME_LIMIT_MS = 1_000;
+    private static final MediaType JSON_MEDIA_TYPE = MediaType.parse("application/json; charset=utf-8");
     
     public PerformanceBenchmark(AIChatPlugin plugin) {
         this.plugin = plugin;
@@ -88,11 +139,39 @@ public class PerformanceBenchmark {
                 report.loadTestResults = runLoadTests(config);
                 plugin.getLogger().info("负载测试完成");
                 
-                // 4. 分析结果并生成建议
+                // 4. 执行后端对比测试
+                report.stageBackendResults = runStageBackendTests();
+                plugin.getLogger().info("执行后端对比测试完成");
+                
+                // 5. 缓存实现对比测试
+                report.cacheResults = runCacheBenchmarks();
+                plugin.getLogger().info("缓存对比测试完成");
+                
+                // 6. 多提供者路由测试
+                report.routingResults = runProviderRoutingTests();
+                plugin.getLogger().info("多提供者路由测试完成");
+                
+                // 7. 对冲请求测试
+                report.hedgingResults = runHedgingTests();
+                plugin.getLogger().info("对冲请求测试完成");
+                
+                // 8. 请求序列化分配测试
+                report.serializationResults = runSerializationBenchmarks();
+                plugin.getLogger().info("请求序列化测试完成");
+                
+                // 9. 系统事件微批处理测试
+                report.eventBatchingResults = runEventBatchingTests();
+                plugin.getLogger().info("系统事件微批处理测试完成");
+                
+                // 10. 历史快照压缩测试
+                report.historyCompressionResults = runHistoryCompressionBenchmarks();
+                plugin.getLogger().info("历史快照压缩测试完成");
+                
+                // 11. 分析结果并生成建议
                 report.optimizationSuggestions = analyzeAndGenerateSuggestions(report);
                 plugin.getLogger().info("性能分析完成");
                 
-                // 5. 保存报告
+                // 12. 保存报告
                 saveReport(report);
                 
                 plugin.getLogger().info("性能基准测试完成！报告已保存。");
@@ -161,6 +240,7 @@ public class PerformanceBenchmark {
                 }
             }
             metrics.environmentCollectionTime = (System.nanoTime() - startTime) / 10_000_000.0; // 平均毫秒
+            metrics.environmentSnapshotTickMicros = ((Number) collector.getSnapshotStats().get("avgTickMicros")).doubleValue();
         }
         
         // 测试性能监控开销
@@ -284,6 +364,720 @@ public class PerformanceBenchmark {
         return result;
     }
     
+    /**
+     * 🔧 执行后端对比测试
+     * 模拟大量玩家同时聊天，比较线程池与虚拟线程后端的排队延迟
+     */
+    private List<StageBackendResult> runStageBackendTests() {
+        List<StageBackendResult> results = new ArrayList<>();
+        
+        List<String> backends = new ArrayList<>();
+        backends.add(StageExecutor.BACKEND_PLATFORM);
+        if (StageExecutor.isVirtualThreadSupported()) {
+            backends.add(StageExecutor.BACKEND_VIRTUAL);
+        } else {
+            plugin.getLogger().info("当前JVM不支持虚拟线程，仅测试线程池后端");
+        }
+        
+        int stageConcurrency = configLoader.getStageConcurrency();
+        int platformThreads = Math.max(10, Runtime.getRuntime().availableProcessors() * 2);
+        
+        for (String backend : backends) {
+            for (int chatters : SIMULATED_CHATTERS) {
+                results.add(runSingleStageBackendTest(backend, chatters, stageConcurrency, platformThreads));
+            }
+        }
+        
+        return results;
+    }
+    
+    /**
+     * 运行单个执行后端测试：所有模拟玩家同时提交一次"阻塞式API调用"
+     */
+    private StageBackendResult runSingleStageBackendTest(String backendMode, int chatters, 
+                                                        int stageConcurrency, int platformThreads) {
+        StageExecutor stage = StageExecutor.create("Benchmark-" + backendMode, backendMode, 
+            stageConcurrency, platformThreads);
+        long[] latencies = new long[chatters];
+        CountDownLatch done = new CountDownLatch(chatters);
+        long startTime = System.nanoTime();
+        
+        for (int i = 0; i < chatters; i++) {
+            final int index = i;
+            final long submitTime = System.nanoTime();
+            stage.execute(() -> {
+                try {
+                    Thread.sleep(SIMULATED_API_LATENCY_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    latencies[index] = (System.nanoTime() - submitTime) / 1_000_000;
+                    done.countDown();
+                }
+            });
+        }
+        
+        StageBackendResult result = new StageBackendResult();
+        result.backend = stage.isVirtual() ? StageExecutor.BACKEND_VIRTUAL : StageExecutor.BACKEND_PLATFORM;
+        result.chatters = chatters;
+        result.maxConcurrency = stage.getMaxConcurrency();
+        
+        try {
+            result.completed = done.await(60, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        result.totalTime = (System.nanoTime() - startTime) / 1_000_000;
+        stage.shutdownNow();
+        
+        Arrays.sort(latencies);
+        result.p50Latency = percentile(latencies, 0.50);
+        result.p99Latency = percentile(latencies, 0.99);
+        
+        plugin.getLogger().info(String.format("执行后端测试: %s, %d并发玩家, p50=%dms, p99=%dms", 
+            result.backend, chatters, result.p50Latency, result.p99Latency));
+        
+        return result;
+    }
+    
+    /**
+     * 🔧 缓存实现对比测试
+     * 偏斜访问分布（少数热点键）下比较旧的时间戳排序缓存与W-TinyLFU缓存
+     */
+    private List<CacheBenchmarkResult> runCacheBenchmarks() {
+        List<CacheBenchmarkResult> results = new ArrayList<>();
+        
+        for (int size : CACHE_SIZES) {
+            int[] keys = generateSkewedKeys(size * 4, CACHE_BENCHMARK_OPS);
+            
+            LegacyTimestampCache<Integer, Integer> legacy = new LegacyTimestampCache<>(size, 300_000);
+            results.add(runSingleCacheBenchmark("legacy", size, keys, legacy::get, legacy::put));
+            
+            TinyLfuCache<Integer, Integer> tinyLfu = new TinyLfuCache<>(size, 300_000);
+            CacheBenchmarkResult result = runSingleCacheBenchmark("w-tinylfu", size, keys, tinyLfu::get, tinyLfu::put);
+            result.evictions = ((Number) tinyLfu.getStats().get("evictions")).longValue();
+            results.add(result);
+        }
+        
+        return results;
+    }
+    
+    /**
+     * 运行单个缓存测试：读取未命中则写入，超过时间上限提前结束
+     */
+    private CacheBenchmarkResult runSingleCacheBenchmark(String implementation, int size, int[] keys,
+                                                         java.util.function.Function<Integer, Integer> getter,
+                                                         java.util.function.BiConsumer<Integer, Integer> putter) {
+        long hits = 0;
+        int ops = 0;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CACHE_BENCHMARK_TIME_LIMIT_MS);
+        long startTime = System.nanoTime();
+        
+        for (; ops < keys.length; ops++) {
+            Integer key = keys[ops];
+            if (getter.apply(key) != null) {
+                hits++;
+            } else {
+                putter.accept(key, key);
+            }
+            if ((ops & 1023) == 0 && System.nanoTime() > deadline) {
+                break;
+            }
+        }
+        
+        long elapsed = System.nanoTime() - startTime;
+        CacheBenchmarkResult result = new CacheBenchmarkResult();
+        result.implementation = implementation;
+        result.maximumSize = size;
+        result.operations = ops;
+        result.nanosPerOperation = ops > 0 ? (double) elapsed / ops : 0;
+        result.hitRate = ops > 0 ? (double) hits / ops : 0;
+        result.timedOut = ops < keys.length;
+        
+        plugin.getLogger().info(String.format("缓存测试: %s, 容量%d, %.0fns/次, 命中率%.1f%%%s", 
+            implementation, size, result.nanosPerOperation, result.hitRate * 100, result.timedOut ? " (超时)" : ""));
+        
+        return result;
+    }
+    
+    /**
+     * 生成偏斜分布的键序列（越小的键越热）
+     */
+    private static int[] generateSkewedKeys(int keySpace, int count) {
+        Random random = new Random(42);
+        int[] keys = new int[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = (int) (keySpace * Math.pow(random.nextDouble(), 3));
+        }
+        return keys;
+    }
+    
+    /**
+     * 🔧 多提供者路由测试
+     * 本地模拟三个端点（快速、缓慢、不稳定），按"不稳定、缓慢、快速"的顺序配置，
+     * 比较按配置顺序路由与按实测延迟路由的延迟和成功率
+     */
+    private List<ProviderRoutingResult> runProviderRoutingTests() {
+        List<ProviderRoutingResult> results = new ArrayList<>();
+        for (String routing : new String[]{ProviderRouter.ROUTING_ORDERED, ProviderRouter.ROUTING_LATENCY}) {
+            try (StubAIServer server = new StubAIServer()) {
+                List<String[]> endpoints = new ArrayList<>();
+                endpoints.add(new String[]{"flaky", server.addEndpoint("flaky", 60, 0.0, 0, 0.4)});
+                endpoints.add(new String[]{"slow", server.addEndpoint("slow", 300, 0.0, 0, 0.0)});
+                endpoints.add(new String[]{"fast", server.addEndpoint("fast", 60, 0.0, 0, 0.0)});
+                
+                ProviderRoutingResult result = runSingleRoutingTest(routing, endpoints, HedgePolicy.disabled());
+                for (String[] endpoint : endpoints) {
+                    result.distribution.put(endpoint[0], server.getRequestCount(endpoint[0]));
+                }
+                results.add(result);
+                
+                plugin.getLogger().info(String.format("路由测试: %s, 成功率%.1f%%, p50=%dms, p95=%dms, 分布%s",
+                    routing, result.successRate * 100, result.p50Latency, result.p95Latency, result.distribution));
+            } catch (IOException e) {
+                plugin.getLogger().warning("无法启动本地模拟AI端点: " + e.getMessage());
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * 🔧 对冲请求测试
+     * 单个模拟端点，5%的请求有1.2秒长尾；比较不对冲与不同预算下p90对冲的尾延迟
+     */
+    private List<ProviderRoutingResult> runHedgingTests() {
+        List<ProviderRoutingResult> results = new ArrayList<>();
+        List<HedgePolicy> policies = new ArrayList<>();
+        policies.add(HedgePolicy.disabled());
+        for (double budget : HEDGE_BUDGET_PERCENTS) {
+            policies.add(new HedgePolicy(true, 0.9, 50, budget));
+        }
+        
+        for (HedgePolicy policy : policies) {
+            try (StubAIServer server = new StubAIServer()) {
+                List<String[]> endpoints = new ArrayList<>();
+                endpoints.add(new String[]{"tail", server.addEndpoint("tail", 60, 0.05, 1200, 0.0)});
+                
+                ProviderRoutingResult result = runSingleRoutingTest(ProviderRouter.ROUTING_ORDERED, endpoints, policy);
+                result.distribution.put("tail", server.getRequestCount("tail"));
+                results.add(result);
+                
+                plugin.getLogger().info(String.format("对冲测试: 预算%.0f%%, 对冲率%.1f%%, p50=%dms, p99=%dms",
+                    result.hedgeBudgetPercent, result.hedgeRate * 100, result.p50Latency, result.p99Latency));
+            } catch (IOException e) {
+                plugin.getLogger().warning("无法启动本地模拟AI端点: " + e.getMessage());
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * 通过路由向模拟端点发送固定数量的请求，限制同时在途的请求数
+     */
+    private ProviderRoutingResult runSingleRoutingTest(String routing, List<String[]> endpoints, HedgePolicy hedgePolicy) {
+        OkHttpClient client = new OkHttpClient.Builder()
+            .readTimeout(10, TimeUnit.SECONDS)
+            .build();
+        client.dispatcher().setMaxRequestsPerHost(64);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        
+        List<AIProvider> providers = new ArrayList<>();
+        for (String[] endpoint : endpoints) {
+            Map<String, Integer> keys = new LinkedHashMap<>();
+            keys.put("benchmark-key-" + endpoint[0], 1);
+            ApiKeyPool pool = new ApiKeyPool(keys, ApiKeyPool.STRATEGY_LEAST_LOADED, 100_000, 1_000_000, 1000);
+            providers.add(new OpenAICompatibleProvider(endpoint[0], endpoint[1], "benchmark", pool, client));
+        }
+        ProviderRouter router = new ProviderRouter(scheduler);
+        router.configure(providers, routing, true, hedgePolicy);
+        
+        ChatRequest body = new ChatRequest(null, null, "benchmark", 1.0, 16, false);
+        
+        long[] latencies = new long[ROUTING_BENCHMARK_REQUESTS];
+        AtomicInteger succeeded = new AtomicInteger(0);
+        Semaphore inFlight = new Semaphore(ROUTING_BENCHMARK_CONCURRENCY);
+        CountDownLatch done = new CountDownLatch(ROUTING_BENCHMARK_REQUESTS);
+        
+        try {
+            for (int i = 0; i < ROUTING_BENCHMARK_REQUESTS; i++) {
+                inFlight.acquire();
+                final int index = i;
+                final long start = System.nanoTime();
+                router.execute(body).whenComplete((content, error) -> {
+                    latencies[index] = (System.nanoTime() - start) / 1_000_000;
+                    if (error == null) {
+                        succeeded.incrementAndGet();
+                    }
+                    inFlight.release();
+                    done.countDown();
+                });
+            }
+            done.await(120, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            scheduler.shutdownNow();
+            client.dispatcher().executorService().shutdown();
+            client.connectionPool().evictAll();
+        }
+        
+        Map<String, Object> stats = router.getStats();
+        ProviderRoutingResult result = new ProviderRoutingResult();
+        result.routing = routing;
+        result.hedgeEnabled = hedgePolicy.isEnabled();
+        result.hedgeBudgetPercent = hedgePolicy.isEnabled() ? hedgePolicy.getBudgetPercent() : 0;
+        result.requests = ROUTING_BENCHMARK_REQUESTS;
+        result.successRate = (double) succeeded.get() / ROUTING_BENCHMARK_REQUESTS;
+        result.failovers = ((Number) stats.get("failovers")).longValue();
+        result.hedges = ((Number) stats.get("hedges")).longValue();
+        result.hedgeRate = ((Number) stats.get("hedgeRate")).doubleValue();
+        
+        Arrays.sort(latencies);
+        result.p50Latency = percentile(latencies, 0.50);
+        result.p95Latency = percentile(latencies, 0.95);
+        result.p99Latency = percentile(latencies, 0.99);
+        return result;
+    }
+    
+    /**
+     * 🔧 系统事件微批处理测试
+     * 50名玩家每10ms产生一个伤害/药水/升级事件，模拟端点基础延迟80ms、每个批量条目额外15ms；
+     * 比较逐个请求与不同窗口下合并请求的上游调用数、提示词token和事件到回复的延迟
+     */
+    private List<EventBatchingResult> runEventBatchingTests() {
+        List<EventBatchingResult> results = new ArrayList<>();
+        List<Long> windows = new ArrayList<>();
+        windows.add(0L);
+        for (long window : EVENT_BATCHING_WINDOWS) {
+            windows.add(window);
+        }
+        
+        for (long window : windows) {
+            try (StubAIServer server = new StubAIServer()) {
+                String url = server.addEndpoint("events", 80, 0.0, 0, 0.0, 15);
+                EventBatchingResult result = runSingleEventBatchingTest(window, url);
+                result.upstreamCalls = server.getRequestCount("events");
+                results.add(result);
+                
+                plugin.getLogger().info(String.format("微批处理测试: 窗口%dms, 上游调用%d次, 提示词%d tokens, p50=%dms, p99=%dms",
+                    window, result.upstreamCalls, result.promptTokens, result.p50Latency, result.p99Latency));
+            } catch (IOException e) {
+                plugin.getLogger().warning("无法启动本地模拟AI端点: " + e.getMessage());
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * 按固定间隔提交事件；窗口为0时每个事件单独请求
+     */
+    private EventBatchingResult runSingleEventBatchingTest(long windowMillis, String url) {
+        OkHttpClient client = new OkHttpClient.Builder()
+            .readTimeout(10, TimeUnit.SECONDS)
+            .build();
+        client.dispatcher().setMaxRequestsPerHost(64);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        
+        Map<String, Integer> keys = new LinkedHashMap<>();
+        keys.put("benchmark-key-events", 1);
+        ApiKeyPool pool = new ApiKeyPool(keys, ApiKeyPool.STRATEGY_LEAST_LOADED, 100_000, 1_000_000, 1000);
+        List<AIProvider> providers = new ArrayList<>();
+        providers.add(new OpenAICompatibleProvider("events", url, "benchmark", pool, client));
+        ProviderRouter router = new ProviderRouter(scheduler);
+        router.configure(providers, ProviderRouter.ROUTING_ORDERED, true, HedgePolicy.disabled());
+        
+        String systemPrompt = "你是Minecraft服务器里的AI助手，会对玩家的游戏事件做出简短自然的回应。";
+        AtomicLong promptTokens = new AtomicLong(0);
+        EventBatcher.Transport transport = (system, prompt, maxTokens) -> {
+            promptTokens.addAndGet(TokenCounter.count(system) + TokenCounter.count(prompt));
+            return router.execute(new ChatRequest(system, null, prompt, 0.7, maxTokens, false));
+        };
+        EventBatcher batcher = windowMillis > 0
+            ? new EventBatcher(transport, () -> new EventBatcher.Settings(windowMillis, EVENT_BATCHING_MAX_SIZE, 60, systemPrompt, null))
+            : null;
+        
+        String[] events = {"受到了4点伤害，剩余12点生命", "获得了速度 II 效果", "失去了力量效果", "升到了12级"};
+        long[] latencies = new long[EVENT_BATCHING_EVENTS];
+        AtomicInteger failed = new AtomicInteger(0);
+        CountDownLatch done = new CountDownLatch(EVENT_BATCHING_EVENTS);
+        long startTime = System.nanoTime();
+        
+        try {
+            for (int i = 0; i < EVENT_BATCHING_EVENTS; i++) {
+                final int index = i;
+                final long start = System.nanoTime();
+                String player = "Player" + (i % EVENT_BATCHING_PLAYERS);
+                String event = "玩家" + player + events[i % events.length];
+                Supplier<CompletableFuture<String>> individual = () -> transport.send(systemPrompt, event, 60);
+                CompletableFuture<String> reply = batcher != null ? batcher.submit(player, event, individual) : individual.get();
+                reply.whenComplete((content, error) -> {
+                    latencies[index] = (System.nanoTime() - start) / 1_000_000;
+                    if (error != null) {
+                        failed.incrementAndGet();
+                    }
+                    done.countDown();
+                });
+                Thread.sleep(EVENT_BATCHING_INTERVAL_MS);
+            }
+            done.await(120, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (batcher != null) {
+                batcher.shutdown();
+            }
+            scheduler.shutdownNow();
+            client.dispatcher().executorService().shutdown();
+            client.connectionPool().evictAll();
+        }
+        
+        EventBatchingResult result = new EventBatchingResult();
+        result.windowMillis = windowMillis;
+        result.events = EVENT_BATCHING_EVENTS;
+        result.failed = failed.get();
+        result.promptTokens = promptTokens.get();
+        result.totalTime = (System.nanoTime() - startTime) / 1_000_000;
+        if (batcher != null) {
+            Map<String, Object> stats = batcher.getStats();
+            result.averageBatchSize = ((Number) stats.get("averageBatchSize")).doubleValue();
+            result.missingReplies = ((Number) stats.get("missingReplies")).longValue();
+        } else {
+            result.averageBatchSize = 1.0;
+        }
+        
+        Arrays.sort(latencies);
+        result.p50Latency = percentile(latencies, 0.50);
+        result.p99Latency = percentile(latencies, 0.99);
+        return result;
+    }
+    
+    /**
+     * 🔧 请求序列化分配测试
+     * 对比旧实现（构建Gson树、深拷贝加模型名、转String再转RequestBody，响应整体解析成树）
+     * 与流式实现（JsonWriter直接写入Okio Buffer，JsonReader只读取content字段）每次请求分配的字节数，
+     * 以及在流式实现基础上使用已编码的玩家前缀（只编码当前消息）的效果
+     */
+    private List<SerializationBenchmarkResult> runSerializationBenchmarks() {
+        List<SerializationBenchmarkResult> results = new ArrayList<>();
+        Gson gson = new Gson();
+        byte[] responseBytes = ("{\"id\":\"chatcmpl-benchmark\",\"object\":\"chat.completion\",\"created\":1700000000,"
+            + "\"model\":\"deepseek-chat\",\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\","
+            + "\"content\":\"晚上好！外面天色已暗，记得在附近找个地方避一避，苦力怕可能就在你身后。\"},"
+            + "\"finish_reason\":\"stop\"}],\"usage\":{\"prompt_tokens\":512,\"completion_tokens\":48,"
+            + "\"total_tokens\":560}}").getBytes(StandardCharsets.UTF_8);
+        
+        for (int historySize : SERIALIZATION_HISTORY_SIZES) {
+            List<Message> history = new ArrayList<>();
+            for (int i = 0; i < historySize; i++) {
+                boolean isAI = i % 2 == 1;
+                history.add(new Message(isAI ? "AI" : "Steve",
+                    isAI ? "你现在站在一片橡木森林旁边，背包里还有" + i + "块面包，天快黑了，建议先搭个庇护所。"
+                         : "我刚挖到第" + i + "块铁矿，接下来应该做什么？\"工具\"还是\"盔甲\"？", isAI));
+            }
+            ChatRequest request = new ChatRequest("你是一个Minecraft服务器里的友好助手。", history,
+                "附近有什么危险吗？", 0.7, 200, false);
+            
+            // 旧实现缓存的消息JSON（与玩家历史一一对应，不计入每次请求的分配）
+            JsonArray cachedMessages = new JsonArray();
+            for (Message message : history) {
+                JsonObject cached = new JsonObject();
+                cached.addProperty("sender", message.getSender());
+                cached.addProperty("content", message.getContent());
+                cached.addProperty("isAI", message.isAI());
+                cached.addProperty("timestamp", message.getTimestamp());
+                cachedMessages.add(cached);
+            }
+            
+            results.add(runSingleSerializationBenchmark("gson-tree", historySize,
+                sink -> legacySerializeAndParse(gson, request, cachedMessages, responseBytes, sink)));
+            results.add(runSingleSerializationBenchmark("streaming", historySize,
+                sink -> streamingSerializeAndParse(request, responseBytes, sink)));
+            
+            MessagePrefix prefix = new MessagePrefix(request.getSystemPrompt());
+            for (Message message : history) {
+                prefix.append(message.isAI() ? "assistant" : "user", message.getContent(), message.getTokenCount());
+            }
+            ChatRequest prefixRequest = new ChatRequest(prefix.snapshot(), request.getUserPrompt(),
+                request.getTemperature(), request.getMaxTokens(), false);
+            results.add(runSingleSerializationBenchmark("streaming+prefix", historySize,
+                sink -> streamingSerializeAndParse(prefixRequest, responseBytes, sink)));
+        }
+        
+        return results;
+    }
+    
+    /**
+     * 运行单个序列化测试：预热后统计当前线程的分配字节数
+     */
+    private SerializationBenchmarkResult runSingleSerializationBenchmark(String implementation, int historySize,
+                                                                        SerializationOperation operation) {
+        SerializationBenchmarkResult result = new SerializationBenchmarkResult();
+        result.implementation = implementation;
+        result.historyMessages = historySize;
+        
+        Buffer sink = new Buffer();
+        try {
+            for (int i = 0; i < SERIALIZATION_WARMUP_OPS; i++) {
+                operation.run(sink);
+                sink.clear();
+            }
+            
+            com.sun.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean() : null;
+            boolean allocationSupported = threadBean != null && threadBean.isThreadAllocatedMemorySupported()
+                && threadBean.isThreadAllocatedMemoryEnabled();
+            long threadId = Thread.currentThread().getId();
+            long allocatedBefore = allocationSupported ? threadBean.getThreadAllocatedBytes(threadId) : 0;
+            long startTime = System.nanoTime();
+            
+            for (int i = 0; i < SERIALIZATION_BENCHMARK_OPS; i++) {
+                result.requestBytes = operation.run(sink);
+                sink.clear();
+            }
+            
+            long elapsed = System.nanoTime() - startTime;
+            result.nanosPerOperation = (double) elapsed / SERIALIZATION_BENCHMARK_OPS;
+            result.bytesPerOperation = allocationSupported
+                ? (double) (threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore) / SERIALIZATION_BENCHMARK_OPS
+                : -1;
+        } catch (IOException e) {
+            plugin.getLogger().warning("序列化测试失败 " + implementation + ": " + e.getMessage());
+        }
+        
+        plugin.getLogger().info(String.format("序列化测试: %s, 历史%d条, %.0f字节/次, %.0fns/次",
+            implementation, historySize, result.bytesPerOperation, result.nanosPerOperation));
+        return result;
+    }
+    
+    /**
+     * 旧实现：缓存JSON逐条复制成请求树，深拷贝后加入模型名，序列化为String再编码为请求体；
+     * 响应读成String后解析整棵树
+     */
+    private static long legacySerializeAndParse(Gson gson, ChatRequest request, JsonArray cachedMessages,
+                                                byte[] responseBytes, Buffer sink) throws IOException {
+        JsonObject requestBody = new JsonObject();
+        requestBody.addProperty("temperature", request.getTemperature());
+        requestBody.addProperty("max_tokens", request.getMaxTokens());
+        JsonArray messages = new JsonArray();
+        JsonObject systemMessage = new JsonObject();
+        systemMessage.addProperty("role", "system");
+        systemMessage.addProperty("content", request.getSystemPrompt());
+        messages.add(systemMessage);
+        for (int i = 0; i < cachedMessages.size(); i++) {
+            JsonObject cachedMsg = cachedMessages.get(i).getAsJsonObject();
+            JsonObject apiMsg = new JsonObject();
+            apiMsg.addProperty("role", cachedMsg.get("isAI").getAsBoolean() ? "assistant" : "user");
+            apiMsg.addProperty("content", cachedMsg.get("content").getAsString());
+            messages.add(apiMsg);
+        }
+        JsonObject userMessage = new JsonObject();
+        userMessage.addProperty("role", "user");
+        userMessage.addProperty("content", request.getUserPrompt());
+        messages.add(userMessage);
+        requestBody.add("messages", messages);
+        
+        JsonObject payload = requestBody.deepCopy();
+        payload.addProperty("model", "deepseek-chat");
+        RequestBody body = RequestBody.create(gson.toJson(payload), JSON_MEDIA_TYPE);
+        body.writeTo(sink);
+        
+        String responseBody = ResponseBody.create(responseBytes, JSON_MEDIA_TYPE).string();
+        JsonObject response = gson.fromJson(responseBody, JsonObject.class);
+        String content = response.getAsJsonArray("choices").get(0).getAsJsonObject()
+            .getAsJsonObject("message").get("content").getAsString();
+        if (content.isEmpty()) {
+            throw new IOException("响应内容为空");
+        }
+        return body.contentLength();
+    }
+    
+    /**
+     * 流式实现：与OpenAICompatibleProvider相同的编解码路径
+     */
+    private static long streamingSerializeAndParse(ChatRequest request, byte[] responseBytes, Buffer sink) throws IOException {
+        ChatJson.PooledRequestBody body = ChatJson.toRequestBody(request, "deepseek-chat");
+        long requestBytes = body.contentLength();
+        body.writeTo(sink);
+        body.release();
+        
+        String content = ChatJson.readChoiceContent(
+            ResponseBody.create(responseBytes, JSON_MEDIA_TYPE).charStream(), "message");
+        if (content == null || content.isEmpty()) {
+            throw new IOException("响应内容为空");
+        }
+        return requestBytes;
+    }
+    
+    @FunctionalInterface
+    private interface SerializationOperation {
+        /**
+         * @return 请求体字节数（两种实现应一致）
+         */
+        long run(Buffer sink) throws IOException;
+    }
+    
+    /**
+     * 🔧 历史快照压缩测试
+     * 生成接近真实的历史（玩家提问、AI回复、系统事件交替，时间戳间隔几秒到几分钟），
+     * 对比旧格式（Gson JSON + gzip）与二进制格式在各编码下的快照大小和编解码吞吐量
+     */
+    private List<HistoryCompressionResult> runHistoryCompressionBenchmarks() {
+        List<HistoryCompressionResult> results = new ArrayList<>();
+        
+        for (int historySize : HISTORY_COMPRESSION_SIZES) {
+            List<Message> history = generateBenchmarkHistory(historySize, new Random(historySize));
+            long rawBytes = 0;
+            for (Message message : history) {
+                rawBytes += message.getSender().getBytes(StandardCharsets.UTF_8).length
+                    + message.getContent().getBytes(StandardCharsets.UTF_8).length + 9;
+            }
+            
+            results.add(runSingleHistoryCompressionBenchmark("v1-json-gzip", history, rawBytes,
+                () -> legacyCompressHistory(history)));
+            for (HistoryCodec codec : new HistoryCodec[] {HistoryCodecs.STORED, HistoryCodecs.DEFLATE, HistoryCodecs.FAST}) {
+                results.add(runSingleHistoryCompressionBenchmark("v2-" + codec.getName(), history, rawBytes,
+                    () -> HistoryCompressor.compress(history, codec)));
+            }
+        }
+        
+        return results;
+    }
+    
+    private static List<Message> generateBenchmarkHistory(int size, Random random) {
+        String[] questions = {
+            "附近有什么危险吗？", "我应该先做铁镐还是铁剑？", "怎么找到要塞？", "天黑了怎么办",
+            "帮我想想基地建在哪里好", "钻石一般在第几层？", "村民交易有什么技巧？"
+        };
+        String[] replies = {
+            "天快黑了，建议你先搭个庇护所，附近的僵尸和骷髅很快就会出现。",
+            "记得带上火把和足够的食物，下界很危险，注意安全！",
+            "钻石通常在深层矿洞里，带上铁镐，小心岩浆。",
+            "你的生命值有点低了，先吃点东西恢复一下再继续探险吧。",
+            "可以先和村民交易绿宝石，换一些附魔书，对之后的战斗很有帮助。"
+        };
+        String[] events = {
+            "获得了成就: 石器时代", "获得了药水效果: 速度 II (30秒)", "从 4 级升到了 5 级",
+            "受到伤害 - 连续攻击 3 次，共损失 6.0 点生命，剩余 14.0 生命值", "被僵尸杀死了", "加入了游戏"
+        };
+        List<Message> history = new ArrayList<>(size);
+        long timestamp = 1_700_000_000_000L;
+        for (int i = 0; i < size; i++) {
+            timestamp += 2_000 + random.nextInt(120_000);
+            switch (i % 3) {
+                case 0:
+                    if (random.nextInt(3) == 0) {
+                        history.add(new Message("SYSTEM", events[random.nextInt(events.length)], false, timestamp));
+                    } else {
+                        history.add(new Message("Steve", questions[random.nextInt(questions.length)], false, timestamp));
+                    }
+                    break;
+                case 1:
+                    history.add(new Message("AI", replies[random.nextInt(replies.length)], true, timestamp));
+                    break;
+                default:
+                    history.add(new Message("Steve", "好的，我在坐标 " + random.nextInt(2_000) + ", 64, "
+                        + random.nextInt(2_000) + " 附近", false, timestamp));
+                    break;
+            }
+        }
+        return history;
+    }
+    
+    /**
+     * 运行单个压缩测试：编码和解码各在时间上限内尽量多次执行
+     */
+    private HistoryCompressionResult runSingleHistoryCompressionBenchmark(String implementation, List<Message> history,
+                                                                          long rawBytes, HistoryEncoder encoder) {
+        HistoryCompressionResult result = new HistoryCompressionResult();
+        result.implementation = implementation;
+        result.historyMessages = history.size();
+        result.rawBytes = rawBytes;
+        
+        try {
+            byte[] encoded = encoder.encode();
+            for (int i = 0; i < HISTORY_COMPRESSION_WARMUP_OPS; i++) {
+                encoder.encode();
+                HistoryCompressor.decompress(encoded);
+            }
+            result.compressedBytes = encoded.length;
+            
+            long deadline = System.nanoTime() + HISTORY_COMPRESSION_TIME_LIMIT_MS * 1_000_000L;
+            long startTime = System.nanoTime();
+            int operations = 0;
+            while (System.nanoTime() < deadline) {
+                encoder.encode();
+                operations++;
+            }
+            result.encodeNanos = (double) (System.nanoTime() - startTime) / operations;
+            
+            deadline = System.nanoTime() + HISTORY_COMPRESSION_TIME_LIMIT_MS * 1_000_000L;
+            startTime = System.nanoTime();
+            operations = 0;
+            while (System.nanoTime() < deadline) {
+                HistoryCompressor.decompress(encoded);
+                operations++;
+            }
+            result.decodeNanos = (double) (System.nanoTime() - startTime) / operations;
+            
+            // 吞吐量按消息原始内容计算，各实现可直接比较
+            result.encodeMBps = rawBytes / (result.encodeNanos / 1_000_000_000.0) / (1024 * 1024);
+            result.decodeMBps = rawBytes / (result.decodeNanos / 1_000_000_000.0) / (1024 * 1024);
+        } catch (IOException e) {
+            plugin.getLogger().warning("历史压缩测试失败 " + implementation + ": " + e.getMessage());
+        }
+        
+        plugin.getLogger().info(String.format("历史压缩测试: %s, 历史%d条, %d字节, 编码%.1fMB/s, 解码%.1fMB/s",
+            implementation, history.size(), result.compressedBytes, result.encodeMBps, result.decodeMBps));
+        return result;
+    }
+    
+    /**
+     * 旧格式（VERSION=1）：[版本][JSON的CRC32][数据长度] + gzip(Gson JSON)
+     */
+    private static byte[] legacyCompressHistory(List<Message> messages) throws IOException {
+        JsonArray jsonArray = new JsonArray();
+        for (Message msg : messages) {
+            JsonObject jsonMsg = new JsonObject();
+            jsonMsg.addProperty("sender", msg.getSender());
+            jsonMsg.addProperty("content", msg.getContent());
+            jsonMsg.addProperty("isAI", msg.isAI());
+            jsonMsg.addProperty("timestamp", msg.getTimestamp());
+            jsonArray.add(jsonMsg);
+        }
+        byte[] json = new Gson().toJson(jsonArray).getBytes(StandardCharsets.UTF_8);
+        
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOut = new GZIPOutputStream(baos)) {
+            gzipOut.write(json);
+        }
+        byte[] data = baos.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(json);
+        
+        ByteBuffer buffer = ByteBuffer.allocate(16 + data.length);
+        buffer.putInt(1);
+        buffer.putInt((int) crc.getValue());
+        buffer.putLong(data.length);
+        buffer.put(data);
+        return buffer.array();
+    }
+    
+    @FunctionalInterface
+    private interface HistoryEncoder {
+        byte[] encode() throws IOException;
+    }
+    
+    /**
+     * 计算已排序数组的百分位数
+     */
+    static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+    
     /**
      * 分析结果并生成优化建议
      */
@@ -539,6 +1333,7 @@ public class PerformanceBenchmark {
         sb.append("=== 基线性能 ===\n");
         sb.append("配置加载时间: ").append(String.format("%.2f", report.baselineMetrics.configLoadTime)).append(" ms\n");
         sb.append("环境收集时间: ").append(String.format("%.2f", report.baselineMetrics.environmentCollectionTime)).append(" ms\n");
+        sb.append("环境快照主线程耗时: ").append(String.format("%.1f", report.baselineMetrics.environmentSnapshotTickMicros)).append(" μs/tick\n");
         sb.append("监控开销: ").append(String.format("%.2f", report.baselineMetrics.monitoringOverhead)).append(" μs\n\n");
         
         // 负载测试结果
@@ -549,6 +1344,111 @@ public class PerformanceBenchmark {
         }
         sb.append("\n");
         
+        // 执行后端对比
+        sb.append("=== 执行后端对比 ===\n");
+        sb.append(String.format("模拟API延迟: %dms\n", SIMULATED_API_LATENCY_MS));
+        for (StageBackendResult result : report.stageBackendResults) {
+            sb.append(String.format("后端: %s | 并发玩家: %d | 并发上限: %d | p50: %dms | p99: %dms | 总耗时: %dms%s\n",
+                result.backend, result.chatters, result.maxConcurrency, result.p50Latency, result.p99Latency,
+                result.totalTime, result.completed ? "" : " (超时)"));
+        }
+        sb.append("\n");
+        
+        // 缓存实现对比
+        sb.append("=== 缓存实现对比 ===\n");
+        for (CacheBenchmarkResult result : report.cacheResults) {
+            sb.append(String.format("实现: %s | 容量: %d | 操作数: %d | %.0fns/次 | 命中率: %.1f%%%s\n",
+                result.implementation, result.maximumSize, result.operations, result.nanosPerOperation,
+                result.hitRate * 100, result.timedOut ? " (达到时间上限)" : ""));
+        }
+        sb.append("\n");
+        
+        // 多提供者路由
+        sb.append("=== 多提供者路由 ===\n");
+        for (ProviderRoutingResult result : report.routingResults) {
+            sb.append(String.format("路由: %s | 请求: %d | 成功率: %.1f%% | p50: %dms | p95: %dms | p99: %dms | 故障转移: %d | 分布: %s\n",
+                result.routing, result.requests, result.successRate * 100, result.p50Latency, result.p95Latency,
+                result.p99Latency, result.failovers, result.distribution));
+        }
+        sb.append("\n");
+        
+        // 对冲请求
+        sb.append("=== 对冲请求 ===\n");
+        ProviderRoutingResult unhedged = null;
+        for (ProviderRoutingResult result : report.hedgingResults) {
+            if (!result.hedgeEnabled) {
+                unhedged = result;
+            }
+            sb.append(String.format("对冲: %s | 对冲率: %.1f%% | p50: %dms | p95: %dms | p99: %dms",
+                result.hedgeEnabled ? String.format("p90, 预算%.0f%%", result.hedgeBudgetPercent) : "关闭",
+                result.hedgeRate * 100, result.p50Latency, result.p95Latency, result.p99Latency));
+            if (result.hedgeEnabled && unhedged != null && unhedged.p99Latency > 0) {
+                sb.append(String.format(" | p99改善: %.1f%%",
+                    (1.0 - (double) result.p99Latency / unhedged.p99Latency) * 100));
+            }
+            sb.append("\n");
+        }
+        sb.append("\n");
+        
+        // 请求序列化分配
+        sb.append("=== 请求序列化分配 ===\n");
+        SerializationBenchmarkResult treeResult = null;
+        for (SerializationBenchmarkResult result : report.serializationResults) {
+            if ("gson-tree".equals(result.implementation)) {
+                treeResult = result;
+            }
+            sb.append(String.format("实现: %s | 历史消息: %d | 请求体: %d字节 | %.0f字节/次 | %.0fns/次",
+                result.implementation, result.historyMessages, result.requestBytes,
+                result.bytesPerOperation, result.nanosPerOperation));
+            if (result != treeResult && treeResult != null && treeResult.historyMessages == result.historyMessages
+                    && treeResult.bytesPerOperation > 0) {
+                sb.append(String.format(" | 分配减少: %.1f%%",
+                    (1.0 - result.bytesPerOperation / treeResult.bytesPerOperation) * 100));
+            }
+            sb.append("\n");
+        }
+        sb.append("\n");
+        
+        // 系统事件微批处理
+        sb.append("=== 系统事件微批处理 ===\n");
+        EventBatchingResult unbatched = null;
+        for (EventBatchingResult result : report.eventBatchingResults) {
+            if (result.windowMillis == 0) {
+                unbatched = result;
+            }
+            sb.append(String.format("窗口: %s | 事件: %d | 上游调用: %d | 平均批量: %.1f | 提示词: %d tokens | p50: %dms | p99: %dms | 缺失回复: %d | 失败: %d",
+                result.windowMillis == 0 ? "不合并" : result.windowMillis + "ms", result.events, result.upstreamCalls,
+                result.averageBatchSize, result.promptTokens, result.p50Latency, result.p99Latency,
+                result.missingReplies, result.failed));
+            if (result != unbatched && unbatched != null && unbatched.upstreamCalls > 0 && unbatched.promptTokens > 0) {
+                sb.append(String.format(" | 调用减少: %.1f%% | token减少: %.1f%% | p50变化: %+dms",
+                    (1.0 - (double) result.upstreamCalls / unbatched.upstreamCalls) * 100,
+                    (1.0 - (double) result.promptTokens / unbatched.promptTokens) * 100,
+                    result.p50Latency - unbatched.p50Latency));
+            }
+            sb.append("\n");
+        }
+        sb.append("\n");
+        
+        // 历史快照压缩
+        sb.append("=== 历史快照压缩 ===\n");
+        HistoryCompressionResult legacyResult = null;
+        for (HistoryCompressionResult result : report.historyCompressionResults) {
+            if ("v1-json-gzip".equals(result.implementation)) {
+                legacyResult = result;
+            }
+            sb.append(String.format("实现: %s | 历史消息: %d | 原始: %d字节 | 快照: %d字节 | 编码: %.1fMB/s (%.0fns) | 解码: %.1fMB/s (%.0fns)",
+                result.implementation, result.historyMessages, result.rawBytes, result.compressedBytes,
+                result.encodeMBps, result.encodeNanos, result.decodeMBps, result.decodeNanos));
+            if (result != legacyResult && legacyResult != null && legacyResult.historyMessages == result.historyMessages
+                    && legacyResult.compressedBytes > 0) {
+                sb.append(String.format(" | 体积减少: %.1f%%",
+                    (1.0 - (double) result.compressedBytes / legacyResult.compressedBytes) * 100));
+            }
+            sb.append("\n");
+        }
+        sb.append("\n");
+        
         // 优化建议
         sb.append("=== 优化建议 ===\n");
         if (report.optimizationSuggestions.isEmpty()) {
@@ -609,6 +1509,13 @@ public class PerformanceBenchmark {
         public BaselineMetrics baselineMetrics;
         public List<LoadTestResult> loadTestResults = new ArrayList<>();
         public List<OptimizationSuggestion> optimizationSuggestions = new ArrayList<>();
+        public List<StageBackendResult> stageBackendResults = new ArrayList<>();
+        public List<CacheBenchmarkResult> cacheResults = new ArrayList<>();
+        public List<ProviderRoutingResult> routingResults = new ArrayList<>();
+        public List<ProviderRoutingResult> hedgingResults = new ArrayList<>();
+        public List<SerializationBenchmarkResult> serializationResults = new ArrayList<>();
+        public List<EventBatchingResult> eventBatchingResults = new ArrayList<>();
+        public List<HistoryCompressionResult> historyCompressionResults = new ArrayList<>();
     }
     
     public static class SystemInfo {
@@ -627,6 +1534,7 @@ public class PerformanceBenchmark {
     public static class BaselineMetrics {
         public double configLoadTime; // ms
         public double environmentCollectionTime; // ms
+        public double environmentSnapshotTickMicros; // μs
         public double monitoringOverhead; // μs
     }
     
@@ -643,6 +1551,126 @@ public class PerformanceBenchmark {
         public double averageMemoryUsage;
     }
     
+    public static class StageBackendResult {
+        public String backend;
+        public int chatters;
+        public int maxConcurrency;
+        public long p50Latency; // ms
+        public long p99Latency; // ms
+        public long totalTime; // ms
+        public boolean completed;
+    }
+    
+    public static class CacheBenchmarkResult {
+        public String implementation;
+        public int maximumSize;
+        public int operations;
+        public double nanosPerOperation;
+        public double hitRate;
+        public long evictions;
+        public boolean timedOut;
+    }
+    
+    public static class ProviderRoutingResult {
+        public String routing;
+        public boolean hedgeEnabled;
+        public int requests;
+        public double successRate;
+        public long p50Latency; // ms
+        public long p95Latency; // ms
+        public long p99Latency; // ms
+        public long failovers;
+        public long hedges;
+        public double hedgeBudgetPercent;
+        public double hedgeRate;
+        public Map<String, Long> distribution = new LinkedHashMap<>();
+    }
+    
+    public static class SerializationBenchmarkResult {
+        public String implementation;
+        public int historyMessages;
+        public double bytesPerOperation; // -1表示JVM不支持线程分配统计
+        public double nanosPerOperation;
+        public long requestBytes;
+    }
+    
+    public static class HistoryCompressionResult {
+        public String implementation;
+        public int historyMessages;
+        public long rawBytes; // 发送者 + 内容 + 标记和时间戳
+        public long compressedBytes;
+        public double encodeNanos;
+        public double decodeNanos;
+        public double encodeMBps;
+        public double decodeMBps;
+    }
+    
+    public static class EventBatchingResult {
+        public long windowMillis; // 0表示逐个请求
+        public int events;
+        public long upstreamCalls;
+        public long promptTokens;
+        public double averageBatchSize;
+        public long missingReplies;
+        public int failed;
+        public long p50Latency; // ms
+        public long p99Latency; // ms
+        public long totalTime; // ms
+    }
+    
+    /**
+     * 旧版DeepSeekAIService缓存实现（超出容量时按时间戳全量排序淘汰），仅作对比基线
+     */
+    private static class LegacyTimestampCache<K, V> {
+        private final ConcurrentHashMap<K, Entry<V>> cache = new ConcurrentHashMap<>();
+        private final int maxSize;
+        private final long ttl;
+        private final Object cleanupLock = new Object();
+        
+        LegacyTimestampCache(int maxSize, long ttl) {
+            this.maxSize = maxSize;
+            this.ttl = ttl;
+        }
+        
+        V get(K key) {
+            Entry<V> entry = cache.get(key);
+            if (entry == null || System.currentTimeMillis() - entry.timestamp > ttl) {
+                if (entry != null) {
+                    cache.remove(key);
+                }
+                return null;
+            }
+            return entry.value;
+        }
+        
+        void put(K key, V value) {
+            cache.put(key, new Entry<>(value));
+            if (cache.size() > maxSize) {
+                synchronized (cleanupLock) {
+                    if (cache.size() > maxSize) {
+                        cache.entrySet().removeIf(e -> System.currentTimeMillis() - e.getValue().timestamp > ttl);
+                        if (cache.size() > maxSize) {
+                            cache.entrySet().stream()
+                                .sorted((e1, e2) -> Long.compare(e1.getValue().timestamp, e2.getValue().timestamp))
+                                .limit(cache.size() - maxSize)
+                                .map(Map.Entry::getKey)
+                                .forEach(cache::remove);
+                        }
+                    }
+                }
+            }
+        }
+        
+        private static class Entry<V> {
+            final V value;
+            final long timestamp = System.currentTimeMillis();
+            
+            Entry(V value) {
+                this.value = value;
+            }
+        }
+    }
+    
     public static class OptimizationSuggestion {
         public enum Priority { HIGH, MEDIUM, LOW }
         
@@ -1,6 +1,8 @@
 package com.example.aichatplugin.performance;
 
 import com.example.aichatplugin.AIChatPlugin;
+import com.example.aichatplugin.util.LatencyWindow;
+import com.example.aichatplugin.util.PriorityEventScheduler.EventClass;
 import org.bukkit.Bukkit;
 import org.bukkit.World;
 import org.bukkit.configuration.file.FileConfiguration;
@@ -40,6 +42,10 @@ public class PerformanceMonitor {
     private OperationMode currentMode = OperationMode.FULL;
     private final Map<String, AtomicInteger> errorCounters = new ConcurrentHashMap<>();
     private final Map<String, AtomicLong> responseTimes = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> responseCounts = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> firstTokenTimes = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> firstTokenCounts = new ConcurrentHashMap<>();
+    private final Map<String, LatencyWindow> responseWindows = new ConcurrentHashMap<>();
     private final Map<OperationMode, AtomicInteger> modeStabilityCount = new EnumMap<>(OperationMode.class);
     private final Map<Long, PerformanceSnapshot> performanceHistory = new ConcurrentHashMap<>();
     
@@ -54,6 +60,7 @@ public class PerformanceMonitor {
     private static final int STABILITY_THRESHOLD = 5;
     private static final long COOLDOWN_PERIOD = 60000; // 1分钟冷却时间
     private static final long HISTORY_RETENTION = TimeUnit.HOURS.toMillis(1);
+    private static final int RESPONSE_WINDOW_SIZE = 256;
     private long lastModeSwitchTime = 0;
     private int checkInterval;
     private double tpsThresholdFull;
@@ -612,6 +619,9 @@ public class PerformanceMonitor {
         // 伤害事件性能控制参数
         private final Map<OperationMode, DamageEventConfig> damageEventConfigs = new EnumMap<>(OperationMode.class);
         
+        // 事件队列收紧除数（队列上限和最大等待时间都除以该值，0表示丢弃该类别）
+        private final Map<OperationMode, Map<EventClass, Integer>> eventQueueDivisors = new EnumMap<>(OperationMode.class);
+        
         // 伤害事件配置类
         public static class DamageEventConfig {
             private final boolean enabled;                  // 是否启用伤害事件处理
@@ -640,6 +650,7 @@ public class PerformanceMonitor {
             this.plugin = plugin;
             initializeFeatureStates();
             initializeDamageEventConfigs();
+            initializeEventQueueDivisors();
         }
         
         /**
@@ -674,6 +685,41 @@ public class PerformanceMonitor {
                 new DamageEventConfig(false, 0, 0.0, false, 0));
         }
         
+        /**
+         * 初始化各模式下的事件队列收紧程度
+         */
+        private void initializeEventQueueDivisors() {
+            // FULL模式：使用配置的上限
+            eventQueueDivisors.put(OperationMode.FULL, eventQueueDivisors(1, 1, 1, 1, 1));
+            
+            // LITE模式：伤害/药水队列减半
+            eventQueueDivisors.put(OperationMode.LITE, eventQueueDivisors(1, 1, 1, 1, 2));
+            
+            // BASIC模式：成就、加入/退出减半，伤害/药水只保留四分之一
+            eventQueueDivisors.put(OperationMode.BASIC, eventQueueDivisors(1, 1, 2, 2, 4));
+            
+            // EMERGENCY模式：只优先保证聊天，伤害/药水全部丢弃
+            eventQueueDivisors.put(OperationMode.EMERGENCY, eventQueueDivisors(1, 2, 4, 4, 0));
+        }
+        
+        private static Map<EventClass, Integer> eventQueueDivisors(int chat, int death, int advancement, 
+                                                                   int session, int ambient) {
+            Map<EventClass, Integer> divisors = new EnumMap<>(EventClass.class);
+            divisors.put(EventClass.CHAT, chat);
+            divisors.put(EventClass.DEATH, death);
+            divisors.put(EventClass.ADVANCEMENT, advancement);
+            divisors.put(EventClass.SESSION, session);
+            divisors.put(EventClass.AMBIENT, ambient);
+            return divisors;
+        }
+        
+        /**
+         * 获取指定模式下的事件队列收紧除数
+         */
+        public Map<EventClass, Integer> getEventQueueDivisors(OperationMode mode) {
+            return eventQueueDivisors.getOrDefault(mode, eventQueueDivisors.get(OperationMode.FULL));
+        }
+        
         /**
          * 根据运行模式应用优化
          */
@@ -841,8 +887,9 @@ public class PerformanceMonitor {
                 plugin.debug("已通知命令处理器应用优化");
             }
             
-            // 通知对话管理器
+            // 通知对话管理器收紧事件队列
             if (plugin.getConversationManager() != null) {
+                plugin.getConversationManager().applyEventQueueLimits(getEventQueueDivisors(mode));
                 plugin.debug("已通知对话管理器应用优化");
             }
         }
@@ -999,6 +1046,24 @@ public class PerformanceMonitor {
      */
     public void recordResponseTime(String type, long time) {
         responseTimes.computeIfAbsent(type, k -> new AtomicLong(0)).addAndGet(time);
+        responseCounts.computeIfAbsent(type, k -> new AtomicLong(0)).incrementAndGet();
+        responseWindows.computeIfAbsent(type, k -> new LatencyWindow(RESPONSE_WINDOW_SIZE)).record(time);
+    }
+    
+    /**
+     * 🔧 获取最近响应时间的百分位数（毫秒），没有样本时返回0
+     */
+    public long getResponseTimePercentile(String type, double quantile) {
+        LatencyWindow window = responseWindows.get(type);
+        return window != null ? window.percentile(quantile) : 0L;
+    }
+    
+    /**
+     * 🔧 记录首字延迟（TTFT，从发出请求到收到第一个内容片段）
+     */
+    public void recordFirstTokenTime(String type, long time) {
+        firstTokenTimes.computeIfAbsent(type, k -> new AtomicLong(0)).addAndGet(time);
+        firstTokenCounts.computeIfAbsent(type, k -> new AtomicLong(0)).incrementAndGet();
     }
     
     /**
@@ -1019,12 +1084,40 @@ public class PerformanceMonitor {
         return stats;
     }
     
+    /**
+     * 获取平均响应时间统计（毫秒）
+     */
+    public Map<String, Long> getAverageResponseTimeStats() {
+        return averageOf(responseTimes, responseCounts);
+    }
+    
+    /**
+     * 获取平均首字延迟统计（毫秒）
+     */
+    public Map<String, Long> getAverageFirstTokenTimeStats() {
+        return averageOf(firstTokenTimes, firstTokenCounts);
+    }
+    
+    private Map<String, Long> averageOf(Map<String, AtomicLong> totals, Map<String, AtomicLong> counts) {
+        Map<String, Long> stats = new HashMap<>();
+        totals.forEach((type, total) -> {
+            AtomicLong count = counts.get(type);
+            long n = count != null ? count.get() : 0;
+            stats.put(type, n > 0 ? total.get() / n : 0L);
+        });
+        return stats;
+    }
+    
     /**
      * 重置统计
      */
     public void resetStats() {
         errorCounters.clear();
         responseTimes.clear();
+        responseCounts.clear();
+        firstTokenTimes.clear();
+        firstTokenCounts.clear();
+        responseWindows.clear();
         performanceHistory.clear();
     }
 
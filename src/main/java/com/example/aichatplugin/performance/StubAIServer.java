@@ -0,0 +1,148 @@
+package com.example.aichatplugin.performance;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 本地模拟AI端点（OpenAI兼容格式）
+ *
+ * 用于基准测试中的路由、对冲和限流场景，每个端点可以单独设置：
+ * 1. 基础延迟
+ * 2. 慢请求比例及其延迟（模拟长尾）
+ * 3. 失败比例（返回500）
+ * 4. 每个批量事件的额外延迟：请求中带有"[编号]"条目时按编号逐行回复（模拟微批处理）
+ */
+public class StubAIServer implements AutoCloseable {
+
+    private static final String RESPONSE_BODY =
+        "{\"choices\":[{\"message\":{\"role\":\"assistant\",\"content\":\"模拟回复\"}}]}";
+    private static final Pattern BATCH_ITEM = Pattern.compile("\\[(\\d+)\\]");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, AtomicLong> requestCounts = new ConcurrentHashMap<>();
+
+    public StubAIServer() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        AtomicInteger threadIndex = new AtomicInteger(0);
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "StubAIServer-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * 注册一个模拟端点
+     * @param name 端点名（同时作为URL路径）
+     * @param baseLatencyMs 正常请求延迟
+     * @param slowRate 慢请求比例（0-1）
+     * @param slowLatencyMs 慢请求延迟
+     * @param failureRate 失败比例（0-1）
+     * @return 端点完整URL
+     */
+    public String addEndpoint(String name, long baseLatencyMs, double slowRate, long slowLatencyMs, double failureRate) {
+        return addEndpoint(name, baseLatencyMs, slowRate, slowLatencyMs, failureRate, 0);
+    }
+
+    /**
+     * 注册一个模拟端点，批量请求的延迟随条目数增加
+     * @param perItemLatencyMs 批量请求中每个条目的额外延迟（模拟更长的输出）
+     */
+    public String addEndpoint(String name, long baseLatencyMs, double slowRate, long slowLatencyMs,
+                              double failureRate, long perItemLatencyMs) {
+        AtomicLong counter = new AtomicLong(0);
+        requestCounts.put(name, counter);
+        server.createContext("/" + name, exchange -> handle(exchange, counter,
+            baseLatencyMs, slowRate, slowLatencyMs, failureRate, perItemLatencyMs));
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/" + name;
+    }
+
+    public long getRequestCount(String name) {
+        AtomicLong counter = requestCounts.get(name);
+        return counter != null ? counter.get() : 0;
+    }
+
+    private void handle(HttpExchange exchange, AtomicLong counter, long baseLatencyMs,
+                        double slowRate, long slowLatencyMs, double failureRate, long perItemLatencyMs) throws IOException {
+        counter.incrementAndGet();
+        String request;
+        try (InputStream in = exchange.getRequestBody()) {
+            request = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        int batchItems = countBatchItems(request);
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long latency = (random.nextDouble() < slowRate ? slowLatencyMs : baseLatencyMs) + batchItems * perItemLatencyMs;
+        try {
+            Thread.sleep(latency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        boolean fail = random.nextDouble() < failureRate;
+        String response = fail ? "{\"error\":\"模拟服务异常\"}" : batchItems > 0 ? batchResponse(batchItems) : RESPONSE_BODY;
+        byte[] body = response.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        try {
+            exchange.sendResponseHeaders(fail ? 500 : 200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (IOException e) {
+            // 客户端已取消（对冲失败方），忽略
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * 请求中最大的"[编号]"，没有时为0
+     */
+    private static int countBatchItems(String request) {
+        int max = 0;
+        Matcher matcher = BATCH_ITEM.matcher(request);
+        while (matcher.find()) {
+            try {
+                max = Math.max(max, Integer.parseInt(matcher.group(1)));
+            } catch (NumberFormatException e) {
+                // 忽略过长的数字
+            }
+        }
+        return max;
+    }
+
+    private static String batchResponse(int items) {
+        StringBuilder content = new StringBuilder();
+        for (int i = 1; i <= items; i++) {
+            if (i > 1) {
+                content.append("\\n");
+            }
+            content.append('[').append(i).append("] 模拟回复");
+        }
+        return "{\"choices\":[{\"message\":{\"role\":\"assistant\",\"content\":\"" + content + "\"}}]}";
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -44,7 +44,7 @@ public class CircularBuffer {
      */
     public synchronized int countInWindow(long now, long windowMs) {
         return (int) Arrays.stream(timestamps)
-            .filter(t -> now - t < windowMs)
+            .filter(t -> t != Long.MIN_VALUE && now - t < windowMs) // 空槽位相减会溢出为负数
             .count();
     }
     
@@ -0,0 +1,332 @@
+package com.example.aichatplugin.util;
+
+import com.example.aichatplugin.Message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 🔧 列式存储的玩家对话历史
+ *
+ * 每条消息拆成几列原始数组：时间戳(long)、标记(byte，bit0为AI)、发送者ID(int，本历史的发送者表)、
+ * token前缀和(long，追加时计算)和内容引用，不再为每条消息保留Message对象和重复的发送者字符串。
+ * 按token预算选取窗口时在前缀和上二分查找，O(log n)。
+ *
+ * 数组中的 [head, tail) 为当前历史：追加写入tail处后发布新快照，裁剪开头只移动head，均为O(1)；
+ * 数组写满（或存活消息不足容量的1/4）时把存活部分复制到新数组，均摊O(1)。
+ * 与 {@link com.example.aichatplugin.ai.MessagePrefix} 相同，只追加不改写：已发布的位置不会再被写入，
+ * 快照引用某一时刻的数组和区间，读取不加锁。写入方法之间互斥（同步在本对象上）。
+ */
+public final class HistoryBuffer {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final byte FLAG_AI = 1;
+    // 每条消息在各列中的字节数（long + byte + int + long + 引用）
+    private static final int ENTRY_BYTES = 8 + 1 + 4 + 8 + 4;
+    // String对象和其字符数组的对象头
+    private static final int STRING_OVERHEAD_BYTES = 40;
+
+    // 发送者表：本历史中的玩家名、"AI"、"SYSTEM"等各保存一份，随历史一起回收，
+    // 重新分配数组时只保留仍被存活消息引用的发送者
+    private final Map<String, Integer> senderIds = new HashMap<>();
+    private String[] senderNames = new String[4];
+
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private byte[] flags = new byte[INITIAL_CAPACITY];
+    private int[] senders = new int[INITIAL_CAPACITY];
+    // tokenSums[i + 1] - tokenSums[i] 为位置i的消息计入上下文的token数（内容 + 格式开销）
+    private long[] tokenSums = new long[INITIAL_CAPACITY + 1];
+    private String[] contents = new String[INITIAL_CAPACITY];
+    private int head;
+    private int tail;
+    // 从开头移除过的消息总数，快照用它判断历史开头是否变化
+    private long removed;
+
+    private volatile Snapshot current = new Snapshot(this, timestamps, flags, senders, tokenSums, contents,
+        senderNames, 0, 0, 0);
+
+    /**
+     * 追加一条消息
+     * @return 消息内容的token数
+     */
+    public synchronized int append(String sender, String content, boolean isAI, long timestamp) {
+        int count = TokenCounter.count(content);
+        write(sender, content, isAI, timestamp, count);
+        publish();
+        return count;
+    }
+
+    /**
+     * 追加从存储加载的消息（保留原始时间戳）
+     */
+    public synchronized void appendAll(List<Message> messages) {
+        for (Message message : messages) {
+            write(message.getSender(), message.getContent(), message.isAI(),
+                message.getTimestamp(), message.getTokenCount());
+        }
+        publish();
+    }
+
+    private void write(String sender, String content, boolean isAI, long timestamp, int tokenCount) {
+        if (tail == timestamps.length) {
+            reallocate(Math.max(INITIAL_CAPACITY, (tail - head) * 2));
+        }
+        timestamps[tail] = timestamp;
+        flags[tail] = isAI ? FLAG_AI : 0;
+        // 重新分配会重建发送者表，ID在其后获取
+        senders[tail] = internSender(sender);
+        tokenSums[tail + 1] = tokenSums[tail] + tokenCount + TokenCounter.MESSAGE_OVERHEAD;
+        contents[tail] = content;
+        tail++;
+    }
+
+    /**
+     * 移除开头的count条消息
+     */
+    public synchronized void removeFirst(int count) {
+        if (count <= 0) {
+            return;
+        }
+        count = Math.min(count, tail - head);
+        head += count;
+        removed += count;
+        shrinkIfSparse();
+        publish();
+    }
+
+    /**
+     * 移除basis快照开头的count条消息；历史已被裁剪、清空或替换（不再以basis的开头开始）时放弃
+     * @return 是否已移除
+     */
+    public synchronized boolean removeFirst(Snapshot basis, int count) {
+        if (basis.owner != this || basis.firstSequence != removed || tail - head < count) {
+            return false;
+        }
+        removeFirst(count);
+        return true;
+    }
+
+    /**
+     * 从开头移除时间戳早于cutoff的消息（历史按追加顺序排列，时间戳基本递增）
+     * @return 移除的消息数
+     */
+    public synchronized int removeOlderThan(long cutoff) {
+        int end = head;
+        while (end < tail && timestamps[end] < cutoff) {
+            end++;
+        }
+        int count = end - head;
+        removeFirst(count);
+        return count;
+    }
+
+    public synchronized void clear() {
+        removeFirst(tail - head);
+    }
+
+    /**
+     * 存活消息不足容量的1/4时换成较小的数组，释放已裁剪消息的内容引用
+     */
+    private void shrinkIfSparse() {
+        int live = tail - head;
+        if (timestamps.length > INITIAL_CAPACITY && live < timestamps.length / 4) {
+            reallocate(Math.max(INITIAL_CAPACITY, live * 2));
+        }
+    }
+
+    /**
+     * 把 [head, tail) 复制到新数组的开头（旧数组仍被已发布的快照引用，不能原地移动）
+     * 前缀和只用差值，复制后不需要重新计算
+     */
+    private void reallocate(int capacity) {
+        int live = tail - head;
+        timestamps = Arrays.copyOf(Arrays.copyOfRange(timestamps, head, tail), capacity);
+        flags = Arrays.copyOf(Arrays.copyOfRange(flags, head, tail), capacity);
+        senders = Arrays.copyOf(Arrays.copyOfRange(senders, head, tail), capacity);
+        tokenSums = Arrays.copyOf(Arrays.copyOfRange(tokenSums, head, tail + 1), capacity + 1);
+        contents = Arrays.copyOf(Arrays.copyOfRange(contents, head, tail), capacity);
+        head = 0;
+        tail = live;
+        compactSenders();
+    }
+
+    /**
+     * 重建发送者表，只保留存活消息引用的发送者（新数组尚未发布，可以改写ID）
+     */
+    private void compactSenders() {
+        String[] oldNames = senderNames;
+        senderIds.clear();
+        senderNames = new String[4];
+        for (int i = head; i < tail; i++) {
+            senders[i] = internSender(oldNames[senders[i]]);
+        }
+    }
+
+    private void publish() {
+        current = new Snapshot(this, timestamps, flags, senders, tokenSums, contents, senderNames,
+            head, tail, removed);
+    }
+
+    /**
+     * 当前历史的快照，不加锁
+     */
+    public Snapshot snapshot() {
+        return current;
+    }
+
+    public int size() {
+        return current.size();
+    }
+
+    public boolean isEmpty() {
+        return current.isEmpty();
+    }
+
+    /**
+     * 占用内存的估算值（各列 + 内容字符串，不含数组的空余容量）
+     */
+    public long estimateBytes() {
+        Snapshot snapshot = current;
+        long bytes = 0;
+        for (int i = 0; i < snapshot.size(); i++) {
+            bytes += estimateEntryBytes(snapshot.getContent(i));
+        }
+        return bytes;
+    }
+
+    public static long estimateEntryBytes(String content) {
+        return ENTRY_BYTES + STRING_OVERHEAD_BYTES + 2L * content.length();
+    }
+
+    /**
+     * 发送者表中的发送者数
+     */
+    public synchronized int getSenderCount() {
+        return senderIds.size();
+    }
+
+    /**
+     * 查找或登记发送者，调用方需持有本对象的锁
+     * 名称数组只追加，扩容时换成新数组，已发布快照引用的数组不再被改写
+     */
+    private int internSender(String sender) {
+        Integer id = senderIds.get(sender);
+        if (id != null) {
+            return id;
+        }
+        int next = senderIds.size();
+        if (next == senderNames.length) {
+            senderNames = Arrays.copyOf(senderNames, next * 2);
+        }
+        senderNames[next] = sender;
+        senderIds.put(sender, next);
+        return next;
+    }
+
+    /**
+     * 某一时刻的历史，不再变化
+     * 下标从0开始，0为最早的消息
+     */
+    public static final class Snapshot {
+        private final HistoryBuffer owner;
+        private final long[] timestamps;
+        private final byte[] flags;
+        private final int[] senders;
+        private final long[] tokenSums;
+        private final String[] contents;
+        private final String[] senderNames;
+        private final int from;
+        private final int to;
+        private final long firstSequence;
+
+        Snapshot(HistoryBuffer owner, long[] timestamps, byte[] flags, int[] senders, long[] tokenSums,
+                 String[] contents, String[] senderNames, int from, int to, long firstSequence) {
+            this.owner = owner;
+            this.timestamps = timestamps;
+            this.flags = flags;
+            this.senders = senders;
+            this.tokenSums = tokenSums;
+            this.contents = contents;
+            this.senderNames = senderNames;
+            this.from = from;
+            this.to = to;
+            this.firstSequence = firstSequence;
+        }
+
+        public int size() {
+            return to - from;
+        }
+
+        public boolean isEmpty() {
+            return to == from;
+        }
+
+        public long getTimestamp(int index) {
+            return timestamps[from + index];
+        }
+
+        public boolean isAI(int index) {
+            return (flags[from + index] & FLAG_AI) != 0;
+        }
+
+        public String getSender(int index) {
+            return senderNames[senders[from + index]];
+        }
+
+        public String getContent(int index) {
+            return contents[from + index];
+        }
+
+        /**
+         * 消息内容的token数（不含格式开销）
+         */
+        public int getTokenCount(int index) {
+            int i = from + index;
+            return (int) (tokenSums[i + 1] - tokenSums[i]) - TokenCounter.MESSAGE_OVERHEAD;
+        }
+
+        /**
+         * token数（含每条消息的格式开销）不超过预算的最近一段历史的起始下标
+         * 在前缀和上二分查找，O(log n)
+         * @param tokenBudget token预算，小于等于0表示不限制
+         */
+        public int windowStart(long tokenBudget) {
+            if (tokenBudget <= 0) {
+                return 0;
+            }
+            return TokenCounter.windowStart(tokenSums, from, to, tokenBudget) - from;
+        }
+
+        /**
+         * token数（含每条消息的格式开销）不超过预算的最早一段历史的结束下标（不含）
+         * 在前缀和上二分查找，O(log n)
+         */
+        public int windowEnd(long tokenBudget) {
+            return TokenCounter.windowEnd(tokenSums, from, to, tokenBudget) - from;
+        }
+
+        public Message getMessage(int index) {
+            int i = from + index;
+            return new Message(senderNames[senders[i]], contents[i], (flags[i] & FLAG_AI) != 0,
+                timestamps[i], getTokenCount(index));
+        }
+
+        /**
+         * 转换为Message列表（副本）
+         */
+        public List<Message> toMessages() {
+            return toMessages(0, size());
+        }
+
+        public List<Message> toMessages(int fromIndex, int toIndex) {
+            List<Message> messages = new ArrayList<>(toIndex - fromIndex);
+            for (int i = fromIndex; i < toIndex; i++) {
+                messages.add(getMessage(i));
+            }
+            return messages;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.aichatplugin.util;
+
+import java.io.IOException;
+
+/**
+ * 历史快照的压缩编码
+ *
+ * 编码ID写入快照头，读取时按ID选择解码器，因此切换编码后已有的快照仍可读取。
+ * 内置编码见 {@link HistoryCodecs}，自定义编码通过 {@link HistoryCompressor#registerCodec} 注册。
+ */
+public interface HistoryCodec {
+
+    /**
+     * 写入快照头的编码ID（0-255，内置编码占用0-15）
+     */
+    int getId();
+
+    /**
+     * 配置中使用的名称（history.compression.codec）
+     */
+    String getName();
+
+    byte[] encode(byte[] raw, int offset, int length) throws IOException;
+
+    /**
+     * @param rawLength 编码前的长度（记录在快照头中）
+     */
+    byte[] decode(byte[] data, int offset, int length, int rawLength) throws IOException;
+}
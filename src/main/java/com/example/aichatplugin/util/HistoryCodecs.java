@@ -0,0 +1,286 @@
+package com.example.aichatplugin.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 内置的历史快照编码
+ *
+ * 1. stored (0)：不压缩，用于很短或无法压缩的历史
+ * 2. deflate (1)：Deflater + 预置字典（常见的中文游戏用语和系统事件），短历史也能压得很小
+ * 3. fast (2)：LZ4风格的块压缩（4字节哈希匹配、无熵编码），压缩率低于deflate，但编解码快得多
+ */
+public final class HistoryCodecs {
+
+    /**
+     * deflate预置字典：系统事件和AI回复中的高频片段，越常见的越靠后（距离越短，编码越省）
+     */
+    private static final byte[] PRESET_DICTIONARY = (
+        "附魔台 酿造台 铁砧 信标 潜影盒 鞘翅 三叉戟 不死图腾 下界合金 远古残骸 " +
+        "凋灵 末影龙 守卫者 唤魔者 掠夺者 幻翼 烈焰人 恶魂 猪灵 疣猪兽 史莱姆 女巫 溺尸 " +
+        "村民 交易 绿宝石 附魔书 经验瓶 金苹果 末影珍珠 烈焰棒 下界疣 " +
+        "工作台 熔炉 箱子 床 火把 铁镐 钻石镐 钻石剑 铁剑 弓 箭 盾牌 盔甲 头盔 胸甲 护腿 靴子 " +
+        "主世界 下界 末地 要塞 村庄 神殿 矿井 地牢 海底遗迹 林地府邸 " +
+        "晴天 下雨 雷暴 白天 夜晚 日出 日落 生物群系 森林 沙漠 雪原 沼泽 丛林 海洋 山地 " +
+        "速度 缓慢 急迫 力量 生命恢复 抗性提升 防火 水下呼吸 隐身 夜视 虚弱 中毒 凋零 饥饿 " +
+        "获得了成就: 获得了药水效果: 药水效果消失: 从 级升到了 级 升级了 死亡了 - 复活了 " +
+        "被僵尸杀死了 被骷髅射杀 被苦力怕炸死了 摔死了 淹死了 被烧死了 在岩浆里游泳 " +
+        "僵尸 骷髅 苦力怕 蜘蛛 末影人 " +
+        "玩家 你（AI助手）: 系统事件: 新对话开始 加入了游戏 离开了游戏 欢迎回来！ 注意安全！ " +
+        "小心！ 加油！ 别担心， 建议你 记得 附近 背包 生命值 饥饿值 经验 钻石 铁矿 煤矿 " +
+        "受到伤害 - 连续攻击 共损失 点生命，剩余 生命值 " +
+        "AISYSTEM"
+    ).getBytes(StandardCharsets.UTF_8);
+
+    public static final HistoryCodec STORED = new Stored();
+    public static final HistoryCodec DEFLATE = new DeflateDictionary();
+    public static final HistoryCodec FAST = new FastBlock();
+
+    private HistoryCodecs() {
+    }
+
+    private static IOException corrupted(String detail) {
+        return new IOException("历史快照数据损坏: " + detail);
+    }
+
+    private static final class Stored implements HistoryCodec {
+        @Override
+        public int getId() {
+            return 0;
+        }
+
+        @Override
+        public String getName() {
+            return "stored";
+        }
+
+        @Override
+        public byte[] encode(byte[] raw, int offset, int length) {
+            return Arrays.copyOfRange(raw, offset, offset + length);
+        }
+
+        @Override
+        public byte[] decode(byte[] data, int offset, int length, int rawLength) throws IOException {
+            if (length != rawLength) {
+                throw corrupted("长度不匹配");
+            }
+            return Arrays.copyOfRange(data, offset, offset + length);
+        }
+    }
+
+    /**
+     * 带预置字典的deflate，每个线程复用一个Deflater/Inflater
+     */
+    private static final class DeflateDictionary implements HistoryCodec {
+        private final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(Deflater::new);
+        private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+        @Override
+        public int getId() {
+            return 1;
+        }
+
+        @Override
+        public String getName() {
+            return "deflate";
+        }
+
+        @Override
+        public byte[] encode(byte[] raw, int offset, int length) {
+            Deflater deflater = deflaters.get();
+            deflater.reset();
+            deflater.setDictionary(PRESET_DICTIONARY);
+            deflater.setInput(raw, offset, length);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 2));
+            byte[] chunk = new byte[Math.min(8192, Math.max(64, length))];
+            while (!deflater.finished()) {
+                int written = deflater.deflate(chunk);
+                out.write(chunk, 0, written);
+            }
+            return out.toByteArray();
+        }
+
+        @Override
+        public byte[] decode(byte[] data, int offset, int length, int rawLength) throws IOException {
+            Inflater inflater = inflaters.get();
+            inflater.reset();
+            inflater.setInput(data, offset, length);
+            byte[] out = new byte[rawLength];
+            int position = 0;
+            try {
+                while (!inflater.finished()) {
+                    int read = inflater.inflate(out, position, rawLength - position);
+                    position += read;
+                    if (read == 0) {
+                        if (!inflater.needsDictionary()) {
+                            break; // 输入耗尽或输出已满，由下面的检查判断是否完整
+                        }
+                        inflater.setDictionary(PRESET_DICTIONARY);
+                    }
+                }
+            } catch (DataFormatException | IllegalArgumentException e) {
+                // 字典校验值不匹配时setDictionary抛出IllegalArgumentException
+                throw corrupted(String.valueOf(e.getMessage()));
+            }
+            if (!inflater.finished() || position != rawLength) {
+                throw corrupted("deflate数据不完整");
+            }
+            return out;
+        }
+    }
+
+    /**
+     * LZ4风格的块格式：每个序列为
+     * [token(高4位字面量长度, 低4位匹配长度-4)][扩展字面量长度][字面量][偏移(2字节小端)][扩展匹配长度]，
+     * 长度为15时后接若干字节（255表示继续）；最后一个序列只有字面量
+     */
+    private static final class FastBlock implements HistoryCodec {
+        private static final int MIN_MATCH = 4;
+        private static final int HASH_BITS = 12;
+        private static final int MAX_OFFSET = 65535;
+        private static final int LAST_LITERALS = 5;
+        private static final int MATCH_LIMIT = 12; // 距末尾不足该长度时不再查找匹配
+        private final ThreadLocal<int[]> tables = ThreadLocal.withInitial(() -> new int[1 << HASH_BITS]);
+
+        @Override
+        public int getId() {
+            return 2;
+        }
+
+        @Override
+        public String getName() {
+            return "fast";
+        }
+
+        @Override
+        public byte[] encode(byte[] raw, int offset, int length) {
+            // 最坏情况：全部为字面量
+            byte[] out = new byte[length + length / 255 + 16];
+            int[] table = tables.get();
+            Arrays.fill(table, -1);
+
+            int end = offset + length;
+            int anchor = offset;
+            int ip = offset;
+            int op = 0;
+            int limit = end - MATCH_LIMIT;
+            while (ip < limit) {
+                int sequence = readInt(raw, ip);
+                int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+                int ref = table[hash];
+                table[hash] = ip;
+                if (ref < 0 || ip - ref > MAX_OFFSET || readInt(raw, ref) != sequence) {
+                    ip++;
+                    continue;
+                }
+                int matchLength = MIN_MATCH;
+                int matchEnd = end - LAST_LITERALS;
+                while (ip + matchLength < matchEnd && raw[ref + matchLength] == raw[ip + matchLength]) {
+                    matchLength++;
+                }
+                op = writeSequence(out, op, raw, anchor, ip - anchor, ip - ref, matchLength);
+                ip += matchLength;
+                anchor = ip;
+            }
+            op = writeLiterals(out, op, raw, anchor, end - anchor, 0);
+            return Arrays.copyOf(out, op);
+        }
+
+        private static int writeSequence(byte[] out, int op, byte[] raw, int literalStart, int literalLength,
+                                         int matchOffset, int matchLength) {
+            int matchToken = matchLength - MIN_MATCH;
+            op = writeLiterals(out, op, raw, literalStart, literalLength, Math.min(matchToken, 15));
+            out[op++] = (byte) matchOffset;
+            out[op++] = (byte) (matchOffset >>> 8);
+            if (matchToken >= 15) {
+                op = writeLength(out, op, matchToken - 15);
+            }
+            return op;
+        }
+
+        private static int writeLiterals(byte[] out, int op, byte[] raw, int start, int length, int matchNibble) {
+            out[op++] = (byte) ((Math.min(length, 15) << 4) | matchNibble);
+            if (length >= 15) {
+                op = writeLength(out, op, length - 15);
+            }
+            System.arraycopy(raw, start, out, op, length);
+            return op + length;
+        }
+
+        private static int writeLength(byte[] out, int op, int remaining) {
+            while (remaining >= 255) {
+                out[op++] = (byte) 255;
+                remaining -= 255;
+            }
+            out[op++] = (byte) remaining;
+            return op;
+        }
+
+        private static int readInt(byte[] data, int position) {
+            return (data[position] & 0xFF) | (data[position + 1] & 0xFF) << 8
+                | (data[position + 2] & 0xFF) << 16 | (data[position + 3] & 0xFF) << 24;
+        }
+
+        @Override
+        public byte[] decode(byte[] data, int offset, int length, int rawLength) throws IOException {
+            byte[] out = new byte[rawLength];
+            int ip = offset;
+            int end = offset + length;
+            int op = 0;
+            try {
+                while (ip < end) {
+                    int token = data[ip++] & 0xFF;
+                    int literalLength = token >>> 4;
+                    if (literalLength == 15) {
+                        int extra;
+                        do {
+                            extra = data[ip++] & 0xFF;
+                            literalLength += extra;
+                        } while (extra == 255);
+                    }
+                    if (literalLength > end - ip || literalLength > rawLength - op) {
+                        throw corrupted("字面量越界");
+                    }
+                    System.arraycopy(data, ip, out, op, literalLength);
+                    ip += literalLength;
+                    op += literalLength;
+                    if (ip >= end) {
+                        break; // 最后一个序列
+                    }
+
+                    int matchOffset = (data[ip] & 0xFF) | (data[ip + 1] & 0xFF) << 8;
+                    ip += 2;
+                    int matchLength = token & 0x0F;
+                    if (matchLength == 15) {
+                        int extra;
+                        do {
+                            extra = data[ip++] & 0xFF;
+                            matchLength += extra;
+                        } while (extra == 255);
+                    }
+                    matchLength += MIN_MATCH;
+                    if (matchOffset == 0 || matchOffset > op || matchLength > rawLength - op) {
+                        throw corrupted("匹配越界");
+                    }
+                    // 匹配可能与输出重叠，逐字节复制
+                    int from = op - matchOffset;
+                    for (int i = 0; i < matchLength; i++) {
+                        out[op++] = out[from + i];
+                    }
+                }
+            } catch (ArrayIndexOutOfBoundsException e) {
+                throw corrupted("数据被截断");
+            }
+            if (op != rawLength) {
+                throw corrupted("长度不匹配");
+            }
+            return out;
+        }
+    }
+}
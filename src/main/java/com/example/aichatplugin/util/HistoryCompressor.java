@@ -6,6 +6,7 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.*;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
@@ -13,11 +14,63 @@ import java.nio.charset.StandardCharsets;
 /**
  * 历史记录压缩工具
  * 提供消息历史的压缩、解压缩和差异更新功能
+ *
+ * 🔧 快照格式（VERSION=2）：
+ * [版本(4)][编码ID(1)][CRC32(4)][原始长度(4)][编码后的数据]
+ * 原始数据为紧凑的二进制：变长整数表示长度，发送者去重为字典后按序号引用，时间戳按与上一条的差值存储。
+ * 编码可插拔（见 {@link HistoryCodec}），编码ID写入快照头；VERSION=1（Gson JSON + gzip）的快照仍可读取。
  */
 public class HistoryCompressor {
     private static final Gson gson = new Gson();
-    private static final int VERSION = 1;
-    private static final int HEADER_SIZE = 16; // 版本(4) + CRC32(4) + 数据长度(8)
+    private static final int VERSION_JSON = 1;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE_V1 = 16; // 版本(4) + CRC32(4) + 数据长度(8)
+    private static final int HEADER_SIZE = 13; // 版本(4) + 编码ID(1) + CRC32(4) + 原始长度(4)
+    private static final int MIN_ENCODE_SIZE = 64; // 更短的数据直接存储
+    private static final int MAX_RAW_SIZE = 64 * 1024 * 1024;
+    
+    private static final Map<Integer, HistoryCodec> codecs = new ConcurrentHashMap<>();
+    private static volatile HistoryCodec defaultCodec = HistoryCodecs.DEFLATE;
+    
+    static {
+        registerCodec(HistoryCodecs.STORED);
+        registerCodec(HistoryCodecs.DEFLATE);
+        registerCodec(HistoryCodecs.FAST);
+    }
+    
+    /**
+     * 注册编码，读取快照时按编码ID查找
+     */
+    public static void registerCodec(HistoryCodec codec) {
+        if (codec.getId() < 0 || codec.getId() > 255) {
+            throw new IllegalArgumentException("编码ID超出范围: " + codec.getId());
+        }
+        codecs.put(codec.getId(), codec);
+    }
+    
+    /**
+     * 按名称查找已注册的编码
+     * @return 未找到时为null
+     */
+    public static HistoryCodec getCodec(String name) {
+        for (HistoryCodec codec : codecs.values()) {
+            if (codec.getName().equalsIgnoreCase(name)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * 设置新快照使用的编码（已有快照按各自的编码ID读取）
+     */
+    public static void setDefaultCodec(HistoryCodec codec) {
+        defaultCodec = codec;
+    }
+    
+    public static HistoryCodec getDefaultCodec() {
+        return defaultCodec;
+    }
     
     /**
      * 压缩消息列表
@@ -25,35 +78,52 @@ public class HistoryCompressor {
      * @return 压缩后的字节数组
      */
     public static byte[] compress(List<Message> messages) throws IOException {
-        // 转换为JSON
-        JsonArray jsonArray = new JsonArray();
+        return compress(messages, defaultCodec);
+    }
+    
+    /**
+     * 使用指定编码压缩消息列表
+     */
+    public static byte[] compress(List<Message> messages, HistoryCodec codec) throws IOException {
+        BodyWriter body = new BodyWriter(Math.max(64, messages.size() * 64));
+        
+        // 发送者字典
+        Map<String, Integer> senders = new LinkedHashMap<>();
         for (Message msg : messages) {
-            JsonObject jsonMsg = new JsonObject();
-            jsonMsg.addProperty("sender", msg.getSender());
-            jsonMsg.addProperty("content", msg.getContent());
-            jsonMsg.addProperty("isAI", msg.isAI());
-            jsonMsg.addProperty("timestamp", msg.getTimestamp());
-            jsonArray.add(jsonMsg);
+            senders.putIfAbsent(msg.getSender(), senders.size());
+        }
+        body.writeVarInt(messages.size());
+        body.writeVarInt(senders.size());
+        for (String sender : senders.keySet()) {
+            body.writeString(sender);
+        }
+        
+        // 消息：发送者序号和AI标记、时间戳差值、内容
+        long previousTimestamp = 0;
+        for (Message msg : messages) {
+            body.writeVarInt(senders.get(msg.getSender()) << 1 | (msg.isAI() ? 1 : 0));
+            body.writeVarLong(zigZag(msg.getTimestamp() - previousTimestamp));
+            body.writeString(msg.getContent());
+            previousTimestamp = msg.getTimestamp();
         }
-        String json = gson.toJson(jsonArray);
         
-        // 计算CRC32
         CRC32 crc = new CRC32();
-        crc.update(json.getBytes(StandardCharsets.UTF_8));
+        crc.update(body.data, 0, body.size);
         
-        // 压缩数据
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try (GZIPOutputStream gzipOut = new GZIPOutputStream(baos)) {
-            gzipOut.write(json.getBytes(StandardCharsets.UTF_8));
+        byte[] encoded = body.size >= MIN_ENCODE_SIZE ? codec.encode(body.data, 0, body.size) : null;
+        if (encoded == null || encoded.length >= body.size) {
+            // 太短或无法压缩
+            codec = HistoryCodecs.STORED;
+            encoded = codec.encode(body.data, 0, body.size);
         }
-        byte[] compressed = baos.toByteArray();
         
         // 构建最终数据包
-        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + compressed.length);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + encoded.length);
         buffer.putInt(VERSION);
+        buffer.put((byte) codec.getId());
         buffer.putInt((int) crc.getValue());
-        buffer.putLong(compressed.length);
-        buffer.put(compressed);
+        buffer.putInt(body.size);
+        buffer.put(encoded);
         
         return buffer.array();
     }
@@ -64,21 +134,80 @@ public class HistoryCompressor {
      * @return 解压后的消息列表
      */
     public static List<Message> decompress(byte[] compressed) throws IOException {
-        if (compressed == null || compressed.length < HEADER_SIZE) {
+        if (compressed == null || compressed.length < 4) {
             return new ArrayList<>();
         }
         
+        // 验证版本
+        int version = ByteBuffer.wrap(compressed).getInt();
+        if (version == VERSION_JSON) {
+            return decompressJson(compressed);
+        }
+        if (version != VERSION) {
+            throw new IOException("不支持的压缩版本: " + version);
+        }
+        if (compressed.length < HEADER_SIZE) {
+            throw new IOException("快照头不完整");
+        }
+        
         // 读取头部信息
         ByteBuffer buffer = ByteBuffer.wrap(compressed);
-        int version = buffer.getInt();
+        buffer.getInt();
+        int codecId = buffer.get() & 0xFF;
         int storedCrc = buffer.getInt();
-        long dataLength = buffer.getLong();
+        int rawLength = buffer.getInt();
+        HistoryCodec codec = codecs.get(codecId);
+        if (codec == null) {
+            throw new IOException("未知的历史编码: " + codecId);
+        }
+        if (rawLength < 0 || rawLength > MAX_RAW_SIZE) {
+            throw new IOException("快照长度无效: " + rawLength);
+        }
         
-        // 验证版本
-        if (version != VERSION) {
-            throw new IOException("不支持的压缩版本: " + version);
+        // 解码并验证CRC32（直接在解码结果上计算，不再复制）
+        byte[] raw = codec.decode(compressed, HEADER_SIZE, compressed.length - HEADER_SIZE, rawLength);
+        CRC32 crc = new CRC32();
+        crc.update(raw, 0, raw.length);
+        if ((int) crc.getValue() != storedCrc) {
+            throw new IOException("数据校验失败");
+        }
+        
+        try {
+            ByteBuffer body = ByteBuffer.wrap(raw);
+            int count = readVarInt(body);
+            String[] senders = new String[readVarInt(body)];
+            for (int i = 0; i < senders.length; i++) {
+                senders[i] = readString(body);
+            }
+            List<Message> messages = new ArrayList<>(count);
+            long timestamp = 0;
+            for (int i = 0; i < count; i++) {
+                int senderAndFlag = readVarInt(body);
+                timestamp += unZigZag(readVarLong(body));
+                messages.add(new Message(senders[senderAndFlag >>> 1], readString(body),
+                    (senderAndFlag & 1) != 0, timestamp));
+            }
+            return messages;
+        } catch (RuntimeException e) {
+            // 校验通过但结构不符（不应发生）
+            throw new IOException("快照结构错误: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * 读取VERSION=1的快照（Gson JSON + gzip）
+     */
+    private static List<Message> decompressJson(byte[] compressed) throws IOException {
+        if (compressed.length < HEADER_SIZE_V1) {
+            return new ArrayList<>();
         }
         
+        // 读取头部信息
+        ByteBuffer buffer = ByteBuffer.wrap(compressed);
+        buffer.getInt();
+        int storedCrc = buffer.getInt();
+        long dataLength = buffer.getLong();
+        
         // 读取压缩数据
         byte[] data = new byte[(int) dataLength];
         buffer.get(data);
@@ -106,65 +235,92 @@ public class HistoryCompressor {
         List<Message> messages = new ArrayList<>();
         for (int i = 0; i < jsonArray.size(); i++) {
             JsonObject jsonMsg = jsonArray.get(i).getAsJsonObject();
+            // 保留原始时间戳，否则加载的消息都成了"现在"，过期清理失效
             messages.add(new Message(
                 jsonMsg.get("sender").getAsString(),
                 jsonMsg.get("content").getAsString(),
-                jsonMsg.get("isAI").getAsBoolean()
+                jsonMsg.get("isAI").getAsBoolean(),
+                jsonMsg.has("timestamp") ? jsonMsg.get("timestamp").getAsLong() : System.currentTimeMillis()
             ));
         }
         
         return messages;
     }
     
-    /**
-     * 增量压缩
-     * 只压缩新增的消息，减少CPU和IO开销
-     * @param newMessages 新的消息列表
-     * @param baseCompressed 基础压缩数据
-     * @return 增量压缩后的数据
-     */
-    public static byte[] compressDelta(List<Message> newMessages, byte[] baseCompressed) throws IOException {
-        if (baseCompressed == null || baseCompressed.length == 0) {
-            return compress(newMessages);
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+    
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+    
+    private static int readVarInt(ByteBuffer buffer) throws IOException {
+        long value = readVarLong(buffer);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("变长整数超出范围");
         }
-        
-        // 如果新消息列表为空，返回空数组
-        if (newMessages == null || newMessages.isEmpty()) {
-            return new byte[0];
+        return (int) value;
+    }
+    
+    private static long readVarLong(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
         }
-        
-        // 直接压缩新的完整消息列表
-        // 注意：这里应该压缩完整的消息列表，而不是只压缩差异
-        // 因为我们需要保存完整的历史记录
-        return compress(newMessages);
+        throw new IOException("变长整数过长");
+    }
+    
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = readVarInt(buffer);
+        if (length > buffer.remaining()) {
+            throw new IOException("字符串越界");
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
     }
     
     /**
-     * 解压增量数据
-     * @param deltaCompressed 增量压缩数据
-     * @param baseCompressed 基础压缩数据
-     * @return 合并后的消息列表
+     * 可增长的字节缓冲，编码结果直接交给编码器，不经过额外复制
      */
-    public static List<Message> decompressDelta(byte[] deltaCompressed, byte[] baseCompressed) throws IOException {
-        List<Message> baseMessages = decompress(baseCompressed);
-        List<Message> deltaMessages = decompress(deltaCompressed);
+    private static final class BodyWriter {
+        byte[] data;
+        int size;
         
-        // 合并消息，去重
-        Set<String> contents = new HashSet<>();
-        List<Message> result = new ArrayList<>();
+        BodyWriter(int capacity) {
+            data = new byte[capacity];
+        }
         
-        for (Message msg : baseMessages) {
-            if (contents.add(msg.getContent())) {
-                result.add(msg);
+        void ensure(int extra) {
+            if (size + extra > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + extra));
             }
         }
         
-        for (Message msg : deltaMessages) {
-            if (contents.add(msg.getContent())) {
-                result.add(msg);
+        void writeVarInt(int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+        
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                data[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
             }
+            data[size++] = (byte) value;
         }
         
-        return result;
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, data, size, bytes.length);
+            size += bytes.length;
+        }
     }
-} 
\ No newline at end of file
+}
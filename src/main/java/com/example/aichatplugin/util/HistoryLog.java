@@ -0,0 +1,427 @@
+package com.example.aichatplugin.util;
+
+import com.example.aichatplugin.Message;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * 对话历史预写日志
+ *
+ * 每个玩家两个文件：
+ * 1. 快照 &lt;uuid&gt;.json：{@link HistoryCompressor} 格式的完整历史，只在压缩（compaction）时重写
+ * 2. 日志 &lt;uuid&gt;.log：快照之后新增的消息，逐条追加
+ * 滚动摘要单独保存在 &lt;uuid&gt;.summary。
+ *
+ * 日志格式：文件头 [魔数(4)][快照CRC32(4)]，之后每条记录 [长度(4)][CRC32(4)][类型(1)][内容]。
+ * 文件头记录日志所基于的快照，压缩在替换快照后、清空日志前崩溃时，旧日志与新快照不匹配，加载时忽略。
+ * 加载时重放日志，遇到不完整或校验失败的记录即停止，并把日志截断到最后一条完整记录。
+ */
+public class HistoryLog implements HistoryStore {
+
+    private static final int LOG_MAGIC = 0x41434C47; // "ACLG"
+    private static final int LOG_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 9; // 长度(4) + CRC32(4) + 类型(1)
+    private static final byte RECORD_APPEND = 1;
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+    private final File directory;
+    private final Logger logger;
+    private final ConcurrentMap<UUID, LogState> states = new ConcurrentHashMap<>();
+    private volatile boolean sync;
+
+    private final AtomicLong appendedRecords = new AtomicLong(0);
+    private final AtomicLong appendedBytes = new AtomicLong(0);
+    private final AtomicLong snapshotWrites = new AtomicLong(0);
+    private final AtomicLong snapshotBytes = new AtomicLong(0);
+    private final AtomicLong recoveredTails = new AtomicLong(0);
+    private final AtomicLong staleLogs = new AtomicLong(0);
+
+    /**
+     * @param directory 历史文件目录
+     * @param sync 每次追加后是否强制落盘
+     */
+    public HistoryLog(File directory, Logger logger, boolean sync) {
+        this.directory = directory;
+        this.logger = logger;
+        this.sync = sync;
+    }
+
+    @Override
+    public String getType() {
+        return "file";
+    }
+
+    @Override
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    public File getSnapshotFile(UUID playerId) {
+        return new File(directory, playerId.toString() + ".json");
+    }
+
+    private File getLogFile(UUID playerId) {
+        return new File(directory, playerId.toString() + ".log");
+    }
+
+    private File getSummaryFile(UUID playerId) {
+        return new File(directory, playerId.toString() + ".summary");
+    }
+
+    @Override
+    public boolean exists(UUID playerId) {
+        return getSnapshotFile(playerId).exists();
+    }
+
+    /**
+     * 读取快照并重放日志
+     */
+    @Override
+    public List<Message> load(UUID playerId) throws IOException {
+        File snapshotFile = getSnapshotFile(playerId);
+        if (!snapshotFile.exists()) {
+            return new ArrayList<>();
+        }
+        byte[] snapshot = Files.readAllBytes(snapshotFile.toPath());
+        List<Message> messages = HistoryCompressor.decompress(snapshot);
+        int snapshotCrc = crc(snapshot);
+
+        LogState state = new LogState(snapshotCrc, snapshot.length);
+        File logFile = getLogFile(playerId);
+        if (logFile.exists()) {
+            replay(playerId, logFile, snapshotCrc, messages, state);
+        }
+        states.put(playerId, state);
+        return messages;
+    }
+
+    @Override
+    public String loadSummary(UUID playerId) throws IOException {
+        File summaryFile = getSummaryFile(playerId);
+        if (!summaryFile.exists()) {
+            return null;
+        }
+        return new String(Files.readAllBytes(summaryFile.toPath()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 追加新消息到日志
+     */
+    @Override
+    public void append(UUID playerId, List<Message> newMessages) throws IOException {
+        if (newMessages.isEmpty()) {
+            return;
+        }
+        LogState state = stateOf(playerId);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (state.logBytes == 0) {
+            ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+            header.putInt(LOG_MAGIC);
+            header.putInt(state.snapshotCrc);
+            out.write(header.array());
+        }
+        for (Message message : newMessages) {
+            out.write(encodeRecord(message));
+        }
+        byte[] bytes = out.toByteArray();
+
+        try (FileChannel channel = FileChannel.open(getLogFile(playerId).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (sync) {
+                channel.force(false);
+            }
+        }
+        state.logBytes += bytes.length;
+        state.logRecords += newMessages.size();
+        appendedRecords.addAndGet(newMessages.size());
+        appendedBytes.addAndGet(bytes.length);
+    }
+
+    /**
+     * 写入完整快照并清空日志（首次保存、历史被截断或压缩时）
+     */
+    @Override
+    public void writeSnapshot(UUID playerId, List<Message> messages) throws IOException {
+        byte[] snapshot = HistoryCompressor.compress(messages);
+        File snapshotFile = getSnapshotFile(playerId);
+        File tempFile = new File(directory, snapshotFile.getName() + ".tmp");
+        try {
+            writeFile(tempFile.toPath(), snapshot);
+            replace(tempFile.toPath(), snapshotFile.toPath());
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile.toPath());
+            throw e;
+        }
+        // 改名落盘后才删除日志：崩溃后要么是旧快照+日志，要么是新快照（旧日志因CRC不匹配被忽略）
+        syncDirectory();
+        Files.deleteIfExists(getLogFile(playerId).toPath());
+        states.put(playerId, new LogState(crc(snapshot), snapshot.length));
+        snapshotWrites.incrementAndGet();
+        snapshotBytes.addAndGet(snapshot.length);
+    }
+
+    @Override
+    public void saveSummary(UUID playerId, String summary) throws IOException {
+        File summaryFile = getSummaryFile(playerId);
+        if (summary == null) {
+            Files.deleteIfExists(summaryFile.toPath());
+            return;
+        }
+        File tempFile = new File(directory, summaryFile.getName() + ".tmp");
+        writeFile(tempFile.toPath(), summary.getBytes(StandardCharsets.UTF_8));
+        replace(tempFile.toPath(), summaryFile.toPath());
+        syncDirectory();
+    }
+
+    /**
+     * 日志是否需要合并进快照
+     */
+    @Override
+    public boolean needsCompaction(UUID playerId, int maxRecords) {
+        LogState state = states.get(playerId);
+        if (state == null || state.logRecords == 0) {
+            return false;
+        }
+        // 日志比快照还大时也合并，避免加载时重放过多
+        return state.logRecords >= maxRecords || state.logBytes > Math.max(state.snapshotBytes, 64 * 1024);
+    }
+
+    /**
+     * 删除玩家的快照、日志和摘要
+     */
+    @Override
+    public void delete(UUID playerId) throws IOException {
+        states.remove(playerId);
+        Files.deleteIfExists(getLogFile(playerId).toPath());
+        Files.deleteIfExists(getSnapshotFile(playerId).toPath());
+        Files.deleteIfExists(getSummaryFile(playerId).toPath());
+    }
+
+    /**
+     * 丢弃玩家的日志状态，下次load时按快照和日志重建
+     */
+    @Override
+    public void release(UUID playerId) {
+        states.remove(playerId);
+    }
+
+    /**
+     * 文件在每次写入后即关闭，这里只丢弃内存中的日志状态
+     */
+    @Override
+    public void close() {
+        states.clear();
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("type", getType());
+        long records = 0;
+        long bytes = 0;
+        for (LogState state : states.values()) {
+            records += state.logRecords;
+            bytes += state.logBytes;
+        }
+        stats.put("trackedPlayers", states.size());
+        stats.put("pendingLogRecords", records);
+        stats.put("pendingLogBytes", bytes);
+        stats.put("appendedRecords", appendedRecords.get());
+        stats.put("appendedBytes", appendedBytes.get());
+        stats.put("snapshotWrites", snapshotWrites.get());
+        stats.put("snapshotBytes", snapshotBytes.get());
+        stats.put("recoveredTails", recoveredTails.get());
+        stats.put("staleLogs", staleLogs.get());
+        stats.put("sync", sync);
+        return stats;
+    }
+
+    private LogState stateOf(UUID playerId) throws IOException {
+        LogState state = states.get(playerId);
+        if (state == null) {
+            // 未经load的玩家（不应发生）：按当前快照建立状态，已有日志视为过期
+            File snapshotFile = getSnapshotFile(playerId);
+            if (!snapshotFile.exists()) {
+                throw new IOException("玩家没有历史快照: " + playerId);
+            }
+            byte[] snapshot = Files.readAllBytes(snapshotFile.toPath());
+            Files.deleteIfExists(getLogFile(playerId).toPath());
+            state = new LogState(crc(snapshot), snapshot.length);
+            states.put(playerId, state);
+        }
+        return state;
+    }
+
+    private void replay(UUID playerId, File logFile, int snapshotCrc, List<Message> messages, LogState state)
+            throws IOException {
+        byte[] log = Files.readAllBytes(logFile.toPath());
+        ByteBuffer buffer = ByteBuffer.wrap(log);
+        if (log.length < LOG_HEADER_SIZE || buffer.getInt() != LOG_MAGIC || buffer.getInt() != snapshotCrc) {
+            // 日志基于旧快照（压缩中途崩溃）或文件头损坏
+            staleLogs.incrementAndGet();
+            logger.warning("忽略与快照不匹配的历史日志: " + logFile.getName());
+            Files.deleteIfExists(logFile.toPath());
+            return;
+        }
+
+        int validEnd = LOG_HEADER_SIZE;
+        int records = 0;
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            int length = buffer.getInt();
+            int storedCrc = buffer.getInt();
+            byte type = buffer.get();
+            if (length < 0 || length > MAX_RECORD_SIZE || length > buffer.remaining()) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(type);
+            crc.update(log, buffer.position(), length);
+            if ((int) crc.getValue() != storedCrc) {
+                break;
+            }
+            if (type == RECORD_APPEND) {
+                messages.add(decodeMessage(ByteBuffer.wrap(log, buffer.position(), length)));
+            }
+            buffer.position(buffer.position() + length);
+            validEnd = buffer.position();
+            records++;
+        }
+
+        if (validEnd < log.length) {
+            // 崩溃时写了一半的尾部记录：截断后继续追加
+            recoveredTails.incrementAndGet();
+            logger.warning(String.format("历史日志 %s 尾部有 %d 字节不完整，已截断", logFile.getName(), log.length - validEnd));
+            try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(validEnd);
+            }
+        }
+        state.logBytes = validEnd;
+        state.logRecords = records;
+    }
+
+    private static byte[] encodeRecord(Message message) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        writeMessage(out, message);
+        out.flush();
+        byte[] body = payload.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(RECORD_APPEND);
+        crc.update(body);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + body.length);
+        record.putInt(body.length);
+        record.putInt((int) crc.getValue());
+        record.put(RECORD_APPEND);
+        record.put(body);
+        return record.array();
+    }
+
+    /**
+     * 单条消息的二进制编码，与 {@link #decodeMessage} 对应（分段存储共用）
+     */
+    static void writeMessage(DataOutput out, Message message) throws IOException {
+        byte[] sender = message.getSender().getBytes(StandardCharsets.UTF_8);
+        byte[] content = message.getContent().getBytes(StandardCharsets.UTF_8);
+        out.writeLong(message.getTimestamp());
+        out.writeBoolean(message.isAI());
+        out.writeInt(sender.length);
+        out.write(sender);
+        out.writeInt(content.length);
+        out.write(content);
+    }
+
+    static Message decodeMessage(ByteBuffer buffer) {
+        long timestamp = buffer.getLong();
+        boolean isAI = buffer.get() != 0;
+        byte[] sender = new byte[buffer.getInt()];
+        buffer.get(sender);
+        byte[] content = new byte[buffer.getInt()];
+        buffer.get(content);
+        return new Message(new String(sender, StandardCharsets.UTF_8), new String(content, StandardCharsets.UTF_8),
+            isAI, timestamp);
+    }
+
+    private static int crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 写入临时文件，开启sync时在改名前强制落盘，避免改名先于内容落盘留下空文件
+     */
+    private void writeFile(Path path, byte[] data) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (sync) {
+                channel.force(true);
+            }
+        }
+    }
+
+    /**
+     * 开启sync时把目录项（改名）落盘；不支持打开目录的平台（Windows）上跳过
+     */
+    private void syncDirectory() throws IOException {
+        if (!sync) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException | UnsupportedOperationException e) {
+            // 该平台的改名由文件系统自行保证持久化
+        }
+    }
+
+    static void replace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static final class LogState {
+        final int snapshotCrc;
+        final long snapshotBytes;
+        long logBytes;
+        int logRecords;
+
+        LogState(int snapshotCrc, long snapshotBytes) {
+            this.snapshotCrc = snapshotCrc;
+            this.snapshotBytes = snapshotBytes;
+        }
+    }
+}
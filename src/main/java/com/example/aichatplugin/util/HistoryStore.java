@@ -0,0 +1,85 @@
+package com.example.aichatplugin.util;
+
+import com.example.aichatplugin.Message;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 对话历史的持久化存储
+ *
+ * 实现：
+ * 1. {@link HistoryLog}：每个玩家一个快照文件和一个追加日志
+ * 2. {@link SegmentHistoryStore}：所有玩家打包进少量分段文件，内存中维护偏移索引
+ *
+ * 同一玩家的调用由调用方串行化；不同玩家可以并发调用。
+ */
+public interface HistoryStore extends Closeable {
+
+    /**
+     * 存储类型（配置中的 history.store.type）
+     */
+    String getType();
+
+    /**
+     * 是否已有该玩家的持久化数据
+     */
+    boolean exists(UUID playerId);
+
+    /**
+     * 读取玩家的完整历史
+     * @return 历史消息，没有数据时为空列表
+     */
+    List<Message> load(UUID playerId) throws IOException;
+
+    /**
+     * 读取玩家的滚动摘要
+     * @return 摘要，没有时为null
+     */
+    String loadSummary(UUID playerId) throws IOException;
+
+    /**
+     * 追加上次保存之后的新消息
+     */
+    void append(UUID playerId, List<Message> newMessages) throws IOException;
+
+    /**
+     * 用完整历史替换已保存的数据（首次保存、历史被截断或合并日志时）
+     */
+    void writeSnapshot(UUID playerId, List<Message> messages) throws IOException;
+
+    /**
+     * 保存滚动摘要
+     * @param summary 摘要，为null时删除
+     */
+    void saveSummary(UUID playerId, String summary) throws IOException;
+
+    /**
+     * 追加的数据是否已多到需要用快照替换
+     * @param maxRecords 追加记录数上限
+     */
+    boolean needsCompaction(UUID playerId, int maxRecords);
+
+    /**
+     * 删除玩家的全部数据
+     */
+    void delete(UUID playerId) throws IOException;
+
+    /**
+     * 玩家的历史已移出内存：丢弃只为后续追加保留的内存状态，下次load时重建
+     */
+    void release(UUID playerId);
+
+    /**
+     * 每次写入后是否强制落盘
+     */
+    void setSync(boolean sync);
+
+    Map<String, Object> getStats();
+
+    @Override
+    void close() throws IOException;
+}
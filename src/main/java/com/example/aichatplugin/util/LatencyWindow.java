@@ -0,0 +1,51 @@
+package com.example.aichatplugin.util;
+
+import java.util.Arrays;
+
+/**
+ * 滚动延迟窗口
+ *
+ * 保存最近N个延迟样本，按需计算百分位数（排序一次拷贝，N较小时开销可忽略）
+ */
+public class LatencyWindow {
+    private final long[] samples;
+    private int count;
+    private int index;
+
+    /**
+     * @param capacity 保留的样本数
+     */
+    public LatencyWindow(int capacity) {
+        this.samples = new long[Math.max(1, capacity)];
+    }
+
+    public synchronized void record(long value) {
+        samples[index] = value;
+        index = (index + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    /**
+     * 计算百分位数
+     * @param quantile 0-1
+     * @return 没有样本时返回0
+     */
+    public synchronized long percentile(double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int i = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized void clear() {
+        count = 0;
+        index = 0;
+    }
+}
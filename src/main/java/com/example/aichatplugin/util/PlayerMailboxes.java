@@ -0,0 +1,320 @@
+package com.example.aichatplugin.util;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 玩家邮箱（actor风格的按玩家串行执行）
+ *
+ * 特点：
+ * 1. 同一玩家的事件按提交顺序逐个处理，上一个事件的异步流程完成后才开始下一个
+ * 2. 不同玩家的邮箱在共享执行器上并行
+ * 3. 邮箱有界：低优先级事件（如伤害、药水）在排队期间只保留最新一条，邮箱已满时优先丢弃它们
+ * 4. 单个事件超过处理时限仍未完成时不再等待，避免一次卡住的请求堵死整个邮箱
+ * 5. 执行器为 {@link PriorityEventScheduler} 时，每个邮箱按队首事件的类型参与优先级调度
+ */
+public class PlayerMailboxes {
+
+    private final Executor executor;
+    private final Logger logger;
+    private final ConcurrentMap<UUID, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private volatile int capacity;
+    private volatile long taskTimeoutMillis;
+    private volatile Set<String> lowPriorityTypes;
+
+    private final AtomicLong accepted = new AtomicLong(0);
+    private final AtomicLong merged = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicLong timedOut = new AtomicLong(0);
+
+    /**
+     * @param executor 运行邮箱的共享执行器
+     * @param capacity 每个玩家最多排队的事件数（不含正在处理的一条）
+     * @param taskTimeoutMillis 单个事件的处理时限，小于等于0表示不限制
+     * @param lowPriorityTypes 可合并、可丢弃的事件类型
+     */
+    public PlayerMailboxes(Executor executor, Logger logger, int capacity, long taskTimeoutMillis,
+                           Set<String> lowPriorityTypes) {
+        this.executor = executor;
+        this.logger = logger;
+        configure(capacity, taskTimeoutMillis, lowPriorityTypes);
+    }
+
+    /**
+     * 更新邮箱限制，已排队的事件不受影响
+     */
+    public void configure(int capacity, long taskTimeoutMillis, Set<String> lowPriorityTypes) {
+        this.capacity = Math.max(1, capacity);
+        this.taskTimeoutMillis = taskTimeoutMillis;
+        this.lowPriorityTypes = Collections.unmodifiableSet(new HashSet<>(lowPriorityTypes));
+    }
+
+    /**
+     * 投递事件到玩家邮箱
+     * @param type 事件类型，用于判断能否合并或丢弃
+     * @param task 事件处理流程，返回的future完成后才开始该玩家的下一个事件
+     * @return false 表示事件因邮箱已满被丢弃
+     */
+    public boolean submit(UUID playerId, String type, Supplier<CompletableFuture<?>> task) {
+        Envelope envelope = new Envelope(type, lowPriorityTypes.contains(type), task);
+        while (true) {
+            Mailbox box = mailboxes.computeIfAbsent(playerId, Mailbox::new);
+            boolean start;
+            synchronized (box) {
+                if (box.closed) {
+                    continue; // 邮箱刚被回收，重新获取
+                }
+                if (!box.offer(envelope)) {
+                    return false;
+                }
+                start = !box.running;
+                box.running = true;
+            }
+            if (start) {
+                schedule(box);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 丢弃玩家邮箱中尚未开始的事件，正在处理的事件不受影响
+     * @return 丢弃的事件数
+     */
+    public int clear(UUID playerId) {
+        Mailbox box = mailboxes.get(playerId);
+        if (box == null) {
+            return 0;
+        }
+        synchronized (box) {
+            int count = box.queue.size();
+            box.queue.clear();
+            dropped.addAndGet(count);
+            return count;
+        }
+    }
+
+    /**
+     * 丢弃全部邮箱，用于关闭
+     */
+    public void clearAll() {
+        for (UUID playerId : mailboxes.keySet()) {
+            clear(playerId);
+        }
+    }
+
+    private void schedule(Mailbox box) {
+        Envelope head;
+        synchronized (box) {
+            head = box.queue.peek();
+            if (head == null) {
+                // 邮箱空闲即回收，下次投递时重新创建
+                box.running = false;
+                box.closed = true;
+                mailboxes.remove(box.owner, box);
+                return;
+            }
+        }
+        try {
+            executor.execute(new Turn(box, head));
+        } catch (RejectedExecutionException e) {
+            // 执行器已关闭，剩余事件不再处理
+            synchronized (box) {
+                dropped.addAndGet(box.queue.size());
+                box.queue.clear();
+                box.running = false;
+                box.closed = true;
+                mailboxes.remove(box.owner, box);
+            }
+        }
+    }
+
+    private void runNext(Mailbox box) {
+        Envelope next;
+        synchronized (box) {
+            next = box.queue.poll();
+            if (next == null) {
+                // 排队期间邮箱被清空
+                box.running = false;
+                box.closed = true;
+                mailboxes.remove(box.owner, box);
+                return;
+            }
+        }
+
+        CompletableFuture<?> done;
+        try {
+            done = next.task.get();
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "处理玩家事件时发生错误: " + next.type, e);
+            done = null;
+        }
+        if (done == null || done.isDone()) {
+            schedule(box);
+            return;
+        }
+
+        // 独立的等待future，超时不会影响事件流程本身
+        CompletableFuture<Void> turn = new CompletableFuture<>();
+        done.whenComplete((result, error) -> turn.complete(null));
+        long timeout = taskTimeoutMillis;
+        if (timeout > 0) {
+            turn.completeOnTimeout(null, timeout, TimeUnit.MILLISECONDS);
+        }
+        CompletableFuture<?> current = done;
+        turn.thenRun(() -> {
+            if (!current.isDone()) {
+                timedOut.incrementAndGet();
+            }
+            schedule(box);
+        });
+    }
+
+    public int getResidentCount() {
+        return mailboxes.size();
+    }
+
+    public int getQueuedCount() {
+        int total = 0;
+        for (Mailbox box : mailboxes.values()) {
+            synchronized (box) {
+                total += box.queue.size();
+            }
+        }
+        return total;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("capacity", capacity);
+        stats.put("activePlayers", getResidentCount());
+        stats.put("queued", getQueuedCount());
+        stats.put("accepted", accepted.get());
+        stats.put("merged", merged.get());
+        stats.put("dropped", dropped.get());
+        stats.put("timedOut", timedOut.get());
+        return stats;
+    }
+
+    private static final class Envelope {
+        final String type;
+        final boolean lowPriority;
+        Supplier<CompletableFuture<?>> task;
+        volatile long submittedNanos = System.nanoTime();
+
+        Envelope(String type, boolean lowPriority, Supplier<CompletableFuture<?>> task) {
+            this.type = type;
+            this.lowPriority = lowPriority;
+            this.task = task;
+        }
+    }
+
+    /**
+     * 邮箱的一次执行机会，类型和等待时间取自调度时的队首事件
+     */
+    private final class Turn implements PriorityEventScheduler.Prioritized {
+        private final Mailbox box;
+        private final Envelope head;
+
+        Turn(Mailbox box, Envelope head) {
+            this.box = box;
+            this.head = head;
+        }
+
+        @Override
+        public String getEventType() {
+            return head.type;
+        }
+
+        @Override
+        public long getSubmittedNanos() {
+            return head.submittedNanos;
+        }
+
+        @Override
+        public void onDropped(String reason) {
+            // 调度器放弃了队首事件，邮箱继续处理后面的事件
+            synchronized (box) {
+                if (box.queue.peek() == head) {
+                    box.queue.poll();
+                    dropped.incrementAndGet();
+                }
+            }
+            schedule(box);
+        }
+
+        @Override
+        public void run() {
+            runNext(box);
+        }
+    }
+
+    private final class Mailbox {
+        final UUID owner;
+        final Deque<Envelope> queue = new ArrayDeque<>();
+        boolean running;
+        boolean closed;
+
+        Mailbox(UUID owner) {
+            this.owner = owner;
+        }
+
+        /**
+         * 入队，调用方需持有邮箱锁
+         */
+        boolean offer(Envelope envelope) {
+            if (envelope.lowPriority) {
+                // 同类低优先级事件还在排队时，用最新的一条替换（保留原位置）
+                for (Envelope queued : queue) {
+                    if (queued.type.equals(envelope.type)) {
+                        queued.task = envelope.task;
+                        queued.submittedNanos = envelope.submittedNanos;
+                        merged.incrementAndGet();
+                        return true;
+                    }
+                }
+            }
+            if (queue.size() >= capacity) {
+                if (envelope.lowPriority || !evictLowPriority()) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+            }
+            queue.offer(envelope);
+            accepted.incrementAndGet();
+            return true;
+        }
+
+        /**
+         * 邮箱已满时为高优先级事件腾出位置：丢弃最早的低优先级事件
+         */
+        private boolean evictLowPriority() {
+            Iterator<Envelope> it = queue.iterator();
+            while (it.hasNext()) {
+                if (it.next().lowPriority) {
+                    it.remove();
+                    dropped.incrementAndGet();
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.example.aichatplugin.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按事件类型分级的调度器
+ *
+ * 特点：
+ * 1. 每个事件类别一个队列，空出执行名额时总是先取优先级最高的类别
+ *    （聊天 > 死亡 > 成就/升级 > 加入/退出 > 伤害/药水）
+ * 2. 每个类别有独立的队列上限和最大等待时间，满了丢弃该类别最早的事件，超时的事件出队时丢弃
+ * 3. 运行模式降级时可以按类别收紧上限（除数为0表示该类别全部丢弃）
+ * 4. 同时在下游执行的任务数不超过下游阶段的并发上限，排队都发生在这里而不是下游的FIFO里；
+ *    任务交给后续阶段后名额即释放，这里只决定事件进入处理流程的顺序，AI请求的并发由自适应并发限制器控制
+ */
+public class PriorityEventScheduler implements Executor {
+
+    /**
+     * 事件类别，按优先级从高到低声明
+     */
+    public enum EventClass {
+        CHAT("chat", 200, 30000),
+        DEATH("death", 100, 20000),
+        ADVANCEMENT("advancement", 100, 15000),
+        SESSION("session", 100, 15000),
+        AMBIENT("ambient", 50, 5000);
+
+        private final String key;
+        private final int defaultQueueSize;
+        private final long defaultMaxAgeMillis;
+
+        EventClass(String key, int defaultQueueSize, long defaultMaxAgeMillis) {
+            this.key = key;
+            this.defaultQueueSize = defaultQueueSize;
+            this.defaultMaxAgeMillis = defaultMaxAgeMillis;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public int getDefaultQueueSize() {
+            return defaultQueueSize;
+        }
+
+        public long getDefaultMaxAgeMillis() {
+            return defaultMaxAgeMillis;
+        }
+
+        /**
+         * 事件类型到类别的映射，未知类型按加入/退出处理
+         */
+        public static EventClass of(String type) {
+            if (type == null) {
+                return SESSION;
+            }
+            switch (type) {
+                case "chat":
+                    return CHAT;
+                case "death":
+                    return DEATH;
+                case "advancement":
+                case "level_up":
+                    return ADVANCEMENT;
+                case "damage":
+                case "potion_add":
+                case "potion_remove":
+                    return AMBIENT;
+                default:
+                    return SESSION;
+            }
+        }
+    }
+
+    /**
+     * 带类型和入队时间的任务，被丢弃时会收到通知
+     */
+    public interface Prioritized extends Runnable {
+        String getEventType();
+
+        /**
+         * 事件产生的时间（System.nanoTime），用于按等待时间丢弃
+         */
+        long getSubmittedNanos();
+
+        void onDropped(String reason);
+    }
+
+    private final Executor downstream;
+    private final int maxInFlight;
+    private final Object lock = new Object();
+    private final Map<EventClass, ClassQueue> queues = new EnumMap<>(EventClass.class);
+    private int inFlight = 0;
+    private volatile boolean shutdown = false;
+
+    /**
+     * @param downstream 实际执行任务的阶段
+     * @param maxInFlight 同时交给下游的任务上限，通常等于下游阶段的并发上限
+     */
+    public PriorityEventScheduler(Executor downstream, int maxInFlight) {
+        this.downstream = downstream;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        for (EventClass eventClass : EventClass.values()) {
+            queues.put(eventClass, new ClassQueue(eventClass.getDefaultQueueSize(), eventClass.getDefaultMaxAgeMillis()));
+        }
+    }
+
+    /**
+     * 设置类别的基础上限
+     */
+    public void configure(EventClass eventClass, int queueSize, long maxAgeMillis) {
+        synchronized (lock) {
+            ClassQueue queue = queues.get(eventClass);
+            queue.baseQueueSize = Math.max(1, queueSize);
+            queue.baseMaxAgeMillis = maxAgeMillis;
+        }
+    }
+
+    /**
+     * 按运行模式收紧类别上限：实际上限 = 基础上限 / 除数，除数为0表示丢弃该类别的全部事件
+     */
+    public void tighten(Map<EventClass, Integer> divisors) {
+        List<Prioritized> dropped = new ArrayList<>();
+        synchronized (lock) {
+            for (Map.Entry<EventClass, ClassQueue> entry : queues.entrySet()) {
+                ClassQueue queue = entry.getValue();
+                queue.divisor = Math.max(0, divisors.getOrDefault(entry.getKey(), 1));
+                while (queue.tasks.size() > queue.queueLimit()) {
+                    dropped.add(queue.tasks.pollFirst());
+                    queue.droppedFull.incrementAndGet();
+                }
+            }
+        }
+        notifyDropped(dropped, "queue_full");
+        dispatch();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        if (shutdown) {
+            throw new RejectedExecutionException("事件调度器已关闭");
+        }
+        Prioritized task = command instanceof Prioritized ? (Prioritized) command : new Unclassified(command);
+        EventClass eventClass = EventClass.of(task.getEventType());
+
+        Prioritized evicted = null;
+        boolean rejected = false;
+        synchronized (lock) {
+            ClassQueue queue = queues.get(eventClass);
+            int limit = queue.queueLimit();
+            if (limit <= 0) {
+                rejected = true;
+                queue.droppedFull.incrementAndGet();
+            } else {
+                if (queue.tasks.size() >= limit) {
+                    // 同类别中等得最久的事件价值最低
+                    evicted = queue.tasks.pollFirst();
+                    queue.droppedFull.incrementAndGet();
+                }
+                queue.tasks.offerLast(task);
+            }
+        }
+        if (rejected) {
+            task.onDropped("class_disabled");
+            return;
+        }
+        if (evicted != null) {
+            evicted.onDropped("queue_full");
+        }
+        dispatch();
+    }
+
+    /**
+     * 在有执行名额时按优先级取任务交给下游
+     */
+    private void dispatch() {
+        while (true) {
+            Prioritized next = null;
+            List<Prioritized> expired = new ArrayList<>();
+            synchronized (lock) {
+                if (inFlight >= maxInFlight) {
+                    return;
+                }
+                long now = System.nanoTime();
+                for (ClassQueue queue : queues.values()) {
+                    long maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(queue.maxAgeMillis());
+                    while (!queue.tasks.isEmpty()) {
+                        Prioritized head = queue.tasks.pollFirst();
+                        if (maxAgeNanos > 0 && now - head.getSubmittedNanos() > maxAgeNanos) {
+                            expired.add(head);
+                            queue.droppedExpired.incrementAndGet();
+                            continue;
+                        }
+                        next = head;
+                        queue.dispatched.incrementAndGet();
+                        break;
+                    }
+                    if (next != null) {
+                        break;
+                    }
+                }
+                if (next != null) {
+                    inFlight++;
+                }
+            }
+            notifyDropped(expired, "expired");
+            if (next == null) {
+                return;
+            }
+            Prioritized task = next;
+            try {
+                downstream.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                release();
+                task.onDropped("rejected");
+                return;
+            }
+        }
+    }
+
+    private void release() {
+        synchronized (lock) {
+            inFlight--;
+        }
+        if (!shutdown) {
+            dispatch();
+        }
+    }
+
+    private void notifyDropped(List<Prioritized> dropped, String reason) {
+        for (Prioritized task : dropped) {
+            task.onDropped(reason);
+        }
+    }
+
+    /**
+     * 停止调度，排队中的任务全部丢弃
+     */
+    public void shutdown() {
+        shutdown = true;
+        List<Prioritized> dropped = new ArrayList<>();
+        synchronized (lock) {
+            for (ClassQueue queue : queues.values()) {
+                dropped.addAll(queue.tasks);
+                queue.tasks.clear();
+            }
+        }
+        notifyDropped(dropped, "shutdown");
+    }
+
+    public int getQueuedCount() {
+        synchronized (lock) {
+            int total = 0;
+            for (ClassQueue queue : queues.values()) {
+                total += queue.tasks.size();
+            }
+            return total;
+        }
+    }
+
+    /**
+     * 各类别的排队深度、上限和丢弃计数
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (lock) {
+            stats.put("inFlight", inFlight);
+            stats.put("maxInFlight", maxInFlight);
+            for (Map.Entry<EventClass, ClassQueue> entry : queues.entrySet()) {
+                ClassQueue queue = entry.getValue();
+                Map<String, Object> classStats = new LinkedHashMap<>();
+                classStats.put("depth", queue.tasks.size());
+                classStats.put("queueLimit", queue.queueLimit());
+                classStats.put("maxAgeMs", queue.maxAgeMillis());
+                classStats.put("dispatched", queue.dispatched.get());
+                classStats.put("droppedFull", queue.droppedFull.get());
+                classStats.put("droppedExpired", queue.droppedExpired.get());
+                stats.put(entry.getKey().getKey(), classStats);
+            }
+        }
+        return stats;
+    }
+
+    private static final class ClassQueue {
+        final Deque<Prioritized> tasks = new ArrayDeque<>();
+        int baseQueueSize;
+        long baseMaxAgeMillis;
+        int divisor = 1;
+        final AtomicLong dispatched = new AtomicLong(0);
+        final AtomicLong droppedFull = new AtomicLong(0);
+        final AtomicLong droppedExpired = new AtomicLong(0);
+
+        ClassQueue(int baseQueueSize, long baseMaxAgeMillis) {
+            this.baseQueueSize = baseQueueSize;
+            this.baseMaxAgeMillis = baseMaxAgeMillis;
+        }
+
+        int queueLimit() {
+            return divisor == 0 ? 0 : Math.max(1, baseQueueSize / divisor);
+        }
+
+        long maxAgeMillis() {
+            if (divisor <= 1 || baseMaxAgeMillis <= 0) {
+                return baseMaxAgeMillis;
+            }
+            return Math.max(1, baseMaxAgeMillis / divisor);
+        }
+    }
+
+    /**
+     * 未声明类型的任务，按提交时间计算等待
+     */
+    private static final class Unclassified implements Prioritized {
+        private final Runnable delegate;
+        private final long submittedNanos = System.nanoTime();
+
+        Unclassified(Runnable delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String getEventType() {
+            return null;
+        }
+
+        @Override
+        public long getSubmittedNanos() {
+            return submittedNanos;
+        }
+
+        @Override
+        public void onDropped(String reason) {
+        }
+
+        @Override
+        public void run() {
+            delegate.run();
+        }
+    }
+}
@@ -102,11 +102,19 @@ public class PromptBuilder {
 
         // 6. 对话历史
         if (history != null && !history.isEmpty()) {
-            // 根据配置限制历史记录长度
+            // 根据配置限制历史记录条数和token数（从最近的消息向前累加缓存的token数）
             int maxHistory = config.getMaxHistoryInfluence();
-            List<Message> limitedHistory = history.size() > maxHistory 
-                ? history.subList(history.size() - maxHistory, history.size()) 
-                : history;
+            int tokenBudget = config.getHistoryInfluenceTokenBudget();
+            int from = history.size();
+            long used = 0;
+            while (from > Math.max(0, history.size() - maxHistory)) {
+                used += history.get(from - 1).getTokenCount() + TokenCounter.MESSAGE_OVERHEAD;
+                if (tokenBudget > 0 && used > tokenBudget) {
+                    break;
+                }
+                from--;
+            }
+            List<Message> limitedHistory = history.subList(from, history.size());
             
             String historyTemplate = config.getConversationPrompt("with-history");
             if (historyTemplate != null && !historyTemplate.isEmpty()) {
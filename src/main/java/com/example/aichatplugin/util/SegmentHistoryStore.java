@@ -0,0 +1,759 @@
+package com.example.aichatplugin.util;
+
+import com.example.aichatplugin.Message;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * 分段文件历史存储
+ *
+ * 玩家很多时每人一个文件会让目录过大、启动扫描变慢。这里把所有玩家按UUID散列打包进N个分段文件
+ * （segment-00.dat ...），每个分段是只追加的记录序列：
+ * 文件头 [魔数(4)][版本(4)]，每条记录 [长度(4)][CRC32(4)][类型(1)][序号(8)][UUID(16)][内容]。
+ *
+ * 1. 打开时只读取记录头，建立 玩家 → 快照/追加/摘要记录位置 的内存索引，不解码消息；
+ *    玩家的历史在load时才读取，CRC在读取时校验
+ * 2. 快照记录取代该玩家之前的快照和追加记录，被取代的记录计为失效空间；
+ *    分段中失效空间超过比例时重写该分段，只保留有效记录
+ * 3. 尾部不完整的记录（写入时崩溃）在打开时截断
+ * 4. 分段数变化后，玩家在下次写入时迁移到新分段；多个分段都有该玩家的记录时按序号取最新的一份
+ * 5. 索引中没有的玩家从旧的存储（每人一个文件）导入，导入后删除旧文件
+ */
+public class SegmentHistoryStore implements HistoryStore {
+
+    private static final int SEGMENT_MAGIC = 0x41435347; // "ACSG"
+    private static final int SEGMENT_VERSION = 1;
+    private static final int SEGMENT_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 33; // 长度(4) + CRC32(4) + 类型(1) + 序号(8) + UUID(16)
+    private static final byte RECORD_SNAPSHOT = 1;
+    private static final byte RECORD_APPEND = 2;
+    private static final byte RECORD_SUMMARY = 3;
+    private static final byte RECORD_DELETE = 4;
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+    private static final long MIN_COMPACT_BYTES = 1024 * 1024;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final File directory;
+    private final Logger logger;
+    private final int segmentCount;
+    private final double compactRatio;
+    private final HistoryStore legacy;
+    private volatile boolean sync;
+
+    private final Map<Integer, Segment> segments = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UUID, Entry> index = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong(0);
+
+    private final AtomicLong appendedRecords = new AtomicLong(0);
+    private final AtomicLong appendedBytes = new AtomicLong(0);
+    private final AtomicLong snapshotWrites = new AtomicLong(0);
+    private final AtomicLong snapshotBytes = new AtomicLong(0);
+    private final AtomicLong compactions = new AtomicLong(0);
+    private final AtomicLong reclaimedBytes = new AtomicLong(0);
+    private final AtomicLong migrations = new AtomicLong(0);
+    private final AtomicLong legacyImports = new AtomicLong(0);
+    private final AtomicLong recoveredTails = new AtomicLong(0);
+    private final AtomicLong corruptRecords = new AtomicLong(0);
+
+    /**
+     * @param directory 分段文件目录
+     * @param segmentCount 分段数，新写入的玩家按UUID散列到其中之一
+     * @param compactRatio 失效空间占分段大小的比例超过该值时整理分段
+     * @param legacy 旧的存储，索引中没有的玩家从这里导入；为null时不导入
+     * @param sync 每次写入后是否强制落盘
+     */
+    public SegmentHistoryStore(File directory, Logger logger, int segmentCount, double compactRatio,
+                               HistoryStore legacy, boolean sync) {
+        this.directory = directory;
+        this.logger = logger;
+        this.segmentCount = Math.max(1, segmentCount);
+        this.compactRatio = compactRatio;
+        this.legacy = legacy;
+        this.sync = sync;
+    }
+
+    /**
+     * 打开分段文件并建立索引
+     */
+    public void open() throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("无法创建历史分段目录: " + directory);
+        }
+        File[] leftovers = directory.listFiles((dir, name) -> name.endsWith(".compact"));
+        if (leftovers != null) {
+            for (File leftover : leftovers) {
+                // 整理分段时崩溃留下的临时文件，原分段仍然完整
+                Files.deleteIfExists(leftover.toPath());
+            }
+        }
+
+        // 包括分段数调小之前留下的分段
+        File[] files = directory.listFiles((dir, name) -> name.startsWith("segment-") && name.endsWith(".dat"));
+        Map<UUID, Entry> latest = new HashMap<>();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                int id;
+                try {
+                    id = Integer.parseInt(file.getName().substring(8, file.getName().length() - 4));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                Segment segment = new Segment(file);
+                openSegment(segment);
+                segments.put(id, segment);
+                scan(segment, latest);
+            }
+        }
+        for (int i = 0; i < segmentCount; i++) {
+            if (!segments.containsKey(i)) {
+                Segment segment = new Segment(new File(directory, String.format("segment-%02d.dat", i)));
+                openSegment(segment);
+                segments.put(i, segment);
+            }
+        }
+
+        for (Map.Entry<UUID, Entry> entry : latest.entrySet()) {
+            Entry value = entry.getValue();
+            if (value.deleted || (value.snapshot == null && value.appends.isEmpty() && value.summary == null)) {
+                continue;
+            }
+            value.segment.liveBytes += value.liveBytes();
+            index.put(entry.getKey(), value);
+        }
+        logger.info(String.format("历史分段已打开: %d 个分段，%d 名玩家", segments.size(), index.size()));
+    }
+
+    @Override
+    public String getType() {
+        return "segment";
+    }
+
+    @Override
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    @Override
+    public boolean exists(UUID playerId) {
+        return index.containsKey(playerId) || (legacy != null && legacy.exists(playerId));
+    }
+
+    @Override
+    public List<Message> load(UUID playerId) throws IOException {
+        Entry entry = index.get(playerId);
+        if (entry == null) {
+            if (legacy != null && legacy.exists(playerId)) {
+                return importLegacy(playerId);
+            }
+            return new ArrayList<>();
+        }
+        Segment segment = entry.segment;
+        synchronized (segment) {
+            List<Message> messages = entry.snapshot != null
+                ? HistoryCompressor.decompress(readPayload(segment, entry.snapshot, playerId))
+                : new ArrayList<>();
+            for (Ref ref : entry.appends) {
+                ByteBuffer buffer = ByteBuffer.wrap(readPayload(segment, ref, playerId));
+                int count = buffer.getInt();
+                for (int i = 0; i < count; i++) {
+                    messages.add(HistoryLog.decodeMessage(buffer));
+                }
+            }
+            return messages;
+        }
+    }
+
+    @Override
+    public String loadSummary(UUID playerId) throws IOException {
+        Entry entry = index.get(playerId);
+        if (entry == null) {
+            return legacy != null ? legacy.loadSummary(playerId) : null;
+        }
+        synchronized (entry.segment) {
+            return readSummary(playerId, entry);
+        }
+    }
+
+    @Override
+    public void append(UUID playerId, List<Message> newMessages) throws IOException {
+        if (newMessages.isEmpty()) {
+            return;
+        }
+        Entry entry = index.get(playerId);
+        if (entry == null) {
+            throw new IOException("玩家没有已保存的历史: " + playerId);
+        }
+        if (entry.segment != shardOf(playerId)) {
+            // 分段数变化后的首次写入：合并为快照写入新分段
+            List<Message> messages = load(playerId);
+            messages.addAll(newMessages);
+            writeSnapshot(playerId, messages);
+            return;
+        }
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeInt(newMessages.size());
+        for (Message message : newMessages) {
+            HistoryLog.writeMessage(out, message);
+        }
+        out.flush();
+
+        Segment segment = entry.segment;
+        synchronized (segment) {
+            Ref ref = writeRecord(segment, RECORD_APPEND, playerId, payload.toByteArray(), sequence.incrementAndGet());
+            entry.appends.add(ref);
+            entry.appendBytes += ref.length;
+            segment.liveBytes += ref.length;
+            appendedBytes.addAndGet(ref.length);
+        }
+        appendedRecords.addAndGet(newMessages.size());
+    }
+
+    @Override
+    public void writeSnapshot(UUID playerId, List<Message> messages) throws IOException {
+        byte[] payload = HistoryCompressor.compress(messages);
+        Segment target = shardOf(playerId);
+        Entry previous = index.get(playerId);
+
+        if (previous != null && previous.segment != target) {
+            // 迁移：摘要随快照写入新分段，旧分段写入删除标记（序号较小，打开时不会盖过新分段）
+            String summary;
+            synchronized (previous.segment) {
+                summary = readSummary(playerId, previous);
+            }
+            long tombstone = sequence.incrementAndGet();
+            Entry entry = new Entry(target);
+            synchronized (target) {
+                entry.snapshot = writeRecord(target, RECORD_SNAPSHOT, playerId, payload, sequence.incrementAndGet());
+                if (summary != null) {
+                    entry.summary = writeRecord(target, RECORD_SUMMARY, playerId,
+                        summary.getBytes(StandardCharsets.UTF_8), sequence.incrementAndGet());
+                }
+                target.liveBytes += entry.liveBytes();
+                index.put(playerId, entry);
+            }
+            synchronized (previous.segment) {
+                writeRecord(previous.segment, RECORD_DELETE, playerId, EMPTY, tombstone);
+                previous.segment.liveBytes -= previous.liveBytes();
+            }
+            migrations.incrementAndGet();
+            maybeCompact(previous.segment);
+        } else {
+            synchronized (target) {
+                Entry entry = previous != null ? previous : new Entry(target);
+                Ref ref = writeRecord(target, RECORD_SNAPSHOT, playerId, payload, sequence.incrementAndGet());
+                target.liveBytes -= entry.snapshotLength() + entry.appendBytes;
+                entry.snapshot = ref;
+                entry.appends.clear();
+                entry.appendBytes = 0;
+                target.liveBytes += ref.length;
+                index.put(playerId, entry);
+            }
+        }
+        snapshotWrites.incrementAndGet();
+        snapshotBytes.addAndGet(payload.length);
+        maybeCompact(target);
+    }
+
+    @Override
+    public void saveSummary(UUID playerId, String summary) throws IOException {
+        Entry entry = index.get(playerId);
+        if (entry == null) {
+            if (summary == null) {
+                return;
+            }
+            // 只有摘要没有历史：写入空快照以建立索引
+            writeSnapshot(playerId, new ArrayList<>());
+            entry = index.get(playerId);
+        }
+        Segment segment = entry.segment;
+        byte[] payload = summary != null ? summary.getBytes(StandardCharsets.UTF_8) : EMPTY;
+        synchronized (segment) {
+            Ref ref = writeRecord(segment, RECORD_SUMMARY, playerId, payload, sequence.incrementAndGet());
+            if (entry.summary != null) {
+                segment.liveBytes -= entry.summary.length;
+            }
+            // 空摘要记录只用于覆盖旧摘要，本身不计为有效数据
+            entry.summary = summary != null ? ref : null;
+            if (summary != null) {
+                segment.liveBytes += ref.length;
+            }
+        }
+        maybeCompact(segment);
+    }
+
+    @Override
+    public boolean needsCompaction(UUID playerId, int maxRecords) {
+        Entry entry = index.get(playerId);
+        if (entry == null || entry.appends.isEmpty()) {
+            return false;
+        }
+        return entry.appends.size() >= maxRecords || entry.appendBytes > Math.max(entry.snapshotLength(), 64 * 1024);
+    }
+
+    @Override
+    public void delete(UUID playerId) throws IOException {
+        Entry entry = index.remove(playerId);
+        if (entry != null) {
+            Segment segment = entry.segment;
+            synchronized (segment) {
+                writeRecord(segment, RECORD_DELETE, playerId, EMPTY, sequence.incrementAndGet());
+                segment.liveBytes -= entry.liveBytes();
+            }
+            maybeCompact(segment);
+        }
+        if (legacy != null) {
+            legacy.delete(playerId);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Segment segment : segments.values()) {
+            synchronized (segment) {
+                if (segment.channel != null && segment.channel.isOpen()) {
+                    segment.channel.force(true);
+                    segment.channel.close();
+                }
+            }
+        }
+        if (legacy != null) {
+            legacy.close();
+        }
+    }
+
+    /**
+     * 偏移索引是读取数据的唯一入口，移出内存的玩家也要保留
+     */
+    @Override
+    public void release(UUID playerId) {
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long total = 0;
+        long live = 0;
+        for (Segment segment : segments.values()) {
+            synchronized (segment) {
+                total += segment.size;
+                live += segment.liveBytes;
+            }
+        }
+        stats.put("type", getType());
+        stats.put("segments", segmentCount);
+        stats.put("segmentFiles", segments.size());
+        stats.put("indexedPlayers", index.size());
+        stats.put("totalBytes", total);
+        stats.put("liveBytes", live);
+        stats.put("deadBytes", Math.max(0, total - live - (long) segments.size() * SEGMENT_HEADER_SIZE));
+        stats.put("appendedRecords", appendedRecords.get());
+        stats.put("appendedBytes", appendedBytes.get());
+        stats.put("snapshotWrites", snapshotWrites.get());
+        stats.put("snapshotBytes", snapshotBytes.get());
+        stats.put("compactions", compactions.get());
+        stats.put("reclaimedBytes", reclaimedBytes.get());
+        stats.put("migrations", migrations.get());
+        stats.put("legacyImports", legacyImports.get());
+        stats.put("recoveredTails", recoveredTails.get());
+        stats.put("corruptRecords", corruptRecords.get());
+        stats.put("sync", sync);
+        return stats;
+    }
+
+    private Segment shardOf(UUID playerId) {
+        return segments.get(Math.floorMod(playerId.hashCode(), segmentCount));
+    }
+
+    private List<Message> importLegacy(UUID playerId) throws IOException {
+        List<Message> messages = legacy.load(playerId);
+        String summary = legacy.loadSummary(playerId);
+        writeSnapshot(playerId, messages);
+        if (summary != null) {
+            saveSummary(playerId, summary);
+        }
+        legacy.delete(playerId);
+        legacyImports.incrementAndGet();
+        return messages;
+    }
+
+    /**
+     * 调用方需持有分段锁
+     */
+    private String readSummary(UUID playerId, Entry entry) throws IOException {
+        if (entry.summary == null) {
+            return null;
+        }
+        return new String(readPayload(entry.segment, entry.summary, playerId), StandardCharsets.UTF_8);
+    }
+
+    private void openSegment(Segment segment) throws IOException {
+        segment.channel = FileChannel.open(segment.file.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = segment.channel.size();
+        if (size == 0) {
+            ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+            header.putInt(SEGMENT_MAGIC);
+            header.putInt(SEGMENT_VERSION);
+            header.flip();
+            writeFully(segment.channel, header, 0);
+            segment.size = SEGMENT_HEADER_SIZE;
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        if (size < SEGMENT_HEADER_SIZE) {
+            throw new IOException("历史分段文件头不完整: " + segment.file.getName());
+        }
+        readFully(segment.channel, header, 0);
+        header.flip();
+        if (header.getInt() != SEGMENT_MAGIC || header.getInt() != SEGMENT_VERSION) {
+            throw new IOException("不支持的历史分段文件: " + segment.file.getName());
+        }
+        segment.size = size;
+    }
+
+    /**
+     * 读取分段的记录头并合并到索引，尾部不完整或校验失败的记录被截断
+     */
+    private void scan(Segment segment, Map<UUID, Entry> latest) throws IOException {
+        List<ScannedRecord> records = new ArrayList<>();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        long position = SEGMENT_HEADER_SIZE;
+        while (position + RECORD_HEADER_SIZE <= segment.size) {
+            header.clear();
+            readFully(segment.channel, header, position);
+            header.flip();
+            int length = header.getInt();
+            header.getInt(); // CRC在读取内容时校验
+            byte type = header.get();
+            long recordSequence = header.getLong();
+            UUID playerId = new UUID(header.getLong(), header.getLong());
+            if (length < 0 || length > MAX_RECORD_SIZE || position + RECORD_HEADER_SIZE + length > segment.size
+                    || type < RECORD_SNAPSHOT || type > RECORD_DELETE) {
+                break;
+            }
+            records.add(new ScannedRecord(playerId, type, recordSequence, new Ref(position, RECORD_HEADER_SIZE + length)));
+            position += RECORD_HEADER_SIZE + length;
+        }
+
+        // 长度完整但内容只写了一部分的最后一条记录
+        if (!records.isEmpty()) {
+            ScannedRecord last = records.get(records.size() - 1);
+            try {
+                readPayload(segment, last.ref, last.playerId);
+            } catch (IOException e) {
+                records.remove(records.size() - 1);
+                position = last.ref.offset;
+            }
+        }
+        if (position < segment.size) {
+            recoveredTails.incrementAndGet();
+            logger.warning(String.format("历史分段 %s 尾部有 %d 字节不完整，已截断",
+                segment.file.getName(), segment.size - position));
+            segment.channel.truncate(position);
+            segment.size = position;
+        }
+
+        for (ScannedRecord record : records) {
+            sequence.accumulateAndGet(record.sequence, Math::max);
+            apply(latest, segment, record);
+        }
+    }
+
+    private void apply(Map<UUID, Entry> latest, Segment segment, ScannedRecord record) {
+        Entry entry = latest.get(record.playerId);
+        if (entry == null || (entry.segment != segment && record.sequence > entry.lastSequence)) {
+            entry = new Entry(segment);
+            latest.put(record.playerId, entry);
+        } else if (entry.segment != segment) {
+            // 其他分段中更新的数据已取代这条记录
+            return;
+        }
+        entry.lastSequence = Math.max(entry.lastSequence, record.sequence);
+        switch (record.type) {
+            case RECORD_SNAPSHOT:
+                entry.snapshot = record.ref;
+                entry.appends.clear();
+                entry.appendBytes = 0;
+                entry.deleted = false;
+                break;
+            case RECORD_APPEND:
+                if (!entry.deleted) {
+                    entry.appends.add(record.ref);
+                    entry.appendBytes += record.ref.length;
+                }
+                break;
+            case RECORD_SUMMARY:
+                if (!entry.deleted) {
+                    entry.summary = record.ref.length > RECORD_HEADER_SIZE ? record.ref : null;
+                }
+                break;
+            default:
+                entry.snapshot = null;
+                entry.appends.clear();
+                entry.appendBytes = 0;
+                entry.summary = null;
+                entry.deleted = true;
+                break;
+        }
+    }
+
+    /**
+     * 失效空间超过比例时整理分段
+     */
+    private void maybeCompact(Segment segment) {
+        synchronized (segment) {
+            long dead = segment.size - SEGMENT_HEADER_SIZE - segment.liveBytes;
+            if (segment.size < MIN_COMPACT_BYTES || dead < segment.size * compactRatio) {
+                return;
+            }
+            compact(segment);
+        }
+    }
+
+    /**
+     * 把有效记录复制到新文件后替换分段，调用方需持有分段锁
+     */
+    private void compact(Segment segment) {
+        File temp = new File(directory, segment.file.getName() + ".compact");
+        Map<Ref, Ref> moved = new IdentityHashMap<>();
+        long position = SEGMENT_HEADER_SIZE;
+        try (FileChannel out = FileChannel.open(temp.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+            header.putInt(SEGMENT_MAGIC);
+            header.putInt(SEGMENT_VERSION);
+            header.flip();
+            writeFully(out, header, 0);
+            for (Entry entry : index.values()) {
+                if (entry.segment != segment) {
+                    continue;
+                }
+                for (Ref ref : entry.refs()) {
+                    // 原样复制记录（保留序号和CRC）
+                    ByteBuffer record = ByteBuffer.allocate(ref.length);
+                    readFully(channel(segment), record, ref.offset);
+                    record.flip();
+                    writeFully(out, record, position);
+                    moved.put(ref, new Ref(position, ref.length));
+                    position += ref.length;
+                }
+            }
+            out.force(true);
+        } catch (IOException e) {
+            logger.warning("整理历史分段失败: " + segment.file.getName() + " - " + e.getMessage());
+            temp.delete();
+            return;
+        }
+
+        boolean replaced = false;
+        try {
+            segment.channel.close();
+            HistoryLog.replace(temp.toPath(), segment.file.toPath());
+            replaced = true;
+        } catch (IOException e) {
+            logger.warning("替换历史分段失败: " + segment.file.getName() + " - " + e.getMessage());
+            temp.delete();
+        }
+        segment.channel = null;
+        if (!replaced) {
+            return;
+        }
+
+        for (Entry entry : index.values()) {
+            if (entry.segment == segment) {
+                entry.relocate(moved);
+            }
+        }
+        reclaimedBytes.addAndGet(segment.size - position);
+        segment.size = position;
+        segment.liveBytes = position - SEGMENT_HEADER_SIZE;
+        compactions.incrementAndGet();
+    }
+
+    /**
+     * 分段的文件通道，整理后（或替换失败后）重新打开
+     */
+    private static FileChannel channel(Segment segment) throws IOException {
+        if (segment.channel == null || !segment.channel.isOpen()) {
+            segment.channel = FileChannel.open(segment.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        return segment.channel;
+    }
+
+    /**
+     * 在分段末尾写入一条记录，调用方需持有分段锁
+     */
+    private Ref writeRecord(Segment segment, byte type, UUID playerId, byte[] payload, long recordSequence)
+            throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        record.putInt(payload.length);
+        record.putInt(0);
+        record.put(type);
+        record.putLong(recordSequence);
+        record.putLong(playerId.getMostSignificantBits());
+        record.putLong(playerId.getLeastSignificantBits());
+        record.put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 8, record.capacity() - 8);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+
+        FileChannel channel = channel(segment);
+        long offset = segment.size;
+        writeFully(channel, record, offset);
+        if (sync) {
+            channel.force(false);
+        }
+        // 写入失败时不移动末尾，下次写入覆盖不完整的部分
+        segment.size = offset + record.capacity();
+        return new Ref(offset, record.capacity());
+    }
+
+    /**
+     * 读取记录内容并校验CRC，调用方需持有分段锁
+     */
+    private byte[] readPayload(Segment segment, Ref ref, UUID playerId) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(ref.length);
+        readFully(channel(segment), record, ref.offset);
+        record.flip();
+        int length = record.getInt();
+        int storedCrc = record.getInt();
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 8, ref.length - 8);
+        if (length != ref.length - RECORD_HEADER_SIZE || (int) crc.getValue() != storedCrc) {
+            corruptRecords.incrementAndGet();
+            throw new IOException("历史记录校验失败: " + playerId + " @ " + segment.file.getName() + ":" + ref.offset);
+        }
+        return Arrays.copyOfRange(record.array(), RECORD_HEADER_SIZE, ref.length);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset);
+            if (read < 0) {
+                throw new EOFException("历史分段在 " + offset + " 处意外结束");
+            }
+            offset += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+    }
+
+    private static final class Segment {
+        final File file;
+        FileChannel channel;
+        long size;
+        long liveBytes;
+
+        Segment(File file) {
+            this.file = file;
+        }
+    }
+
+    /**
+     * 记录在分段中的位置（含记录头）
+     */
+    private static final class Ref {
+        final long offset;
+        final int length;
+
+        Ref(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * 玩家在分段中的有效记录，在分段锁内修改
+     */
+    private static final class Entry {
+        final Segment segment;
+        Ref snapshot;
+        final List<Ref> appends = new ArrayList<>();
+        long appendBytes;
+        Ref summary;
+        long lastSequence;
+        boolean deleted;
+
+        Entry(Segment segment) {
+            this.segment = segment;
+        }
+
+        int snapshotLength() {
+            return snapshot != null ? snapshot.length : 0;
+        }
+
+        long liveBytes() {
+            return snapshotLength() + appendBytes + (summary != null ? summary.length : 0);
+        }
+
+        List<Ref> refs() {
+            List<Ref> refs = new ArrayList<>(appends.size() + 2);
+            if (snapshot != null) {
+                refs.add(snapshot);
+            }
+            refs.addAll(appends);
+            if (summary != null) {
+                refs.add(summary);
+            }
+            return refs;
+        }
+
+        void relocate(Map<Ref, Ref> moved) {
+            if (snapshot != null) {
+                snapshot = moved.get(snapshot);
+            }
+            for (int i = 0; i < appends.size(); i++) {
+                appends.set(i, moved.get(appends.get(i)));
+            }
+            if (summary != null) {
+                summary = moved.get(summary);
+            }
+        }
+    }
+
+    private static final class ScannedRecord {
+        final UUID playerId;
+        final byte type;
+        final long sequence;
+        final Ref ref;
+
+        ScannedRecord(UUID playerId, byte type, long sequence, Ref ref) {
+            this.playerId = playerId;
+            this.type = type;
+            this.sequence = sequence;
+            this.ref = ref;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.example.aichatplugin.util;
+
+import java.text.Normalizer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 语义响应缓存（第二级缓存）
+ *
+ * 与按完整提示词哈希的响应缓存不同，这里的键只包含：
+ * 1. 规范化后的玩家消息（去标点、空白、语气词，全角转半角）
+ * 2. 粗粒度环境指纹（群系、昼夜、危险等级）
+ *
+ * 相似度规则：
+ * - exact: 规范化后完全相同才命中
+ * - jaccard: 同一环境指纹下，字符二元组Jaccard相似度达到阈值即命中
+ *
+ * 不同类别的问题（时间、安全、位置、通用）使用不同的存活时间
+ */
+public class SemanticResponseCache {
+
+    public static final String MODE_EXACT = "exact";
+    public static final String MODE_JACCARD = "jaccard";
+
+    public static final String CATEGORY_TIME = "time";
+    public static final String CATEGORY_SAFETY = "safety";
+    public static final String CATEGORY_LOCATION = "location";
+    public static final String CATEGORY_GENERAL = "general";
+
+    private static final String[] TIME_KEYWORDS = {"几点", "时间", "白天", "晚上", "天黑", "天亮", "夜晚"};
+    private static final String[] SAFETY_KEYWORDS = {"安全", "危险", "怪物", "怪", "敌人", "小心"};
+    private static final String[] LOCATION_KEYWORDS = {"哪里", "在哪", "位置", "群系", "坐标", "附近有"};
+    private static final String TRAILING_PARTICLES = "吗呢啊呀吧嘛哦么啦了";
+    private static final int MAX_CANDIDATES_PER_FINGERPRINT = 64;
+
+    private volatile TinyLfuCache<String, String> cache;
+    private final Map<String, Deque<String>> candidatesByFingerprint = new ConcurrentHashMap<>();
+    private volatile String similarityMode;
+    private volatile double similarityThreshold;
+    private volatile Map<String, Long> categoryTtls;
+    private volatile int maxMessageLength;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxEntries 最大条目数
+     * @param similarityMode exact / jaccard
+     * @param similarityThreshold jaccard模式下的命中阈值（0-1）
+     * @param categoryTtls 各类别存活时间（毫秒），缺省类别使用general
+     * @param maxMessageLength 超过此长度的消息不参与缓存（长消息几乎不会重复）
+     */
+    public SemanticResponseCache(int maxEntries, String similarityMode, double similarityThreshold,
+                                 Map<String, Long> categoryTtls, int maxMessageLength) {
+        configure(maxEntries, similarityMode, similarityThreshold, categoryTtls, maxMessageLength);
+    }
+
+    /**
+     * 应用新配置（参数同构造方法）
+     * 阈值和长度上限立即生效；容量变化时换成新的缓存，存活时间变化时清空已缓存的回复（它们按旧的存活时间写入），
+     * 相似度模式变化时丢弃候选列表
+     */
+    public synchronized void configure(int maxEntries, String similarityMode, double similarityThreshold,
+                                       Map<String, Long> categoryTtls, int maxMessageLength) {
+        Map<String, Long> ttls = new ConcurrentHashMap<>(categoryTtls);
+        String mode = MODE_JACCARD.equalsIgnoreCase(similarityMode) ? MODE_JACCARD : MODE_EXACT;
+        boolean resized = cache == null || cache.getMaximumSize() != Math.max(1, maxEntries);
+        boolean ttlChanged = !ttls.equals(this.categoryTtls);
+        if (resized) {
+            cache = new TinyLfuCache<>(maxEntries, ttls.getOrDefault(CATEGORY_GENERAL, 300_000L));
+        } else if (ttlChanged) {
+            cache.clear();
+        }
+        if (resized || ttlChanged || !mode.equals(this.similarityMode)) {
+            candidatesByFingerprint.clear();
+        }
+        this.categoryTtls = ttls;
+        this.similarityMode = mode;
+        this.similarityThreshold = Math.max(0.0, Math.min(1.0, similarityThreshold));
+        this.maxMessageLength = maxMessageLength;
+    }
+
+    /**
+     * 查找缓存的回复
+     * @return 命中时返回回复，否则返回null
+     */
+    public String get(String message, String fingerprint) {
+        String normalized = normalize(message);
+        if (!isCacheable(normalized)) {
+            return null;
+        }
+
+        String response = cache.get(buildKey(fingerprint, normalized));
+        if (response == null && MODE_JACCARD.equals(similarityMode)) {
+            String similar = findSimilar(fingerprint, normalized);
+            if (similar != null) {
+                response = cache.get(buildKey(fingerprint, similar));
+            }
+        }
+
+        if (response != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return response;
+    }
+
+    /**
+     * 写入回复，存活时间由消息类别决定
+     */
+    public void put(String message, String fingerprint, String response) {
+        String normalized = normalize(message);
+        if (!isCacheable(normalized) || response == null || response.isEmpty()) {
+            return;
+        }
+
+        long ttl = categoryTtls.getOrDefault(classify(normalized),
+            categoryTtls.getOrDefault(CATEGORY_GENERAL, 300_000L));
+        if (ttl <= 0) {
+            return; // 该类别禁用缓存
+        }
+        cache.put(buildKey(fingerprint, normalized), response, ttl);
+
+        if (MODE_JACCARD.equals(similarityMode)) {
+            Deque<String> candidates = candidatesByFingerprint.computeIfAbsent(fingerprint, k -> new ArrayDeque<>());
+            synchronized (candidates) {
+                candidates.remove(normalized);
+                candidates.addFirst(normalized);
+                while (candidates.size() > MAX_CANDIDATES_PER_FINGERPRINT) {
+                    candidates.removeLast();
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        cache.clear();
+        candidatesByFingerprint.clear();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        stats.put("mode", similarityMode);
+        stats.put("size", cache.size());
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRate", hitCount + missCount > 0 ? (double) hitCount / (hitCount + missCount) : 0.0);
+        return stats;
+    }
+
+    /**
+     * 消息规范化：NFKC（全角转半角）、小写、去掉标点空白和句尾语气词
+     */
+    public static String normalize(String message) {
+        if (message == null) {
+            return "";
+        }
+        String text = Normalizer.normalize(message, Normalizer.Form.NFKC).toLowerCase();
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(c);
+            }
+        }
+        while (sb.length() > 1 && TRAILING_PARTICLES.indexOf(sb.charAt(sb.length() - 1)) >= 0) {
+            sb.setLength(sb.length() - 1);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 按关键词判断消息类别
+     */
+    public static String classify(String normalized) {
+        if (containsAny(normalized, TIME_KEYWORDS)) {
+            return CATEGORY_TIME;
+        }
+        if (containsAny(normalized, SAFETY_KEYWORDS)) {
+            return CATEGORY_SAFETY;
+        }
+        if (containsAny(normalized, LOCATION_KEYWORDS)) {
+            return CATEGORY_LOCATION;
+        }
+        return CATEGORY_GENERAL;
+    }
+
+    private boolean isCacheable(String normalized) {
+        return !normalized.isEmpty() && normalized.length() <= maxMessageLength;
+    }
+
+    private String findSimilar(String fingerprint, String normalized) {
+        Deque<String> candidates = candidatesByFingerprint.get(fingerprint);
+        if (candidates == null) {
+            return null;
+        }
+
+        Set<String> target = bigrams(normalized);
+        String best = null;
+        double bestScore = similarityThreshold;
+        synchronized (candidates) {
+            for (String candidate : candidates) {
+                double score = jaccard(target, bigrams(candidate));
+                if (score >= bestScore) {
+                    best = candidate;
+                    bestScore = score;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static Set<String> bigrams(String text) {
+        Set<String> grams = new HashSet<>();
+        if (text.length() == 1) {
+            grams.add(text);
+        }
+        for (int i = 0; i + 1 < text.length(); i++) {
+            grams.add(text.substring(i, i + 2));
+        }
+        return grams;
+    }
+
+    private static double jaccard(Set<String> a, Set<String> b) {
+        if (a.isEmpty() && b.isEmpty()) {
+            return 1.0;
+        }
+        int intersection = 0;
+        for (String gram : a) {
+            if (b.contains(gram)) {
+                intersection++;
+            }
+        }
+        return (double) intersection / (a.size() + b.size() - intersection);
+    }
+
+    private static boolean containsAny(String text, String[] keywords) {
+        for (String keyword : keywords) {
+            if (text.contains(keyword)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String buildKey(String fingerprint, String normalized) {
+        return fingerprint + "|" + normalized;
+    }
+}
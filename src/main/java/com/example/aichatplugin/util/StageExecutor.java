@@ -0,0 +1,192 @@
+package com.example.aichatplugin.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 处理阶段执行器
+ *
+ * 特点：
+ * 1. 可选执行后端：JDK 21+ 使用虚拟线程，JDK 17 回退到固定线程池
+ * 2. 使用信号量限制单个阶段的并发数，超出部分进入等待队列
+ * 3. 提交任务永不阻塞调用线程（可以安全地从主线程提交）
+ */
+public class StageExecutor extends AbstractExecutorService {
+
+    public static final String BACKEND_AUTO = "auto";
+    public static final String BACKEND_VIRTUAL = "virtual";
+    public static final String BACKEND_PLATFORM = "platform";
+
+    private final String name;
+    private final ExecutorService backend;
+    private final boolean virtual;
+    private final int maxConcurrency;
+    private final Semaphore permits;
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger(0);
+    private volatile boolean shutdown = false;
+
+    private StageExecutor(String name, ExecutorService backend, boolean virtual, int maxConcurrency) {
+        this.name = name;
+        this.backend = backend;
+        this.virtual = virtual;
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency);
+    }
+
+    /**
+     * 创建阶段执行器
+     * @param name 线程名前缀
+     * @param backendMode auto / virtual / platform
+     * @param maxConcurrency 阶段最大并发数
+     * @param platformThreads 回退到线程池时的线程数
+     */
+    public static StageExecutor create(String name, String backendMode, int maxConcurrency, int platformThreads) {
+        int cap = Math.max(1, maxConcurrency);
+        if (!BACKEND_PLATFORM.equalsIgnoreCase(backendMode)) {
+            ExecutorService virtualBackend = newVirtualThreadExecutor();
+            if (virtualBackend != null) {
+                return new StageExecutor(name, virtualBackend, true, cap);
+            }
+        }
+
+        // 线程池后端：并发上限不能超过线程数，否则信号量形同虚设
+        int threads = Math.max(1, platformThreads);
+        AtomicInteger threadIndex = new AtomicInteger(0);
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r);
+            t.setName(name + "-" + threadIndex.incrementAndGet());
+            return t;
+        });
+        return new StageExecutor(name, pool, false, Math.min(cap, threads));
+    }
+
+    /**
+     * 当前JVM是否支持虚拟线程
+     */
+    public static boolean isVirtualThreadSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 通过反射创建虚拟线程执行器，保持JDK 17编译兼容
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        if (shutdown) {
+            throw new RejectedExecutionException(name + " 已关闭");
+        }
+        pending.offer(command);
+        pendingCount.incrementAndGet();
+        drain();
+    }
+
+    /**
+     * 在有空闲许可时把等待队列中的任务交给后端执行
+     */
+    private void drain() {
+        while (!pending.isEmpty() && permits.tryAcquire()) {
+            Runnable next = pending.poll();
+            if (next == null) {
+                permits.release();
+                break;
+            }
+            pendingCount.decrementAndGet();
+            try {
+                backend.execute(() -> {
+                    try {
+                        next.run();
+                    } finally {
+                        permits.release();
+                        drain();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                if (shutdown) {
+                    return; // 关闭过程中剩余任务直接丢弃
+                }
+                throw e;
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public int getActiveCount() {
+        return maxConcurrency - permits.availablePermits();
+    }
+
+    public int getQueuedCount() {
+        return pendingCount.get();
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        backend.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> dropped = new ArrayList<>();
+        Runnable r;
+        while ((r = pending.poll()) != null) {
+            dropped.add(r);
+        }
+        pendingCount.set(0);
+        dropped.addAll(backend.shutdownNow());
+        return dropped;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown && pending.isEmpty() && backend.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return backend.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,550 @@
+package com.example.aichatplugin.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * W-TinyLFU 缓存
+ *
+ * 结构：
+ * 1. 窗口LRU（约1%容量）：吸收突发的新条目
+ * 2. 主空间分段LRU：试用区（20%）+ 保护区（80%）
+ * 3. 频率草图（4位Count-Min Sketch）：窗口淘汰的候选者只有比主空间受害者更常用才被接纳
+ * 4. 时间轮：按过期时间分桶，过期清理只访问到期的桶，不扫描全表
+ *
+ * 所有淘汰操作都是O(1)；读取路径只做一次Map查找，
+ * 访问记录在拿不到锁时直接丢弃（有损但不阻塞）
+ */
+public class TinyLfuCache<K, V> {
+
+    private static final double WINDOW_RATIO = 0.01;
+    private static final double PROTECTED_RATIO = 0.80;
+
+    private final ConcurrentHashMap<K, Node<K, V>> data;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    private final AccessOrderDeque<K, V> window = new AccessOrderDeque<>();
+    private final AccessOrderDeque<K, V> probation = new AccessOrderDeque<>();
+    private final AccessOrderDeque<K, V> protectedQueue = new AccessOrderDeque<>();
+    private final TimerWheel<K, V> timerWheel = new TimerWheel<>();
+
+    private final long maximumSize;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+    private final long defaultTtlNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * @param maximumSize 最大条目数
+     * @param ttlMillis 默认存活时间（毫秒）
+     */
+    public TinyLfuCache(long maximumSize, long ttlMillis) {
+        this.maximumSize = Math.max(1, maximumSize);
+        this.windowMaximum = Math.max(1, (long) (this.maximumSize * WINDOW_RATIO));
+        long mainMaximum = this.maximumSize - windowMaximum;
+        this.protectedMaximum = (long) (mainMaximum * PROTECTED_RATIO);
+        this.defaultTtlNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, ttlMillis));
+        this.data = new ConcurrentHashMap<>((int) Math.min(this.maximumSize, 1 << 16));
+        this.sketch = new FrequencySketch(this.maximumSize);
+    }
+
+    public V get(K key) {
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            misses.increment();
+            afterMiss(key);
+            return null;
+        }
+
+        long now = System.nanoTime();
+        if (node.isExpired(now)) {
+            misses.increment();
+            afterExpiredRead(node, now);
+            return null;
+        }
+
+        hits.increment();
+        afterRead(node, now);
+        return node.value;
+    }
+
+    public void put(K key, V value) {
+        putWithTtlNanos(key, value, defaultTtlNanos);
+    }
+
+    /**
+     * 使用单独的存活时间写入（时间轮支持每个条目不同的过期时间）
+     */
+    public void put(K key, V value, long ttlMillis) {
+        putWithTtlNanos(key, value, TimeUnit.MILLISECONDS.toNanos(Math.max(1, ttlMillis)));
+    }
+
+    private void putWithTtlNanos(K key, V value, long ttlNanos) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+
+        evictionLock.lock();
+        try {
+            long now = System.nanoTime();
+            expireEntries(now);
+            sketch.increment(key);
+
+            Node<K, V> node = data.get(key);
+            if (node != null) {
+                node.value = value;
+                timerWheel.deschedule(node);
+                node.expireAt = now + ttlNanos;
+                timerWheel.schedule(node);
+                onAccess(node);
+                return;
+            }
+
+            node = new Node<>(key, value, now + ttlNanos);
+            data.put(key, node);
+            window.addLast(node);
+            timerWheel.schedule(node);
+            evictEntries();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public void invalidate(K key) {
+        evictionLock.lock();
+        try {
+            Node<K, V> node = data.get(key);
+            if (node != null) {
+                removeNode(node);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public void clear() {
+        evictionLock.lock();
+        try {
+            for (Node<K, V> node : data.values()) {
+                removeNode(node);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public int size() {
+        return data.size();
+    }
+
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * 获取缓存统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        stats.put("size", data.size());
+        stats.put("maximumSize", maximumSize);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRate", hitCount + missCount > 0 ? (double) hitCount / (hitCount + missCount) : 0.0);
+        stats.put("evictions", evictions.sum());
+        stats.put("expirations", expirations.sum());
+        return stats;
+    }
+
+    public void resetStats() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+        expirations.reset();
+    }
+
+    // ==================== 维护逻辑（均在evictionLock内执行） ====================
+
+    private void afterMiss(K key) {
+        if (evictionLock.tryLock()) {
+            try {
+                sketch.increment(key);
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private void afterRead(Node<K, V> node, long now) {
+        if (evictionLock.tryLock()) {
+            try {
+                sketch.increment(node.key);
+                onAccess(node);
+                expireEntries(now);
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private void afterExpiredRead(Node<K, V> node, long now) {
+        if (evictionLock.tryLock()) {
+            try {
+                if (!node.removed && node.isExpired(now)) {
+                    removeNode(node);
+                    expirations.increment();
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 访问命中：窗口/保护区移到队尾，试用区晋升到保护区
+     */
+    private void onAccess(Node<K, V> node) {
+        if (node.removed) {
+            return;
+        }
+        switch (node.queue) {
+            case Node.WINDOW:
+                window.moveToBack(node);
+                break;
+            case Node.PROBATION:
+                probation.remove(node);
+                node.queue = Node.PROTECTED;
+                protectedQueue.addLast(node);
+                // 保护区溢出时把最久未用的降级回试用区
+                while (protectedQueue.size() > protectedMaximum) {
+                    Node<K, V> demoted = protectedQueue.pollFirst();
+                    demoted.queue = Node.PROBATION;
+                    probation.addLast(demoted);
+                }
+                break;
+            case Node.PROTECTED:
+                protectedQueue.moveToBack(node);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 窗口溢出时，候选者与主空间受害者比较频率决定去留
+     */
+    private void evictEntries() {
+        long mainMaximum = maximumSize - windowMaximum;
+        while (window.size() > windowMaximum) {
+            Node<K, V> candidate = window.pollFirst();
+            candidate.queue = Node.PROBATION;
+
+            if (probation.size() + protectedQueue.size() < mainMaximum) {
+                probation.addLast(candidate);
+                continue;
+            }
+
+            Node<K, V> victim = probation.peekFirst();
+            if (victim == null) {
+                victim = protectedQueue.peekFirst();
+            }
+            if (victim == null) {
+                evict(candidate, false);
+            } else if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                evict(victim, true);
+                probation.addLast(candidate);
+            } else {
+                evict(candidate, false);
+            }
+        }
+    }
+
+    private void evict(Node<K, V> node, boolean linked) {
+        if (linked) {
+            removeNode(node);
+        } else {
+            // 候选者已从窗口队列取出，只需清理映射和时间轮
+            node.removed = true;
+            data.remove(node.key, node);
+            timerWheel.deschedule(node);
+        }
+        evictions.increment();
+    }
+
+    private void expireEntries(long now) {
+        timerWheel.advance(now, node -> {
+            removeNode(node);
+            expirations.increment();
+        });
+    }
+
+    private void removeNode(Node<K, V> node) {
+        if (node.removed) {
+            return;
+        }
+        node.removed = true;
+        data.remove(node.key, node);
+        switch (node.queue) {
+            case Node.WINDOW:
+                window.remove(node);
+                break;
+            case Node.PROBATION:
+                probation.remove(node);
+                break;
+            case Node.PROTECTED:
+                protectedQueue.remove(node);
+                break;
+            default:
+                break;
+        }
+        timerWheel.deschedule(node);
+    }
+
+    // ==================== 内部结构 ====================
+
+    private static final class Node<K, V> {
+        static final int WINDOW = 0;
+        static final int PROBATION = 1;
+        static final int PROTECTED = 2;
+
+        final K key;
+        volatile V value;
+        volatile long expireAt;
+        int queue = WINDOW;
+        boolean removed;
+
+        // 访问顺序链表
+        Node<K, V> prev;
+        Node<K, V> next;
+        // 时间轮桶链表
+        Node<K, V> prevInTimer;
+        Node<K, V> nextInTimer;
+
+        Node(K key, V value, long expireAt) {
+            this.key = key;
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+
+        boolean isExpired(long now) {
+            return expireAt - now <= 0;
+        }
+    }
+
+    /**
+     * 侵入式双向链表，所有操作O(1)
+     */
+    private static final class AccessOrderDeque<K, V> {
+        private Node<K, V> head;
+        private Node<K, V> tail;
+        private long size;
+
+        long size() {
+            return size;
+        }
+
+        Node<K, V> peekFirst() {
+            return head;
+        }
+
+        void addLast(Node<K, V> node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            size++;
+        }
+
+        Node<K, V> pollFirst() {
+            Node<K, V> node = head;
+            if (node != null) {
+                remove(node);
+            }
+            return node;
+        }
+
+        void remove(Node<K, V> node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            size--;
+        }
+
+        void moveToBack(Node<K, V> node) {
+            if (node != tail) {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+
+    /**
+     * 单层哈希时间轮
+     * 每个桶覆盖约1秒（2^30纳秒），共512个桶；超出一圈的条目在到期前被访问时跳过
+     */
+    private static final class TimerWheel<K, V> {
+        private static final int BUCKETS = 512;
+        private static final int SHIFT = 30;
+        private static final long MASK = BUCKETS - 1;
+
+        private final Node<K, V>[] buckets;
+        private long lastTick = Long.MIN_VALUE;
+
+        @SuppressWarnings("unchecked")
+        TimerWheel() {
+            buckets = new Node[BUCKETS];
+        }
+
+        void schedule(Node<K, V> node) {
+            int index = (int) ((node.expireAt >> SHIFT) & MASK);
+            Node<K, V> first = buckets[index];
+            node.prevInTimer = null;
+            node.nextInTimer = first;
+            if (first != null) {
+                first.prevInTimer = node;
+            }
+            buckets[index] = node;
+        }
+
+        void deschedule(Node<K, V> node) {
+            int index = (int) ((node.expireAt >> SHIFT) & MASK);
+            if (node.prevInTimer == null) {
+                if (buckets[index] == node) {
+                    buckets[index] = node.nextInTimer;
+                }
+            } else {
+                node.prevInTimer.nextInTimer = node.nextInTimer;
+            }
+            if (node.nextInTimer != null) {
+                node.nextInTimer.prevInTimer = node.prevInTimer;
+            }
+            node.prevInTimer = null;
+            node.nextInTimer = null;
+        }
+
+        /**
+         * 推进到当前时间，只访问上次推进以来经过的桶
+         */
+        void advance(long now, java.util.function.Consumer<Node<K, V>> expirer) {
+            long currentTick = now >> SHIFT;
+            if (lastTick == Long.MIN_VALUE) {
+                lastTick = currentTick;
+            }
+            long startTick = Math.max(lastTick, currentTick - BUCKETS + 1);
+            for (long tick = startTick; tick <= currentTick; tick++) {
+                Node<K, V> node = buckets[(int) (tick & MASK)];
+                while (node != null) {
+                    Node<K, V> next = node.nextInTimer;
+                    if (node.isExpired(now)) {
+                        expirer.accept(node);
+                    }
+                    node = next;
+                }
+            }
+            lastTick = currentTick;
+        }
+    }
+
+    /**
+     * 4位Count-Min Sketch，记录近期访问频率
+     * 计数总和达到采样上限时全部减半，使频率随时间老化
+     */
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+        };
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private static final long ONE_MASK = 0x1111111111111111L;
+
+        private final long[] table;
+        private final int tableMask;
+        private final int sampleSize;
+        private int size;
+
+        FrequencySketch(long maximumSize) {
+            int capacity = (int) Math.min(maximumSize, 1 << 30);
+            int length = Math.max(8, Integer.highestOneBit(Math.max(1, capacity - 1)) << 1);
+            this.table = new long[length];
+            this.tableMask = length - 1;
+            this.sampleSize = (int) Math.min(10L * capacity, Integer.MAX_VALUE);
+        }
+
+        int frequency(Object item) {
+            int hash = spread(item.hashCode());
+            int start = (hash & 3) << 2;
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xFL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        void increment(Object item) {
+            int hash = spread(item.hashCode());
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                added |= incrementAt(indexOf(hash, i), start + i);
+            }
+            if (added && ++size >= sampleSize) {
+                reset();
+            }
+        }
+
+        private boolean incrementAt(int index, int counter) {
+            int offset = counter << 2;
+            long mask = 0xFL << offset;
+            if ((table[index] & mask) != mask) {
+                table[index] += 1L << offset;
+                return true;
+            }
+            return false;
+        }
+
+        private void reset() {
+            int oddCount = 0;
+            for (int i = 0; i < table.length; i++) {
+                oddCount += Long.bitCount(table[i] & ONE_MASK);
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            size = (size - (oddCount >>> 2)) >>> 1;
+        }
+
+        private int indexOf(int item, int i) {
+            long hash = (item + SEEDS[i]) * SEEDS[i];
+            hash += hash >>> 32;
+            return ((int) hash) & tableMask;
+        }
+
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+}
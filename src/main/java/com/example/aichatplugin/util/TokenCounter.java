@@ -0,0 +1,242 @@
+package com.example.aichatplugin.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 离线token计数器
+ *
+ * 按字节级BPE分词器（DeepSeek/cl100k一类）的规则计数，不需要联网：
+ * 1. 预分词：字母串（可带一个前导空格）、数字（每3位一组）、中日韩字符串、空白、其他符号
+ * 2. 字母串和中文串在内置词表（resources/tokenizer/vocab.txt）中做最长匹配，每个匹配计1个token
+ * 3. 未收录的片段按平均合并长度估算：英文每3个字母1个token，汉字每字1个token，
+ *    增补平面字符（表情等）每个2个token
+ *
+ * 内置词表只收录常用英文词、子词和Minecraft相关中文词，结果与服务端计费会有少量偏差，
+ * 用于历史窗口的预算控制已经足够
+ */
+public final class TokenCounter {
+
+    /** 每条消息在对话格式中的额外开销（角色标记和分隔符） */
+    public static final int MESSAGE_OVERHEAD = 4;
+
+    private static final String VOCAB_RESOURCE = "/tokenizer/vocab.txt";
+    private static final int LETTERS_PER_TOKEN = 3;
+    private static final int DIGITS_PER_TOKEN = 3;
+
+    private static final Node ROOT = loadVocabulary();
+
+    private TokenCounter() {
+    }
+
+    /**
+     * 计算文本的token数
+     */
+    public static int count(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+
+        int tokens = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+
+            if (isLetter(c) || (c == ' ' && i + 1 < length && isLetter(text.charAt(i + 1)))) {
+                // 前导空格与后面的单词合并为同一个token
+                int start = c == ' ' ? i + 1 : i;
+                int end = start;
+                while (end < length && isLetter(text.charAt(end))) {
+                    end++;
+                }
+                tokens += countRun(text, start, end, true);
+                i = end;
+            } else if (c >= '0' && c <= '9') {
+                int end = i;
+                while (end < length && text.charAt(end) >= '0' && text.charAt(end) <= '9') {
+                    end++;
+                }
+                tokens += (end - i + DIGITS_PER_TOKEN - 1) / DIGITS_PER_TOKEN;
+                i = end;
+            } else if (isCjk(c)) {
+                int end = i;
+                while (end < length && isCjk(text.charAt(end))) {
+                    end++;
+                }
+                tokens += countRun(text, i, end, false);
+                i = end;
+            } else if (Character.isWhitespace(c)) {
+                while (i < length && Character.isWhitespace(text.charAt(i))) {
+                    i++;
+                }
+                tokens++;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                tokens += 2;
+                i += 2;
+            } else {
+                tokens++;
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * 计算一条消息计入上下文的token数（内容 + 格式开销）
+     */
+    public static int countMessage(String content) {
+        return count(content) + MESSAGE_OVERHEAD;
+    }
+
+    /**
+     * 在前缀和数组上二分查找预算内的窗口起点
+     * @param prefixSums prefixSums[k]为前k条消息的token总数（prefixSums[0] = 0）
+     * @param from 可选的最小起点
+     * @param to 消息总数（窗口终点，不含）
+     * @param budget token预算
+     * @return 满足 prefixSums[to] - prefixSums[k] <= budget 的最小k（k >= from），都不满足时返回to
+     */
+    public static int windowStart(long[] prefixSums, int from, int to, long budget) {
+        long threshold = prefixSums[to] - budget;
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (prefixSums[mid] >= threshold) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 在前缀和数组上二分查找从最早消息开始、预算内的窗口终点
+     * @param prefixSums prefixSums[k]为前k条消息的token总数
+     * @param from 窗口起点
+     * @param to 消息总数（终点的上限）
+     * @param budget token预算
+     * @return 满足 prefixSums[k] - prefixSums[from] <= budget 的最大k（k <= to）
+     */
+    public static int windowEnd(long[] prefixSums, int from, int to, long budget) {
+        long threshold = prefixSums[from] + budget;
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (prefixSums[mid] <= threshold) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 对一段字母串或中文串做词表最长匹配
+     */
+    private static int countRun(String text, int start, int end, boolean letters) {
+        int tokens = 0;
+        int unmatched = 0;
+        int i = start;
+        while (i < end) {
+            int matched = longestMatch(text, i, end, letters);
+            if (matched > 0) {
+                tokens += unmatchedTokens(unmatched, letters);
+                unmatched = 0;
+                tokens++;
+                i += matched;
+            } else {
+                unmatched++;
+                i++;
+            }
+        }
+        return tokens + unmatchedTokens(unmatched, letters);
+    }
+
+    private static int unmatchedTokens(int chars, boolean letters) {
+        if (chars == 0) {
+            return 0;
+        }
+        return letters ? (chars + LETTERS_PER_TOKEN - 1) / LETTERS_PER_TOKEN : chars;
+    }
+
+    /**
+     * @return 从start开始在词表中能匹配的最长长度，单个汉字/字母不算匹配
+     */
+    private static int longestMatch(String text, int start, int end, boolean letters) {
+        Node node = ROOT;
+        int longest = 0;
+        for (int i = start; i < end && node != null; i++) {
+            char c = text.charAt(i);
+            node = node.child(letters ? Character.toLowerCase(c) : c);
+            if (node != null && node.terminal && i - start + 1 > 1) {
+                longest = i - start + 1;
+            }
+        }
+        return longest;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isCjk(char c) {
+        return c >= '\u4e00' && c <= '\u9fff';
+    }
+
+    private static Node loadVocabulary() {
+        Node root = new Node();
+        try (InputStream in = TokenCounter.class.getResourceAsStream(VOCAB_RESOURCE)) {
+            if (in == null) {
+                Logger.getLogger(TokenCounter.class.getName()).warning("未找到分词词表，token计数只使用估算规则");
+                return root;
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String token = line.trim();
+                if (token.isEmpty() || token.startsWith("#")) {
+                    continue;
+                }
+                Node node = root;
+                for (int i = 0; i < token.length(); i++) {
+                    node = node.getOrCreate(Character.toLowerCase(token.charAt(i)));
+                }
+                node.terminal = true;
+            }
+        } catch (IOException e) {
+            Logger.getLogger(TokenCounter.class.getName()).log(Level.WARNING, "加载分词词表失败", e);
+        }
+        return root;
+    }
+
+    /**
+     * 词表前缀树节点（加载后只读）
+     */
+    private static class Node {
+        private Map<Character, Node> children;
+        private boolean terminal;
+
+        Node child(char c) {
+            return children != null ? children.get(c) : null;
+        }
+
+        Node getOrCreate(char c) {
+            if (children == null) {
+                children = new HashMap<>();
+            }
+            return children.computeIfAbsent(c, k -> new Node());
+        }
+    }
+}
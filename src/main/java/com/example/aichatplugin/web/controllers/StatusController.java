@@ -22,6 +22,7 @@ import java.util.logging.Level;
  * GET /api/status/performance - 获取性能状态
  * GET /api/status/system - 获取系统信息
  * GET /api/status/memory-details - 获取内存详细信息
+ * GET /api/status/keys - 获取API密钥池状态（按提供者分组）
  */
 public class StatusController extends HttpServlet {
     
@@ -58,6 +59,10 @@ public class StatusController extends HttpServlet {
                 // 获取内存详细信息
                 Map<String, Object> memoryDetails = getMemoryDetails();
                 sendJsonResponse(response, memoryDetails);
+            } else if (subPath.equals("/keys")) {
+                // 获取API密钥池状态
+                Map<String, Object> keys = getKeyPoolStatus();
+                sendJsonResponse(response, keys);
             } else {
                 sendErrorResponse(response, 404, "状态API端点不存在: " + subPath);
             }
@@ -82,6 +87,18 @@ public class StatusController extends HttpServlet {
         // 服务器状态
         status.put("onlinePlayers", plugin.getServer().getOnlinePlayers().size());
         
+        // 语义缓存命中率
+        if (plugin.getConversationManager() != null) {
+            status.put("semanticCacheHitRate", plugin.getConversationManager().getSemanticCacheStats().get("hitRate"));
+        }
+        
+        // AI请求并发上限和排队深度
+        if (plugin.getAIService() != null) {
+            Map<String, Object> limiterStats = plugin.getAIService().getConcurrencyLimiterStats();
+            status.put("aiConcurrencyLimit", limiterStats.get("limit"));
+            status.put("aiQueueDepth", limiterStats.get("queueDepth"));
+        }
+        
         // 性能信息
         if (plugin.getPerformanceMonitor() != null) {
             double tps = plugin.getPerformanceMonitor().getCurrentTPS();
@@ -204,6 +221,35 @@ public class StatusController extends HttpServlet {
             performance.put("currentTPS", plugin.getPerformanceMonitor().getCurrentTPS());
             performance.put("mode", plugin.getPerformanceMonitor().getCurrentMode().name());
             performance.put("autoOptimizeEnabled", plugin.getConfigLoader().isAutoOptimizeEnabled());
+            performance.put("avgResponseTime", plugin.getPerformanceMonitor().getAverageResponseTimeStats());
+            performance.put("avgFirstTokenTime", plugin.getPerformanceMonitor().getAverageFirstTokenTimeStats());
+        }
+        
+        if (plugin.getConversationManager() != null) {
+            performance.put("stages", plugin.getConversationManager().getStageStats());
+            performance.put("mailboxes", plugin.getConversationManager().getMailboxStats());
+            performance.put("eventQueues", plugin.getConversationManager().getEventQueueStats());
+            performance.put("semanticCache", plugin.getConversationManager().getSemanticCacheStats());
+            performance.put("historySummarizer", plugin.getConversationManager().getHistorySummaryStats());
+            performance.put("historyLog", plugin.getConversationManager().getHistoryLogStats());
+            performance.put("historyMemory", plugin.getConversationManager().getHistoryMemoryStats());
+            performance.put("eventBatching", plugin.getConversationManager().getEventBatchingStats());
+        }
+        
+        if (plugin.getStatusListener() != null) {
+            performance.put("eventAggregation", plugin.getStatusListener().getAggregationStats());
+        }
+        
+        if (plugin.getEnvironmentCollector() != null) {
+            performance.put("environmentSnapshots", plugin.getEnvironmentCollector().getSnapshotStats());
+        }
+        
+        if (plugin.getAIService() != null) {
+            performance.put("requestCoalescing", plugin.getAIService().getCoalescingStats());
+            performance.put("responseCache", plugin.getAIService().getResponseCacheStats());
+            performance.put("keyPool", plugin.getAIService().getKeyPoolStats());
+            performance.put("providers", plugin.getAIService().getProviderStats());
+            performance.put("concurrencyLimiter", plugin.getAIService().getConcurrencyLimiterStats());
         }
         
         if (plugin.getHardwareMonitor() != null) {
@@ -241,6 +287,18 @@ public class StatusController extends HttpServlet {
         return system;
     }
     
+    /**
+     * 获取API密钥池状态（密钥已脱敏）
+     */
+    public Map<String, Object> getKeyPoolStatus() {
+        if (plugin.getAIService() == null) {
+            Map<String, Object> status = new HashMap<>();
+            status.put("error", "AI服务未初始化");
+            return status;
+        }
+        return plugin.getAIService().getKeyPoolStats();
+    }
+    
     /**
      * 获取内存详细信息
      */